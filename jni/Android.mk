@@ -17,7 +17,7 @@ LOCAL_PATH := $(call my-dir)
 include $(CLEAR_VARS)
 
 LOCAL_MODULE    := audioBenchmark
-LOCAL_SRC_FILES := audio-bench-native.c
+LOCAL_SRC_FILES := audio-bench-native.c analyser.c siggen.c capture.c glitch.c dspload.c trace.c metrics.c wakeup.c steady.c cputime.c bufpool.c
 # for native audio
 LOCAL_LDLIBS    += -lOpenSLES
 # for logging
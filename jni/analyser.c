@@ -0,0 +1,199 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#include <analyser.h>
+
+#include <stdlib.h>
+#include <string.h>
+#include <math.h>
+#include <time.h>
+
+/*
+ * state bits: front buffer index, reader busy, index the reader is busy with
+ * the audio thread never waits: if the reader still copies the buffer which would
+ * be written next, the snapshot of this block is skipped
+ */
+#define AN_FRONT 1
+#define AN_BUSY 2
+#define AN_BUSY_INDEX 4
+
+static int64_t an_now() {
+	struct timespec stamp;
+	clock_gettime(CLOCK_MONOTONIC, &stamp);
+	return (int64_t) stamp.tv_sec*1000000000LL + stamp.tv_nsec;
+}
+
+int analyser_init(analyser* an, unsigned fftSize) {
+	unsigned i, bits = 0;
+	double windowSum = 0.0;
+
+	if(fftSize < 2 || (fftSize & (fftSize-1)) != 0) return -1;
+	memset(an, 0, sizeof(analyser));
+	an->fftSize = fftSize;
+	while((1u << bits) < fftSize) bits++;
+
+	an->bitReverse = calloc(fftSize, sizeof(unsigned));
+	an->cosTable = calloc(fftSize/2, sizeof(float));
+	an->sinTable = calloc(fftSize/2, sizeof(float));
+	an->window = calloc(fftSize, sizeof(float));
+	an->history = calloc(fftSize, sizeof(float));
+	an->re = calloc(fftSize, sizeof(float));
+	an->im = calloc(fftSize, sizeof(float));
+	an->snapshots[0].magnitudesDb = calloc(fftSize/2, sizeof(float));
+	an->snapshots[1].magnitudesDb = calloc(fftSize/2, sizeof(float));
+
+	for(i=0; i<fftSize; i++) {
+		unsigned r = 0, b, v = i;
+		for(b=0; b<bits; b++) {
+			r = (r << 1) | (v & 1);
+			v >>= 1;
+		}
+		an->bitReverse[i] = r;
+
+		//Hann window
+		an->window[i] = (float)(0.5 - 0.5*cos(2*M_PI*i/(fftSize-1)));
+		windowSum += an->window[i];
+	}
+	for(i=0; i<fftSize/2; i++) {
+		an->cosTable[i] = (float)cos(2*M_PI*i/fftSize);
+		an->sinTable[i] = (float)-sin(2*M_PI*i/fftSize);
+	}
+	an->dbOffset = (float)(20*log10(windowSum/2));
+	return 0;
+}
+
+/*
+ * Iterative radix-2 FFT in place
+ */
+static void an_fft(analyser* an) {
+	unsigned i, size, start, k, n = an->fftSize;
+	float* re = an->re;
+	float* im = an->im;
+
+	for(i=0; i<n; i++) {
+		unsigned j = an->bitReverse[i];
+		if(j > i) {
+			float t = re[i]; re[i] = re[j]; re[j] = t;
+			t = im[i]; im[i] = im[j]; im[j] = t;
+		}
+	}
+	for(size=2; size<=n; size<<=1) {
+		unsigned half = size >> 1;
+		unsigned step = n / size;
+		for(start=0; start<n; start+=size) {
+			for(k=0; k<half; k++) {
+				float wr = an->cosTable[k*step];
+				float wi = an->sinTable[k*step];
+				unsigned a = start + k;
+				unsigned b = a + half;
+				float tr = re[b]*wr - im[b]*wi;
+				float ti = re[b]*wi + im[b]*wr;
+				re[b] = re[a] - tr;
+				im[b] = im[a] - ti;
+				re[a] += tr;
+				im[a] += ti;
+			}
+		}
+	}
+}
+
+void analyser_process(analyser* an, const short* data, unsigned len) {
+	int64_t start = an_now();
+	unsigned i, mask = an->fftSize-1;
+	int64_t sumSq = 0;
+	int peak = 0;
+	int st = __atomic_load_n(&an->state, __ATOMIC_ACQUIRE);
+	int back = (st & AN_FRONT) ^ 1;
+
+	//levels, the history has to be updated in any case
+	for(i=0; i<len; i++) {
+		int s = data[i];
+		int abs = s < 0 ? -s : s;
+		sumSq += s*s;
+		if(abs > peak) peak = abs;
+		an->history[an->historyPos] = s / 32768.0f;
+		an->historyPos = (an->historyPos+1) & mask;
+	}
+
+	an->blocks++;
+	if((st & AN_BUSY) && ((st & AN_BUSY_INDEX) >> 2) == back) {
+		an->skipped++;
+		return;
+	}
+
+	anSnapshot* snap = &an->snapshots[back];
+	snap->blockIndex = an->blocks;
+	snap->rms = len > 0 ? (float)(sqrt((double)sumSq/len) / 32768.0) : 0.0f;
+	snap->peak = peak / 32768.0f;
+	snap->crestFactor = snap->rms > 0.0f ? snap->peak/snap->rms : 0.0f;
+
+	//spectrum of the last fftSize samples, oldest sample first
+	for(i=0; i<an->fftSize; i++) {
+		an->re[i] = an->history[(an->historyPos+i) & mask] * an->window[i];
+		an->im[i] = 0.0f;
+	}
+	an_fft(an);
+	for(i=0; i<an->fftSize/2; i++) {
+		float power = an->re[i]*an->re[i] + an->im[i]*an->im[i];
+		snap->magnitudesDb[i] = power > 1e-20f ? 10.0f*log10f(power) - an->dbOffset : -200.0f;
+	}
+
+	int64_t ns = an_now() - start;
+	an->totalNs += ns;
+	if(ns > an->maxNs) an->maxNs = ns;
+	snap->processNs = ns;
+	snap->maxProcessNs = an->maxNs;
+	snap->avgProcessNs = (float)an->totalNs / (an->blocks - an->skipped);
+
+	//publish, the busy bits of the reader are kept
+	do {
+		st = __atomic_load_n(&an->state, __ATOMIC_ACQUIRE);
+	} while(!__atomic_compare_exchange_n(&an->state, &st, (st & ~AN_FRONT) | back,
+			0, __ATOMIC_ACQ_REL, __ATOMIC_ACQUIRE));
+}
+
+int analyser_poll(analyser* an, anSnapshot* dst) {
+	int st, front;
+	do {
+		st = __atomic_load_n(&an->state, __ATOMIC_ACQUIRE);
+		front = st & AN_FRONT;
+	} while(!__atomic_compare_exchange_n(&an->state, &st, front | AN_BUSY | (front << 2),
+			0, __ATOMIC_ACQ_REL, __ATOMIC_ACQUIRE));
+
+	anSnapshot* src = &an->snapshots[front];
+	float* magnitudes = dst->magnitudesDb;
+	*dst = *src;
+	dst->magnitudesDb = magnitudes;
+	memcpy(dst->magnitudesDb, src->magnitudesDb, an->fftSize/2 * sizeof(float));
+
+	do {
+		st = __atomic_load_n(&an->state, __ATOMIC_ACQUIRE);
+	} while(!__atomic_compare_exchange_n(&an->state, &st, st & AN_FRONT,
+			0, __ATOMIC_ACQ_REL, __ATOMIC_ACQUIRE));
+	return dst->blockIndex > 0;
+}
+
+void analyser_destroy(analyser* an) {
+	free(an->bitReverse);
+	free(an->cosTable);
+	free(an->sinTable);
+	free(an->window);
+	free(an->history);
+	free(an->re);
+	free(an->im);
+	free(an->snapshots[0].magnitudesDb);
+	free(an->snapshots[1].magnitudesDb);
+	memset(an, 0, sizeof(analyser));
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef ANALYSER_H
+#define ANALYSER_H
+
+#include <stdint.h>
+
+/*
+ * Result of one analysed block
+ */
+typedef struct analyserSnapshot {
+	int64_t blockIndex;
+	float rms; //relative to full scale
+	float peak; //relative to full scale
+	float crestFactor;
+	int64_t processNs;
+	int64_t maxProcessNs;
+	float avgProcessNs;
+	float* magnitudesDb; //fftSize/2 bins
+} anSnapshot;
+
+/*
+ * Level and spectrum analyser, all memory is allocated in analyser_init().
+ * Snapshots are published in a lock-free double buffer (see analyser.c).
+ */
+typedef struct analyser {
+	unsigned fftSize;
+	unsigned* bitReverse;
+	float* cosTable;
+	float* sinTable;
+	float* window;
+	float* history;
+	float* re;
+	float* im;
+	float dbOffset;
+	unsigned historyPos;
+
+	anSnapshot snapshots[2];
+	volatile int state; //front index, reader busy flag and index
+
+	int64_t blocks;
+	int64_t skipped;
+	int64_t totalNs;
+	int64_t maxNs;
+} analyser;
+
+/**
+ * @return 0 on success
+ */
+int analyser_init(analyser* an, unsigned fftSize);
+
+/**
+ * Analyse a block, to be called from the audio callback
+ */
+void analyser_process(analyser* an, const short* data, unsigned len);
+
+/**
+ * Copy the latest snapshot, magnitudesDb of dst must hold fftSize/2 values
+ * @return 0 if nothing has been analysed yet
+ */
+int analyser_poll(analyser* an, anSnapshot* dst);
+
+void analyser_destroy(analyser* an);
+
+#endif
@@ -32,18 +32,26 @@ static unsigned sampleRateInHz;
 static int sampleRateinmHz; //Open SL uses mHz
 static const char LOG_TAG[] = "audio-bench-native.c";
 
-//Sine wave
-#define SIN_BUFFER_SAMPLES 256
-static short sineBuffer[SIN_BUFFER_SAMPLES];
+//Signal generator for test tones
+static sigGen toneGen;
 
 //Impulses
 static int numTests;
 static int padding = 0;
 static unsigned basePadding;
 static unsigned impRec;
-static int* lResults;
-static int* lResultsNorm;
+static int64_t* lResults;		//in ns
+static int64_t* lResultsNorm;	//in ns
+static int* lResultsFrame;		//position of the detected impulse within the recorded buffer
+static int resultsReady = 0; //set (release) when the last test has finished, read with acquire
+static unsigned resultsCapacity;	//numTests and the results held back for the warm-up detection
+
+//warm-up detection, the results before the steady state are not counted
+static steadyDetector warmupDetector;
+static int warmupWindow = 0;
+static int maxWarmupResults = 0;
 static int64_t timeStamp;
+static int impulsePending = 0; //emitted but not yet detected
 
 //threshold for impulse recognition, will be set on creation to selection
 static short imp_threshold = SHRT_MAX;
@@ -82,8 +90,48 @@ static dBuf* outBuffer;
 static jboolean initLoop;
 static jboolean initTest;
 
+//level and spectrum analyser for the loopback
+#define ANALYSER_FFT_SIZE 1024
+static analyser loopAnalyser;
+static anSnapshot analyserPollSnapshot;
+
+//optional capture of the recorded and played streams
+#define CAPTURE_RING_BYTES (1 << 20)
+static capRing captureIn;
+static capRing captureOut;
+
+//stream positions for the clock drift estimation
+static streamPos recPos;
+static streamPos playPos;
+
+//discontinuity detection of the glitch test
+static glitchDetector glitchDet;
+
+//synthetic processing load of the loop
+static dspLoad loopLoad;
+
+//zero-copy loop: the recorded buffers are enqueued to the player, no copy
+#define LOOP_POOL_BUFFERS 4
+static jboolean loopZeroCopy = JNI_FALSE;
+static bufPool loopPool;
+static bufFifo recFifo;		//pool buffers in the recorder queue
+static bufFifo playFifo;	//pool buffers in the player queue
+static int64_t poolStamps[BUFPOOL_MAX];	//hand-off time per pool buffer, 0: none
+static int64_t copyStamps[2];	//hand-off time per half of outBuffer in the copy loop
+static loopHandoff handoffStats;
+//incremented by a reset, starts at 1 so the zeroed writers start a new epoch
+static int64_t handoffEpoch = 1;
+
+//trace events of the callbacks, one ring per callback
+#define TRACE_RING_EVENTS (1 << 14)
+static traceRing tracePlayer;
+static traceRing traceRecorder;
+
+//native copy of a block for the JNI transfer benchmark
+static short* transferScratch = NULL;
+static int transferScratchLen = 0;
+
 //forward declaration needed
-static void Java_zee_audiobenchmark_FragmentOpenSL_initSineWaveBuffer();
 static void Java_zee_audiobenchmark_logFormatedResult();
 
 /**
@@ -159,17 +207,97 @@ static int64_t getNsTimestamp() {
 	return nsec;
 }
 
+/*
+ * Player callback: a loop buffer was released, stamp 0 if it was not handed off
+ */
+static void loopStats_handoff(int64_t stamp) {
+	int64_t epoch = __atomic_load_n(&handoffEpoch, __ATOMIC_ACQUIRE);
+	if(handoffStats.playerEpoch != epoch) {
+		__atomic_store_n(&handoffStats.handoffs, 0, __ATOMIC_RELAXED);
+		__atomic_store_n(&handoffStats.sumNs, 0, __ATOMIC_RELAXED);
+		__atomic_store_n(&handoffStats.maxNs, 0, __ATOMIC_RELAXED);
+		__atomic_store_n(&handoffStats.playerEpoch, epoch, __ATOMIC_RELEASE);
+	}
+	if(stamp == 0) return;
+	int64_t ns = getNsTimestamp() - stamp;
+	__atomic_store_n(&handoffStats.handoffs, handoffStats.handoffs + 1, __ATOMIC_RELAXED);
+	__atomic_store_n(&handoffStats.sumNs, handoffStats.sumNs + ns, __ATOMIC_RELAXED);
+	if(ns > handoffStats.maxNs) __atomic_store_n(&handoffStats.maxNs, ns, __ATOMIC_RELAXED);
+}
+
+/*
+ * Recorder callback: a recorded loop buffer was passed on or dropped
+ */
+static void loopStats_recorded(int dropped) {
+	int64_t epoch = __atomic_load_n(&handoffEpoch, __ATOMIC_ACQUIRE);
+	if(handoffStats.recorderEpoch != epoch) {
+		__atomic_store_n(&handoffStats.drops, 0, __ATOMIC_RELAXED);
+		__atomic_store_n(&handoffStats.recorderEpoch, epoch, __ATOMIC_RELEASE);
+	}
+	if(dropped) __atomic_store_n(&handoffStats.drops, handoffStats.drops + 1, __ATOMIC_RELAXED);
+}
+
+/*
+ * Half of outBuffer a play buffer of the copy loop belongs to
+ */
+static inline int copyHalf(short* buffer) {
+	return buffer == outBuffer->data ? 0 : 1;
+}
+
+/*
+ * Functions to handle the stream positions
+ */
+static void streamPos_reset(streamPos* pos) {
+	pos->seq = 0;
+	pos->stamp = 0;
+	pos->frames = 0;
+}
+
+/*
+ * Called from the callbacks, timestamp is taken on completion of a buffer
+ */
+static inline void streamPos_advance(streamPos* pos, unsigned frames) {
+	pos->seq++;
+	__sync_synchronize();
+	pos->stamp = getNsTimestamp();
+	pos->frames += frames;
+	__sync_synchronize();
+	pos->seq++;
+}
+
+/*
+ * Consistent read of both values, retries while the callback is writing
+ */
+static void streamPos_read(streamPos* pos, int64_t* stamp, int64_t* frames) {
+	unsigned seq;
+	do {
+		seq = pos->seq;
+		__sync_synchronize();
+		*stamp = pos->stamp;
+		*frames = pos->frames;
+		__sync_synchronize();
+	} while((seq & 1) || seq != pos->seq);
+}//end: stream position helping functions
+
 /*
  * normalizes a timing result to the maximum
  * dependend on the buffer position (worst-case simulation)
+ * @params: val result in ns, frame position of the impulse in the recorded buffer
  */
-static int normalizeResult(int val, int pos) {
-	//calculate time for a buffersize of size pos
+static int64_t normalizeResult(int64_t val, int frame) {
+	//calculate time for a buffersize of size frame
 	//this simulates that the impulse was received at position 0
-	int elapsed = (pos) / (sampleRateInHz/1000); //in ms
+	int64_t elapsed = (int64_t)frame * 1000000000LL / sampleRateInHz; //in ns
 	return (val + elapsed);
 }
 
+/*
+ * Index of the first steady result, 0 if undecided or disabled
+ */
+static unsigned firstSteadyResult() {
+	return warmupDetector.steady ? warmupDetector.warmup : 0;
+}
+
 /*
  * Stop recording and playback, clear for next task
  */
@@ -194,14 +322,125 @@ static void stopEngine() {
 }
 
 /*
- * May be used for reading results from Java classes
- * (not yet implemented)
+ * Sample rate the engine was created with, unsupported rates fall back to 44.1kHz
  */
-int Java_zee_audiobenchmark_FragmentOpenSL_getNumResults() {
-	return -1;
+int Java_zee_audiobenchmark_FragmentOpenSL_getSampleRate(JNIEnv* env, jclass clazz) {
+	return sampleRateInHz;
 }
-int Java_zee_audiobenchmark_FragmentOpenSL_getNextResult() {
-	return -1;
+
+/*
+ * Number of results of the last finished latency test,
+ * -1 while a test is running or if no test has been run
+ */
+int Java_zee_audiobenchmark_FragmentOpenSL_getNumResults(JNIEnv* env, jclass clazz) {
+	if(!__atomic_load_n(&resultsReady, __ATOMIC_ACQUIRE) || lResults == null_ptr) return -1;
+	return impRec - firstSteadyResult();
+}
+
+/*
+ * Sets the steady state detection of the following latency tests
+ * @params window: results per compared window, 0 disables the detection,
+ * maxWarmup: results after which nothing is discarded
+ */
+void Java_zee_audiobenchmark_FragmentOpenSL_setWarmup(JNIEnv* env, jclass clazz, int window, int maxWarmup) {
+	warmupWindow = window;
+	maxWarmupResults = maxWarmup > 0 ? maxWarmup : 0;
+}
+
+/*
+ * Copies the latencies in ns discarded as warm-up by the last finished test,
+ * the array needs at least as many elements as returned
+ * @return: number of warm-up results, -1 if no steady state was detected
+ * or the detection is disabled
+ */
+int Java_zee_audiobenchmark_FragmentOpenSL_getWarmup(JNIEnv* env, jclass clazz, jlongArray ns) {
+	if(!__atomic_load_n(&resultsReady, __ATOMIC_ACQUIRE) || lResults == null_ptr || !warmupDetector.reached) return -1;
+	int n = warmupDetector.warmup;
+	if((*env)->GetArrayLength(env, ns) < n) return n;
+	(*env)->SetLongArrayRegion(env, ns, 0, n, (jlong*)lResults);
+	return n;
+}
+
+/*
+ * Starts a new measurement of the CPU time of the callback threads
+ */
+void Java_zee_audiobenchmark_FragmentOpenSL_resetCpuTime(JNIEnv* env, jclass clazz) {
+	cputime_reset();
+}
+
+/*
+ * CPU time of the callback threads since the last reset
+ * @params values: 2*CPUTIME_VALUES elements, player then recorder:
+ * thread ns, frames
+ */
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_getCpuTime(JNIEnv* env, jclass clazz, jlongArray values) {
+	int64_t v[2*CPUTIME_VALUES];
+	if((*env)->GetArrayLength(env, values) < 2*CPUTIME_VALUES) return JNI_FALSE;
+	cputime_read(&cpuPlayer, v);
+	cputime_read(&cpuRecorder, v + CPUTIME_VALUES);
+	(*env)->SetLongArrayRegion(env, values, 0, 2*CPUTIME_VALUES, (jlong*)v);
+	return JNI_TRUE;
+}
+
+/*
+ * Selects the hand-off of the next loop, applied by nLoopback
+ */
+void Java_zee_audiobenchmark_FragmentOpenSL_setLoopZeroCopy(JNIEnv* env, jclass clazz, jboolean zeroCopy) {
+	loopZeroCopy = zeroCopy;
+}
+
+/*
+ * Starts a new measurement of the loop hand-off
+ */
+void Java_zee_audiobenchmark_FragmentOpenSL_resetLoopStats(JNIEnv* env, jclass clazz) {
+	__atomic_add_fetch(&handoffEpoch, 1, __ATOMIC_ACQ_REL);
+}
+
+/*
+ * Hand-off of the loop since the last reset
+ * @params values: LOOP_STATS_VALUES elements, hand-offs, sum ns, max ns, drops
+ */
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_getLoopStats(JNIEnv* env, jclass clazz, jlongArray values) {
+	int64_t v[LOOP_STATS_VALUES] = {0, 0, 0, 0};
+	if((*env)->GetArrayLength(env, values) < LOOP_STATS_VALUES) return JNI_FALSE;
+	int64_t epoch = __atomic_load_n(&handoffEpoch, __ATOMIC_ACQUIRE);
+	if(__atomic_load_n(&handoffStats.playerEpoch, __ATOMIC_ACQUIRE) == epoch) {
+		v[0] = __atomic_load_n(&handoffStats.handoffs, __ATOMIC_RELAXED);
+		v[1] = __atomic_load_n(&handoffStats.sumNs, __ATOMIC_RELAXED);
+		v[2] = __atomic_load_n(&handoffStats.maxNs, __ATOMIC_RELAXED);
+	}
+	if(__atomic_load_n(&handoffStats.recorderEpoch, __ATOMIC_ACQUIRE) == epoch) {
+		v[3] = __atomic_load_n(&handoffStats.drops, __ATOMIC_RELAXED);
+	}
+	(*env)->SetLongArrayRegion(env, values, 0, LOOP_STATS_VALUES, (jlong*)v);
+	return JNI_TRUE;
+}
+
+/*
+ * Sets the threshold for the impulse recognition,
+ * either calibrated or derived from the selection
+ */
+void Java_zee_audiobenchmark_FragmentOpenSL_setThreshold(JNIEnv* env, jclass clazz, int threshold) {
+	if(threshold > 0 && threshold <= SHRT_MAX) imp_threshold = (short)threshold;
+}
+
+/*
+ * Copies the results of the last finished latency test,
+ * the arrays need at least getNumResults() elements
+ * @params: ns latency in ns, normalizedNs latency normalized to the buffer start in ns,
+ * frames position of the detection within the recorded buffer
+ * @return: number of copied results, -1 if none are available
+ */
+int Java_zee_audiobenchmark_FragmentOpenSL_getResults(JNIEnv* env, jclass clazz, jlongArray ns, jlongArray normalizedNs, jintArray frames) {
+	if(!__atomic_load_n(&resultsReady, __ATOMIC_ACQUIRE) || lResults == null_ptr) return -1;
+	unsigned first = firstSteadyResult();
+	int n = impRec - first;
+	if((*env)->GetArrayLength(env, ns) < n || (*env)->GetArrayLength(env, normalizedNs) < n
+			|| (*env)->GetArrayLength(env, frames) < n) return -1;
+	(*env)->SetLongArrayRegion(env, ns, 0, n, (jlong*)(lResults + first));
+	(*env)->SetLongArrayRegion(env, normalizedNs, 0, n, (jlong*)(lResultsNorm + first));
+	(*env)->SetIntArrayRegion(env, frames, 0, n, (jint*)(lResultsFrame + first));
+	return n;
 }
 
 /*
@@ -214,7 +453,7 @@ void Java_zee_audiobenchmark_FragmentOpenSL_createEngine(JNIEnv* env, jobject ob
 
 	//adjust local values to given parameters
 	bufferSize = bSize;
-	sampleRateInHz = 44100; //sRate;
+	sampleRateInHz = sRate;
 	imp_threshold = SHRT_MAX / thresholdDivider;
 	switch(sRate) {
 	case 44100:
@@ -232,6 +471,7 @@ void Java_zee_audiobenchmark_FragmentOpenSL_createEngine(JNIEnv* env, jobject ob
 	default:
 		__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "Unsupported sample rate requested, defaulting to 44.1kHz");
 		sampleRateinmHz = SL_SAMPLINGRATE_44_1;
+		sampleRateInHz = 44100;
 		break;
 	}
 
@@ -244,7 +484,18 @@ void Java_zee_audiobenchmark_FragmentOpenSL_createEngine(JNIEnv* env, jobject ob
 
 	dBuf_init(inBuffer, bufferSize);
 	dBuf_init(outBuffer, bufferSize);
-	Java_zee_audiobenchmark_FragmentOpenSL_initSineWaveBuffer();
+	siggen_init(&toneGen, sampleRateInHz);
+
+	analyser_init(&loopAnalyser, ANALYSER_FFT_SIZE);
+	dspload_init(&loopLoad, sampleRateInHz, bufferSize);
+	if(bufPool_init(&loopPool, LOOP_POOL_BUFFERS, bufferSize) != 0) {
+		__android_log_print(ANDROID_LOG_ERROR, LOG_TAG, "Buffer pool of the zero-copy loop not allocated");
+	}
+	capRing_init(&captureIn, CAPTURE_RING_BYTES);
+	capRing_init(&captureOut, CAPTURE_RING_BYTES);
+	traceRing_init(&tracePlayer, TRACE_RING_EVENTS);
+	traceRing_init(&traceRecorder, TRACE_RING_EVENTS);
+	analyserPollSnapshot.magnitudesDb = calloc(ANALYSER_FFT_SIZE/2, sizeof(float));
 
 	//init Open SL engine
 	SLresult result;
@@ -275,11 +526,29 @@ void Java_zee_audiobenchmark_FragmentOpenSL_createEngine(JNIEnv* env, jobject ob
 	(void)result;
 }
 
+/*
+ * Enqueue of the callbacks, traced as a span in the ring of the calling callback.
+ * Failures are counted in the metrics.
+ */
+static inline SLresult tracedEnqueue(traceRing* ring, int name, SLAndroidSimpleBufferQueueItf queue, void* buffer, SLuint32 size) {
+	int64_t start = trace_begin(ring);
+	SLresult result = (*queue)->Enqueue(queue, buffer, size);
+	trace_end(ring, name, start);
+	if(result != SL_RESULT_SUCCESS) {
+		metrics_inc(name == trace_playerEnqueue ? metric_playerEnqueueFailures : metric_recorderEnqueueFailures);
+	}
+	return result;
+}
+
 // this callback handler is called every time a buffer finishes playing
 void bqPlayerCallback(SLAndroidSimpleBufferQueueItf bq, void *context) {
 	assert(bq == bqPlayerBufferQueue);
 	assert(NULL == context);
 	SLresult result;
+	int played;
+	int64_t traceStart = trace_begin(&tracePlayer);
+	cputime_begin(&cpuPlayer);
+	metrics_inc(metric_playerCallbacks);
 
 	switch(state) {
 	case latencyTest:
@@ -290,12 +559,13 @@ void bqPlayerCallback(SLAndroidSimpleBufferQueueItf bq, void *context) {
 			nextPlayBuffer[0] = 0; //clear impulse if set
 
 			//enqueue for playback
-			result = (*bqPlayerBufferQueue)->Enqueue(bqPlayerBufferQueue, nextPlayBuffer, nextPlaySize);
+			result = tracedEnqueue(&tracePlayer, trace_playerEnqueue, bqPlayerBufferQueue, nextPlayBuffer, nextPlaySize);
 			assert(SL_RESULT_SUCCESS == result);
 			(void)result;
+			capRing_write(&captureOut, nextPlayBuffer, outBuffer->n);
 		}
 		else {
-			if (nextCount-- > 0) {
+			if (__atomic_fetch_sub(&nextCount, 1, __ATOMIC_ACQ_REL) > 0) {
 				//set next playback buffer
 				nextPlaySize = dBuf_size(outBuffer);
 				nextPlayBuffer = dBuf_getNextRead(outBuffer);
@@ -305,11 +575,15 @@ void bqPlayerCallback(SLAndroidSimpleBufferQueueItf bq, void *context) {
 
 				//measurement start time
 				timeStamp = getNsTimestamp();
+				trace_instant(&tracePlayer, trace_impulseEmit);
+				metrics_inc(metric_impulsesEmitted);
+				if(__atomic_exchange_n(&impulsePending, 1, __ATOMIC_ACQ_REL)) metrics_inc(metric_impulsesMissed);
 
 				//enqueue for playback
-				result = (*bqPlayerBufferQueue)->Enqueue(bqPlayerBufferQueue, nextPlayBuffer, nextPlaySize);
+				result = tracedEnqueue(&tracePlayer, trace_playerEnqueue, bqPlayerBufferQueue, nextPlayBuffer, nextPlaySize);
 				assert(SL_RESULT_SUCCESS == result);
 				(void)result;
+				capRing_write(&captureOut, nextPlayBuffer, outBuffer->n);
 
 				// reset padding
 				padding = basePadding;
@@ -319,29 +593,57 @@ void bqPlayerCallback(SLAndroidSimpleBufferQueueItf bq, void *context) {
 				Java_zee_audiobenchmark_logFormatedResult();
 				//test output done
 				stopEngine();
-				free(lResults);
-				free(lResultsNorm);
-				lResults = null_ptr;
-				lResultsNorm = null_ptr;
+				//the results are kept for getResults() until the next test
+				__atomic_store_n(&resultsReady, 1, __ATOMIC_RELEASE);
 				state = init;
 			}
 		}
 		break;
 	case loop:
+		streamPos_advance(&playPos, outBuffer->n);
+		//the finished buffer is the one enqueued last, a single buffer is queued
+		loopStats_handoff(__atomic_exchange_n(&copyStamps[copyHalf(nextPlayBuffer)], 0, __ATOMIC_ACQ_REL));
+
 		//set next playback buffer
 		nextPlaySize = dBuf_size(outBuffer);
 		nextPlayBuffer = dBuf_getNextRead(outBuffer);
 
 		//enqueue for playback
-		result = (*bqPlayerBufferQueue)->Enqueue(bqPlayerBufferQueue, nextPlayBuffer, nextPlaySize);
+		result = tracedEnqueue(&tracePlayer, trace_playerEnqueue, bqPlayerBufferQueue, nextPlayBuffer, nextPlaySize);
+		assert(SL_RESULT_SUCCESS == result);
+		(void)result;
+		break;
+	case zeroCopyLoop:
+		streamPos_advance(&playPos, loopPool.n);
+		//the finished buffer returns to the pool, the recorder enqueues the next ones
+		played = bufFifo_pop(&playFifo);
+		if(played >= 0) {
+			loopStats_handoff(__atomic_exchange_n(&poolStamps[played], 0, __ATOMIC_ACQ_REL));
+			bufPool_put(&loopPool, played);
+		}
+		break;
+	case glitchTest:
+		//the sine is rendered just in time, the recorder checks the received stream
+		nextPlaySize = dBuf_size(outBuffer);
+		nextPlayBuffer = dBuf_getNextRead(outBuffer);
+		siggen_render(&toneGen, nextPlayBuffer, outBuffer->n);
+
+		result = tracedEnqueue(&tracePlayer, trace_playerEnqueue, bqPlayerBufferQueue, nextPlayBuffer, nextPlaySize);
 		assert(SL_RESULT_SUCCESS == result);
 		(void)result;
+		capRing_write(&captureOut, nextPlayBuffer, outBuffer->n);
 		break;
-	case sineWave:
+	case signalPlayback:
 		if (--nextCount > 0) {
-			result = (*bqPlayerBufferQueue)->Enqueue(bqPlayerBufferQueue, nextPlayBuffer, nextPlaySize);
+			//render the next block of the generator into the free buffer half
+			nextPlaySize = dBuf_size(outBuffer);
+			nextPlayBuffer = dBuf_getNextRead(outBuffer);
+			siggen_render(&toneGen, nextPlayBuffer, outBuffer->n);
+
+			result = tracedEnqueue(&tracePlayer, trace_playerEnqueue, bqPlayerBufferQueue, nextPlayBuffer, nextPlaySize);
 			assert(SL_RESULT_SUCCESS == result);
 			(void)result;
+			capRing_write(&captureOut, nextPlayBuffer, outBuffer->n);
 		} else {
 			stopEngine();
 			state = init;
@@ -356,6 +658,8 @@ void bqPlayerCallback(SLAndroidSimpleBufferQueueItf bq, void *context) {
 		state = init;
 		break;
 	}
+	cputime_end(&cpuPlayer, bufferSize);
+	trace_end(&tracePlayer, trace_playerCallback, traceStart);
 }
 
 // this callback handler is called every time a buffer finishes recording
@@ -367,6 +671,12 @@ void bqRecorderCallback(SLAndroidSimpleBufferQueueItf bq, void *context) {
 	unsigned i;
 	short* recordedHalf;
 	short* processingHalf;
+	int recorded, next;
+	SLuint32 poolSize = loopPool.n * sizeof(short);
+	int64_t traceStart = trace_begin(&traceRecorder);
+	cputime_begin(&cpuRecorder);
+	metrics_inc(metric_recorderCallbacks);
+	metrics_recorderInterval(getNsTimestamp());
 
 	switch(state) {
 	case latencyTest:
@@ -376,21 +686,38 @@ void bqRecorderCallback(SLAndroidSimpleBufferQueueItf bq, void *context) {
 		//check buffer for impulse
 		for(i=0;i<inBuffer->n;i++) {
 			if(recordedHalf[i] > imp_threshold) {
-				if(impRec < numTests) {
+				//until the decision every result feeds the detector, then numTests steady ones are kept
+				if(impRec < resultsCapacity && (!warmupDetector.steady || (int)impRec - (int)firstSteadyResult() < numTests)) {
 					int64_t now = getNsTimestamp();
-					int lResult = (int)((now - timeStamp)/1000000);
+					trace_instant(&traceRecorder, trace_impulseDetect);
+					metrics_inc(metric_impulsesDetected);
+					__atomic_store_n(&impulsePending, 0, __ATOMIC_RELEASE);
+					int64_t lResult = now - timeStamp;
 					lResults[impRec] = lResult;
 					lResultsNorm[impRec] = normalizeResult(lResult, i);
-					__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "rec impulse, time: %d ms; normalized: %d", lResults[impRec], lResultsNorm[impRec]);
+					lResultsFrame[impRec] = i;
+					__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "rec impulse, time: %.3f ms; normalized: %.3f ms; frame: %u", 
+							lResults[impRec]/1e6, lResultsNorm[impRec]/1e6, i);
 					impRec++;
+					if(!warmupDetector.steady && steady_add(&warmupDetector, (double)lResult)) {
+						//only the emissions for the warm-up are added to numTests
+						__atomic_sub_fetch(&nextCount, steady_capacity(&warmupDetector) - warmupDetector.warmup, __ATOMIC_ACQ_REL);
+						if(warmupDetector.reached) {
+							__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "Steady after %d results", warmupDetector.warmup);
+						} else {
+							__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "No steady state after %d results", impRec);
+						}
+					}
 					break;
 				}
 			}
 		}
+		capRing_write(&captureIn, recordedHalf, inBuffer->n);
+
 		//switch to next recording buffer
 		nextRecBuffer = dBuf_getNextWrite(inBuffer);
 		nextRecSize = dBuf_size(inBuffer);
-		result = (*recorderBufferQueue)->Enqueue(recorderBufferQueue, nextRecBuffer, nextRecSize);
+		result = tracedEnqueue(&traceRecorder, trace_recorderEnqueue, recorderBufferQueue, nextRecBuffer, nextRecSize);
 
 		if(initTest) {
 			//We start with an empty buffer, the impulse will be enqueued in callback after padding
@@ -399,30 +726,36 @@ void bqRecorderCallback(SLAndroidSimpleBufferQueueItf bq, void *context) {
 			nextPlayBuffer = dBuf_getNextRead(outBuffer);
 
 			//enqueue for playback
-			result = (*bqPlayerBufferQueue)->Enqueue(bqPlayerBufferQueue, nextPlayBuffer, nextPlaySize);
+			result = tracedEnqueue(&traceRecorder, trace_playerEnqueue, bqPlayerBufferQueue, nextPlayBuffer, nextPlaySize);
 			assert(SL_RESULT_SUCCESS == result);
 			(void)result;
+			capRing_write(&captureOut, nextPlayBuffer, outBuffer->n);
 			nextPlaySize = dBuf_size(outBuffer);
 			nextPlayBuffer = dBuf_getNextRead(outBuffer);
 			initTest = JNI_FALSE;
 		}
 		break;
 	case loop:
+		streamPos_advance(&recPos, inBuffer->n);
+
 		//Recording on one bufferhalf has finished, copy data to outBuffer
 		recordedHalf = dBuf_getNextRead(inBuffer);	//pos of the finished data in the recording buffer
 
 		processingHalf = dBuf_getNextWrite(outBuffer);		//pos in outBuffer for playback
 		for(i=0;i<inBuffer->n;i++) {
-			//normally, here would be the processing part.
-			//since we do none, its simply copying
 			nextPlayBuffer[i] = recordedHalf[i];
 		}
+		//the processing part, a synthetic load to measure the headroom of the callback
+		dspload_process(&loopLoad, nextPlayBuffer, inBuffer->n, getNsTimestamp());
+		__atomic_store_n(&copyStamps[copyHalf(nextPlayBuffer)], getNsTimestamp(), __ATOMIC_RELEASE);
+		loopStats_recorded(0);
+		capRing_write(&captureIn, recordedHalf, inBuffer->n);
+		capRing_write(&captureOut, nextPlayBuffer, inBuffer->n);
 
 		//switch to next recording buffer
 		nextRecBuffer = dBuf_getNextWrite(inBuffer);
 		nextRecSize = dBuf_size(inBuffer);
-		result = (*recorderBufferQueue)->Enqueue(recorderBufferQueue, nextRecBuffer,
-				nextRecSize);
+		result = tracedEnqueue(&traceRecorder, trace_recorderEnqueue, recorderBufferQueue, nextRecBuffer, nextRecSize);
 
 		//init playback if not done yet
 		if(initLoop) {
@@ -432,12 +765,66 @@ void bqRecorderCallback(SLAndroidSimpleBufferQueueItf bq, void *context) {
 			(void)result;
 			initLoop = JNI_FALSE;
 		}
+
+		//both queues are served, analysis does not delay the loop
+		analyser_process(&loopAnalyser, recordedHalf, inBuffer->n);
+		break;
+	case zeroCopyLoop:
+		streamPos_advance(&recPos, loopPool.n);
+
+		//the oldest buffer of the recorder queue has been filled
+		recorded = bufFifo_pop(&recFifo);
+		if(recorded < 0) break;
+		recordedHalf = bufPool_buffer(&loopPool, recorded);
+		capRing_write(&captureIn, recordedHalf, loopPool.n);
+		//processed in place, the recorded buffer itself is played
+		dspload_process(&loopLoad, recordedHalf, loopPool.n, getNsTimestamp());
+		capRing_write(&captureOut, recordedHalf, loopPool.n);
+
+		next = bufPool_get(&loopPool);
+		if(next >= 0) {
+			//hand-off: the player owns the buffer until its callback returns it to the pool
+			__atomic_store_n(&poolStamps[recorded], getNsTimestamp(), __ATOMIC_RELAXED);
+			bufFifo_push(&playFifo, recorded);
+			result = tracedEnqueue(&traceRecorder, trace_playerEnqueue, bqPlayerBufferQueue, recordedHalf, poolSize);
+			loopStats_recorded(0);
+		} else {
+			//the player holds all other buffers, the recording is dropped and recorded over
+			next = recorded;
+			loopStats_recorded(1);
+		}
+
+		//switch to next recording buffer
+		bufFifo_push(&recFifo, next);
+		result = tracedEnqueue(&traceRecorder, trace_recorderEnqueue, recorderBufferQueue, bufPool_buffer(&loopPool, next), poolSize);
+
+		//init playback if not done yet
+		if(initLoop) {
+			result = (*bqPlayerPlay)->SetPlayState(bqPlayerPlay, SL_PLAYSTATE_PLAYING);
+			assert(SL_RESULT_SUCCESS == result);
+			(void)result;
+			initLoop = JNI_FALSE;
+		}
+
+		//a dropped buffer is already recorded over
+		if(next != recorded) analyser_process(&loopAnalyser, recordedHalf, loopPool.n);
+		break;
+	case glitchTest:
+		recordedHalf = dBuf_getNextRead(inBuffer);
+		glitch_process(&glitchDet, recordedHalf, inBuffer->n);
+		capRing_write(&captureIn, recordedHalf, inBuffer->n);
+
+		nextRecBuffer = dBuf_getNextWrite(inBuffer);
+		nextRecSize = dBuf_size(inBuffer);
+		result = tracedEnqueue(&traceRecorder, trace_recorderEnqueue, recorderBufferQueue, nextRecBuffer, nextRecSize);
 		break;
 	case init:
 		break;
 	default:
 		break;
 	}
+	cputime_end(&cpuRecorder, bufferSize);
+	trace_end(&traceRecorder, trace_recorderCallback, traceStart);
 }
 
 // create buffer queue audio player
@@ -556,10 +943,17 @@ jboolean Java_zee_audiobenchmark_FragmentOpenSL_latencyTest(JNIEnv* env, jclass
 
 	numTests = numberOfTests;
 
+	//results before the steady state are held back and discarded, see steady.h
+	steady_init(&warmupDetector, warmupWindow, maxWarmupResults, 1e9 / sampleRateInHz);
+	resultsCapacity = numTests + steady_capacity(&warmupDetector);
+
+	__atomic_store_n(&resultsReady, 0, __ATOMIC_RELEASE);
 	if(lResults != null_ptr) free(lResults);
 	if(lResultsNorm != null_ptr) free(lResultsNorm);
-	lResults = calloc(numTests, sizeof(int));
-	lResultsNorm = calloc(numTests, sizeof(int));
+	if(lResultsFrame != null_ptr) free(lResultsFrame);
+	lResults = calloc(resultsCapacity, sizeof(int64_t));
+	lResultsNorm = calloc(resultsCapacity, sizeof(int64_t));
+	lResultsFrame = calloc(resultsCapacity, sizeof(int));
 
 	__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "Starting latency test with Open SL ES, (threshold: %d) please wait...", imp_threshold);
 	initTest = JNI_TRUE;
@@ -579,7 +973,7 @@ jboolean Java_zee_audiobenchmark_FragmentOpenSL_latencyTest(JNIEnv* env, jclass
 		basePadding = 20;
 	}
 	padding = basePadding;
-	nextCount = numTests;
+	nextCount = resultsCapacity; //reduced when the warm-up detection has decided
 
 	/*
 	 * Prepare recording
@@ -617,30 +1011,62 @@ jboolean Java_zee_audiobenchmark_FragmentOpenSL_latencyTest(JNIEnv* env, jclass
 }
 
 /*
- * Plays the sinewave that has been synthesized in initSineWaveBuffer()
+ * Plays a signal of the generator for the given time
+ * @params signal: type, see siggen.h
+ * f0: frequency of the sine, start of the sweep,
+ * repetition rate in Hz of impulses and clicks (0: once) or order of the MLS
+ * f1: end frequency of the sweep
+ * amplitude: 0..1 of full scale
+ * Returns JNI_FALSE for invalid parameters (frequencies outside 0..fs/2, MLS order)
  */
-jboolean Java_zee_audiobenchmark_FragmentOpenSL_playSine() {
+static jboolean playSignal(int signal, double f0, double f1, float amplitude, int seconds) {
 
 	stopEngine();
-	state = sineWave;
-
-	//set next buffer to enqueue to sine wave buffer
-	nextPlayBuffer = sineBuffer;
-	nextPlaySize = sizeof(sineBuffer);
 
+	switch(signal) {
+	case sig_impulse:
+		siggen_setImpulse(&toneGen, f0 > 0 ? (int)(sampleRateInHz/f0) : 0, amplitude);
+		break;
+	case sig_click:
+		siggen_setClick(&toneGen, f0 > 0 ? (int)(sampleRateInHz/f0) : 0, amplitude);
+		break;
+	case sig_sine:
+		if(siggen_setSine(&toneGen, f0, amplitude) != 0) return JNI_FALSE;
+		break;
+	case sig_logSweep:
+		if(siggen_setLogSweep(&toneGen, f0, f1, seconds, amplitude) != 0) return JNI_FALSE;
+		break;
+	case sig_mls:
+		if(siggen_setMls(&toneGen, (int)f0, amplitude) != 0) return JNI_FALSE;
+		break;
+	case sig_whiteNoise:
+		siggen_setWhiteNoise(&toneGen, amplitude);
+		break;
+	case sig_pinkNoise:
+		siggen_setPinkNoise(&toneGen, amplitude);
+		break;
+	default:
+		siggen_setSilence(&toneGen);
+		break;
+	}
+	state = signalPlayback;
 	padding = 0;
 
 	SLresult result;
 
-	int seconds = 2;
 	int totalSamples = seconds * sampleRateInHz;
-	nextCount = totalSamples/SIN_BUFFER_SAMPLES;
+	nextCount = totalSamples/bufferSize;
 
-	//enqueue 2 buffers
+	//render and enqueue 2 buffers, the following are rendered in the callback
+	nextPlaySize = dBuf_size(outBuffer);
+	nextPlayBuffer = dBuf_getNextRead(outBuffer);
+	siggen_render(&toneGen, nextPlayBuffer, outBuffer->n);
 	result = (*bqPlayerBufferQueue)->Enqueue(bqPlayerBufferQueue, nextPlayBuffer, nextPlaySize);
 	if (SL_RESULT_SUCCESS != result) {
 		return JNI_FALSE;
 	}
+	nextPlayBuffer = dBuf_getNextRead(outBuffer);
+	siggen_render(&toneGen, nextPlayBuffer, outBuffer->n);
 	result = (*bqPlayerBufferQueue)->Enqueue(bqPlayerBufferQueue, nextPlayBuffer, nextPlaySize);
 	if (SL_RESULT_SUCCESS != result) {
 		return JNI_FALSE;
@@ -654,6 +1080,56 @@ jboolean Java_zee_audiobenchmark_FragmentOpenSL_playSine() {
 	return JNI_TRUE;
 }
 
+/*
+ * Plays a phase continuous sine wave for 2 seconds
+ */
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_playSine(JNIEnv* env, jclass clazz) {
+	//same frequency as the former looped 256 sample table
+	return playSignal(sig_sine, sampleRateInHz/256.0, 0.0, 1.0f, 2);
+}
+
+
+/*
+ * Loopback without copy: two pool buffers are recorded, one silent buffer is played.
+ * Every recorded buffer is enqueued to the player and replaced by a free one.
+ */
+static jboolean loopbackZeroCopy() {
+	SLresult result;
+	int i, index;
+	if(loopPool.data == null_ptr) return JNI_FALSE;
+	SLuint32 poolSize = loopPool.n * sizeof(short);
+
+	//the player queue may still hold buffers of the last loop
+	result = (*bqPlayerBufferQueue)->Clear(bqPlayerBufferQueue);
+	assert(SL_RESULT_SUCCESS == result);
+	(void)result;
+	bufPool_reset(&loopPool);
+	bufFifo_reset(&recFifo);
+	bufFifo_reset(&playFifo);
+	for(i=0; i<BUFPOOL_MAX; i++) poolStamps[i] = 0;
+	state = zeroCopyLoop;
+
+	for(i=0; i<2; i++) {
+		index = bufPool_get(&loopPool);
+		bufFifo_push(&recFifo, index);
+		result = (*recorderBufferQueue)->Enqueue(recorderBufferQueue, bufPool_buffer(&loopPool, index), poolSize);
+		assert(SL_RESULT_SUCCESS == result);
+		(void)result;
+	}
+
+	// start recording
+	result = (*recorderRecord)->SetRecordState(recorderRecord, SL_RECORDSTATE_RECORDING);
+	assert(SL_RESULT_SUCCESS == result);
+	(void)result;
+
+	//silent start buffer, playback is started in the recording callback
+	index = bufPool_get(&loopPool);
+	bufFifo_push(&playFifo, index);
+	result = (*bqPlayerBufferQueue)->Enqueue(bqPlayerBufferQueue, bufPool_buffer(&loopPool, index), poolSize);
+	assert(SL_RESULT_SUCCESS == result);
+	(void)result;
+	return JNI_TRUE;
+}
 
 /**
  * Enables a loopback (input directly written to output)
@@ -661,13 +1137,17 @@ jboolean Java_zee_audiobenchmark_FragmentOpenSL_playSine() {
  */
 jboolean Java_zee_audiobenchmark_FragmentOpenSL_nLoopback() {
 	SLresult result;
-	state = loop;
 	initLoop = JNI_TRUE;
 	/*
 	 * Prepare recording
 	 */
 	// in case already recording, stop recording and clear buffer queue
 	stopEngine();
+	streamPos_reset(&recPos);
+	streamPos_reset(&playPos);
+	copyStamps[0] = copyStamps[1] = 0;
+	if(loopZeroCopy) return loopbackZeroCopy();
+	state = loop;
 
 	// enqueue two buffers to be filled by the recorder
 	// using the double buffer method
@@ -700,6 +1180,322 @@ jboolean Java_zee_audiobenchmark_FragmentOpenSL_nLoopback() {
 	return JNI_TRUE;
 }
 
+/*
+ * Plays a sine and counts the discontinuities in the recorded stream,
+ * runs until the engine is reset. Requires a loopback connection.
+ * The first 0.5s are ignored (stream start, latency)
+ */
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_startGlitchTest(JNIEnv* env, jclass clazz, double frequency, float amplitude) {
+	SLresult result;
+
+	stopEngine();
+	if(siggen_setSine(&toneGen, frequency, amplitude) != 0) return JNI_FALSE;
+	glitch_init(&glitchDet, sampleRateInHz, frequency, sampleRateInHz/2);
+	state = glitchTest;
+
+	//two buffers for the recorder
+	nextRecSize = dBuf_size(inBuffer);
+	nextRecBuffer = dBuf_getNextWrite(inBuffer);
+	result = (*recorderBufferQueue)->Enqueue(recorderBufferQueue, nextRecBuffer, nextRecSize);
+	if (SL_RESULT_SUCCESS != result) return JNI_FALSE;
+	nextRecBuffer = dBuf_getNextWrite(inBuffer);
+	result = (*recorderBufferQueue)->Enqueue(recorderBufferQueue, nextRecBuffer, nextRecSize);
+	if (SL_RESULT_SUCCESS != result) return JNI_FALSE;
+
+	//two rendered buffers for the player
+	nextPlaySize = dBuf_size(outBuffer);
+	nextPlayBuffer = dBuf_getNextRead(outBuffer);
+	siggen_render(&toneGen, nextPlayBuffer, outBuffer->n);
+	result = (*bqPlayerBufferQueue)->Enqueue(bqPlayerBufferQueue, nextPlayBuffer, nextPlaySize);
+	if (SL_RESULT_SUCCESS != result) return JNI_FALSE;
+	nextPlayBuffer = dBuf_getNextRead(outBuffer);
+	siggen_render(&toneGen, nextPlayBuffer, outBuffer->n);
+	result = (*bqPlayerBufferQueue)->Enqueue(bqPlayerBufferQueue, nextPlayBuffer, nextPlaySize);
+	if (SL_RESULT_SUCCESS != result) return JNI_FALSE;
+
+	result = (*recorderRecord)->SetRecordState(recorderRecord, SL_RECORDSTATE_RECORDING);
+	assert(SL_RESULT_SUCCESS == result);
+	(void)result;
+	result = (*bqPlayerPlay)->SetPlayState(bqPlayerPlay, SL_PLAYSTATE_PLAYING);
+	assert(SL_RESULT_SUCCESS == result);
+	(void)result;
+	return JNI_TRUE;
+}
+
+/*
+ * counts: {discontinuities, checked frames (including the ignored start)}
+ */
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_getGlitchCount(JNIEnv* env, jclass clazz, jlongArray counts) {
+	int64_t discontinuities, frames;
+	jlong values[2];
+
+	if((*env)->GetArrayLength(env, counts) < 2) return JNI_FALSE;
+	glitch_read(&glitchDet, &discontinuities, &frames);
+	values[0] = discontinuities;
+	values[1] = frames;
+	(*env)->SetLongArrayRegion(env, counts, 0, 2, values);
+	return JNI_TRUE;
+}
+
+/*
+ * Sets the synthetic processing load of the loop
+ * @params type: see dspload.h, amount: taps or sections, 0 disables the processing
+ */
+void Java_zee_audiobenchmark_FragmentOpenSL_setDspLoad(JNIEnv* env, jclass clazz, int type, int amount) {
+	dspload_set(&loopLoad, (dspLoadType)type, amount);
+}
+
+/*
+ * stats: {callbacks, missed deadlines, sum of the processing time in ns, max processing time in ns, period in ns}
+ * since the last call of setDspLoad/resetDspLoadStats
+ */
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_getDspLoadStats(JNIEnv* env, jclass clazz, jlongArray stats) {
+	int64_t values[5];
+	jlong jValues[5];
+	unsigned i;
+
+	if((*env)->GetArrayLength(env, stats) < 5) return JNI_FALSE;
+	dspload_read(&loopLoad, values);
+	for(i=0; i<5; i++) jValues[i] = values[i];
+	(*env)->SetLongArrayRegion(env, stats, 0, 5, jValues);
+	return JNI_TRUE;
+}
+
+void Java_zee_audiobenchmark_FragmentOpenSL_resetDspLoadStats(JNIEnv* env, jclass clazz) {
+	dspload_resetStats(&loopLoad);
+}
+
+/*
+ * JNI transfer benchmark, each call moves one block to native code, processes it and
+ * moves it back. The processing is the same for all methods (every sample is inverted),
+ * so only the transfer differs.
+ */
+static inline void transferProcess(short* data, int len) {
+	int i;
+	for(i=0; i<len; i++) {
+		data[i] = ~data[i];
+	}
+}
+
+/*
+ * Allocates the scratch buffer of the region method, called before timing.
+ * The benchmark owns the buffer, a size of 0 frees it when the benchmark is done.
+ */
+void Java_zee_audiobenchmark_FragmentOpenSL_prepareTransfer(JNIEnv* env, jclass clazz, int maxSamples) {
+	if(maxSamples <= 0) {
+		free(transferScratch);
+		transferScratch = NULL;
+		transferScratchLen = 0;
+	} else if(maxSamples > transferScratchLen) {
+		free(transferScratch);
+		transferScratch = malloc(maxSamples * sizeof(short));
+		transferScratchLen = transferScratch != NULL ? maxSamples : 0;
+	}
+}
+
+/*
+ * Get/ReleaseShortArrayElements, the VM may pin or copy the array
+ * @return true if the VM returned a copy
+ */
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_transferElements(JNIEnv* env, jclass clazz, jshortArray buffer) {
+	jboolean isCopy = JNI_FALSE;
+	jshort* data = (*env)->GetShortArrayElements(env, buffer, &isCopy);
+	if(data == NULL) return JNI_FALSE;
+	transferProcess(data, (*env)->GetArrayLength(env, buffer));
+	(*env)->ReleaseShortArrayElements(env, buffer, data, 0);
+	return isCopy;
+}
+
+/*
+ * GetPrimitiveArrayCritical, no JNI calls and no blocking until released (the GC may be held off)
+ * @return true if the VM returned a copy
+ */
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_transferCritical(JNIEnv* env, jclass clazz, jshortArray buffer) {
+	jboolean isCopy = JNI_FALSE;
+	jsize len = (*env)->GetArrayLength(env, buffer);
+	jshort* data = (*env)->GetPrimitiveArrayCritical(env, buffer, &isCopy);
+	if(data == NULL) return JNI_FALSE;
+	transferProcess(data, len);
+	(*env)->ReleasePrimitiveArrayCritical(env, buffer, data, 0);
+	return isCopy;
+}
+
+/*
+ * Get/SetShortArrayRegion, always copies to and from a native buffer
+ */
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_transferRegion(JNIEnv* env, jclass clazz, jshortArray buffer) {
+	jsize len = (*env)->GetArrayLength(env, buffer);
+	if(len > transferScratchLen) return JNI_FALSE;
+	(*env)->GetShortArrayRegion(env, buffer, 0, len, transferScratch);
+	transferProcess(transferScratch, len);
+	(*env)->SetShortArrayRegion(env, buffer, 0, len, transferScratch);
+	return JNI_TRUE;
+}
+
+/*
+ * Direct ByteBuffer, the native code works on the Java buffer without a copy
+ */
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_transferDirect(JNIEnv* env, jclass clazz, jobject buffer, int samples) {
+	short* data = (*env)->GetDirectBufferAddress(env, buffer);
+	if(data == NULL) return JNI_FALSE;
+	transferProcess(data, samples);
+	return JNI_TRUE;
+}
+
+/*
+ * Writes the last callback timestamps (ns) and total frames of both streams
+ * to positions: {recorder stamp, recorder frames, player stamp, player frames}
+ * @return false if one of the streams has not delivered a buffer yet
+ */
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_getStreamPositions(JNIEnv* env, jclass clazz, jlongArray positions) {
+	int64_t stamp, frames;
+	jlong values[4];
+
+	if((*env)->GetArrayLength(env, positions) < 4) return JNI_FALSE;
+
+	streamPos_read(&recPos, &stamp, &frames);
+	values[0] = stamp;
+	values[1] = frames;
+	streamPos_read(&playPos, &stamp, &frames);
+	values[2] = stamp;
+	values[3] = frames;
+	(*env)->SetLongArrayRegion(env, positions, 0, 4, values);
+
+	return (values[0] != 0 && values[2] != 0) ? JNI_TRUE : JNI_FALSE;
+}
+
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_getAnalyserSnapshot(JNIEnv* env, jclass clazz, jfloatArray levels, jfloatArray spectrumDb) {
+	jfloat values[6];
+	jsize bins = (*env)->GetArrayLength(env, spectrumDb);
+
+	if(loopAnalyser.fftSize == 0 || (*env)->GetArrayLength(env, levels) < 6) return JNI_FALSE;
+	if(!analyser_poll(&loopAnalyser, &analyserPollSnapshot)) return JNI_FALSE;
+
+	values[0] = analyserPollSnapshot.rms;
+	values[1] = analyserPollSnapshot.peak;
+	values[2] = analyserPollSnapshot.crestFactor;
+	values[3] = (float)analyserPollSnapshot.processNs;
+	values[4] = analyserPollSnapshot.avgProcessNs;
+	values[5] = (float)analyserPollSnapshot.maxProcessNs;
+	(*env)->SetFloatArrayRegion(env, levels, 0, 6, values);
+
+	if(bins > ANALYSER_FFT_SIZE/2) bins = ANALYSER_FFT_SIZE/2;
+	(*env)->SetFloatArrayRegion(env, spectrumDb, 0, bins, analyserPollSnapshot.magnitudesDb);
+	return JNI_TRUE;
+}
+
+/*
+ * Enables/disables the capture of both streams.
+ * The rings are reset when enabled, this has to be done before a test is started.
+ */
+void Java_zee_audiobenchmark_FragmentOpenSL_setCapture(JNIEnv* env, jclass clazz, jboolean enabled) {
+	if(enabled) {
+		capRing_reset(&captureIn);
+		capRing_reset(&captureOut);
+	}
+	__atomic_store_n(&captureIn.enabled, enabled ? 1 : 0, __ATOMIC_RELEASE);
+	__atomic_store_n(&captureOut.enabled, enabled ? 1 : 0, __ATOMIC_RELEASE);
+}
+
+static capRing* getCaptureRing(int stream) {
+	return stream == 0 ? &captureIn : &captureOut;
+}
+
+/*
+ * Copies captured data of a stream (0: recorded, 1: played)
+ * to a direct ByteBuffer, starting at offset
+ * @return bytes copied
+ */
+int Java_zee_audiobenchmark_FragmentOpenSL_drainCapture(JNIEnv* env, jclass clazz, int stream, jobject buffer, int offset, int max) {
+	unsigned char* dst = (*env)->GetDirectBufferAddress(env, buffer);
+	if(dst == null_ptr) return 0;
+	return capRing_read(getCaptureRing(stream), dst + offset, max);
+}
+
+/*
+ * stats: {high-water mark in bytes, dropped blocks}
+ * @return JNI_FALSE if the array is too short
+ */
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_getCaptureStats(JNIEnv* env, jclass clazz, int stream, jlongArray stats) {
+	capRing* ring = getCaptureRing(stream);
+	jlong values[2];
+	if((*env)->GetArrayLength(env, stats) < 2) return JNI_FALSE;
+	values[0] = ring->highWaterMark;
+	values[1] = ring->droppedBlocks;
+	(*env)->SetLongArrayRegion(env, stats, 0, 2, values);
+	return JNI_TRUE;
+}
+
+/*
+ * Enables the trace rings of both callbacks, the rings are cleared on enable
+ */
+void Java_zee_audiobenchmark_FragmentOpenSL_setTrace(JNIEnv* env, jclass clazz, jboolean enabled) {
+	if(enabled) {
+		traceRing_reset(&tracePlayer);
+		traceRing_reset(&traceRecorder);
+	}
+	__atomic_store_n(&tracePlayer.enabled, enabled ? 1 : 0, __ATOMIC_RELEASE);
+	__atomic_store_n(&traceRecorder.enabled, enabled ? 1 : 0, __ATOMIC_RELEASE);
+}
+
+/*
+ * Copies the events of a ring (0: player callback, 1: recorder callback),
+ * 4 values per event: start ns, duration ns (-1 for instant events), thread id, name
+ * Only to be called after tracing has been disabled.
+ * @return number of events
+ */
+int Java_zee_audiobenchmark_FragmentOpenSL_drainTrace(JNIEnv* env, jclass clazz, int ring, jlongArray events) {
+	jlong* dst = (*env)->GetLongArrayElements(env, events, NULL);
+	uint32_t max = (*env)->GetArrayLength(env, events) / 4;
+	uint32_t n;
+	if(dst == null_ptr) return 0;
+	n = traceRing_read(ring == 0 ? &tracePlayer : &traceRecorder, (int64_t*)dst, max);
+	(*env)->ReleaseLongArrayElements(env, events, dst, 0);
+	return n;
+}
+
+/*
+ * Counters and the callback interval histogram of the engine, see metrics.h.
+ * The buffer stays valid for the lifetime of the library.
+ */
+jobject Java_zee_audiobenchmark_FragmentOpenSL_getMetricsBuffer(JNIEnv* env, jclass clazz) {
+	return (*env)->NewDirectByteBuffer(env, &metrics, METRIC_EXPORTED_VALUES * sizeof(uint32_t));
+}
+
+void Java_zee_audiobenchmark_FragmentOpenSL_resetMetrics(JNIEnv* env, jclass clazz) {
+	metrics_reset();
+	impulsePending = 0;
+}
+
+/*
+ * Wake-up latency of sleeping threads, independent of the engine. Blocks for the duration.
+ * histogram: oversleep bins of binUs, the last bin collects the overflow
+ * stats: {wake-ups, sum ns, max ns, threads running with the requested nice value}
+ * @return JNI_FALSE if the threads could not be started or stats is too short
+ */
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_runWakeupTest(JNIEnv* env, jclass clazz, int threads, int periodUs, int seconds, int nice, int binUs, jlongArray histogram, jlongArray stats) {
+	wakeupResult result;
+	jlong values[4];
+	int rc;
+	if((*env)->GetArrayLength(env, stats) < 4) return JNI_FALSE;
+	memset(&result, 0, sizeof(wakeupResult));
+	result.numBins = (*env)->GetArrayLength(env, histogram);
+	result.binNs = binUs * 1000LL;
+	result.bins = calloc(result.numBins, sizeof(int64_t));
+	if(result.bins == null_ptr) return JNI_FALSE;
+
+	rc = wakeup_run(threads, periodUs * 1000LL, seconds, nice, &result);
+
+	(*env)->SetLongArrayRegion(env, histogram, 0, result.numBins, (jlong*)result.bins);
+	values[0] = result.count;
+	values[1] = result.sumNs;
+	values[2] = result.maxNs;
+	values[3] = result.prioritySet;
+	(*env)->SetLongArrayRegion(env, stats, 0, 4, values);
+	free(result.bins);
+	return rc == 0 ? JNI_TRUE : JNI_FALSE;
+}
+
 void Java_zee_audiobenchmark_FragmentOpenSL_resetEngine(JNIEnv* env, jclass clazz) {
 	stopEngine();
 	state = init;
@@ -742,8 +1538,22 @@ void Java_zee_audiobenchmark_FragmentOpenSL_shutdown(JNIEnv* env, jclass clazz)
 
 	dBuf_destroy(inBuffer);
 	dBuf_destroy(outBuffer);
+	analyser_destroy(&loopAnalyser);
+	dspload_destroy(&loopLoad);
+	bufPool_destroy(&loopPool);
+	capRing_destroy(&captureIn);
+	capRing_destroy(&captureOut);
+	traceRing_destroy(&tracePlayer);
+	traceRing_destroy(&traceRecorder);
+	free(analyserPollSnapshot.magnitudesDb);
+	analyserPollSnapshot.magnitudesDb = null_ptr;
+	__atomic_store_n(&resultsReady, 0, __ATOMIC_RELEASE);
 	if(lResults != null_ptr) free(lResults);
 	if(lResultsNorm != null_ptr) free(lResultsNorm);
+	if(lResultsFrame != null_ptr) free(lResultsFrame);
+	lResults = null_ptr;
+	lResultsNorm = null_ptr;
+	lResultsFrame = null_ptr;
 	__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "Native audio engine shut down.");
 }
 
@@ -754,25 +1564,24 @@ void Java_zee_audiobenchmark_FragmentOpenSL_shutdown(JNIEnv* env, jclass clazz)
  *
  * @return: number of valid values
  */
-static int calcAverage(int results[], int len, int* avg, int* min, int* max, float* stdDeviation) {
+static int calcAverage(int64_t results[], int len, int64_t* avg, int64_t* min, int64_t* max, float* stdDeviation) {
 	unsigned i;
-	int sum=0;
+	int64_t sum=0;
 	int numR = 0;
-	double squSum = 0;
+	const int64_t lower = 10000000LL, upper = 500000000LL; //10ms..500ms
 
 	*avg = 0;
 	*stdDeviation = 0.0f;
-	*min = INT_MAX;
-	*max = INT_MIN;
+	*min = INT64_MAX;
+	*max = INT64_MIN;
 
 	//calculate mean average
 	for(i=0; i<len; i++) {
-		int val = results[i];
+		int64_t val = results[i];
 		//values out of range
-		if(val < 10 || val > 500) continue;
+		if(val < lower || val > upper) continue;
 
 		sum += val;
-		squSum = (double) (val*val);
 		if(val < *min) *min = val;
 		if(val > *max) *max = val;
 		numR ++;
@@ -787,8 +1596,8 @@ static int calcAverage(int results[], int len, int* avg, int* min, int* max, flo
 
 	//Sample standard deviation
 	for(i=0; i<len; i++) {
+		if(results[i] < lower || results[i] > upper) continue;
 		double val = (double)results[i];
-		if(val < 10.0 || val > 500.0) continue;
 		variance += (val-average)*(val-average);
 	}
 	variance = variance/(numR-1);
@@ -805,33 +1614,22 @@ static void Java_zee_audiobenchmark_logFormatedResult() {
 	__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "Bitrate: 16 bit \n Samplerate: %d Hz \n", sampleRateInHz);
 	__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "Buffer size: %d smp, %f ms", bufferSize, ((float)bufferSize/sampleRateInHz)*1000);
 
-	int min;
-	int max;
-	int avg;
+	int64_t min;
+	int64_t max;
+	int64_t avg;
 	float stdDeviation;
 
 	//for initial results
-	int numR = calcAverage(lResults, impRec, &avg, &min, &max, &stdDeviation);
-	__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "Average latency: %d ms", avg);
-	__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "Standard deviation: %.2f", stdDeviation);
-	__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "(min/max: %d ms / %d ms)", min, max);
+	unsigned first = firstSteadyResult();
+	int numR = calcAverage(lResults + first, impRec - first, &avg, &min, &max, &stdDeviation);
+	__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "Average latency: %.3f ms", avg/1e6);
+	__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "Standard deviation: %.3f ms", stdDeviation/1e6);
+	__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "(min/max: %.3f ms / %.3f ms)", min/1e6, max/1e6);
 	__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "Number of valid values: %d", numR);
 
 	//for normalized results
-	numR = calcAverage(lResultsNorm, impRec, &avg, &min, &max, &stdDeviation);
-	__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "Average normalized latency: %d ms", avg);
-	__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "(min/max: %d ms / %d ms)", min, max);
+	numR = calcAverage(lResultsNorm + first, impRec - first, &avg, &min, &max, &stdDeviation);
+	__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "Average normalized latency: %.3f ms", avg/1e6);
+	__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "(min/max: %.3f ms / %.3f ms)", min/1e6, max/1e6);
 	__android_log_print(ANDROID_LOG_INFO, LOG_TAG, "Number of valid values: %d", numR);
 }
-
-/*
- * Synthesize a sine wave
- */
-static void Java_zee_audiobenchmark_FragmentOpenSL_initSineWaveBuffer() {
-	// synthesize a mono sine wave and place it into a buffer
-	unsigned i;
-	double f = sampleRateInHz / SIN_BUFFER_SAMPLES; //chosen such that it fits into the buffer
-	for(i = 0; i < SIN_BUFFER_SAMPLES; i++) {
-		sineBuffer[i] = SHRT_MAX * sin(f/(double)sampleRateInHz * (double)i * 2 * M_PI);
-	}
-}
@@ -19,6 +19,8 @@
 #include <android/log.h>
 
 //c std lib
+#include <stdlib.h>
+#include <stdint.h>
 #include <string.h>
 #include <limits.h>
 #include <errno.h>
@@ -30,14 +32,28 @@
 #include <SLES/OpenSLES.h>
 #include <SLES/OpenSLES_Android.h>
 
+#include <analyser.h>
+#include <siggen.h>
+#include <capture.h>
+#include <glitch.h>
+#include <dspload.h>
+#include <trace.h>
+#include <metrics.h>
+#include <wakeup.h>
+#include <steady.h>
+#include <cputime.h>
+#include <bufpool.h>
+
 /*
  * Describes the task that is currently running
  */
 typedef enum state {
 	init,
 	loop,
+	zeroCopyLoop,
 	latencyTest,
-	sineWave
+	signalPlayback,
+	glitchTest
 } engineState;
 
 
@@ -53,6 +69,35 @@ typedef struct doubleBuffer {
 } dBuf;
 
 
+/*
+ * Frame position of a stream at the time of its last callback.
+ * Written in the callback thread, read from Java using the sequence counter.
+ */
+typedef struct streamPosition {
+	volatile unsigned seq; //odd while an update is in progress
+	int64_t stamp; //CLOCK_MONOTONIC in ns
+	int64_t frames; //total frames since start
+} streamPos;
+
+/*
+ * Hand-off of the loop buffers from the recorder to the player: time from the
+ * recorder callback that passes a buffer until the player callback that releases it.
+ * The hand-off values are written by the player, the drops by the recorder,
+ * each writer restarts its values at its first callback after a reset (epoch).
+ */
+typedef struct loopHandoffStats {
+	int64_t playerEpoch;
+	int64_t recorderEpoch;
+	int64_t handoffs;	//atomic
+	int64_t sumNs;		//atomic
+	int64_t maxNs;		//atomic
+	int64_t drops;		//atomic, recorded buffers not passed on, no free buffer
+} loopHandoff;
+
+//values for Java: hand-offs, sum ns, max ns, drops
+#define LOOP_STATS_VALUES 4
+
+
 /**
  * Initialize the Open SL ES audio engine
  */
@@ -70,10 +115,95 @@ jboolean Java_zee_audiobenchmark_FragmentOpenSL_latencyTest(JNIEnv* env, jclass
  */
 jboolean Java_zee_audiobenchmark_FragmentOpenSL_nLoopback();
 
+/**
+ * Sample rate the engine runs at, may differ from the requested one
+ */
+int Java_zee_audiobenchmark_FragmentOpenSL_getSampleRate(JNIEnv* env, jclass clazz);
+
+/**
+ * Impulse threshold and results of the last finished latency test in ns,
+ * with the frame position of each detection
+ */
+int Java_zee_audiobenchmark_FragmentOpenSL_getNumResults(JNIEnv* env, jclass clazz);
+int Java_zee_audiobenchmark_FragmentOpenSL_getResults(JNIEnv* env, jclass clazz, jlongArray ns, jlongArray normalizedNs, jintArray frames);
+void Java_zee_audiobenchmark_FragmentOpenSL_setThreshold(JNIEnv* env, jclass clazz, int threshold);
+void Java_zee_audiobenchmark_FragmentOpenSL_setWarmup(JNIEnv* env, jclass clazz, int window, int maxWarmup);
+void Java_zee_audiobenchmark_FragmentOpenSL_resetCpuTime(JNIEnv* env, jclass clazz);
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_getCpuTime(JNIEnv* env, jclass clazz, jlongArray values);
+int Java_zee_audiobenchmark_FragmentOpenSL_getWarmup(JNIEnv* env, jclass clazz, jlongArray ns);
+
+/**
+ * Returns the stream positions of recorder and player,
+ * used for the clock drift estimation.
+ */
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_getStreamPositions(JNIEnv* env, jclass clazz, jlongArray positions);
+
+/**
+ * Copies the latest result of the loopback analyser
+ * levels: {rms, peak, crest factor, process ns, average process ns, max process ns}
+ */
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_getAnalyserSnapshot(JNIEnv* env, jclass clazz, jfloatArray levels, jfloatArray spectrumDb);
+
+/**
+ * Capture of the recorded (stream 0) and played (stream 1) data
+ */
+void Java_zee_audiobenchmark_FragmentOpenSL_setCapture(JNIEnv* env, jclass clazz, jboolean enabled);
+int Java_zee_audiobenchmark_FragmentOpenSL_drainCapture(JNIEnv* env, jclass clazz, int stream, jobject buffer, int offset, int max);
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_getCaptureStats(JNIEnv* env, jclass clazz, int stream, jlongArray stats);
+
+/**
+ * Trace events of the player (ring 0) and recorder (ring 1) callbacks
+ */
+void Java_zee_audiobenchmark_FragmentOpenSL_setTrace(JNIEnv* env, jclass clazz, jboolean enabled);
+int Java_zee_audiobenchmark_FragmentOpenSL_drainTrace(JNIEnv* env, jclass clazz, int ring, jlongArray events);
+
+/**
+ * Engine counters, shared through a direct ByteBuffer
+ */
+jobject Java_zee_audiobenchmark_FragmentOpenSL_getMetricsBuffer(JNIEnv* env, jclass clazz);
+void Java_zee_audiobenchmark_FragmentOpenSL_resetMetrics(JNIEnv* env, jclass clazz);
+
+/**
+ * Timer wake-up latency of native threads at a given nice value
+ */
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_runWakeupTest(JNIEnv* env, jclass clazz, int threads, int periodUs, int seconds, int nice, int binUs, jlongArray histogram, jlongArray stats);
+
+/**
+ * Synthetic processing load inside the loop callback,
+ * used to measure the usable callback budget
+ */
+void Java_zee_audiobenchmark_FragmentOpenSL_setDspLoad(JNIEnv* env, jclass clazz, int type, int amount);
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_getDspLoadStats(JNIEnv* env, jclass clazz, jlongArray stats);
+void Java_zee_audiobenchmark_FragmentOpenSL_resetDspLoadStats(JNIEnv* env, jclass clazz);
+
+/**
+ * Buffer hand-off of the loop: copy into the player buffer or
+ * zero-copy, the recorded buffer itself is enqueued to the player
+ */
+void Java_zee_audiobenchmark_FragmentOpenSL_setLoopZeroCopy(JNIEnv* env, jclass clazz, jboolean zeroCopy);
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_getLoopStats(JNIEnv* env, jclass clazz, jlongArray values);
+void Java_zee_audiobenchmark_FragmentOpenSL_resetLoopStats(JNIEnv* env, jclass clazz);
+
+/**
+ * JNI transfer benchmark: one block per call, moved to native code and back
+ */
+void Java_zee_audiobenchmark_FragmentOpenSL_prepareTransfer(JNIEnv* env, jclass clazz, int maxSamples);
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_transferElements(JNIEnv* env, jclass clazz, jshortArray buffer);
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_transferCritical(JNIEnv* env, jclass clazz, jshortArray buffer);
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_transferRegion(JNIEnv* env, jclass clazz, jshortArray buffer);
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_transferDirect(JNIEnv* env, jclass clazz, jobject buffer, int samples);
+
+/**
+ * Plays a sine and checks the recorded stream for discontinuities,
+ * used to find the smallest stable buffer size
+ */
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_startGlitchTest(JNIEnv* env, jclass clazz, double frequency, float amplitude);
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_getGlitchCount(JNIEnv* env, jclass clazz, jlongArray counts);
+
 /**
  * Plays a simple generated sine wave
  */
-jboolean Java_zee_audiobenchmark_FragmentOpenSL_playSine();
+jboolean Java_zee_audiobenchmark_FragmentOpenSL_playSine(JNIEnv* env, jclass clazz);
 
 /**
  * Shut down the native audio system
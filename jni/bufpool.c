@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include <stdlib.h>
+#include <string.h>
+#include <bufpool.h>
+
+int bufPool_init(bufPool* pool, int count, unsigned n) {
+	if(count < 1 || count > BUFPOOL_MAX) return -1;
+	pool->data = calloc((size_t)count * n, sizeof(short));
+	if(pool->data == NULL) return -1;
+	pool->n = n;
+	pool->count = count;
+	bufPool_reset(pool);
+	return 0;
+}
+
+void bufPool_reset(bufPool* pool) {
+	int i;
+	if(pool->data == NULL) return;
+	memset(pool->data, 0, (size_t)pool->count * pool->n * sizeof(short));
+	for(i=0; i<pool->count; i++) {
+		pool->next[i] = i + 1 < pool->count ? (uint32_t)(i + 1) : BUFPOOL_NONE;
+	}
+	__atomic_store_n(&pool->head, (uint32_t)0, __ATOMIC_RELEASE);
+}
+
+void bufPool_destroy(bufPool* pool) {
+	free(pool->data);
+	pool->data = NULL;
+	pool->count = 0;
+}
+
+int bufPool_get(bufPool* pool) {
+	uint32_t head = __atomic_load_n(&pool->head, __ATOMIC_ACQUIRE);
+	for(;;) {
+		uint32_t index = head & 0xffffu;
+		if(index == BUFPOOL_NONE) return -1;
+		uint32_t next = __atomic_load_n(&pool->next[index], __ATOMIC_RELAXED);
+		uint32_t replacement = ((head + 0x10000u) & 0xffff0000u) | next;
+		if(__atomic_compare_exchange_n(&pool->head, &head, replacement, 1, __ATOMIC_ACQ_REL, __ATOMIC_ACQUIRE)) {
+			return (int)index;
+		}
+	}
+}
+
+void bufPool_put(bufPool* pool, int index) {
+	uint32_t head = __atomic_load_n(&pool->head, __ATOMIC_ACQUIRE);
+	for(;;) {
+		__atomic_store_n(&pool->next[index], head & 0xffffu, __ATOMIC_RELAXED);
+		uint32_t replacement = ((head + 0x10000u) & 0xffff0000u) | (uint32_t)index;
+		if(__atomic_compare_exchange_n(&pool->head, &head, replacement, 1, __ATOMIC_ACQ_REL, __ATOMIC_ACQUIRE)) {
+			return;
+		}
+	}
+}
+
+void bufFifo_reset(bufFifo* fifo) {
+	__atomic_store_n(&fifo->wp, 0, __ATOMIC_RELAXED);
+	__atomic_store_n(&fifo->rp, 0, __ATOMIC_RELEASE);
+}
+
+void bufFifo_push(bufFifo* fifo, int index) {
+	uint32_t wp = __atomic_load_n(&fifo->wp, __ATOMIC_RELAXED);
+	fifo->slots[wp % BUFPOOL_MAX] = index;
+	__atomic_store_n(&fifo->wp, wp + 1, __ATOMIC_RELEASE);
+}
+
+int bufFifo_pop(bufFifo* fifo) {
+	uint32_t rp = __atomic_load_n(&fifo->rp, __ATOMIC_RELAXED);
+	if(rp == __atomic_load_n(&fifo->wp, __ATOMIC_ACQUIRE)) return -1;
+	int index = fifo->slots[rp % BUFPOOL_MAX];
+	__atomic_store_n(&fifo->rp, rp + 1, __ATOMIC_RELEASE);
+	return index;
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef BUFPOOL_H
+#define BUFPOOL_H
+
+#include <stdint.h>
+
+#define BUFPOOL_MAX 8
+#define BUFPOOL_NONE 0xffffu
+
+/*
+ * Fixed set of audio buffers for the zero-copy loop. A buffer is owned by exactly one
+ * of: the free list, the recorder queue or the player queue. The free list is a
+ * lock-free stack (the head carries a tag against ABA), shared by both callbacks.
+ * Tag and index share 32 bits, 64 bit atomics are not lock-free on armeabi and mips.
+ * Allocated outside the callbacks, get and put do not allocate or block.
+ */
+typedef struct bufPool {
+	short* data;
+	unsigned n;			//samples per buffer
+	int count;
+	uint32_t next[BUFPOOL_MAX];
+	uint32_t head;		//tag << 16 | index of the first free buffer
+} bufPool;
+
+/*
+ * Buffers in an OpenSL queue in the order of their enqueue,
+ * single producer and single consumer
+ */
+typedef struct bufFifo {
+	int slots[BUFPOOL_MAX];
+	uint32_t wp;		//free running, atomic
+	uint32_t rp;		//free running, atomic
+} bufFifo;
+
+/**
+ * @return 0 on success, all buffers are free and silent
+ */
+int bufPool_init(bufPool* pool, int count, unsigned n);
+
+/**
+ * Frees all buffers, only while no callback uses the pool
+ */
+void bufPool_reset(bufPool* pool);
+void bufPool_destroy(bufPool* pool);
+
+static inline short* bufPool_buffer(bufPool* pool, int index) {
+	return pool->data + (unsigned)index * pool->n;
+}
+
+/**
+ * @return index of a free buffer, -1 if all are in use
+ */
+int bufPool_get(bufPool* pool);
+
+/**
+ * Returns a buffer to the free list
+ */
+void bufPool_put(bufPool* pool, int index);
+
+void bufFifo_reset(bufFifo* fifo);
+
+/**
+ * Producer: the fifo holds at most BUFPOOL_MAX buffers
+ */
+void bufFifo_push(bufFifo* fifo, int index);
+
+/**
+ * Consumer: the oldest buffer, -1 if empty
+ */
+int bufFifo_pop(bufFifo* fifo);
+
+#endif
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#include <capture.h>
+
+#include <stdlib.h>
+#include <string.h>
+
+int capRing_init(capRing* ring, uint32_t size) {
+	memset(ring, 0, sizeof(capRing));
+	if(size < 2 || (size & (size-1)) != 0) return -1;
+	ring->data = malloc(size);
+	if(ring->data == NULL) return -1;
+	ring->size = size;
+	return 0;
+}
+
+void capRing_write(capRing* ring, const short* data, unsigned frames) {
+	uint32_t len = frames * sizeof(short);
+	uint32_t wp, rp, used, pos, first;
+
+	if(!ring->enabled || ring->data == NULL) return;
+
+	wp = ring->wp; //only written here
+	rp = __atomic_load_n(&ring->rp, __ATOMIC_ACQUIRE);
+	used = wp - rp;
+	if(ring->size - used < len) {
+		ring->droppedBlocks++;
+		return;
+	}
+
+	//PCM 16 bit little endian, same as the ARM/x86 byte order
+	pos = wp & (ring->size-1);
+	first = ring->size - pos;
+	if(first > len) first = len;
+	memcpy(ring->data + pos, data, first);
+	memcpy(ring->data, ((const unsigned char*)data) + first, len - first);
+
+	__atomic_store_n(&ring->wp, wp + len, __ATOMIC_RELEASE);
+	if(used + len > ring->highWaterMark) ring->highWaterMark = used + len;
+}
+
+uint32_t capRing_read(capRing* ring, void* dst, uint32_t max) {
+	uint32_t rp, wp, len, pos, first;
+
+	if(ring->data == NULL) return 0;
+
+	rp = ring->rp; //only written here
+	wp = __atomic_load_n(&ring->wp, __ATOMIC_ACQUIRE);
+	len = wp - rp;
+	if(len > max) len = max;
+	len &= ~1u; //whole samples only
+
+	pos = rp & (ring->size-1);
+	first = ring->size - pos;
+	if(first > len) first = len;
+	memcpy(dst, ring->data + pos, first);
+	memcpy(((unsigned char*)dst) + first, ring->data, len - first);
+
+	__atomic_store_n(&ring->rp, rp + len, __ATOMIC_RELEASE);
+	return len;
+}
+
+/*
+ * Only to be called while no callback is running
+ */
+void capRing_reset(capRing* ring) {
+	ring->wp = 0;
+	ring->rp = 0;
+	ring->droppedBlocks = 0;
+	ring->highWaterMark = 0;
+}
+
+void capRing_destroy(capRing* ring) {
+	free(ring->data);
+	memset(ring, 0, sizeof(capRing));
+}
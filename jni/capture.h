@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef CAPTURE_H
+#define CAPTURE_H
+
+#include <stdint.h>
+
+/*
+ * Lock-free byte ring between one audio callback (write) and
+ * one Java writer thread (read). Positions are free running byte counters.
+ */
+typedef struct captureRing {
+	unsigned char* data;
+	uint32_t size; //power of two
+	volatile uint32_t wp;
+	volatile uint32_t rp;
+	volatile int enabled;
+
+	volatile int64_t droppedBlocks;
+	volatile uint32_t highWaterMark; //bytes
+} capRing;
+
+/**
+ * @return 0 on success
+ */
+int capRing_init(capRing* ring, uint32_t size);
+
+/**
+ * Audio thread: copies the block if there is space for all of it, otherwise it is dropped
+ */
+void capRing_write(capRing* ring, const short* data, unsigned frames);
+
+/**
+ * Writer thread: copies up to max bytes
+ * @return bytes copied
+ */
+uint32_t capRing_read(capRing* ring, void* dst, uint32_t max);
+
+void capRing_reset(capRing* ring);
+void capRing_destroy(capRing* ring);
+
+#endif
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include <cputime.h>
+
+threadCpu cpuPlayer;
+threadCpu cpuRecorder;
+
+//incremented by a reset, starts at 1 so the zeroed threads start a new epoch
+static int64_t cpuEpoch = 1;
+
+void cputime_begin(threadCpu* cpu) {
+	int64_t epoch = __atomic_load_n(&cpuEpoch, __ATOMIC_ACQUIRE);
+	if(cpu->epoch != epoch) {
+		cpu->threadStart = cputime_now();
+		__atomic_store_n(&cpu->threadNs, 0, __ATOMIC_RELAXED);
+		__atomic_store_n(&cpu->frames, 0, __ATOMIC_RELAXED);
+		__atomic_store_n(&cpu->epoch, epoch, __ATOMIC_RELEASE);
+	}
+}
+
+void cputime_end(threadCpu* cpu, unsigned frames) {
+	__atomic_store_n(&cpu->threadNs, cputime_now() - cpu->threadStart, __ATOMIC_RELAXED);
+	__atomic_store_n(&cpu->frames, cpu->frames + frames, __ATOMIC_RELAXED);
+}
+
+void cputime_reset() {
+	__atomic_add_fetch(&cpuEpoch, 1, __ATOMIC_ACQ_REL);
+}
+
+void cputime_read(threadCpu* cpu, int64_t* dst) {
+	if(__atomic_load_n(&cpu->epoch, __ATOMIC_ACQUIRE) != __atomic_load_n(&cpuEpoch, __ATOMIC_ACQUIRE)) {
+		dst[0] = dst[1] = 0;
+		return;
+	}
+	dst[0] = __atomic_load_n(&cpu->threadNs, __ATOMIC_RELAXED);
+	dst[1] = __atomic_load_n(&cpu->frames, __ATOMIC_RELAXED);
+}
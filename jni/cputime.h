@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef CPUTIME_H
+#define CPUTIME_H
+
+#include <stdint.h>
+#include <time.h>
+
+/*
+ * CPU time of one audio callback thread (single writer), measured with
+ * CLOCK_THREAD_CPUTIME_ID at every callback. The time includes the work of
+ * the thread between the callbacks (buffer queue handling of the library).
+ * A reset from Java starts a new epoch, the thread restarts its values at its next callback.
+ */
+typedef struct threadCpu {
+	int64_t epoch;
+	int64_t threadStart;	//thread CPU time at the first callback of the epoch
+	int64_t threadNs;		//atomic
+	int64_t frames;			//atomic, audio frames handled by the callbacks
+} threadCpu;
+
+//values per thread for Java: thread ns, frames
+#define CPUTIME_VALUES 2
+
+extern threadCpu cpuPlayer;
+extern threadCpu cpuRecorder;
+
+static inline int64_t cputime_now() {
+	struct timespec stamp;
+	clock_gettime(CLOCK_THREAD_CPUTIME_ID, &stamp);
+	return stamp.tv_sec*1000000000LL + stamp.tv_nsec;
+}
+
+/**
+ * Audio thread, at the start of a callback
+ */
+void cputime_begin(threadCpu* cpu);
+
+/**
+ * Audio thread, at the end of a callback
+ */
+void cputime_end(threadCpu* cpu, unsigned frames);
+
+/**
+ * Any thread: starts a new measurement for both threads
+ */
+void cputime_reset();
+
+/**
+ * Any thread: copies the CPUTIME_VALUES of a thread, zeros before its first callback
+ */
+void cputime_read(threadCpu* cpu, int64_t* dst);
+
+#endif
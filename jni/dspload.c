@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include <stdlib.h>
+#include <string.h>
+#include <math.h>
+#include <time.h>
+#include <dspload.h>
+
+//callbacks later than this factor of the period are counted as missed deadlines
+#define DSPLOAD_LATE_FACTOR 1.5
+
+static int64_t dspload_now() {
+	struct timespec t;
+	clock_gettime(CLOCK_MONOTONIC, &t);
+	return (int64_t)t.tv_sec * 1000000000LL + t.tv_nsec;
+}
+
+void dspload_init(dspLoad* load, unsigned sampleRate, unsigned bufferSize) {
+	unsigned i;
+	memset(load, 0, sizeof(dspLoad));
+	load->coefficients = malloc(DSPLOAD_MAX_TAPS * sizeof(float));
+	load->history = calloc(2 * DSPLOAD_MAX_TAPS, sizeof(float));
+	load->biquadState = calloc(2 * DSPLOAD_MAX_BIQUADS, sizeof(float));
+
+	//one sided sinc lowpass at a quarter of the sample rate, the response only matters
+	//as far as the loop stays audible, the taps are the load
+	for(i=0; i<DSPLOAD_MAX_TAPS; i++) {
+		double x = (double)i / 2.0;
+		load->coefficients[i] = (float)(i == 0 ? 0.5 : sin(M_PI * x) / (M_PI * x) * 0.5);
+	}
+
+	//peaking EQ, +1dB at fs/8, Q=1 (RBJ cookbook)
+	double A = pow(10.0, 1.0/40.0);
+	double w0 = 2.0 * M_PI / 8.0;
+	double alpha = sin(w0) / 2.0;
+	double a0 = 1.0 + alpha/A;
+	load->b0 = (float)((1.0 + alpha*A) / a0);
+	load->b1 = (float)((-2.0 * cos(w0)) / a0);
+	load->b2 = (float)((1.0 - alpha*A) / a0);
+	load->a1 = load->b1;
+	load->a2 = (float)((1.0 - alpha/A) / a0);
+
+	load->periodNs = (int64_t)bufferSize * 1000000000LL / sampleRate;
+}
+
+void dspload_destroy(dspLoad* load) {
+	free(load->coefficients);
+	free(load->history);
+	free(load->biquadState);
+	load->coefficients = NULL;
+	load->history = NULL;
+	load->biquadState = NULL;
+}
+
+void dspload_set(dspLoad* load, dspLoadType type, int amount) {
+	int max = type == load_fir ? DSPLOAD_MAX_TAPS : DSPLOAD_MAX_BIQUADS;
+	__atomic_store_n(&load->type, type, __ATOMIC_RELAXED);
+	__atomic_store_n(&load->amount, amount > max ? max : amount, __ATOMIC_RELAXED);
+	dspload_resetStats(load);
+}
+
+void dspload_resetStats(dspLoad* load) {
+	__atomic_store_n(&load->resetRequested, 1, __ATOMIC_RELEASE);
+}
+
+static void processFir(dspLoad* load, short* buf, unsigned len, int taps) {
+	unsigned i;
+	int k;
+	for(i=0; i<len; i++) {
+		//the history is written twice, so the taps can be read without wrapping
+		unsigned pos = load->historyPos;
+		load->history[pos] = buf[i];
+		load->history[pos + DSPLOAD_MAX_TAPS] = buf[i];
+		const float* h = &load->history[pos + DSPLOAD_MAX_TAPS - taps + 1];
+		float acc = 0;
+		for(k=0; k<taps; k++) {
+			acc += h[k] * load->coefficients[taps - 1 - k];
+		}
+		load->historyPos = (pos + 1) % DSPLOAD_MAX_TAPS;
+		float y = acc;
+		buf[i] = (short)(y > 32767.0f ? 32767.0f : (y < -32768.0f ? -32768.0f : y));
+	}
+}
+
+static void processBiquads(dspLoad* load, short* buf, unsigned len, int sections) {
+	unsigned i;
+	int s;
+	for(i=0; i<len; i++) {
+		float x = buf[i] * (1.0f / 32768.0f);
+		for(s=0; s<sections; s++) {
+			//transposed direct form II
+			float* z = &load->biquadState[2*s];
+			float y = load->b0 * x + z[0];
+			z[0] = load->b1 * x - load->a1 * y + z[1];
+			z[1] = load->b2 * x - load->a2 * y;
+			x = y * 0.9999f; //keeps the cascade from clipping
+		}
+		float y = x * 32768.0f;
+		buf[i] = (short)(y > 32767.0f ? 32767.0f : (y < -32768.0f ? -32768.0f : y));
+	}
+}
+
+void dspload_process(dspLoad* load, short* buf, unsigned len, int64_t now) {
+	int amount = __atomic_load_n(&load->amount, __ATOMIC_RELAXED);
+	dspLoadType type = __atomic_load_n(&load->type, __ATOMIC_RELAXED);
+
+	if(__atomic_exchange_n(&load->resetRequested, 0, __ATOMIC_ACQUIRE)) {
+		load->lastCallback = 0;
+		__atomic_store_n(&load->callbacks, 0, __ATOMIC_RELAXED);
+		__atomic_store_n(&load->missed, 0, __ATOMIC_RELAXED);
+		__atomic_store_n(&load->sumProcessNs, 0, __ATOMIC_RELAXED);
+		__atomic_store_n(&load->maxProcessNs, 0, __ATOMIC_RELAXED);
+	}
+
+	if(amount > 0) {
+		if(type == load_fir) {
+			processFir(load, buf, len, amount);
+		} else {
+			processBiquads(load, buf, len, amount);
+		}
+	}
+	int64_t processNs = dspload_now() - now;
+
+	int late = load->lastCallback != 0 && (now - load->lastCallback) > load->periodNs * DSPLOAD_LATE_FACTOR;
+	load->lastCallback = now;
+	if(late || processNs > load->periodNs) {
+		__atomic_store_n(&load->missed, load->missed + 1, __ATOMIC_RELAXED);
+	}
+	__atomic_store_n(&load->sumProcessNs, load->sumProcessNs + processNs, __ATOMIC_RELAXED);
+	if(processNs > load->maxProcessNs) __atomic_store_n(&load->maxProcessNs, processNs, __ATOMIC_RELAXED);
+	__atomic_store_n(&load->callbacks, load->callbacks + 1, __ATOMIC_RELEASE);
+}
+
+void dspload_read(dspLoad* load, int64_t* stats) {
+	stats[0] = __atomic_load_n(&load->callbacks, __ATOMIC_ACQUIRE);
+	stats[1] = __atomic_load_n(&load->missed, __ATOMIC_RELAXED);
+	stats[2] = __atomic_load_n(&load->sumProcessNs, __ATOMIC_RELAXED);
+	stats[3] = __atomic_load_n(&load->maxProcessNs, __ATOMIC_RELAXED);
+	stats[4] = load->periodNs;
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef DSPLOAD_H
+#define DSPLOAD_H
+
+#include <stdint.h>
+
+/*
+ * Synthetic processing load, the order has to match
+ * zee.audiobenchmark.analysis.HeadroomSearch.Load
+ */
+typedef enum dspLoadType {
+	load_fir,	//amount = number of taps
+	load_biquad	//amount = number of cascaded sections
+} dspLoadType;
+
+#define DSPLOAD_MAX_TAPS 16384
+#define DSPLOAD_MAX_BIQUADS 2048
+
+/*
+ * Processing load and the timing of the callbacks it runs in.
+ * The load is changed from Java, the statistics are written in the callback.
+ */
+typedef struct dspLoad {
+	dspLoadType type; //atomic
+	int amount; //atomic, 0: no processing
+
+	float* coefficients; //FIR taps
+	float* history; //2*DSPLOAD_MAX_TAPS, mirrored for contiguous reads
+	unsigned historyPos;
+	float* biquadState; //2 per section
+	float b0, b1, b2, a1, a2; //same section repeated, a mild peaking EQ
+
+	int64_t periodNs;
+	int64_t lastCallback;
+
+	//statistics since the last reset, atomic
+	int64_t callbacks;
+	int64_t missed; //late callbacks or processing longer than the period
+	int64_t sumProcessNs;
+	int64_t maxProcessNs;
+	int resetRequested;
+} dspLoad;
+
+void dspload_init(dspLoad* load, unsigned sampleRate, unsigned bufferSize);
+void dspload_destroy(dspLoad* load);
+
+/**
+ * Sets the load, the statistics are reset with the next callback
+ */
+void dspload_set(dspLoad* load, dspLoadType type, int amount);
+void dspload_resetStats(dspLoad* load);
+
+/**
+ * Processes a block in place and updates the statistics, called once per callback
+ * @param now callback time in ns (CLOCK_MONOTONIC)
+ */
+void dspload_process(dspLoad* load, short* buf, unsigned len, int64_t now);
+
+/**
+ * stats: {callbacks, missed, sum of the processing time in ns, max processing time in ns, period in ns}
+ */
+void dspload_read(dspLoad* load, int64_t* stats);
+
+#endif
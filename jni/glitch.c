@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include <math.h>
+#include <glitch.h>
+
+//same constants as in DiscontinuityDetector.java
+#define GLITCH_TOLERANCE 4.0f
+#define GLITCH_NOISE_MARGIN 256.0f
+#define GLITCH_MIN_LEVEL 1024.0f
+#define GLITCH_PEAK_DECAY 0.9999f
+
+void glitch_init(glitchDetector* det, unsigned sampleRate, double frequency, int64_t settleFrames) {
+	double s = sin(M_PI * frequency / sampleRate);
+	det->coefficient = (float)(4 * s * s);
+	det->holdoffFrames = sampleRate / 100; //10ms, a single glitch is counted once
+	det->settleFrames = settleFrames;
+	glitch_reset(det);
+}
+
+void glitch_reset(glitchDetector* det) {
+	det->peak = 0;
+	det->x1 = 0;
+	det->x2 = 0;
+	det->frames = 0;
+	det->nextAllowed = det->settleFrames;
+	det->silentFrames = 0;
+	__atomic_store_n(&det->discontinuities, 0, __ATOMIC_RELAXED);
+	__atomic_store_n(&det->publishedFrames, 0, __ATOMIC_RELEASE);
+}
+
+void glitch_process(glitchDetector* det, const short* src, unsigned len) {
+	unsigned i;
+	float limit = GLITCH_TOLERANCE * det->coefficient;
+	for(i=0; i<len; i++) {
+		int x = src[i];
+		float a = (float)(x < 0 ? -x : x);
+		det->peak = a > det->peak ? a : det->peak * GLITCH_PEAK_DECAY;
+
+		if(det->frames >= det->settleFrames) {
+			int d = x - 2*det->x1 + det->x2;
+			if(d < 0) d = -d;
+			if(det->peak < GLITCH_MIN_LEVEL) {
+				det->silentFrames++;
+			} else if(d > limit * det->peak + GLITCH_NOISE_MARGIN && det->frames >= det->nextAllowed) {
+				__atomic_store_n(&det->discontinuities, det->discontinuities + 1, __ATOMIC_RELAXED);
+				det->nextAllowed = det->frames + det->holdoffFrames;
+			}
+		}
+		det->x2 = det->x1;
+		det->x1 = x;
+		det->frames++;
+	}
+	__atomic_store_n(&det->publishedFrames, det->frames, __ATOMIC_RELEASE);
+}
+
+void glitch_read(glitchDetector* det, int64_t* discontinuities, int64_t* frames) {
+	*frames = __atomic_load_n(&det->publishedFrames, __ATOMIC_ACQUIRE);
+	*discontinuities = __atomic_load_n(&det->discontinuities, __ATOMIC_RELAXED);
+}
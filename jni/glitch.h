@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef GLITCH_H
+#define GLITCH_H
+
+#include <stdint.h>
+
+/*
+ * Detects discontinuities in a received sine, see
+ * zee.audiobenchmark.analysis.DiscontinuityDetector for the criterion.
+ * Written in the recorder callback, the counters are read from Java.
+ */
+typedef struct glitchDetector {
+	float coefficient;
+	int64_t holdoffFrames;
+	int64_t settleFrames;
+
+	float peak;
+	int x1, x2;
+	int64_t frames;
+	int64_t nextAllowed;
+	int64_t discontinuities; //atomic, read from Java
+	int64_t silentFrames;
+	int64_t publishedFrames; //atomic, updated once per block
+} glitchDetector;
+
+void glitch_init(glitchDetector* det, unsigned sampleRate, double frequency, int64_t settleFrames);
+void glitch_reset(glitchDetector* det);
+
+/**
+ * Checks len samples, does not allocate
+ */
+void glitch_process(glitchDetector* det, const short* src, unsigned len);
+
+/**
+ * Counters for other threads: {discontinuities, frames}
+ */
+void glitch_read(glitchDetector* det, int64_t* discontinuities, int64_t* frames);
+
+#endif
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include <string.h>
+#include <metrics.h>
+
+//static, the Java buffer stays valid when the engine is re-created
+engineMetrics metrics;
+
+void metrics_recorderInterval(int64_t now) {
+	int64_t last = metrics.lastRecorderStamp;
+	metrics.lastRecorderStamp = now;
+	if(last == 0) return;
+
+	int64_t us = (now - last) / 1000;
+	int bucket = us <= 0 ? 0 : 64 - __builtin_clzll((uint64_t)us);
+	if(bucket >= METRIC_INTERVAL_BUCKETS) bucket = METRIC_INTERVAL_BUCKETS - 1;
+	__atomic_store_n(&metrics.intervalBuckets[bucket], metrics.intervalBuckets[bucket] + 1, __ATOMIC_RELAXED);
+	if(us > UINT32_MAX) us = UINT32_MAX;
+	if(us > metrics.intervalMaxUs) __atomic_store_n(&metrics.intervalMaxUs, (uint32_t)us, __ATOMIC_RELAXED);
+}
+
+void metrics_reset() {
+	memset(&metrics, 0, sizeof(engineMetrics));
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef METRICS_H
+#define METRICS_H
+
+#include <stdint.h>
+
+/*
+ * Counters of the engine, the order has to match
+ * NativeMetrics.counterNames in the Java code.
+ */
+typedef enum metricId {
+	metric_playerCallbacks,
+	metric_recorderCallbacks,
+	metric_playerEnqueueFailures,
+	metric_recorderEnqueueFailures,
+	metric_impulsesEmitted,
+	metric_impulsesDetected,
+	metric_impulsesMissed,
+	metric_numCounters
+} metricId;
+
+//power of two buckets of the recorder callback interval in us
+#define METRIC_INTERVAL_BUCKETS 32
+
+/*
+ * Shared with Java through a direct ByteBuffer, 32 bit values in native byte order.
+ * 32 bit atomics are lock-free on all ABIs, 64 bit ones are not on armeabi and mips.
+ * The counters are incremented atomically, as both callbacks enqueue to the player
+ * queue. The interval values have a single writer (the recorder callback), Java only reads.
+ */
+typedef struct engineMetrics {
+	uint32_t counters[metric_numCounters];
+	uint32_t intervalBuckets[METRIC_INTERVAL_BUCKETS];
+	uint32_t intervalMaxUs;
+	int64_t lastRecorderStamp; //ns, recorder callback only, not exported
+} engineMetrics;
+
+//values visible to Java: counters, buckets and maximum
+#define METRIC_EXPORTED_VALUES (metric_numCounters + METRIC_INTERVAL_BUCKETS + 1)
+
+extern engineMetrics metrics;
+
+static inline void metrics_inc(metricId id) {
+	__atomic_fetch_add(&metrics.counters[id], 1, __ATOMIC_RELAXED);
+}
+
+/**
+ * Recorder callback: records the interval to the previous callback
+ */
+void metrics_recorderInterval(int64_t now);
+
+/**
+ * Increments of running callbacks may be lost
+ */
+void metrics_reset();
+
+#endif
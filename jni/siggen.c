@@ -0,0 +1,230 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#include <siggen.h>
+
+#include <limits.h>
+#include <math.h>
+
+/*
+ * Same algorithms and tables as the Java SignalGenerator
+ */
+
+//sine wavetable, one additional entry for the interpolation
+#define TABLE_BITS 12
+#define TABLE_SIZE (1 << TABLE_BITS)
+static float sineTable[TABLE_SIZE+1];
+
+//band limited click: windowed sinc, cut off below nyquist
+#define CLICK_LENGTH 31
+#define CLICK_CUTOFF 0.45
+static float clickKernel[CLICK_LENGTH];
+
+//feedback taps for maximal length LFSRs, index = order
+static const uint32_t mlsTaps[] = {
+	0, 0, 0x3, 0x6, 0xC, 0x14, 0x30, 0x60, 0xB8, 0x110, 0x240, 0x500, 0xE08, 0x1C80,
+	0x3802, 0x6000, 0xD008, 0x12000, 0x20400, 0x72000, 0x90000
+};
+#define MLS_MAX_ORDER 20
+
+static int tablesReady = 0;
+
+void siggen_initTables() {
+	unsigned i;
+	int center = CLICK_LENGTH/2;
+	if(tablesReady) return;
+	for(i=0; i<=TABLE_SIZE; i++) {
+		sineTable[i] = (float)sin(2*M_PI*i/TABLE_SIZE);
+	}
+	for(i=0; i<CLICK_LENGTH; i++) {
+		double x = (int)i - center;
+		double sinc = x == 0 ? 1.0 : sin(2*M_PI*CLICK_CUTOFF*x) / (2*M_PI*CLICK_CUTOFF*x);
+		double blackman = 0.42 - 0.5*cos(2*M_PI*i/(CLICK_LENGTH-1)) + 0.08*cos(4*M_PI*i/(CLICK_LENGTH-1));
+		clickKernel[i] = (float)(sinc*blackman);
+	}
+	tablesReady = 1;
+}
+
+void siggen_init(sigGen* gen, unsigned sampleRate) {
+	siggen_initTables();
+	gen->sampleRate = sampleRate;
+	gen->signal = sig_silence;
+	gen->amplitude = 1.0f;
+	gen->period = 0;
+	gen->startIncrement = 0.0;
+	gen->sweepFactor = 1.0;
+	gen->sweepLength = 1;
+	gen->lfsrTaps = 0;
+	gen->noiseState = 0x12345678;
+	siggen_reset(gen);
+}
+
+void siggen_reset(sigGen* gen) {
+	gen->position = 0;
+	gen->phase = 0.0;
+	gen->increment = gen->startIncrement;
+	gen->lfsr = 1;
+	gen->b0 = gen->b1 = gen->b2 = gen->b3 = gen->b4 = gen->b5 = gen->b6 = 0.0f;
+}
+
+void siggen_setSilence(sigGen* gen) {
+	gen->signal = sig_silence;
+	siggen_reset(gen);
+}
+
+void siggen_setImpulse(sigGen* gen, int period, float amplitude) {
+	gen->signal = sig_impulse;
+	gen->period = period;
+	gen->amplitude = amplitude;
+	siggen_reset(gen);
+}
+
+void siggen_setClick(sigGen* gen, int period, float amplitude) {
+	gen->signal = sig_click;
+	gen->period = period;
+	gen->amplitude = amplitude;
+	siggen_reset(gen);
+}
+
+/*
+ * Frequencies must lie within 0..fs/2, otherwise the phase leaves the table
+ */
+static int siggen_validFrequency(sigGen* gen, double frequency) {
+	return frequency >= 0 && frequency <= gen->sampleRate/2.0;
+}
+
+int siggen_setSine(sigGen* gen, double frequency, float amplitude) {
+	if(!siggen_validFrequency(gen, frequency)) return -1;
+	gen->signal = sig_sine;
+	gen->amplitude = amplitude;
+	gen->startIncrement = frequency / gen->sampleRate * TABLE_SIZE;
+	siggen_reset(gen);
+	return 0;
+}
+
+int siggen_setLogSweep(sigGen* gen, double f0, double f1, double seconds, float amplitude) {
+	if(f0 <= 0 || f1 <= 0 || !siggen_validFrequency(gen, f0) || !siggen_validFrequency(gen, f1)) return -1;
+	gen->signal = sig_logSweep;
+	gen->amplitude = amplitude;
+	gen->startIncrement = f0 / gen->sampleRate * TABLE_SIZE;
+	gen->sweepLength = (int64_t)(seconds * gen->sampleRate);
+	if(gen->sweepLength < 1) gen->sweepLength = 1;
+	gen->sweepFactor = pow(f1/f0, 1.0/gen->sweepLength);
+	siggen_reset(gen);
+	return 0;
+}
+
+int siggen_setMls(sigGen* gen, int order, float amplitude) {
+	if(order < 2 || order > MLS_MAX_ORDER) return -1;
+	gen->signal = sig_mls;
+	gen->amplitude = amplitude;
+	gen->lfsrTaps = mlsTaps[order];
+	siggen_reset(gen);
+	return 0;
+}
+
+void siggen_setWhiteNoise(sigGen* gen, float amplitude) {
+	gen->signal = sig_whiteNoise;
+	gen->amplitude = amplitude;
+	siggen_reset(gen);
+}
+
+void siggen_setPinkNoise(sigGen* gen, float amplitude) {
+	gen->signal = sig_pinkNoise;
+	gen->amplitude = amplitude;
+	siggen_reset(gen);
+}
+
+static inline int64_t siggen_periodPosition(sigGen* gen) {
+	if(gen->period <= 0) return gen->position;
+	return gen->position % gen->period;
+}
+
+static inline float siggen_tableLookup(sigGen* gen) {
+	int i = (int)gen->phase;
+	float frac = (float)(gen->phase - i);
+	return sineTable[i] + frac * (sineTable[i+1] - sineTable[i]);
+}
+
+//xorshift32, uniform in -1..1
+static inline float siggen_nextNoise(sigGen* gen) {
+	uint32_t x = gen->noiseState;
+	x ^= x << 13;
+	x ^= x >> 17;
+	x ^= x << 5;
+	gen->noiseState = x;
+	return (int32_t)x / 2147483648.0f;
+}
+
+static inline float siggen_nextSample(sigGen* gen) {
+	float v, white;
+	int64_t p;
+	switch(gen->signal) {
+	case sig_impulse:
+		v = siggen_periodPosition(gen) == 0 ? gen->amplitude : 0.0f;
+		break;
+	case sig_click:
+		p = siggen_periodPosition(gen);
+		v = p < CLICK_LENGTH ? gen->amplitude * clickKernel[p] : 0.0f;
+		break;
+	case sig_sine:
+		v = gen->amplitude * siggen_tableLookup(gen);
+		gen->phase += gen->increment;
+		if(gen->phase >= TABLE_SIZE) gen->phase -= TABLE_SIZE;
+		break;
+	case sig_logSweep:
+		v = gen->amplitude * siggen_tableLookup(gen);
+		gen->phase += gen->increment;
+		if(gen->phase >= TABLE_SIZE) gen->phase -= TABLE_SIZE;
+		gen->increment *= gen->sweepFactor;
+		if((gen->position+1) % gen->sweepLength == 0) gen->increment = gen->startIncrement;
+		break;
+	case sig_mls:
+		v = (gen->lfsr & 1) ? gen->amplitude : -gen->amplitude;
+		gen->lfsr = (gen->lfsr >> 1) ^ ((gen->lfsr & 1) ? gen->lfsrTaps : 0);
+		break;
+	case sig_whiteNoise:
+		v = gen->amplitude * siggen_nextNoise(gen);
+		break;
+	case sig_pinkNoise:
+		//Paul Kellet's refined filter, gain normalized to roughly full scale
+		white = siggen_nextNoise(gen);
+		gen->b0 = 0.99886f*gen->b0 + white*0.0555179f;
+		gen->b1 = 0.99332f*gen->b1 + white*0.0750759f;
+		gen->b2 = 0.96900f*gen->b2 + white*0.1538520f;
+		gen->b3 = 0.86650f*gen->b3 + white*0.3104856f;
+		gen->b4 = 0.55000f*gen->b4 + white*0.5329522f;
+		gen->b5 = -0.7616f*gen->b5 - white*0.0168980f;
+		v = gen->amplitude * 0.11f * (gen->b0 + gen->b1 + gen->b2 + gen->b3 + gen->b4 + gen->b5 + gen->b6 + white*0.5362f);
+		gen->b6 = white*0.115926f;
+		break;
+	case sig_silence:
+	default:
+		v = 0.0f;
+		break;
+	}
+	gen->position++;
+	return v;
+}
+
+void siggen_render(sigGen* gen, short* dst, unsigned len) {
+	unsigned i;
+	for(i=0; i<len; i++) {
+		float v = siggen_nextSample(gen) * SHRT_MAX;
+		if(v > SHRT_MAX) v = SHRT_MAX;
+		if(v < SHRT_MIN) v = SHRT_MIN;
+		dst[i] = (short)v;
+	}
+}
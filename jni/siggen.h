@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef SIGGEN_H
+#define SIGGEN_H
+
+#include <stdint.h>
+
+/*
+ * Available signals, the order has to match
+ * zee.audiobenchmark.dsp.SignalGenerator.Signal
+ */
+typedef enum signalType {
+	sig_silence,
+	sig_impulse,
+	sig_click,
+	sig_sine,
+	sig_logSweep,
+	sig_mls,
+	sig_whiteNoise,
+	sig_pinkNoise
+} signalType;
+
+/*
+ * Generator state, renders block by block without discontinuities
+ */
+typedef struct signalGenerator {
+	unsigned sampleRate;
+	signalType signal;
+	float amplitude;
+
+	int period; //impulse/click period in samples, 0: only once
+	int64_t position;
+
+	double phase; //sine and sweep, in table entries
+	double increment;
+	double startIncrement;
+	double sweepFactor;
+	int64_t sweepLength;
+
+	uint32_t lfsr;
+	uint32_t lfsrTaps;
+
+	uint32_t noiseState;
+	float b0, b1, b2, b3, b4, b5, b6;
+} sigGen;
+
+/**
+ * Calculates the wave tables, called once before the first use
+ */
+void siggen_initTables();
+
+void siggen_init(sigGen* gen, unsigned sampleRate);
+void siggen_setSilence(sigGen* gen);
+void siggen_setImpulse(sigGen* gen, int period, float amplitude);
+void siggen_setClick(sigGen* gen, int period, float amplitude);
+//sine and sweep return -1 for frequencies outside 0..fs/2 (sweep: above 0)
+int siggen_setSine(sigGen* gen, double frequency, float amplitude);
+int siggen_setLogSweep(sigGen* gen, double f0, double f1, double seconds, float amplitude);
+int siggen_setMls(sigGen* gen, int order, float amplitude);
+void siggen_setWhiteNoise(sigGen* gen, float amplitude);
+void siggen_setPinkNoise(sigGen* gen, float amplitude);
+void siggen_reset(sigGen* gen);
+
+/**
+ * Render the next len samples as 16 bit PCM
+ */
+void siggen_render(sigGen* gen, short* dst, unsigned len);
+
+#endif
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include <math.h>
+#include <steady.h>
+
+//same constants as in SteadyStateDetector.java
+#define STEADY_MEAN_TOLERANCE 2.0
+#define STEADY_MAX_VARIANCE_RATIO 4.0
+
+void steady_init(steadyDetector* det, int window, int maxWarmup, double resolution) {
+	if(window > STEADY_MAX_WINDOW) window = STEADY_MAX_WINDOW;
+	if(window < 2) window = 0;
+	det->window = window;
+	det->maxWarmup = maxWarmup;
+	det->resolution = resolution;
+	det->count = 0;
+	det->steady = window == 0;
+	det->reached = 0;
+	det->warmup = 0;
+}
+
+static int steady_isSteadyWindow(steadyDetector* det) {
+	int len = 2 * det->window;
+	int start = det->count % len;
+	int i;
+	double sumA = 0, sumB = 0, varA = 0, varB = 0;
+	for(i=0; i<det->window; i++) {
+		sumA += det->ring[(start + i) % len];
+		sumB += det->ring[(start + det->window + i) % len];
+	}
+	double meanA = sumA / det->window;
+	double meanB = sumB / det->window;
+	for(i=0; i<det->window; i++) {
+		double a = det->ring[(start + i) % len] - meanA;
+		double b = det->ring[(start + det->window + i) % len] - meanB;
+		varA += a * a;
+		varB += b * b;
+	}
+	double quantization = det->resolution * det->resolution / 12;
+	varA = varA / (det->window - 1) + quantization;
+	varB = varB / (det->window - 1) + quantization;
+
+	double meanLimit = STEADY_MEAN_TOLERANCE * sqrt((varA + varB) / det->window);
+	if(meanLimit < det->resolution) meanLimit = det->resolution;
+	if(fabs(meanA - meanB) > meanLimit) return 0;
+	return (varA > varB ? varA / varB : varB / varA) <= STEADY_MAX_VARIANCE_RATIO;
+}
+
+int steady_add(steadyDetector* det, double value) {
+	int len = 2 * det->window;
+	if(det->steady) return 1;
+	det->ring[det->count % len] = value;
+	det->count++;
+	if(det->count < len) return 0;
+
+	if(steady_isSteadyWindow(det)) {
+		det->reached = 1;
+		det->warmup = det->count - len;
+		det->steady = 1;
+	} else if(det->count - len >= det->maxWarmup) {
+		//no steady state, keep everything
+		det->warmup = 0;
+		det->steady = 1;
+	}
+	return det->steady;
+}
+
+int steady_capacity(steadyDetector* det) {
+	return det->window > 0 ? det->maxWarmup + 2 * det->window : 0;
+}
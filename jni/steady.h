@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef STEADY_H
+#define STEADY_H
+
+#include <stdint.h>
+
+#define STEADY_MAX_WINDOW 32
+
+/*
+ * Detects the end of the warm-up of the latency test, see
+ * zee.audiobenchmark.analysis.SteadyStateDetector for the criterion.
+ * Fed in the recorder callback, does not allocate.
+ */
+typedef struct steadyDetector {
+	int window;			//0: disabled, every result is steady
+	int maxWarmup;
+	double resolution;
+
+	double ring[2*STEADY_MAX_WINDOW];
+	int count;
+	int steady;			//the decision is made
+	int reached;		//a steady state was found
+	int warmup;			//results before the steady state
+} steadyDetector;
+
+/**
+ * @params window: results per compared window (2..STEADY_MAX_WINDOW, 0 disables),
+ * maxWarmup: results after which nothing is discarded, resolution: of the results
+ */
+void steady_init(steadyDetector* det, int window, int maxWarmup, double resolution);
+
+/**
+ * Adds the next result
+ * @return 1 once the decision is made
+ */
+int steady_add(steadyDetector* det, double value);
+
+/**
+ * Results that have to be kept until the decision
+ */
+int steady_capacity(steadyDetector* det);
+
+#endif
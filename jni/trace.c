@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <sys/syscall.h>
+#include <trace.h>
+
+//the thread id is read once per thread
+static __thread int32_t traceTid = 0;
+
+int traceRing_init(traceRing* ring, uint32_t size) {
+	memset(ring, 0, sizeof(traceRing));
+	if(size < 2 || (size & (size-1)) != 0) return -1;
+	ring->events = malloc(size * sizeof(traceEvent));
+	if(ring->events == NULL) return -1;
+	ring->size = size;
+	return 0;
+}
+
+void traceRing_write(traceRing* ring, int name, int64_t start, int64_t duration) {
+	traceEvent* e;
+	uint32_t wp;
+
+	if(!ring->enabled || ring->events == NULL) return;
+	if(traceTid == 0) traceTid = (int32_t)syscall(__NR_gettid);
+
+	wp = ring->wp; //only written here
+	e = &ring->events[wp & (ring->size-1)];
+	e->start = start;
+	e->duration = duration;
+	e->tid = traceTid;
+	e->name = name;
+	__atomic_store_n(&ring->wp, wp + 1, __ATOMIC_RELEASE);
+}
+
+uint32_t traceRing_read(traceRing* ring, int64_t* dst, uint32_t max) {
+	uint32_t wp, count, first, i;
+
+	if(ring->events == NULL) return 0;
+
+	wp = __atomic_load_n(&ring->wp, __ATOMIC_ACQUIRE);
+	count = wp < ring->size ? wp : ring->size;
+	if(count > max) count = max;
+	first = wp - count;
+	for(i=0; i<count; i++) {
+		traceEvent* e = &ring->events[(first + i) & (ring->size-1)];
+		dst[4*i] = e->start;
+		dst[4*i+1] = e->duration;
+		dst[4*i+2] = e->tid;
+		dst[4*i+3] = e->name;
+	}
+	return count;
+}
+
+/*
+ * Only to be called while no callback is writing
+ */
+void traceRing_reset(traceRing* ring) {
+	ring->wp = 0;
+}
+
+void traceRing_destroy(traceRing* ring) {
+	free(ring->events);
+	memset(ring, 0, sizeof(traceRing));
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef TRACE_H
+#define TRACE_H
+
+#include <stdint.h>
+#include <time.h>
+
+/*
+ * Names of the traced points, the order has to match
+ * Tracer.nativeNames in the Java code.
+ */
+typedef enum traceName {
+	trace_playerCallback,
+	trace_recorderCallback,
+	trace_playerEnqueue,
+	trace_recorderEnqueue,
+	trace_impulseEmit,
+	trace_impulseDetect
+} traceName;
+
+//duration of an instant event
+#define TRACE_INSTANT (-1)
+
+typedef struct traceEvent {
+	int64_t start; //ns, CLOCK_MONOTONIC like System.nanoTime()
+	int64_t duration; //ns, TRACE_INSTANT for instant events
+	int32_t tid;
+	int32_t name;
+} traceEvent;
+
+/*
+ * Preallocated event ring of one audio callback (single writer).
+ * Keeps the newest events, the oldest ones are overwritten.
+ * Read only after tracing has been disabled.
+ */
+typedef struct traceRing {
+	traceEvent* events;
+	uint32_t size; //power of two
+	volatile uint32_t wp; //free running event counter
+	volatile int enabled;
+} traceRing;
+
+/**
+ * @return 0 on success
+ */
+int traceRing_init(traceRing* ring, uint32_t size);
+
+/**
+ * Audio thread: stores one event
+ */
+void traceRing_write(traceRing* ring, int name, int64_t start, int64_t duration);
+
+/**
+ * Copies up to max events, oldest first, as 4 values each:
+ * start, duration, thread id, name
+ * @return number of events copied
+ */
+uint32_t traceRing_read(traceRing* ring, int64_t* dst, uint32_t max);
+
+void traceRing_reset(traceRing* ring);
+void traceRing_destroy(traceRing* ring);
+
+static inline int64_t trace_now() {
+	struct timespec stamp;
+	clock_gettime(CLOCK_MONOTONIC, &stamp);
+	return stamp.tv_sec * 1000000000LL + stamp.tv_nsec;
+}
+
+/*
+ * Start of a span, 0 if tracing is disabled (no clock read)
+ */
+static inline int64_t trace_begin(traceRing* ring) {
+	return ring->enabled ? trace_now() : 0;
+}
+
+static inline void trace_end(traceRing* ring, int name, int64_t start) {
+	if(start != 0) traceRing_write(ring, name, start, trace_now() - start);
+}
+
+static inline void trace_instant(traceRing* ring, int name) {
+	if(ring->enabled) traceRing_write(ring, name, trace_now(), TRACE_INSTANT);
+}
+
+#endif
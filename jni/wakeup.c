@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include <stdlib.h>
+#include <string.h>
+#include <errno.h>
+#include <time.h>
+#include <pthread.h>
+#include <unistd.h>
+#include <sys/resource.h>
+#include <sys/syscall.h>
+#include <wakeup.h>
+
+#define WAKEUP_MAX_THREADS 64
+
+typedef struct wakeupWorker {
+	pthread_t thread;
+	int64_t periodNs;
+	int64_t endNs;
+	int nice;
+	wakeupResult local; //merged after join, no sharing while running
+} wakeupWorker;
+
+static int64_t wakeup_now() {
+	struct timespec stamp;
+	clock_gettime(CLOCK_MONOTONIC, &stamp);
+	return stamp.tv_sec * 1000000000LL + stamp.tv_nsec;
+}
+
+static void* wakeup_thread(void* arg) {
+	wakeupWorker* w = arg;
+	wakeupResult* r = &w->local;
+	struct timespec deadline;
+	int64_t next;
+	int rc;
+
+	//the nice value of a single thread, like android.os.Process.setThreadPriority
+	if(setpriority(PRIO_PROCESS, (id_t)syscall(__NR_gettid), w->nice) == 0) r->prioritySet = 1;
+
+	next = wakeup_now() + w->periodNs;
+	while(next < w->endNs) {
+		int64_t late;
+		unsigned bin;
+		deadline.tv_sec = next / 1000000000LL;
+		deadline.tv_nsec = next % 1000000000LL;
+		while((rc = clock_nanosleep(CLOCK_MONOTONIC, TIMER_ABSTIME, &deadline, NULL)) == EINTR) {
+			//interrupted by a signal, sleep again
+		}
+		//any other error ends the thread with the results so far
+		if(rc != 0) break;
+		late = wakeup_now() - next;
+		if(late < 0) late = 0;
+
+		bin = (unsigned)(late / r->binNs);
+		if(bin >= r->numBins) bin = r->numBins - 1;
+		r->bins[bin]++;
+		r->count++;
+		r->sumNs += late;
+		if(late > r->maxNs) r->maxNs = late;
+
+		//missed periods are skipped, as an audio callback would be late only once
+		next += w->periodNs;
+		if(late > w->periodNs) next += (late / w->periodNs) * w->periodNs;
+	}
+	return NULL;
+}
+
+int wakeup_run(unsigned threads, int64_t periodNs, unsigned seconds, int nice, wakeupResult* result) {
+	wakeupWorker* workers;
+	unsigned i, b, started = 0;
+	int64_t end;
+
+	if(threads < 1 || threads > WAKEUP_MAX_THREADS || periodNs <= 0 || result->numBins < 1 || result->binNs <= 0) return -1;
+	workers = calloc(threads, sizeof(wakeupWorker));
+	if(workers == NULL) return -1;
+
+	end = wakeup_now() + seconds * 1000000000LL;
+	for(i=0; i<threads; i++) {
+		wakeupWorker* w = &workers[i];
+		w->periodNs = periodNs;
+		w->endNs = end;
+		w->nice = nice;
+		w->local.numBins = result->numBins;
+		w->local.binNs = result->binNs;
+		w->local.bins = calloc(result->numBins, sizeof(int64_t));
+		if(w->local.bins == NULL || pthread_create(&w->thread, NULL, wakeup_thread, w) != 0) break;
+		started++;
+	}
+
+	for(i=0; i<started; i++) {
+		wakeupResult* r = &workers[i].local;
+		pthread_join(workers[i].thread, NULL);
+		for(b=0; b<result->numBins; b++) {
+			result->bins[b] += r->bins[b];
+		}
+		result->count += r->count;
+		result->sumNs += r->sumNs;
+		if(r->maxNs > result->maxNs) result->maxNs = r->maxNs;
+		result->prioritySet += r->prioritySet;
+	}
+	for(i=0; i<threads; i++) {
+		free(workers[i].local.bins);
+	}
+	free(workers);
+	return started == threads ? 0 : -1;
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef WAKEUP_H
+#define WAKEUP_H
+
+#include <stdint.h>
+
+/*
+ * Timer wake-up latency (cyclictest style): threads sleep on clock_nanosleep
+ * with absolute deadlines one period apart and record the oversleep.
+ */
+typedef struct wakeupResult {
+	int64_t* bins; //oversleep histogram, binNs wide, the last bin collects the overflow
+	unsigned numBins;
+	int64_t binNs;
+	int64_t count;
+	int64_t sumNs;
+	int64_t maxNs;
+	int prioritySet; //threads which could set the requested nice value
+} wakeupResult;
+
+/**
+ * Blocks for the duration of the test, the result has to be zeroed and
+ * the bins allocated by the caller
+ * @param threads
+ * @param periodNs
+ * @param seconds
+ * @param nice priority of the threads, e.g. -16 like THREAD_PRIORITY_AUDIO
+ * @return 0 on success
+ */
+int wakeup_run(unsigned threads, int64_t periodNs, unsigned seconds, int nice, wakeupResult* result);
+
+#endif
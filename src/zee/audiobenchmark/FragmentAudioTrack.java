@@ -16,16 +16,37 @@
 
 package zee.audiobenchmark;
 
+import zee.audiobenchmark.analysis.CpuCost;
+import zee.audiobenchmark.analysis.WakeupReport;
+import zee.audiobenchmark.datatypes.LatencySampleQueue;
+import zee.audiobenchmark.datatypes.SystemParameters;
 import zee.audiobenchmark.datatypes.TestResult;
+import zee.audiobenchmark.dsp.ProcessorChain;
+import zee.audiobenchmark.dsp.SpectrumAnalyser;
 import zee.audiobenchmark.interfaces.AsyncResponse;
 import zee.audiobenchmark.tasks.AudioRecordLatencyTest;
 import zee.audiobenchmark.tasks.AudioRecordLoopback;
+import zee.audiobenchmark.tasks.AudioTrackBufferProbe;
+import zee.audiobenchmark.tasks.BufferSizeTuneTask;
+import zee.audiobenchmark.tasks.ClockDriftTest;
+import zee.audiobenchmark.tasks.MediaPlayerTrigger;
+import zee.audiobenchmark.tasks.ResultStore;
+import zee.audiobenchmark.tasks.SoakTest;
+import zee.audiobenchmark.tasks.SoundPoolTrigger;
+import zee.audiobenchmark.tasks.StressLatencyTest;
+import zee.audiobenchmark.tasks.TraceSession;
+import zee.audiobenchmark.tasks.TriggerLatencyTest;
+import zee.audiobenchmark.tasks.WakeupLatencyTest;
+import zee.audiobenchmark.tools.Metrics;
+import zee.audiobenchmark.views.LatencyPlotView;
 
 import android.app.Activity;
 import android.app.Fragment;
 import android.os.Bundle;
+import android.os.Handler;
 import android.text.method.ScrollingMovementMethod;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -48,15 +69,52 @@ public class FragmentAudioTrack extends Fragment implements AsyncResponse {
 	//The loopback and latency test are started in AsyncThread implementations 
 	AudioRecordLoopback loopbackThread = null;
 	AudioRecordLatencyTest latencyThread = null;
+	ClockDriftTest driftThread = null;
+	BufferSizeTuneTask tuneThread = null;
+	StressLatencyTest stressThread = null;
+	TriggerLatencyTest triggerThread = null;
+	WakeupLatencyTest wakeupThread = null;
+	SoakTest soakThread = null;
 	boolean loopbackActive = false;
 	boolean testActive = false;
+	boolean driftActive = false;
+	boolean tuneActive = false;
+	boolean stressActive = false;
+	boolean triggerActive = false;
+	boolean wakeupActive = false;
+	boolean soakActive = false;
 
 	private Button btnLoopback = null;
 	private Button btnLatency = null;
+	private Button btnDrift = null;
+	private Button btnTune = null;
+	private Button btnStress = null;
+	private Button btnSoundPool = null;
+	private Button btnMediaPlayer = null;
+	private Button btnWakeup = null;
+	private Button btnSoakLatency = null;
+	private Button btnSoakLoopback = null;
 	private TextView twResults = null;
+	private LatencyPlotView latencyPlot = null;
+
+	//single results of the running test, drained once per display frame
+	private final long[] progressLatency = new long[256];
+	private final long[] progressNormalized = new long[256];
 
 	TestResult results;
 
+	//last wake-up measurement, attached to results with the same configuration
+	private WakeupReport lastWakeup = null;
+
+	//trace of the running test, null if tracing is disabled
+	private TraceSession trace = null;
+
+	//the loopback analyser is polled on the UI thread
+	private static final long analyserPollMs = 200;
+	private final Handler analyserHandler = new Handler();
+	private static final long soakPollMs = 1000;
+	private final SpectrumAnalyser.Snapshot analyserSnapshot = new SpectrumAnalyser.Snapshot(SystemParameters.analyserFftSize/2);
+
 	@Override
 	public void onCreate(Bundle icicle) {
 		super.onCreate(icicle);
@@ -91,13 +149,15 @@ public class FragmentAudioTrack extends Fragment implements AsyncResponse {
 			{
 				if(!loopbackActive) {
 					if(!bufferSizeValid()) return;
-					cancelTestIfActive();
+					cancelAllTasks();
 					loopbackActive = true;
 					Toast.makeText(act.getApplicationContext(), "Loopback enabled", Toast.LENGTH_LONG).show();
 					Log.d(LOG_TAG,"Starting loopback async thread");
 					btnLoopback.setText("Loopback active...");
 					loopbackThread = new AudioRecordLoopback();
+					startTrace("loopback");
 					loopbackThread.execute(MainActivity.params);
+					analyserHandler.postDelayed(analyserPoll, analyserPollMs);
 				} else {
 					cancelLoopbackIfActive();
 				}
@@ -114,59 +174,436 @@ public class FragmentAudioTrack extends Fragment implements AsyncResponse {
 			{
 				if(!testActive) {
 					if(!bufferSizeValid()) return;
-					cancelLoopbackIfActive();
+					cancelAllTasks();
 					testActive = true;
 					Log.i(LOG_TAG, MainActivity.params.toString());
 					twResults.setText("please wait...");
 					latencyThread = new AudioRecordLatencyTest();
 					latencyThread.delegate = parent;
+					latencyPlot.clear();
+					startTrace("latency");
 					latencyThread.execute(MainActivity.params);
+					Choreographer.getInstance().postFrameCallback(progressUpdate);
 				} else {
 					cancelTestIfActive();
 				}
 			}
 		}); 
 
+		//configure "clock drift" button
+		//on press, an async ClockDriftTest thread is started, 
+		//a second press ends the measurement and shows the result
+		btnDrift = (Button) fragStdAPIView.findViewById(R.id.btnDrift);
+		btnDrift.setOnClickListener(new OnClickListener()
+		{
+			public void onClick(View v) 
+			{
+				if(!driftActive) {
+					if(!bufferSizeValid()) return;
+					cancelAllTasks();
+					driftActive = true;
+					Log.i(LOG_TAG, MainActivity.params.toString());
+					twResults.setText("Measuring clock drift for up to " + MainActivity.params.driftTestSeconds + "s, click again to finish earlier...");
+					btnDrift.setText("Active, click to finish");
+					driftThread = new ClockDriftTest();
+					driftThread.delegate = parent;
+					startTrace("drift");
+					driftThread.execute(MainActivity.params);
+				} else if(driftThread != null) {
+					twResults.setText("finishing...");
+					driftThread.finish();
+				}
+			}
+		}); 
+
+		//configure "find buffer size" button
+		//on press, an async BufferSizeTuneTask runs loopback probes with several buffer sizes
+		btnTune = (Button) fragStdAPIView.findViewById(R.id.btnTune);
+		btnTune.setOnClickListener(new OnClickListener()
+		{
+			public void onClick(View v) 
+			{
+				if(!tuneActive) {
+					cancelAllTasks();
+					tuneActive = true;
+					Log.i(LOG_TAG, MainActivity.params.toString());
+					twResults.setText("Searching the smallest stable buffer size, this takes several minutes...");
+					btnTune.setText("Active, click to abort");
+					tuneThread = new BufferSizeTuneTask(new AudioTrackBufferProbe(MainActivity.params.sampleRate), TestResult.apiType.audioRecord);
+					tuneThread.delegate = parent;
+					tuneThread.execute(MainActivity.params);
+				} else {
+					cancelTuneIfActive();
+				}
+			}
+		}); 
+
+		//configure "latency under CPU load" button
+		//on press, an async StressLatencyTest measures with 0..all cores busy
+		btnStress = (Button) fragStdAPIView.findViewById(R.id.btnStress);
+		btnStress.setOnClickListener(new OnClickListener()
+		{
+			public void onClick(View v) 
+			{
+				if(!stressActive) {
+					if(!bufferSizeValid()) return;
+					cancelAllTasks();
+					stressActive = true;
+					Log.i(LOG_TAG, MainActivity.params.toString());
+					twResults.setText("Measuring with " + MainActivity.params.stressLoad + " load on 0.." 
+							+ Runtime.getRuntime().availableProcessors() + " cores, this takes several minutes...");
+					btnStress.setText("Active, click to abort");
+					stressThread = new StressLatencyTest();
+					stressThread.delegate = parent;
+					stressThread.execute(MainActivity.params);
+				} else {
+					cancelStressIfActive();
+				}
+			}
+		}); 
+
+		//configure the trigger latency buttons
+		//on press, an async TriggerLatencyTest plays a clip with SoundPool or MediaPlayer
+		btnSoundPool = (Button) fragStdAPIView.findViewById(R.id.btnSoundPool);
+		btnSoundPool.setOnClickListener(new OnClickListener()
+		{
+			public void onClick(View v) 
+			{
+				if(!triggerActive) {
+					startTrigger(new TriggerLatencyTest(new SoundPoolTrigger(), act.getCacheDir()));
+				} else {
+					cancelTriggerIfActive();
+				}
+			}
+		}); 
+		btnMediaPlayer = (Button) fragStdAPIView.findViewById(R.id.btnMediaPlayer);
+		btnMediaPlayer.setOnClickListener(new OnClickListener()
+		{
+			public void onClick(View v) 
+			{
+				if(!triggerActive) {
+					startTrigger(new TriggerLatencyTest(new MediaPlayerTrigger(), act.getCacheDir()));
+				} else {
+					cancelTriggerIfActive();
+				}
+			}
+		}); 
+
+		//configure "wake-up latency" button
+		//on press, an async WakeupLatencyTest lets threads sleep one buffer period at several priorities
+		btnWakeup = (Button) fragStdAPIView.findViewById(R.id.btnWakeup);
+		btnWakeup.setOnClickListener(new OnClickListener()
+		{
+			public void onClick(View v) 
+			{
+				if(!wakeupActive) {
+					cancelAllTasks();
+					wakeupActive = true;
+					Log.i(LOG_TAG, MainActivity.params.toString());
+					twResults.setText("Measuring the wake-up latency of " + MainActivity.params.wakeupThreads + " threads at " 
+							+ SystemParameters.wakeupPriorities.length + " priorities, this takes about " 
+							+ (2 * SystemParameters.wakeupPriorities.length * MainActivity.params.wakeupSeconds) + "s...");
+					btnWakeup.setText("Active, click to abort");
+					wakeupThread = new WakeupLatencyTest();
+					wakeupThread.delegate = parent;
+					wakeupThread.execute(MainActivity.params);
+				} else {
+					cancelWakeupIfActive();
+				}
+			}
+		}); 
+
+		//configure the soak test buttons
+		//on press, an async SoakTest runs until pressed again, the statistics are polled once per second
+		btnSoakLatency = (Button) fragStdAPIView.findViewById(R.id.btnSoakLatency);
+		btnSoakLatency.setOnClickListener(new OnClickListener()
+		{
+			public void onClick(View v) 
+			{
+				if(!soakActive) {
+					startSoak(SoakTest.Mode.latency);
+				} else if(soakThread != null) {
+					twResults.setText("finishing...");
+					soakThread.finish();
+				}
+			}
+		}); 
+		btnSoakLoopback = (Button) fragStdAPIView.findViewById(R.id.btnSoakLoopback);
+		btnSoakLoopback.setOnClickListener(new OnClickListener()
+		{
+			public void onClick(View v) 
+			{
+				if(!soakActive) {
+					startSoak(SoakTest.Mode.loopback);
+				} else if(soakThread != null) {
+					twResults.setText("finishing...");
+					soakThread.finish();
+				}
+			}
+		}); 
+
 		//in case that the results doesnt fit on the screen, make it scrollable
 		twResults = (TextView) fragStdAPIView.findViewById(R.id.twResult);
 		twResults.setMovementMethod(new ScrollingMovementMethod());
 
+		latencyPlot = (LatencyPlotView) fragStdAPIView.findViewById(R.id.latencyPlot);
+
 
 		return fragStdAPIView;
 	}
 
 	@Override 
 	public void onDetach() {
+		cancelAllTasks();
+		super.onDetach();
+	}
+
+	/*
+	 * Only one task uses the audio streams at a time, the starting task is inactive
+	 */
+	private void cancelAllTasks() {
 		cancelLoopbackIfActive();
 		cancelTestIfActive();
-		super.onDetach();
+		cancelDriftIfActive();
+		cancelTuneIfActive();
+		cancelStressIfActive();
+		cancelTriggerIfActive();
+		cancelWakeupIfActive();
+		cancelSoakIfActive();
+	}
+
+	private void startSoak(SoakTest.Mode mode) {
+		if(!bufferSizeValid()) return;
+		cancelAllTasks();
+		soakActive = true;
+		Log.i(LOG_TAG, MainActivity.params.toString());
+		twResults.setText("Starting " + mode + ", click again to finish...");
+		btnSoakLatency.setText("Active, click to finish");
+		btnSoakLoopback.setText("Active, click to finish");
+		soakThread = new SoakTest(mode);
+		soakThread.delegate = this;
+		soakThread.execute(MainActivity.params);
+		analyserHandler.postDelayed(soakPoll, soakPollMs);
+	}
+
+	private final Runnable soakPoll = new Runnable() {
+		@Override
+		public void run() {
+			if(!soakActive || soakThread == null) return;
+			String status = soakThread.getFormatedStatus();
+			if(status != null) twResults.setText(status);
+			analyserHandler.postDelayed(this, soakPollMs);
+		}
+	};
+
+	private void cancelSoakIfActive(){
+		analyserHandler.removeCallbacks(soakPoll);
+		if(soakActive && soakThread != null) {
+			Toast.makeText(act.getApplicationContext(), "Soak test stopped", Toast.LENGTH_LONG).show();
+			soakThread.cancel(true);
+			btnSoakLatency.setText("Soak: Latency");
+			btnSoakLoopback.setText("Soak: Loopback");
+			soakActive = false;
+			soakThread = null;
+		}
+	}
+
+	private void startTrigger(TriggerLatencyTest test) {
+		if(!bufferSizeValid()) return;
+		cancelAllTasks();
+		triggerActive = true;
+		Log.i(LOG_TAG, MainActivity.params.toString());
+		twResults.setText("please wait...");
+		btnSoundPool.setText("Active, click to abort");
+		btnMediaPlayer.setText("Active, click to abort");
+		triggerThread = test;
+		triggerThread.delegate = this;
+		latencyPlot.clear();
+		startTrace("trigger");
+		triggerThread.execute(MainActivity.params);
+		Choreographer.getInstance().postFrameCallback(progressUpdate);
+	}
+
+	/*
+	 * Called once per display frame while a latency test is running.
+	 * Only reads from the lock-free queue, the test thread never waits for the UI.
+	 */
+	private final Choreographer.FrameCallback progressUpdate = new Choreographer.FrameCallback() {
+		@Override
+		public void doFrame(long frameTimeNanos) {
+			if(testActive && latencyThread != null) {
+				drainProgress(latencyThread.progress);
+			} else if(triggerActive && triggerThread != null) {
+				drainProgress(triggerThread.progress);
+			} else {
+				return;
+			}
+			Choreographer.getInstance().postFrameCallback(this);
+		}
+	};
+
+	private void drainProgress(LatencySampleQueue progress) {
+		int n = progress.drainTo(progressLatency, progressNormalized, progressLatency.length);
+		if(n == 0) return;
+		for(int i=0; i<n; i++) {
+			latencyPlot.addValue(progressLatency[i]);
+		}
+		latencyPlot.invalidate();
+		twResults.setText("please wait... " + latencyPlot.getTotal() + "/" + MainActivity.params.numberOfTests 
+				+ ", last: " + progressLatency[n-1] + "ms");
+	}
+
+	private final Runnable analyserPoll = new Runnable() {
+		@Override
+		public void run() {
+			if(!loopbackActive || loopbackThread == null) return;
+			if(loopbackThread.analyser.poll(analyserSnapshot)) {
+				String text = loopbackThread.analyser.getFormatedOutput(analyserSnapshot);
+				ProcessorChain chain = loopbackThread.chain;
+				if(chain != null) text += "\n" + chain.getFormatedOutput();
+				CpuCost cpu = loopbackThread.cpuCost;
+				if(cpu != null) text += "\nCPU: " + cpu.getFormatedOutput();
+				twResults.setText(text);
+			}
+			analyserHandler.postDelayed(this, analyserPollMs);
+		}
+	};
+
+	private void startTrace(String test) {
+		finishTrace();
+		trace = TraceSession.start(MainActivity.params, test);
+	}
+
+	private void finishTrace() {
+		if(trace == null) return;
+		trace.finish();
+		trace = null;
 	}
 
 	private void cancelLoopbackIfActive(){
+		analyserHandler.removeCallbacks(analyserPoll);
 		if(loopbackActive && loopbackThread != null) {
 			Toast.makeText(act.getApplicationContext(), "Loopback stopped", Toast.LENGTH_LONG).show();
 			loopbackThread.cancel(true);
 			btnLoopback.setText("Loopback");
 			loopbackActive = false;
 			loopbackThread = null;
+			finishTrace();
 		}
 	}
 
 	private void cancelTestIfActive(){
+		Choreographer.getInstance().removeFrameCallback(progressUpdate);
 		if(testActive && latencyThread != null) {
 			Toast.makeText(act.getApplicationContext(), "Latency test stopped", Toast.LENGTH_LONG).show();
 			latencyThread.cancel(true);
 			twResults.setText("canceled.");
 			testActive = false;
 			latencyThread = null;
+			finishTrace();
+		}
+	}
+
+	private void cancelDriftIfActive(){
+		if(driftActive && driftThread != null) {
+			Toast.makeText(act.getApplicationContext(), "Clock drift test stopped", Toast.LENGTH_LONG).show();
+			driftThread.cancel(true);
+			btnDrift.setText("Clock Drift");
+			driftActive = false;
+			driftThread = null;
+			finishTrace();
+		}
+	}
+
+	private void cancelTuneIfActive(){
+		if(tuneActive && tuneThread != null) {
+			Toast.makeText(act.getApplicationContext(), "Buffer size search stopped", Toast.LENGTH_LONG).show();
+			tuneThread.cancel(true);
+			btnTune.setText("Find Buffer Size");
+			tuneActive = false;
+			tuneThread = null;
+		}
+	}
+
+	private void cancelStressIfActive(){
+		if(stressActive && stressThread != null) {
+			Toast.makeText(act.getApplicationContext(), "Stress test stopped", Toast.LENGTH_LONG).show();
+			stressThread.cancel(true);
+			btnStress.setText("Latency under CPU Load");
+			stressActive = false;
+			stressThread = null;
+		}
+	}
+
+	private void cancelTriggerIfActive(){
+		Choreographer.getInstance().removeFrameCallback(progressUpdate);
+		if(triggerActive && triggerThread != null) {
+			Toast.makeText(act.getApplicationContext(), "Trigger latency test stopped", Toast.LENGTH_LONG).show();
+			triggerThread.cancel(true);
+			btnSoundPool.setText("SoundPool Trigger Latency");
+			btnMediaPlayer.setText("MediaPlayer Trigger Latency");
+			twResults.setText("canceled.");
+			triggerActive = false;
+			triggerThread = null;
+			finishTrace();
+		}
+	}
+
+	private void cancelWakeupIfActive(){
+		if(wakeupActive && wakeupThread != null) {
+			Toast.makeText(act.getApplicationContext(), "Wake-up latency test stopped", Toast.LENGTH_LONG).show();
+			wakeupThread.cancel(true);
+			btnWakeup.setText("Thread Wake-up Latency");
+			wakeupActive = false;
+			wakeupThread = null;
+		}
+	}
+
+	/*
+	 * The scheduling latency belongs to the report of the same device and configuration
+	 */
+	private void attachWakeup(TestResult result) {
+		if(result.usedTest == TestResult.testType.wakeupLatency) {
+			if(result.valid) lastWakeup = (WakeupReport) result.report;
+		} else if(lastWakeup != null && result.valid && result.wakeup == null
+				&& result.bufferSizeInSamples == lastWakeup.bufferSizeInSamples && result.sampleRateInHz == lastWakeup.sampleRateInHz) {
+			result.wakeup = lastWakeup;
 		}
 	}
 
 	@Override
 	public void processFinish(TestResult result) {
+		attachWakeup(result);
+		Choreographer.getInstance().removeFrameCallback(progressUpdate);
+		finishTrace();
+		if(latencyThread != null) drainProgress(latencyThread.progress);
+		if(triggerThread != null) drainProgress(triggerThread.progress);
 		twResults.setText(result.getFormatedTestOutput());
 		Log.i(LOG_TAG,"Latency test summary: " + result.getFormatedTestOutput());
+		Log.i(LOG_TAG, Metrics.snapshot().getFormatedOutput());
+		ResultStore.write(MainActivity.params, result);
 		btnLoopback.setText("Loopback");
+		btnDrift.setText("Clock Drift");
 		testActive = false;
+		driftActive = false;
+		driftThread = null;
+		btnTune.setText("Find Buffer Size");
+		tuneActive = false;
+		tuneThread = null;
+		btnStress.setText("Latency under CPU Load");
+		stressActive = false;
+		stressThread = null;
+		btnSoundPool.setText("SoundPool Trigger Latency");
+		btnMediaPlayer.setText("MediaPlayer Trigger Latency");
+		triggerActive = false;
+		triggerThread = null;
+		btnWakeup.setText("Thread Wake-up Latency");
+		wakeupActive = false;
+		wakeupThread = null;
+		analyserHandler.removeCallbacks(soakPoll);
+		btnSoakLatency.setText("Soak: Latency");
+		btnSoakLoopback.setText("Soak: Loopback");
+		soakActive = false;
+		soakThread = null;
 	}
 }
@@ -16,9 +16,34 @@
 
 package zee.audiobenchmark;
 
+import java.util.Arrays;
+
+import zee.audiobenchmark.analysis.CpuCost;
+import zee.audiobenchmark.analysis.DriftEstimator;
+import zee.audiobenchmark.analysis.ThresholdCalibration;
+import zee.audiobenchmark.datatypes.SystemParameters;
+import zee.audiobenchmark.datatypes.TestResult;
+import zee.audiobenchmark.interfaces.AsyncResponse;
+import zee.audiobenchmark.interfaces.BufferSizeProbe;
+import zee.audiobenchmark.interfaces.DspLoadTarget;
+import zee.audiobenchmark.interfaces.LoopModeTarget;
+import zee.audiobenchmark.tasks.BufferSizeTuneTask;
+import zee.audiobenchmark.tasks.HeadroomTask;
+import zee.audiobenchmark.tasks.JniTransferBenchmark;
+import zee.audiobenchmark.tasks.LoopModeBenchmark;
+import zee.audiobenchmark.tasks.CaptureSession;
+import zee.audiobenchmark.tasks.NativeCaptureSource;
+import zee.audiobenchmark.tasks.NativeMetrics;
+import zee.audiobenchmark.tasks.ResultStore;
+import zee.audiobenchmark.tasks.ThresholdCalibrationTask;
+import zee.audiobenchmark.tasks.TraceSession;
+import zee.audiobenchmark.tools.Metrics;
+import zee.audiobenchmark.tools.Tracer;
 import android.app.Activity;
 import android.app.Fragment;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -37,13 +62,18 @@ import android.widget.TextView;
  * @author B.Schmersow
  *
  */
-public class FragmentOpenSL extends Fragment {
+public class FragmentOpenSL extends Fragment implements AsyncResponse, BufferSizeProbe, DspLoadTarget, LoopModeTarget {
 
 	private static final String LOG_TAG = "FragOpenSL";
 
 	Button btnLoopback = null;
 	Button btnSinewave = null;
 	Button btnLatency = null;
+	Button btnDrift = null;
+	Button btnTune = null;
+	Button btnHeadroom = null;
+	Button btnTransfer = null;
+	Button btnLoopModes = null;
 	TextView twResult = null;
 
 	//native methods, included via JNI
@@ -51,6 +81,37 @@ public class FragmentOpenSL extends Fragment {
 	public static native boolean nLoopback();
 	public static native boolean playSine();
 	public static native boolean latencyTest(int numberOfTests);
+	public static native int getSampleRate();
+	public static native int getNumResults();
+	public static native int getResults(long[] ns, long[] normalizedNs, int[] frames);
+	public static native void setThreshold(int threshold);
+	public static native void setWarmup(int window, int maxWarmup);
+	public static native int getWarmup(long[] ns);
+	public static native void resetCpuTime();
+	public static native boolean getCpuTime(long[] values);
+	public static native boolean getStreamPositions(long[] positions);
+	public static native boolean getAnalyserSnapshot(float[] levels, float[] spectrumDb);
+	public static native void setCapture(boolean enabled);
+	public static native int drainCapture(int stream, java.nio.ByteBuffer buffer, int offset, int max);
+	public static native boolean getCaptureStats(int stream, long[] stats);
+	public static native void setTrace(boolean enabled);
+	public static native int drainTrace(int ring, long[] events);
+	public static native java.nio.ByteBuffer getMetricsBuffer();
+	public static native void resetMetrics();
+	public static native boolean runWakeupTest(int threads, int periodUs, int seconds, int nice, int binUs, long[] histogram, long[] stats);
+	public static native boolean startGlitchTest(double frequency, float amplitude);
+	public static native boolean getGlitchCount(long[] counts);
+	public static native void setDspLoad(int type, int amount);
+	public static native boolean getDspLoadStats(long[] stats);
+	public static native void resetDspLoadStats();
+	public static native void setLoopZeroCopy(boolean zeroCopy);
+	public static native boolean getLoopStats(long[] values);
+	public static native void resetLoopStats();
+	public static native void prepareTransfer(int maxSamples);
+	public static native boolean transferElements(short[] buffer);
+	public static native boolean transferCritical(short[] buffer);
+	public static native boolean transferRegion(short[] buffer);
+	public static native boolean transferDirect(java.nio.ByteBuffer buffer, int samples);
 
 	public native void createEngine(int bufferSize, int sampleRate, int thresholdDivider);
 	public static native void createBufferQueueAudioPlayer();
@@ -60,6 +121,40 @@ public class FragmentOpenSL extends Fragment {
 
 	boolean testActive = false;
 	boolean loopActive = false;
+	boolean driftActive = false;
+
+	//loopback analyser, polled on the UI thread
+	private static final long analyserPollMs = 200;
+	private final float[] analyserLevels = new float[6];
+	private final float[] analyserSpectrum = new float[SystemParameters.analyserFftSize/2];
+
+	//the latency test runs in the callbacks, its completion is polled on the UI thread
+	private static final long latencyPollMs = 250;
+	private ThresholdCalibration calibration; //of the running test, null if not calibrated
+
+	//clock drift estimation, the stream positions are polled on the UI thread
+	private static final long driftPollMs = 250;
+	private static final long driftSettleNs = 1000000000l;
+	private final Handler pollHandler = new Handler();
+	private final long[] positions = new long[4];
+	private DriftEstimator drift;
+	private long driftStart;
+	private long lastRecStamp, lastPlayStamp;
+
+	//capture of the native streams, null if disabled
+	private CaptureSession capture;
+
+	//trace of the native callbacks, null if disabled
+	private TraceSession trace;
+
+	//counters of the engine, the shared memory is valid as long as the library is loaded
+	private static NativeMetrics nativeMetrics = null;
+
+	//the buffer size search and the headroom measurement re-create the engine from their own thread
+	private final Object engineLock = new Object();
+	private AsyncTask<SystemParameters, Void, TestResult> engineTask;
+	private static final long loadSettleMs = 500;
+	private final long[] glitchCounts = new long[2];
 
 	/** Load jni .so on initialization */
 	static {
@@ -77,9 +172,16 @@ public class FragmentOpenSL extends Fragment {
 		super.onAttach(activity);
 
 		// initialize native audio system
-		createEngine(Integer.parseInt(MainActivity.params.selectedBufferSize), MainActivity.params.sampleRate, MainActivity.params.getThresholdDivider());
+		initEngine(Integer.parseInt(MainActivity.params.selectedBufferSize));
+		if(nativeMetrics == null) nativeMetrics = new NativeMetrics();
+		Metrics.addSource(nativeMetrics);
+	}
+
+	private void initEngine(int bufferSize) {
+		createEngine(bufferSize, MainActivity.params.sampleRate, MainActivity.params.getThresholdDivider());
 		createBufferQueueAudioPlayer();
 		createAudioRecorder();
+		setLoopZeroCopy(MainActivity.params.loopZeroCopy);
 	}
 
 	@Override
@@ -96,13 +198,23 @@ public class FragmentOpenSL extends Fragment {
 		{
 			public void onClick(View v) 
 			{
+				if(engineTask != null) return; //the engine is used by a background measurement
 
 				loopActive = !loopActive;
+				if(loopActive) {
+					startCapture("loopback");
+					startTrace("loopback");
+					resetCpuTime();
+				}
 				nLoopback();
 				if(loopActive) {
 					twResult.setText("Loopback active");
+					pollHandler.postDelayed(analyserPoll, analyserPollMs);
 				} else {
+					pollHandler.removeCallbacks(analyserPoll);
 					resetEngine();
+					stopCapture();
+					finishTrace();
 					twResult.setText("Loopback stopped.");
 				}
 			}
@@ -115,20 +227,136 @@ public class FragmentOpenSL extends Fragment {
 		{
 			public void onClick(View v) 
 			{
+				if(engineTask != null) return; //the engine is used by a background measurement
 				if(testActive) {
+					pollHandler.removeCallbacks(latencyPoll);
 					resetEngine();
+					stopCapture();
+					finishTrace();
 					testActive = false;
 					btnLatency.setText("Latency Test");
 					twResult.setText("Latency test aborted.");
+				} else if(MainActivity.params.isThresholdCalibrated()) {
+					//the engine is idle, the calibration uses its own streams
+					ThresholdCalibrationTask task = new ThresholdCalibrationTask();
+					task.delegate = FragmentOpenSL.this;
+					engineTask = task;
+					resetTestMetrics();
+					btnLatency.setText("Calibrating...");
+					twResult.setText("Measuring noise floor and loopback gain...");
+					task.execute(MainActivity.params);
 				} else {
-					if(latencyTest(MainActivity.params.numberOfTests)) {
-						twResult.setText("Testing latency, check log cat output for results.");
-						Log.i(LOG_TAG, MainActivity.params.toString());
-						testActive = true;
-						btnLatency.setText("Active, click to abort");
-					} else {
-						twResult.setText("Error: could not init output");	
-					}
+					calibration = null;
+					startLatency();
+				}
+			}
+		}); 
+
+		//configure clock drift button
+		//on press, the loopback is started and the stream positions are sampled
+		//until pressed again or the configured duration is reached
+		btnDrift = (Button) fragOpenSLView.findViewById(R.id.btnDrift);
+		btnDrift.setOnClickListener(new OnClickListener()
+		{
+			public void onClick(View v) 
+			{
+				if(engineTask != null) return; //the engine is used by a background measurement
+				if(driftActive) {
+					finishDrift();
+				} else {
+					startDrift();
+				}
+			}
+		}); 
+
+		//configure buffer size search
+		//on press, the engine is re-created with several buffer sizes and probed for glitches
+		btnTune = (Button) fragOpenSLView.findViewById(R.id.btnTune);
+		final FragmentOpenSL parent = this;
+		btnTune.setOnClickListener(new OnClickListener()
+		{
+			public void onClick(View v) 
+			{
+				if(engineTask instanceof BufferSizeTuneTask) {
+					cancelEngineTask();
+					twResult.setText("Buffer size search aborted.");
+				} else if(engineTask == null && !testActive && !loopActive && !driftActive) {
+					btnTune.setText("Active, click to abort");
+					twResult.setText("Searching the smallest stable buffer size, this takes several minutes...");
+					Log.i(LOG_TAG, MainActivity.params.toString());
+					BufferSizeTuneTask task = new BufferSizeTuneTask(parent, TestResult.apiType.openSL);
+					task.delegate = parent;
+					engineTask = task;
+					resetTestMetrics();
+					task.execute(MainActivity.params);
+				}
+			}
+		}); 
+
+		//configure DSP headroom measurement
+		//on press, a synthetic load in the loop callback is ramped up for each buffer size
+		btnHeadroom = (Button) fragOpenSLView.findViewById(R.id.btnHeadroom);
+		btnHeadroom.setOnClickListener(new OnClickListener()
+		{
+			public void onClick(View v) 
+			{
+				if(engineTask instanceof HeadroomTask) {
+					cancelEngineTask();
+					twResult.setText("Headroom measurement aborted.");
+				} else if(engineTask == null && !testActive && !loopActive && !driftActive) {
+					btnHeadroom.setText("Active, click to abort");
+					twResult.setText("Measuring the DSP headroom (" + MainActivity.params.headroomLoad + ") for each buffer size...");
+					Log.i(LOG_TAG, MainActivity.params.toString());
+					HeadroomTask task = new HeadroomTask(parent, TestResult.apiType.openSL);
+					task.delegate = parent;
+					engineTask = task;
+					resetTestMetrics();
+					task.execute(MainActivity.params);
+				}
+			}
+		}); 
+
+		//configure JNI transfer benchmark
+		//on press, blocks of each buffer size are moved to native code and back, the engine is not used
+		btnTransfer = (Button) fragOpenSLView.findViewById(R.id.btnTransfer);
+		btnTransfer.setOnClickListener(new OnClickListener()
+		{
+			public void onClick(View v) 
+			{
+				if(engineTask instanceof JniTransferBenchmark) {
+					cancelEngineTask();
+					twResult.setText("Transfer benchmark aborted.");
+				} else if(engineTask == null && !testActive && !loopActive && !driftActive) {
+					btnTransfer.setText("Active, click to abort");
+					twResult.setText("Measuring the JNI transfer methods for each buffer size...");
+					JniTransferBenchmark task = new JniTransferBenchmark();
+					task.delegate = parent;
+					engineTask = task;
+					resetTestMetrics();
+					task.execute(MainActivity.params);
+				}
+			}
+		}); 
+
+		//configure loop hand-off comparison
+		//on press, the loopback runs with copied and with zero-copy buffers
+		btnLoopModes = (Button) fragOpenSLView.findViewById(R.id.btnLoopModes);
+		btnLoopModes.setOnClickListener(new OnClickListener()
+		{
+			public void onClick(View v) 
+			{
+				if(engineTask instanceof LoopModeBenchmark) {
+					cancelEngineTask();
+					twResult.setText("Loop mode comparison aborted.");
+				} else if(engineTask == null && !testActive && !loopActive && !driftActive) {
+					btnLoopModes.setText("Active, click to abort");
+					twResult.setText("Comparing the copy and zero-copy loop...");
+					Log.i(LOG_TAG, MainActivity.params.toString());
+					LoopModeBenchmark task = new LoopModeBenchmark(parent);
+					task.delegate = parent;
+					engineTask = task;
+					resetTestMetrics();
+					task.execute(MainActivity.params);
 				}
 			}
 		}); 
@@ -139,6 +367,7 @@ public class FragmentOpenSL extends Fragment {
 		{
 			public void onClick(View v) 
 			{
+				if(engineTask != null) return; //the engine is used by a background measurement
 				if(playSine()) {
 				} else {
 					twResult.setText("Error: could not register sine wave output");	
@@ -149,10 +378,369 @@ public class FragmentOpenSL extends Fragment {
 		return fragOpenSLView;
 	}
 
+	private final Runnable analyserPoll = new Runnable() {
+		@Override
+		public void run() {
+			if(!loopActive) return;
+			if(getAnalyserSnapshot(analyserLevels, analyserSpectrum)) {
+				CpuCost cpu = getCallbackCpuCost();
+				twResult.setText(String.format("Loopback active\nRMS: %.1fdBFS, peak: %.1fdBFS, crest factor: %.2f\nAnalyser cost: %.1fus/block (max %.1fus)",
+						20*Math.log10(Math.max(analyserLevels[0], 1e-10f)), 20*Math.log10(Math.max(analyserLevels[1], 1e-10f)),
+						analyserLevels[2], analyserLevels[4]/1000f, analyserLevels[5]/1000f)
+						+ (cpu != null ? "\nCPU: " + cpu.getFormatedOutput() : ""));
+			}
+			pollHandler.postDelayed(this, analyserPollMs);
+		}
+	};
+
+	/*
+	 * CPU time of the player and recorder callback threads since resetCpuTime(),
+	 * the audio duration is taken from the recorder if it ran
+	 */
+	private static CpuCost getCallbackCpuCost() {
+		long[] v = new long[4]; //player ns, frames, recorder ns, frames
+		if(!getCpuTime(v)) return null;
+		long frames = v[3] > 0 ? v[3] : v[1];
+		CpuCost cost = new CpuCost(frames, getSampleRate());
+		cost.add("player thread", v[0]);
+		cost.add("recorder thread", v[2]);
+		return cost;
+	}
+
+	/*
+	 * The metrics logged with a result count from the start of its test
+	 */
+	private static void resetTestMetrics() {
+		Metrics.reset();
+		resetMetrics();
+	}
+
+	private void startLatency() {
+		resetTestMetrics();
+		startCapture("latency");
+		startTrace("latency");
+		setThreshold(MainActivity.params.getThreshold());
+		setWarmup(MainActivity.params.warmupWindow, MainActivity.params.maxWarmup);
+		resetCpuTime();
+		int numTests = MainActivity.params.getArrayTestNumber();
+		if(latencyTest(numTests)) {
+			twResult.setText(numTests < MainActivity.params.numberOfTests
+					? "Testing latency (limited to " + numTests + " tests), please wait..." : "Testing latency, please wait...");
+			Log.i(LOG_TAG, MainActivity.params.toString());
+			testActive = true;
+			btnLatency.setText("Active, click to abort");
+			pollHandler.postDelayed(latencyPoll, latencyPollMs);
+		} else {
+			stopCapture();
+			finishTrace();
+			btnLatency.setText("Latency Test");
+			twResult.setText("Error: could not init output");	
+		}
+	}
+
+	/*
+	 * The engine keeps the results of a finished test until the next one,
+	 * they are read in ns together with the detection frames
+	 */
+	private final Runnable latencyPoll = new Runnable() {
+		@Override
+		public void run() {
+			if(!testActive) return;
+			int n = getNumResults();
+			if(n < 0) {
+				pollHandler.postDelayed(this, latencyPollMs);
+				return;
+			}
+			long[] ns = new long[n];
+			long[] normalizedNs = new long[n];
+			int[] frames = new int[n];
+			n = getResults(ns, normalizedNs, frames);
+			stopCapture();
+			finishTrace();
+			testActive = false;
+			btnLatency.setText("Latency Test");
+			TestResult result = n >= 0 ? new TestResult(ns, normalizedNs, frames, 
+					Integer.parseInt(MainActivity.params.selectedBufferSize), MainActivity.params.sampleRate) 
+					: new TestResult("Could not read the results of the engine.");
+			result.calibration = calibration;
+			result.cpuCost = getCallbackCpuCost();
+			if(MainActivity.params.warmupWindow > 1) {
+				//the engine discards the results before the steady state
+				long[] warmupNs = new long[MainActivity.params.maxWarmup];
+				int w = getWarmup(warmupNs);
+				result.steadyStateReached = w >= 0 && w <= warmupNs.length;
+				result.warmupResults = result.steadyStateReached ? TestResult.nsToMs(Arrays.copyOf(warmupNs, w)) : new long[0];
+			}
+			twResult.setText(result.getFormatedTestOutput());
+			Log.i(LOG_TAG, result.getFormatedTestOutput());
+			Log.i(LOG_TAG, Metrics.snapshot().getFormatedOutput());
+			ResultStore.write(MainActivity.params, result);
+		}
+	};
+
+	/*
+	 * The native engine copies both streams into its capture rings,
+	 * the writer threads of the session drain them to WAV files
+	 */
+	private void startCapture(String test) {
+		stopCapture();
+		if(!MainActivity.params.captureEnabled) return;
+		capture = new CaptureSession(MainActivity.params, CaptureSession.createName(test), "OpenSL", 
+				Integer.parseInt(MainActivity.params.selectedBufferSize), 
+				new NativeCaptureSource(NativeCaptureSource.streamIn), new NativeCaptureSource(NativeCaptureSource.streamOut));
+		capture.setProperty("test", test);
+		setCapture(true);
+		capture.start();
+	}
+
+	private void stopCapture() {
+		if(capture == null) return;
+		setCapture(false);
+		capture.close();
+		Log.i(LOG_TAG, capture.getFormatedOutput());
+		capture = null;
+	}
+
+	/*
+	 * The callbacks write their events into preallocated native rings,
+	 * they are copied when the test is stopped
+	 */
+	private void startTrace(String test) {
+		finishTrace();
+		trace = TraceSession.start(MainActivity.params, test);
+		if(trace != null) setTrace(true);
+	}
+
+	private void finishTrace() {
+		if(trace == null) return;
+		setTrace(false);
+		long[] events = new long[4 * Tracer.ringEvents];
+		trace.addNative("bqPlayerCallback", events, drainTrace(0, events));
+		events = new long[4 * Tracer.ringEvents];
+		trace.addNative("bqRecorderCallback", events, drainTrace(1, events));
+		trace.finish();
+		trace = null;
+	}
+
+	@Override
+	public String getName() {
+		return "NDK: OpenSL";
+	}
+
+	/*
+	 * Runs in the thread of the BufferSizeTuneTask.
+	 * The engine buffers are allocated on creation, so the engine is re-created for each size.
+	 */
+	@Override
+	public long probe(int bufferSizeInSamples, int seconds) {
+		synchronized (engineLock) {
+			resetEngine();
+			shutdown();
+			initEngine(bufferSizeInSamples);
+			if(!startGlitchTest(SystemParameters.probeFrequency, SystemParameters.probeAmplitude)) {
+				resetEngine();
+				return -1;
+			}
+			try {
+				Thread.sleep(seconds * 1000l + 500); //the first 0.5s are ignored by the detector
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			getGlitchCount(glitchCounts);
+			resetEngine();
+			Log.i(LOG_TAG, bufferSizeInSamples + "smp: " + glitchCounts[0] + " discontinuities in " + glitchCounts[1] + " frames");
+			return glitchCounts[0];
+		}
+	}
+
+	/*
+	 * DspLoadTarget, runs in the thread of the HeadroomTask
+	 */
+	@Override
+	public boolean prepare(int bufferSizeInSamples) {
+		synchronized (engineLock) {
+			resetEngine();
+			shutdown();
+			initEngine(bufferSizeInSamples);
+			setDspLoad(MainActivity.params.headroomLoad.ordinal(), 0);
+			return nLoopback();
+		}
+	}
+
+	@Override
+	public boolean measure(int type, int amount, int seconds, long[] stats) {
+		synchronized (engineLock) {
+			setDspLoad(type, amount);
+			try {
+				//the statistics start after the load has settled (caches, CPU frequency)
+				Thread.sleep(loadSettleMs);
+				resetDspLoadStats();
+				Thread.sleep(seconds * 1000l);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			return getDspLoadStats(stats);
+		}
+	}
+
+	@Override
+	public void release() {
+		synchronized (engineLock) {
+			setDspLoad(0, 0);
+			resetEngine();
+		}
+	}
+
+	/*
+	 * LoopModeTarget, runs in the thread of the LoopModeBenchmark
+	 */
+	@Override
+	public boolean startLoop(boolean zeroCopy) {
+		synchronized (engineLock) {
+			resetEngine();
+			setLoopZeroCopy(zeroCopy);
+			return nLoopback();
+		}
+	}
+
+	@Override
+	public CpuCost measureLoop(int seconds, long[] handoff) {
+		synchronized (engineLock) {
+			try {
+				//the statistics start after the queues have settled
+				Thread.sleep(loadSettleMs);
+				resetLoopStats();
+				resetCpuTime();
+				Thread.sleep(seconds * 1000l);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+			if(!getLoopStats(handoff)) return null;
+			return getCallbackCpuCost();
+		}
+	}
+
+	@Override
+	public void stopLoop() {
+		synchronized (engineLock) {
+			resetEngine();
+			setLoopZeroCopy(MainActivity.params.loopZeroCopy);
+		}
+	}
+
+	/*
+	 * The background measurements change the buffer size, back to the selected one
+	 */
+	private void restoreEngine() {
+		//neither the transfer benchmark nor the calibration use the engine
+		if(!(engineTask instanceof JniTransferBenchmark) && !(engineTask instanceof ThresholdCalibrationTask)) {
+			synchronized (engineLock) {
+				resetEngine();
+				shutdown();
+				initEngine(Integer.parseInt(MainActivity.params.selectedBufferSize));
+			}
+		}
+		engineTask = null;
+		btnTune.setText("Find Buffer Size");
+		btnHeadroom.setText("DSP Headroom");
+		btnTransfer.setText("JNI Transfer");
+		btnLoopModes.setText("Loop: Copy vs Zero-Copy");
+		btnLatency.setText("Latency Test");
+	}
+
+	private void cancelEngineTask() {
+		if(engineTask != null) {
+			engineTask.cancel(true);
+			restoreEngine();
+		}
+	}
+
+	@Override
+	public void processFinish(TestResult result) {
+		restoreEngine();
+		if(result.usedTest == TestResult.testType.thresholdCalibration) {
+			//calibrated or not, the test runs with the resulting threshold
+			calibration = (ThresholdCalibration) result.report;
+			Log.i(LOG_TAG, result.getFormatedTestOutput());
+			startLatency();
+			return;
+		}
+		twResult.setText(result.getFormatedTestOutput());
+		Log.i(LOG_TAG, result.getFormatedTestOutput());
+		Log.i(LOG_TAG, Metrics.snapshot().getFormatedOutput());
+	}
+
+	private void startDrift() {
+		if(testActive || loopActive) resetEngine();
+		testActive = false;
+		loopActive = false;
+		drift = new DriftEstimator(MainActivity.params.sampleRate, Integer.parseInt(MainActivity.params.selectedBufferSize));
+		driftStart = System.nanoTime();
+		lastRecStamp = 0;
+		lastPlayStamp = 0;
+		nLoopback();
+		driftActive = true;
+		btnDrift.setText("Active, click to finish");
+		twResult.setText("Measuring clock drift...");
+		Log.i(LOG_TAG, MainActivity.params.toString());
+		pollHandler.postDelayed(driftPoll, driftPollMs);
+	}
+
+	private void finishDrift() {
+		pollHandler.removeCallbacks(driftPoll);
+		resetEngine();
+		driftActive = false;
+		btnDrift.setText("Clock Drift");
+		String result = "Result for NDK: OpenSL with clock drift estimation\n" 
+				+ drift.getFormatedOutput();
+		twResult.setText(result);
+		Log.i(LOG_TAG, result);
+	}
+
+	/*
+	 * Feeds new callback positions into the estimator, 
+	 * CLOCK_MONOTONIC and System.nanoTime share the same time base
+	 */
+	private final Runnable driftPoll = new Runnable() {
+		@Override
+		public void run() {
+			if(!driftActive) return;
+			long now = System.nanoTime();
+			if(getStreamPositions(positions) && now - driftStart > driftSettleNs) {
+				if(positions[0] != lastRecStamp) {
+					drift.addInputPosition(positions[0], positions[1]);
+					lastRecStamp = positions[0];
+				}
+				if(positions[2] != lastPlayStamp) {
+					drift.addOutputPosition(positions[2], positions[3]);
+					lastPlayStamp = positions[2];
+				}
+				twResult.setText(String.format("Clock drift: %.2f ppm (+/- %.2f ppm)", 
+						drift.getDriftPpm(), drift.getConfidencePpm()));
+			}
+			if(now - driftStart > MainActivity.params.driftTestSeconds * 1000000000l) {
+				finishDrift();
+			} else {
+				pollHandler.postDelayed(this, driftPollMs);
+			}
+		}
+	};
+
 	@Override 
 	public void onDetach() {
-		resetEngine();
-		shutdown();
+		pollHandler.removeCallbacks(driftPoll);
+		pollHandler.removeCallbacks(analyserPoll);
+		pollHandler.removeCallbacks(latencyPoll);
+		driftActive = false;
+		if(engineTask != null) engineTask.cancel(true);
+		synchronized (engineLock) {
+			resetEngine();
+			stopCapture();
+			finishTrace();
+			shutdown();
+		}
 		super.onDetach();
 	}
 }
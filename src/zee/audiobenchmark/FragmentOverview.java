@@ -18,6 +18,8 @@ package zee.audiobenchmark;
 
 import java.io.IOException;
 
+import zee.audiobenchmark.tasks.CpuStressHarness;
+
 import android.app.Activity;
 import android.app.Fragment;
 import android.media.MediaPlayer;
@@ -28,6 +30,9 @@ import android.view.View.OnClickListener;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
+import android.widget.CompoundButton.OnCheckedChangeListener;
 import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.AdapterView.OnItemSelectedListener;
@@ -199,6 +204,58 @@ public class FragmentOverview extends Fragment{
 		spNumberOfTests.setSelection(posNum);
 
 
+		//capture of the raw streams, only available with external storage
+		CheckBox cbCapture = (CheckBox) fragOvView.findViewById(R.id.cbCapture);
+		cbCapture.setChecked(MainActivity.params.captureEnabled);
+		cbCapture.setEnabled(MainActivity.params.captureDirectory != null);
+		cbCapture.setOnCheckedChangeListener(new OnCheckedChangeListener() {
+			@Override
+			public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+				MainActivity.params.captureEnabled = isChecked && MainActivity.params.captureDirectory != null;
+			}
+		});
+
+		//trace events, written to the same directory as the captures
+		CheckBox cbTrace = (CheckBox) fragOvView.findViewById(R.id.cbTrace);
+		cbTrace.setChecked(MainActivity.params.traceEnabled);
+		cbTrace.setEnabled(MainActivity.params.captureDirectory != null);
+		cbTrace.setOnCheckedChangeListener(new OnCheckedChangeListener() {
+			@Override
+			public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+				MainActivity.params.traceEnabled = isChecked && MainActivity.params.captureDirectory != null;
+			}
+		});
+
+
+		//Java processing chain in the loopback
+		CheckBox cbLoopProcessing = (CheckBox) fragOvView.findViewById(R.id.cbLoopProcessing);
+		cbLoopProcessing.setChecked(MainActivity.params.loopProcessing);
+		cbLoopProcessing.setOnCheckedChangeListener(new OnCheckedChangeListener() {
+			@Override
+			public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+				MainActivity.params.loopProcessing = isChecked;
+			}
+		});
+
+
+		//load type of the CPU stress test
+		Spinner spStressLoad = (Spinner) fragOvView.findViewById(R.id.spStressLoad);
+		ArrayAdapter<CpuStressHarness.LoadType> loads = new ArrayAdapter<CpuStressHarness.LoadType>(act, android.R.layout.simple_spinner_item, MainActivity.params.stressLoads);
+		loads.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+		spStressLoad.setAdapter(loads);
+		spStressLoad.setOnItemSelectedListener(new OnItemSelectedListener() {
+			@Override
+			public void onItemSelected(AdapterView<?> parent, View view,
+					int pos, long id) {
+				MainActivity.params.stressLoad = (CpuStressHarness.LoadType) parent.getItemAtPosition(pos);
+			}
+			@Override
+			public void onNothingSelected(AdapterView<?> parent) {
+			}
+		});
+		spStressLoad.setSelection(loads.getPosition(MainActivity.params.stressLoad));
+
+
 		return fragOvView;
 	}
 
@@ -115,6 +115,9 @@ implements FragmentTaskList.Callbacks {
 
 		params.calcAndSetMinBufferSize();
 
+		params.captureDirectory = getExternalFilesDir("captures");
+		params.resultsDirectory = getExternalFilesDir("results");
+
 		params.pm = getApplicationContext().getPackageManager();
 		params.claimsLatencyFeature = params.pm.hasSystemFeature(PackageManager.FEATURE_AUDIO_LOW_LATENCY);
 	}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import zee.audiobenchmark.interfaces.BufferSizeProbe;
+import zee.audiobenchmark.interfaces.TestReport;
+
+/**
+ * Searches the smallest buffer size which runs without exceeding a target xrun rate.
+ * The glitch rate is assumed to decrease with the buffer size, so the candidates are
+ * bisected. The found size is verified with a longer probe, on failure the next larger
+ * candidates are tried.
+ */
+public class BufferSizeTuner implements TestReport {
+
+	//duration of the verification relative to a single probe
+	static final int verifyFactor = 3;
+
+	/**
+	 * A single probe run
+	 */
+	public static class Trial {
+		public final int bufferSize;
+		public final int seconds;
+		public final long xruns; //negative: buffer size not supported
+
+		Trial(int bufferSize, int seconds, long xruns) {
+			this.bufferSize = bufferSize;
+			this.seconds = seconds;
+			this.xruns = xruns;
+		}
+
+		public double getXrunsPerMinute() {
+			return xruns * 60.0 / seconds;
+		}
+	}
+
+	private final BufferSizeProbe probe;
+	private final int[] candidates;
+	private final double maxXrunsPerMinute;
+	private final int probeSeconds;
+	private final int sampleRateInHz;
+	private final List<Trial> trials = new ArrayList<Trial>();
+	private int result = -1;
+
+	/**
+	 * @param probe
+	 * @param candidates buffer sizes in samples, ascending
+	 * @param maxXrunsPerMinute target xrun rate
+	 * @param probeSeconds duration of a single probe
+	 * @param sampleRateInHz for the reported durations
+	 */
+	public BufferSizeTuner(BufferSizeProbe probe, int[] candidates, double maxXrunsPerMinute, int probeSeconds, int sampleRateInHz) {
+		this.probe = probe;
+		this.candidates = candidates;
+		this.maxXrunsPerMinute = maxXrunsPerMinute;
+		this.sampleRateInHz = sampleRateInHz;
+		this.probeSeconds = probeSeconds;
+	}
+
+	private boolean passes(int index, int seconds) {
+		long xruns = probe.probe(candidates[index], seconds);
+		Trial trial = new Trial(candidates[index], seconds, xruns);
+		trials.add(trial);
+		return xruns >= 0 && trial.getXrunsPerMinute() <= maxXrunsPerMinute;
+	}
+
+	private static boolean interrupted() {
+		return Thread.currentThread().isInterrupted();
+	}
+
+	/**
+	 * Runs the search, blocks until finished or the thread is interrupted
+	 * @return smallest stable buffer size in samples, -1 if none of the candidates is stable
+	 */
+	public int run() {
+		int lo = 0;
+		int hi = candidates.length - 1;
+		if(hi < 0 || !passes(hi, probeSeconds)) return result;
+
+		while(lo < hi && !interrupted()) {
+			int mid = (lo + hi) >>> 1;
+			if(passes(mid, probeSeconds)) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+
+		//a short probe may pass by chance, verify with a longer run
+		for(int i=hi; i<candidates.length && !interrupted(); i++) {
+			if(passes(i, probeSeconds * verifyFactor)) {
+				result = candidates[i];
+				break;
+			}
+		}
+		return result;
+	}
+
+	public int getResult() {
+		return result;
+	}
+
+	public List<Trial> getTrials() {
+		return trials;
+	}
+
+	@Override
+	public boolean isValid() {
+		return result > 0;
+	}
+
+	@Override
+	public String getFormatedOutput() {
+		String format = "Target: <= " + maxXrunsPerMinute + " xruns/min\n";
+		for(Trial t : trials) {
+			format += t.bufferSize + "smp (" + t.seconds + "s): ";
+			if(t.xruns < 0) {
+				format += "not supported\n";
+			} else {
+				format += t.xruns + " xruns, " + String.format("%.1f/min", t.getXrunsPerMinute()) + "\n";
+			}
+		}
+		if(result > 0) {
+			format += "Smallest stable buffer size: " + result + "smp / " 
+					+ String.format("%.2fms", result * 1000.0 / sampleRateInHz) + "\n";
+		} else {
+			format += "No stable buffer size found.\n";
+			format += "Please check the loopback connection and levels.\n";
+		}
+		return format;
+	}
+}
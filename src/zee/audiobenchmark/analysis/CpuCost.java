@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.analysis;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * CPU time of the audio threads of a test, relative to the duration of the audio it handled.
+ * The cost is given in CPU-ms per second of audio, comparable between the APIs
+ * and buffer sizes (10ms/s: one core is busy 1% of the time).
+ * Only threads of this process are counted, not the audio server.
+ */
+public class CpuCost {
+
+	public final double audioSeconds;
+	//CPU ns per thread, in the order added
+	private final Map<String, Long> threads = new LinkedHashMap<String, Long>();
+
+	/**
+	 * @param frames audio frames handled while the time was measured
+	 */
+	public CpuCost(long frames, int sampleRateInHz) {
+		this.audioSeconds = sampleRateInHz > 0 ? (double) frames / sampleRateInHz : 0;
+	}
+
+	/**
+	 * Adds the CPU time of a thread, times of the same name are summed
+	 */
+	public void add(String thread, long cpuNs) {
+		Long before = threads.get(thread);
+		threads.put(thread, before != null ? before + cpuNs : cpuNs);
+	}
+
+	public long getTotalNs() {
+		long total = 0;
+		for(long ns : threads.values()) total += ns;
+		return total;
+	}
+
+	/**
+	 * @return CPU-ms per second of audio, 0 if no audio was handled
+	 */
+	public double getCpuMsPerSecond() {
+		return getCpuMsPerSecond(getTotalNs());
+	}
+
+	private double getCpuMsPerSecond(long ns) {
+		return audioSeconds > 0 ? ns / 1e6 / audioSeconds : 0;
+	}
+
+	public String getFormatedOutput() {
+		String format = String.format("%.2f CPU-ms per second of audio (%.1fs of audio)\n", getCpuMsPerSecond(), audioSeconds);
+		for(Map.Entry<String, Long> e : threads.entrySet()) {
+			format += String.format("  %s: %.2fms/s\n", e.getKey(), getCpuMsPerSecond(e.getValue()));
+		}
+		return format;
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.analysis;
+
+/**
+ * Detects discontinuities (dropouts, repeated or skipped blocks) in a received sine.
+ * The second difference of a sine with amplitude A and angular frequency w is
+ * bounded by 4*sin^2(w/2)*A, a glitch causes a step which exceeds this bound by far.
+ * Mirrored in jni/glitch.c for the native engine.
+ */
+public class DiscontinuityDetector {
+
+	//margin above the theoretical maximum of the second difference
+	static final float tolerance = 4f;
+	//absolute margin for noise, in LSB
+	static final float noiseMargin = 256f;
+	//received levels below are considered as "no signal"
+	static final float minLevel = 1024f;
+	//decay of the peak follower per sample
+	static final float peakDecay = 0.9999f;
+
+	private final float coefficient;
+	private final long holdoffFrames;
+	private final long settleFrames;
+
+	private float peak;
+	private int x1, x2;
+	private long frames;
+	private long nextAllowed;
+	private long discontinuities;
+	private long silentFrames;
+
+	/**
+	 * @param sampleRateInHz
+	 * @param frequency of the sine that is played
+	 * @param settleFrames frames ignored after start/reset, the stream start is not a glitch
+	 */
+	public DiscontinuityDetector(int sampleRateInHz, double frequency, long settleFrames) {
+		double s = Math.sin(Math.PI * frequency / sampleRateInHz);
+		coefficient = (float) (4 * s * s);
+		holdoffFrames = sampleRateInHz / 100; //10ms, a single glitch is counted once
+		this.settleFrames = settleFrames;
+		reset();
+	}
+
+	public void reset() {
+		peak = 0;
+		x1 = 0;
+		x2 = 0;
+		frames = 0;
+		nextAllowed = settleFrames;
+		discontinuities = 0;
+		silentFrames = 0;
+	}
+
+	/**
+	 * Called from the audio thread, does not allocate
+	 */
+	public void process(short[] buffer, int offset, int len) {
+		for(int i=offset; i<offset+len; i++) {
+			int x = buffer[i];
+			float abs = x < 0 ? -x : x;
+			peak = abs > peak ? abs : peak * peakDecay;
+
+			if(frames >= settleFrames) {
+				int d = x - 2*x1 + x2;
+				if(d < 0) d = -d;
+				if(peak < minLevel) {
+					silentFrames++;
+				} else if(d > tolerance * coefficient * peak + noiseMargin && frames >= nextAllowed) {
+					discontinuities++;
+					nextAllowed = frames + holdoffFrames;
+				}
+			}
+			x2 = x1;
+			x1 = x;
+			frames++;
+		}
+	}
+
+	public long getDiscontinuities() {
+		return discontinuities;
+	}
+
+	/**
+	 * Frames without a received signal (e.g. missing loopback connection)
+	 */
+	public long getSilentFrames() {
+		return silentFrames;
+	}
+
+	public long getFrames() {
+		return frames;
+	}
+}
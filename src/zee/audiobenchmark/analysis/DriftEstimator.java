@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.analysis;
+
+import zee.audiobenchmark.interfaces.TestReport;
+
+/**
+ * Estimates the relative drift between the capture and the render clock.
+ * Both streams deliver (timestamp, frame position) pairs, the actual frame rate
+ * of each stream is the slope of a least squares fit against the monotonic clock.
+ * The difference of both rates relative to the nominal sample rate is the drift in ppm.
+ */
+public class DriftEstimator implements TestReport {
+
+	//two-sided 95% quantile of the normal distribution
+	private static final double Z95 = 1.96;
+
+	private final int sampleRateInHz;
+	private final int bufferFrames; //buffer size of the xrun prediction
+	private final StreamFit input = new StreamFit();
+	private final StreamFit output = new StreamFit();
+
+	public DriftEstimator(int sampleRateInHz, int bufferFrames) {
+		this.sampleRateInHz = sampleRateInHz;
+		this.bufferFrames = bufferFrames;
+	}
+
+	/**
+	 * @param nanos monotonic timestamp (System.nanoTime / CLOCK_MONOTONIC)
+	 * @param frames total number of frames captured at that time
+	 */
+	public void addInputPosition(long nanos, long frames) {
+		input.add(nanos, frames);
+	}
+
+	/**
+	 * @param nanos monotonic timestamp (System.nanoTime / CLOCK_MONOTONIC)
+	 * @param frames total number of frames rendered at that time
+	 */
+	public void addOutputPosition(long nanos, long frames) {
+		output.add(nanos, frames);
+	}
+
+	public boolean hasEstimate() {
+		return input.n > 2 && output.n > 2;
+	}
+
+	@Override
+	public boolean isValid() {
+		return hasEstimate();
+	}
+
+	public double getInputRate() {
+		return input.slope();
+	}
+
+	public double getOutputRate() {
+		return output.slope();
+	}
+
+	/**
+	 * Positive values: the input clock runs faster than the output clock,
+	 * a buffer between capture and playback will fill up (overrun).
+	 * Negative values: the buffer will drain (underrun).
+	 */
+	public double getDriftPpm() {
+		if(!hasEstimate()) return 0.0;
+		return (input.slope() - output.slope()) / sampleRateInHz * 1e6;
+	}
+
+	/**
+	 * Half width of the 95% confidence interval of the drift in ppm
+	 */
+	public double getConfidencePpm() {
+		if(!hasEstimate()) return Double.POSITIVE_INFINITY;
+		double se = Math.sqrt(input.slopeVariance() + output.slopeVariance());
+		return Z95 * se / sampleRateInHz * 1e6;
+	}
+
+	/**
+	 * A drift is only considered significant if the confidence interval excludes 0
+	 */
+	public boolean isSignificant() {
+		return Math.abs(getDriftPpm()) > getConfidencePpm();
+	}
+
+	/**
+	 * Predicts the time until the buffer between capture and playback
+	 * overflows or runs empty. It is assumed that the buffer starts half filled.
+	 * @param bufferFrames size of the buffer in frames
+	 * @return seconds until an xrun, infinite if no significant drift was measured
+	 */
+	public double getSecondsToXrun(int bufferFrames) {
+		if(!isSignificant()) return Double.POSITIVE_INFINITY;
+		double framesPerSecond = Math.abs(getDriftPpm()) * 1e-6 * sampleRateInHz;
+		return (bufferFrames / 2.0) / framesPerSecond;
+	}
+
+	public double getObservedSeconds() {
+		return Math.min(input.duration(), output.duration());
+	}
+
+	@Override
+	public String getFormatedOutput() {
+		if(!hasEstimate()) return "Not enough data for a drift estimation, run the test for a longer time.\n";
+		String format = "";
+		format += String.format("Input rate: %.3fHz, output rate: %.3fHz\n", getInputRate(), getOutputRate());
+		format += String.format("Clock drift: %.2f ppm (+/- %.2f ppm, 95%%)\n", getDriftPpm(), getConfidencePpm());
+		format += String.format("Observed: %.0fs\n", getObservedSeconds());
+		double seconds = getSecondsToXrun(bufferFrames);
+		if(Double.isInfinite(seconds)) {
+			format += "No significant drift, no xrun predicted for " + bufferFrames + "smp\n";
+		} else {
+			format += String.format("Predicted %s after %.0fs for a buffer of %dsmp\n",
+					getDriftPpm() > 0 ? "overrun" : "underrun", seconds, bufferFrames);
+		}
+		return format;
+	}
+
+	/**
+	 * Online simple linear regression of frame position over time.
+	 * Values are kept relative to the first point to preserve precision.
+	 */
+	private static class StreamFit {
+		long n;
+		long t0, f0;
+		double sumT, sumF, sumTT, sumTF, sumFF;
+		double lastT;
+
+		void add(long nanos, long frames) {
+			if(n == 0) {
+				t0 = nanos;
+				f0 = frames;
+			}
+			double t = (nanos - t0) / 1e9; //seconds
+			double f = frames - f0;
+			sumT += t;
+			sumF += f;
+			sumTT += t*t;
+			sumTF += t*f;
+			sumFF += f*f;
+			lastT = t;
+			n++;
+		}
+
+		double sxx() {
+			return sumTT - sumT*sumT/n;
+		}
+
+		double sxy() {
+			return sumTF - sumT*sumF/n;
+		}
+
+		double syy() {
+			return sumFF - sumF*sumF/n;
+		}
+
+		//frames per second
+		double slope() {
+			double sxx = sxx();
+			if(n < 2 || sxx <= 0.0) return 0.0;
+			return sxy() / sxx;
+		}
+
+		double slopeVariance() {
+			double sxx = sxx();
+			if(n < 3 || sxx <= 0.0) return Double.POSITIVE_INFINITY;
+			double residual = (syy() - slope()*sxy()) / (n-2);
+			if(residual < 0.0) residual = 0.0; //rounding
+			return residual / sxx;
+		}
+
+		double duration() {
+			return lastT;
+		}
+	}
+}
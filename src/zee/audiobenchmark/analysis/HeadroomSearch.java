@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import zee.audiobenchmark.interfaces.DspLoadTarget;
+import zee.audiobenchmark.interfaces.TestReport;
+
+/**
+ * Ramps a synthetic processing load inside the audio callback until deadlines are missed.
+ * The load is doubled until the first miss, then the limit is bisected.
+ * The usable budget is the average processing time at the highest load without misses.
+ */
+public class HeadroomSearch implements TestReport {
+
+	/**
+	 * Type of the load, the order has to match jni/dspload.h
+	 */
+	public enum Load {
+		fir ("taps"),
+		biquad ("biquads");
+
+		private final String unit;
+		private Load(String unit) {
+			this.unit = unit;
+		}
+		public String getUnit() {
+			return unit;
+		}
+	}
+
+	static final int initialAmount = 4;
+	//the bisection stops at this resolution relative to the found amount
+	static final int resolutionDivider = 16;
+
+	/**
+	 * Result for one buffer size
+	 */
+	public static class Entry {
+		public final int bufferSize;
+		public boolean supported = true;
+		public int maxAmount; //highest load without missed deadlines
+		public double periodUs;
+		public double budgetUs; //average processing time at maxAmount
+		public double maxProcessUs;
+
+		Entry(int bufferSize) {
+			this.bufferSize = bufferSize;
+		}
+
+		public double getBudgetPercent() {
+			return periodUs > 0 ? 100.0 * budgetUs / periodUs : 0;
+		}
+	}
+
+	private final DspLoadTarget target;
+	private final Load load;
+	private final int maxAmount;
+	private final int stepSeconds;
+	private final List<Entry> entries = new ArrayList<Entry>();
+	private final long[] stats = new long[5];
+
+	/**
+	 * @param target
+	 * @param load type of the processing
+	 * @param maxAmount upper limit of the ramp
+	 * @param stepSeconds duration of each load step
+	 */
+	public HeadroomSearch(DspLoadTarget target, Load load, int maxAmount, int stepSeconds) {
+		this.target = target;
+		this.load = load;
+		this.maxAmount = maxAmount;
+		this.stepSeconds = stepSeconds;
+	}
+
+	/*
+	 * @return true if no deadline was missed, the statistics are stored in entry if so
+	 */
+	private boolean passes(Entry entry, int amount) {
+		if(!target.measure(load.ordinal(), amount, stepSeconds, stats) || stats[0] == 0) return false;
+		if(stats[1] > 0) return false;
+		entry.maxAmount = amount;
+		entry.periodUs = stats[4] / 1000.0;
+		entry.budgetUs = stats[2] / 1000.0 / stats[0];
+		entry.maxProcessUs = stats[3] / 1000.0;
+		return true;
+	}
+
+	/**
+	 * Runs the search for each buffer size, blocks until finished or interrupted
+	 */
+	public void run(int[] bufferSizes) {
+		for(int size : bufferSizes) {
+			if(Thread.currentThread().isInterrupted()) return;
+			Entry entry = new Entry(size);
+			entries.add(entry);
+			if(!target.prepare(size)) {
+				entry.supported = false;
+				continue;
+			}
+
+			int pass = 0;
+			int fail = -1;
+			for(int amount=initialAmount; amount<=maxAmount && fail < 0; amount*=2) {
+				if(passes(entry, amount)) {
+					pass = amount;
+				} else {
+					fail = amount;
+				}
+			}
+			while(fail > 0 && fail - pass > Math.max(1, pass / resolutionDivider) 
+					&& !Thread.currentThread().isInterrupted()) {
+				int mid = (pass + fail) >>> 1;
+				if(passes(entry, mid)) {
+					pass = mid;
+				} else {
+					fail = mid;
+				}
+			}
+			target.release();
+		}
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	@Override
+	public boolean isValid() {
+		return !entries.isEmpty();
+	}
+
+	@Override
+	public String getFormatedOutput() {
+		if(!isValid()) return "Headroom measurement canceled.\n";
+		String format = "Load: " + load + ", " + stepSeconds + "s per step\n";
+		format += "buffer | period | max load | budget | max\n";
+		for(Entry e : entries) {
+			format += e.bufferSize + "smp | ";
+			if(!e.supported) {
+				format += "not supported\n";
+			} else if(e.maxAmount == 0) {
+				format += String.format("%.0fus | deadlines missed without load\n", e.periodUs);
+			} else {
+				format += String.format("%.0fus | %d %s | %.0fus (%.1f%%) | %.0fus\n", e.periodUs, e.maxAmount, load.getUnit(), 
+						e.budgetUs, e.getBudgetPercent(), e.maxProcessUs);
+			}
+		}
+		return format;
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.analysis;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Threshold detection of impulses in a sample stream, same criterion as the
+ * online latency test (first sample above the threshold).
+ * After a detection, the following holdoff frames are ignored since the
+ * received impulse may be distorted or ringing.
+ * Positions are absolute frame indices, a stream can be fed in segments.
+ */
+public class ImpulseDetector {
+
+	private final int threshold;
+	private final long holdoffFrames;
+
+	private long[] positions = new long[64];
+	private int count = 0;
+	private long nextAllowed = 0;
+
+	public ImpulseDetector(int threshold, long holdoffFrames) {
+		this.threshold = threshold;
+		this.holdoffFrames = holdoffFrames;
+	}
+
+	/**
+	 * Scans the remaining samples of a segment
+	 * @param firstFrame absolute frame index of samples.position()
+	 */
+	public void process(ShortBuffer samples, long firstFrame) {
+		int start = samples.position();
+		int end = samples.limit();
+		for(int i=start; i<end; i++) {
+			if(samples.get(i) > threshold) {
+				long pos = firstFrame + i - start;
+				if(pos >= nextAllowed) {
+					add(pos);
+					nextAllowed = pos + holdoffFrames;
+				}
+			}
+		}
+	}
+
+	private void add(long pos) {
+		if(count == positions.length) {
+			long[] grown = new long[positions.length * 2];
+			System.arraycopy(positions, 0, grown, 0, count);
+			positions = grown;
+		}
+		positions[count++] = pos;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return frame positions of all detected impulses, ascending
+	 */
+	public long[] getPositions() {
+		long[] result = new long[count];
+		System.arraycopy(positions, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * Pairs emitted and received impulses: every emitted impulse is matched with the
+	 * first received impulse before the next emission.
+	 * Emissions without a received impulse are skipped.
+	 * @param matchedEmitted positions of the matched emissions, at least emitted.length
+	 * @param matchedReceived positions of the matched receptions, at least emitted.length
+	 * @return number of matched pairs
+	 */
+	public static int match(long[] emitted, long[] received, long[] matchedEmitted, long[] matchedReceived) {
+		int n = 0;
+		int r = 0;
+		for(int e=0; e<emitted.length; e++) {
+			long next = e+1 < emitted.length ? emitted[e+1] : Long.MAX_VALUE;
+			while(r < received.length && received[r] < emitted[e]) r++;
+			if(r < received.length && received[r] < next) {
+				matchedEmitted[n] = emitted[e];
+				matchedReceived[n] = received[r];
+				n++;
+				r++;
+			}
+		}
+		return n;
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import zee.audiobenchmark.interfaces.TestReport;
+
+/**
+ * Cost of moving a block of audio between Java and native code, per transfer method and buffer size
+ */
+public class JniTransferReport implements TestReport {
+
+	public enum Method {
+		elements ("Get/ReleaseShortArrayElements"),
+		critical ("GetPrimitiveArrayCritical"),
+		region ("Get/SetShortArrayRegion"),
+		directBuffer ("Direct ByteBuffer");
+
+		private final String name;
+		private Method(String s) {
+			name = s;
+		}
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * Median time of a round trip (Java -> native -> Java) for one block,
+	 * NaN if the method failed (no direct buffer access in this VM)
+	 */
+	public static class Entry {
+		public final int bufferSize;
+		public final Method method;
+		public final double nanosPerBlock;
+		public final boolean copied; //the VM returned a copy instead of the array
+		public final boolean failed; //the method is not available, not timed
+
+		Entry(int bufferSize, Method method, double nanosPerBlock, boolean copied, boolean failed) {
+			this.bufferSize = bufferSize;
+			this.method = method;
+			this.nanosPerBlock = nanosPerBlock;
+			this.copied = copied;
+			this.failed = failed;
+		}
+
+		/**
+		 * Transfer time for one second of audio in us
+		 */
+		public double getMicrosPerSecond(int sampleRateInHz) {
+			return nanosPerBlock * sampleRateInHz / bufferSize / 1000;
+		}
+	}
+
+	private final int sampleRateInHz;
+	private final List<Entry> entries = new ArrayList<Entry>();
+
+	public JniTransferReport(int sampleRateInHz) {
+		this.sampleRateInHz = sampleRateInHz;
+	}
+
+	public void add(int bufferSize, Method method, double nanosPerBlock, boolean copied) {
+		entries.add(new Entry(bufferSize, method, nanosPerBlock, copied, false));
+	}
+
+	/**
+	 * Records a method that failed for this buffer size
+	 */
+	public void addFailed(int bufferSize, Method method) {
+		entries.add(new Entry(bufferSize, method, Double.NaN, false, true));
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	@Override
+	public boolean isValid() {
+		return !entries.isEmpty();
+	}
+
+	@Override
+	public String getFormatedOutput() {
+		if(!isValid()) return "Transfer benchmark canceled.\n";
+		String format = "Round trip of one block (Java -> native -> Java), median\n";
+		int lastSize = -1;
+		for(Entry e : entries) {
+			if(e.bufferSize != lastSize) {
+				format += "-- " + e.bufferSize + "smp --\n";
+				lastSize = e.bufferSize;
+			}
+			if(e.failed) {
+				format += e.method + ": failed, not available\n";
+				continue;
+			}
+			format += String.format("%s: %.2fus/block, %.1fus per second of audio%s\n", e.method, e.nanosPerBlock / 1000, 
+					e.getMicrosPerSecond(sampleRateInHz), e.copied ? " (copied)" : "");
+		}
+		return format;
+	}
+}
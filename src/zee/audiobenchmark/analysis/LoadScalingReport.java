@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import zee.audiobenchmark.interfaces.TestReport;
+
+/**
+ * Latency percentiles and xruns for increasing numbers of load threads
+ */
+public class LoadScalingReport implements TestReport {
+
+	/**
+	 * Results for one number of load threads
+	 */
+	public static class Level {
+		public final int threads;
+		public final RobustSummary latency; //null if the latency test failed
+		public final long xruns;
+		public final int probeSeconds;
+		public final double workPerSecond;
+
+		Level(int threads, RobustSummary latency, long xruns, int probeSeconds, double workPerSecond) {
+			this.threads = threads;
+			this.latency = latency;
+			this.xruns = xruns;
+			this.probeSeconds = probeSeconds;
+			this.workPerSecond = workPerSecond;
+		}
+	}
+
+	private final String loadType;
+	private final String workUnit;
+	private final List<Level> levels = new ArrayList<Level>();
+
+	/**
+	 * @param loadType name of the load
+	 * @param workUnit unit of the work counted by the load threads
+	 */
+	public LoadScalingReport(String loadType, String workUnit) {
+		this.loadType = loadType;
+		this.workUnit = workUnit;
+	}
+
+	public void addLevel(int threads, RobustSummary latency, long xruns, int probeSeconds, double workPerSecond) {
+		levels.add(new Level(threads, latency, xruns, probeSeconds, workPerSecond));
+	}
+
+	public List<Level> getLevels() {
+		return levels;
+	}
+
+	@Override
+	public boolean isValid() {
+		return !levels.isEmpty();
+	}
+
+	@Override
+	public String getFormatedOutput() {
+		if(!isValid()) return "Stress test canceled.\n";
+		String format = "Load: " + loadType + "\n";
+		format += "threads | median | p99 | xruns | load throughput\n";
+		for(Level l : levels) {
+			format += l.threads + " | ";
+			if(l.latency != null) {
+				format += String.format("%.1fms | %.1fms | ", l.latency.median, l.latency.p99);
+			} else {
+				format += "- | - | ";
+			}
+			format += (l.xruns < 0 ? "-" : Long.toString(l.xruns)) + " in " + l.probeSeconds + "s | ";
+			format += String.format("%.1fM %s/s\n", l.workPerSecond / 1e6, workUnit);
+		}
+		return format;
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import zee.audiobenchmark.interfaces.TestReport;
+
+/**
+ * Buffer hand-off of the native loopback, copy against zero-copy.
+ * The hand-off time runs from the recorder callback that passes a buffer
+ * to the player callback that releases it after playback.
+ */
+public class LoopModeReport implements TestReport {
+
+	public enum Mode {
+		copy ("Copy"),
+		zeroCopy ("Zero-copy");
+
+		private final String name;
+		private Mode(String s) {
+			name = s;
+		}
+		public String toString() {
+			return name;
+		}
+	}
+
+	public static class Entry {
+		public final Mode mode;
+		public final long handoffs;
+		public final double meanHandoffMs;
+		public final double maxHandoffMs;
+		public final long drops; //recorded buffers not played, the player held all buffers
+		public final CpuCost cpu;
+
+		/**
+		 * @param handoff {hand-offs, sum ns, max ns, drops}
+		 */
+		Entry(Mode mode, long[] handoff, CpuCost cpu) {
+			this.mode = mode;
+			this.handoffs = handoff[0];
+			this.meanHandoffMs = handoff[0] > 0 ? handoff[1] / 1e6 / handoff[0] : 0;
+			this.maxHandoffMs = handoff[2] / 1e6;
+			this.drops = handoff[3];
+			this.cpu = cpu;
+		}
+	}
+
+	private final List<Entry> entries = new ArrayList<Entry>();
+
+	public void add(Mode mode, long[] handoff, CpuCost cpu) {
+		entries.add(new Entry(mode, handoff, cpu));
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	private Entry get(Mode mode) {
+		for(Entry e : entries) {
+			if(e.mode == mode) return e;
+		}
+		return null;
+	}
+
+	@Override
+	public boolean isValid() {
+		return !entries.isEmpty();
+	}
+
+	@Override
+	public String getFormatedOutput() {
+		if(!isValid()) return "Loop mode comparison canceled.\n";
+		String format = "";
+		for(Entry e : entries) {
+			format += "-- " + e.mode + " --\n";
+			format += String.format("Hand-off: %.2fms mean, %.2fms max (%d buffers), %d dropped\n",
+					e.meanHandoffMs, e.maxHandoffMs, e.handoffs, e.drops);
+			format += "CPU: " + e.cpu.getFormatedOutput();
+		}
+		Entry copy = get(Mode.copy);
+		Entry zeroCopy = get(Mode.zeroCopy);
+		if(copy != null && zeroCopy != null) {
+			format += String.format("Zero-copy vs copy: hand-off %+.2fms, CPU %+.2fms/s\n",
+					zeroCopy.meanHandoffMs - copy.meanHandoffMs,
+					zeroCopy.cpu.getCpuMsPerSecond() - copy.cpu.getCpuMsPerSecond());
+		}
+		return format;
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.analysis;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import zee.audiobenchmark.analysis.RobustStatistics.Interval;
+import zee.audiobenchmark.datatypes.LatencySeries;
+
+/**
+ * Compares the latencies of a new run against a baseline of the same device and configuration.
+ * Three non-parametric tests, each at alpha/3 (Bonferroni):
+ * - Mann-Whitney U (one-sided, normal approximation with tie correction): typical latency increased
+ * - Kolmogorov-Smirnov (two-sample): the distribution changed
+ * - bootstrap of the p99 difference: the tail increased
+ * A regression needs significance and an effect of at least minEffectMs, so that small
+ * but significant shifts of long runs do not fail the gate. Improvements always pass.
+ * Latencies are in ms.
+ */
+public class RegressionGate {
+
+	public static final double defaultAlpha = 0.05;
+	public static final double defaultMinEffectMs = 1.0;
+	public static final int bootstrapResamples = 1000;
+	public static final long seed = 0x5eed;
+
+	public final int baselineN;
+	public final int candidateN;
+	public final double alpha;
+	public final double minEffectMs;
+
+	//effect sizes, candidate - baseline
+	public final double medianShift;
+	public final double meanShift;
+	//probability that a candidate latency exceeds a baseline latency, 0.5: no effect
+	public final double superiority;
+
+	public final double mannWhitneyZ;
+	public final double mannWhitneyP;
+	public final double ksStatistic;
+	public final double ksP;
+	public final Interval p99Difference;
+
+	public final boolean medianRegressed;
+	public final boolean tailRegressed;
+	public final boolean distributionRegressed;
+	public final boolean passed;
+
+	public RegressionGate(double[] baselineMs, double[] candidateMs) {
+		this(baselineMs, candidateMs, defaultAlpha, defaultMinEffectMs);
+	}
+
+	/**
+	 * @param baselineMs at least two latencies
+	 * @param candidateMs at least two latencies
+	 * @param alpha overall significance level
+	 * @param minEffectMs smallest increase that counts as a regression
+	 */
+	public RegressionGate(double[] baselineMs, double[] candidateMs, double alpha, double minEffectMs) {
+		if(baselineMs.length < 2 || candidateMs.length < 2) throw new IllegalArgumentException("less than two latencies");
+		this.alpha = alpha;
+		this.minEffectMs = minEffectMs;
+		double[] b = baselineMs.clone();
+		double[] c = candidateMs.clone();
+		Arrays.sort(b);
+		Arrays.sort(c);
+		baselineN = b.length;
+		candidateN = c.length;
+		double testAlpha = alpha / 3;
+
+		medianShift = RobustStatistics.medianSorted(c) - RobustStatistics.medianSorted(b);
+		meanShift = mean(c) - mean(b);
+
+		//Mann-Whitney, U counts the pairs with a slower candidate
+		double[] u = mannWhitney(b, c);
+		superiority = u[0] / ((double) baselineN * candidateN);
+		mannWhitneyZ = u[1];
+		mannWhitneyP = upperNormalTail(mannWhitneyZ);
+
+		ksStatistic = ksStatistic(b, c);
+		double ne = (double) baselineN * candidateN / (baselineN + candidateN);
+		ksP = kolmogorovQ((Math.sqrt(ne) + 0.12 + 0.11 / Math.sqrt(ne)) * ksStatistic);
+
+		//two-sided interval at 1 - 2*testAlpha, its lower bound is one-sided at testAlpha
+		p99Difference = bootstrapP99Difference(b, c, bootstrapResamples, testAlpha);
+
+		medianRegressed = mannWhitneyP < testAlpha && medianShift >= minEffectMs;
+		tailRegressed = p99Difference.lower > 0 && p99Difference.estimate >= minEffectMs;
+		distributionRegressed = ksP < testAlpha && meanShift >= minEffectMs;
+		passed = !medianRegressed && !tailRegressed && !distributionRegressed;
+	}
+
+	/**
+	 * Latencies in ms of a stored series in us
+	 */
+	public static double[] toMs(LatencySeries us) {
+		double[] ms = new double[us.size()];
+		LatencySeries.Cursor c = us.cursor();
+		for(int i=0; c.hasNext(); i++) ms[i] = c.next() / 1000.0;
+		return ms;
+	}
+
+	private static double mean(double[] values) {
+		double sum = 0;
+		for(double v : values) sum += v;
+		return sum / values.length;
+	}
+
+	/*
+	 * @return {U of the candidate, z with continuity correction}
+	 */
+	private static double[] mannWhitney(double[] b, double[] c) {
+		int n = b.length, m = c.length, total = n + m;
+		//merge the sorted samples, ties get their mean rank
+		double rankSumC = 0;
+		double tieTerm = 0;
+		int i = 0, j = 0;
+		while(i < n || j < m) {
+			double v = j >= m || (i < n && b[i] <= c[j]) ? b[i] : c[j];
+			int tiesB = 0, tiesC = 0;
+			while(i < n && b[i] == v) { i++; tiesB++; }
+			while(j < m && c[j] == v) { j++; tiesC++; }
+			int t = tiesB + tiesC;
+			//ranks (i+j-t+1) .. (i+j)
+			double meanRank = (i + j - t + 1 + i + j) / 2.0;
+			rankSumC += tiesC * meanRank;
+			tieTerm += (double) t * t * t - t;
+		}
+		double u = rankSumC - (double) m * (m + 1) / 2;
+		double mu = (double) n * m / 2;
+		double var = (double) n * m / 12 * ((total + 1) - tieTerm / ((double) total * (total - 1)));
+		if(var <= 0) return new double[] {u, 0};
+		return new double[] {u, (u - mu - 0.5) / Math.sqrt(var)};
+	}
+
+	/*
+	 * Largest distance of the empirical distribution functions
+	 */
+	private static double ksStatistic(double[] b, double[] c) {
+		int i = 0, j = 0;
+		double d = 0;
+		while(i < b.length && j < c.length) {
+			double v = Math.min(b[i], c[j]);
+			while(i < b.length && b[i] == v) i++;
+			while(j < c.length && c[j] == v) j++;
+			d = Math.max(d, Math.abs((double) i / b.length - (double) j / c.length));
+		}
+		return d;
+	}
+
+	/*
+	 * Kolmogorov distribution, probability of a larger statistic
+	 */
+	private static double kolmogorovQ(double lambda) {
+		if(lambda < 0.2) return 1;
+		double a2 = -2 * lambda * lambda;
+		double sum = 0, sign = 2;
+		for(int k=1; k<=100; k++) {
+			double term = sign * Math.exp(a2 * k * k);
+			sum += term;
+			if(Math.abs(term) <= 1e-10 * sum) return Math.max(0, Math.min(1, sum));
+			sign = -sign;
+		}
+		return 1;
+	}
+
+	private static double upperNormalTail(double z) {
+		return 0.5 * erfc(z / Math.sqrt(2));
+	}
+
+	/*
+	 * Complementary error function, fractional error below 1.2e-7
+	 */
+	private static double erfc(double x) {
+		double z = Math.abs(x);
+		double t = 1 / (1 + 0.5 * z);
+		double r = t * Math.exp(-z * z - 1.26551223 + t * (1.00002368 + t * (0.37409196 + t * (0.09678418
+				+ t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398 + t * (1.48851587
+				+ t * (-0.82215223 + t * 0.17087277)))))))));
+		return x >= 0 ? r : 2 - r;
+	}
+
+	/*
+	 * Resamples both runs independently. A resample of a sorted sample is described by
+	 * the number of draws per index, so its percentiles are found without sorting.
+	 */
+	private static Interval bootstrapP99Difference(double[] b, double[] c, int resamples, double tail) {
+		double estimate = RobustStatistics.percentileSorted(c, 0.99) - RobustStatistics.percentileSorted(b, 0.99);
+		Random rnd = new Random(seed);
+		int[] countsB = new int[b.length];
+		int[] countsC = new int[c.length];
+		double[] differences = new double[resamples];
+		for(int r=0; r<resamples; r++) {
+			differences[r] = resampledPercentile(c, countsC, 0.99, rnd) - resampledPercentile(b, countsB, 0.99, rnd);
+		}
+		Arrays.sort(differences);
+		return new Interval(estimate, RobustStatistics.percentileSorted(differences, tail),
+				RobustStatistics.percentileSorted(differences, 1 - tail));
+	}
+
+	private static double resampledPercentile(double[] sorted, int[] counts, double p, Random rnd) {
+		int n = sorted.length;
+		Arrays.fill(counts, 0);
+		for(int i=0; i<n; i++) counts[rnd.nextInt(n)]++;
+		double rank = p * (n - 1);
+		int lo = (int) Math.floor(rank);
+		int hi = Math.min(lo + 1, n - 1);
+		double vLo = valueAtRank(sorted, counts, lo);
+		double vHi = hi == lo ? vLo : valueAtRank(sorted, counts, hi);
+		return vLo + (rank - lo) * (vHi - vLo);
+	}
+
+	//walks from the top, the upper percentiles are reached after a few indices
+	private static double valueAtRank(double[] sorted, int[] counts, int rank) {
+		int fromTop = sorted.length - 1 - rank;
+		int above = 0;
+		for(int i=sorted.length-1; i>=0; i--) {
+			above += counts[i];
+			if(above > fromTop) return sorted[i];
+		}
+		return sorted[0];
+	}
+
+	public String getFormatedOutput() {
+		String format = "";
+		format += String.format("Baseline: %d runs, candidate: %d runs\n", baselineN, candidateN);
+		format += String.format("Median shift: %+.2fms, mean shift: %+.2fms, P(candidate slower): %.2f\n",
+				medianShift, meanShift, superiority);
+		format += String.format("Mann-Whitney: z=%.2f, p=%.2g%s\n", mannWhitneyZ, mannWhitneyP, medianRegressed ? " REGRESSION" : "");
+		format += String.format("Kolmogorov-Smirnov: D=%.3f, p=%.2g%s\n", ksStatistic, ksP, distributionRegressed ? " REGRESSION" : "");
+		format += String.format("p99 difference: %s ms%s\n", p99Difference, tailRegressed ? " REGRESSION" : "");
+		format += String.format("Verdict: %s (alpha %.3g, min. effect %.1fms)\n", passed ? "pass" : "FAIL", alpha, minEffectMs);
+		return format;
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Robust estimators for latency results: median/MAD, Hampel outlier flagging,
+ * trimmed means and bootstrap confidence intervals.
+ * Functions named *Sorted expect an ascending sorted array.
+ */
+public final class RobustStatistics {
+
+	//scales the MAD to the standard deviation for normal distributed data
+	public static final double MAD_SCALE = 1.4826;
+
+	//bootstrap resamples are split into a fixed number of chunks, independent of the device,
+	//the pool runs them on all cores
+	static final int bootstrapChunks = 8;
+	private static final int cores = Math.max(1, Runtime.getRuntime().availableProcessors());
+	private static ExecutorService pool;
+
+	private RobustStatistics() {
+	}
+
+	/**
+	 * Statistics available for bootstrap intervals
+	 */
+	public enum Statistic {
+		median,
+		p99;
+
+		public double computeSorted(double[] sorted) {
+			switch(this) {
+			case p99:
+				return percentileSorted(sorted, 0.99);
+			case median:
+			default:
+				return medianSorted(sorted);
+			}
+		}
+	}
+
+	/**
+	 * A confidence interval
+	 */
+	public static class Interval {
+		public final double estimate;
+		public final double lower;
+		public final double upper;
+
+		public Interval(double estimate, double lower, double upper) {
+			this.estimate = estimate;
+			this.lower = lower;
+			this.upper = upper;
+		}
+
+		public String toString() {
+			return String.format("%.2f [%.2f, %.2f]", estimate, lower, upper);
+		}
+	}
+
+	public static double[] toSortedArray(long[] values) {
+		double[] sorted = new double[values.length];
+		for(int i=0; i<values.length; i++) sorted[i] = values[i];
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	public static double medianSorted(double[] sorted) {
+		return percentileSorted(sorted, 0.5);
+	}
+
+	/**
+	 * Percentile with linear interpolation between closest ranks
+	 * @param p 0..1
+	 */
+	public static double percentileSorted(double[] sorted, double p) {
+		int n = sorted.length;
+		if(n == 0) return Double.NaN;
+		double rank = p * (n-1);
+		int lo = (int) Math.floor(rank);
+		int hi = Math.min(lo+1, n-1);
+		return sorted[lo] + (rank-lo) * (sorted[hi]-sorted[lo]);
+	}
+
+	/**
+	 * Median absolute deviation, scaled to be consistent with the standard deviation
+	 */
+	public static double mad(double[] values, double median) {
+		if(values.length == 0) return Double.NaN;
+		double[] dev = new double[values.length];
+		for(int i=0; i<values.length; i++) dev[i] = Math.abs(values[i]-median);
+		Arrays.sort(dev);
+		return MAD_SCALE * medianSorted(dev);
+	}
+
+	/**
+	 * Mean without the lowest and highest fraction of values
+	 * @param fraction share to cut at each side, 0..0.5
+	 */
+	public static double trimmedMeanSorted(double[] sorted, double fraction) {
+		int n = sorted.length;
+		if(n == 0) return Double.NaN;
+		int cut = (int) Math.floor(n * fraction);
+		if(2*cut >= n) return medianSorted(sorted);
+		double sum = 0;
+		for(int i=cut; i<n-cut; i++) sum += sorted[i];
+		return sum / (n - 2*cut);
+	}
+
+	/**
+	 * Hampel identifier over the sequence of results (in order of measurement):
+	 * a value is flagged if it deviates more than nSigma scaled MADs 
+	 * from the median of its surrounding window.
+	 * @param halfWindow values taken into account on each side
+	 * @param minScale lower bound of the scaled MAD, e.g. the resolution of the values.
+	 * Avoids flagging quantization steps in windows of (nearly) identical values
+	 * @return flags, true for outliers
+	 */
+	public static boolean[] hampelOutliers(double[] values, int halfWindow, double nSigma, double minScale) {
+		int n = values.length;
+		boolean[] outliers = new boolean[n];
+		double[] window = new double[2*halfWindow+1];
+		double[] dev = new double[2*halfWindow+1];
+		for(int i=0; i<n; i++) {
+			int from = Math.max(0, i-halfWindow);
+			int to = Math.min(n-1, i+halfWindow);
+			int len = to-from+1;
+			System.arraycopy(values, from, window, 0, len);
+			Arrays.sort(window, 0, len);
+			double med = medianOf(window, len);
+			for(int k=0; k<len; k++) dev[k] = Math.abs(window[k]-med);
+			Arrays.sort(dev, 0, len);
+			double mad = Math.max(MAD_SCALE * medianOf(dev, len), minScale);
+			outliers[i] = Math.abs(values[i]-med) > nSigma*mad;
+		}
+		return outliers;
+	}
+
+	private static double medianOf(double[] sorted, int len) {
+		if(len % 2 == 1) return sorted[len/2];
+		return (sorted[len/2 - 1] + sorted[len/2]) / 2;
+	}
+
+	/**
+	 * Percentile bootstrap confidence interval.
+	 * The resamples are split into a fixed number of chunks, computed in parallel on the cores.
+	 * Each chunk has its own generator derived from the seed, so results are reproducible
+	 * for the same seed on any device.
+	 * @param values the sample
+	 * @param stat statistic to estimate
+	 * @param resamples number of bootstrap resamples
+	 * @param confidence e.g. 0.95
+	 * @param seed
+	 */
+	public static Interval bootstrap(final double[] values, final Statistic stat, int resamples, double confidence, long seed) {
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		double estimate = stat.computeSorted(sorted);
+		if(values.length < 2 || resamples < 1) return new Interval(estimate, estimate, estimate);
+
+		int chunks = Math.min(bootstrapChunks, resamples);
+		List<Future<double[]>> futures = new ArrayList<Future<double[]>>(chunks);
+		double[] estimates = new double[resamples];
+		int done = 0;
+		try {
+			for(int c=0; c<chunks; c++) {
+				final int count = resamples/chunks + (c < resamples%chunks ? 1 : 0);
+				final long chunkSeed = seed + 31*c;
+				futures.add(getPool().submit(new Callable<double[]>() {
+					@Override
+					public double[] call() {
+						return resample(values, stat, count, chunkSeed);
+					}
+				}));
+			}
+			for(Future<double[]> f : futures) {
+				double[] part = f.get();
+				System.arraycopy(part, 0, estimates, done, part.length);
+				done += part.length;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new Interval(estimate, Double.NaN, Double.NaN);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+
+		Arrays.sort(estimates);
+		double alpha = (1-confidence)/2;
+		return new Interval(estimate, percentileSorted(estimates, alpha), percentileSorted(estimates, 1-alpha));
+	}
+
+	private static double[] resample(double[] values, Statistic stat, int count, long seed) {
+		Random rnd = new Random(seed);
+		int n = values.length;
+		double[] sample = new double[n];
+		double[] result = new double[count];
+		for(int r=0; r<count; r++) {
+			for(int i=0; i<n; i++) sample[i] = values[rnd.nextInt(n)];
+			Arrays.sort(sample);
+			result[r] = stat.computeSorted(sample);
+		}
+		return result;
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if(pool == null) {
+			pool = Executors.newFixedThreadPool(cores, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "bootstrap");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return pool;
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.analysis;
+
+import java.util.Arrays;
+
+import zee.audiobenchmark.analysis.RobustStatistics.Interval;
+import zee.audiobenchmark.analysis.RobustStatistics.Statistic;
+
+/**
+ * Robust summary of a series of latency results.
+ * The parameters are fixed (including the bootstrap seed), 
+ * so summaries of different devices are directly comparable.
+ */
+public class RobustSummary {
+
+	public static final int hampelHalfWindow = 10;
+	public static final double hampelSigma = 3.0;
+	public static final double resolution = 1.0; //results are given in ms
+	public static final double trimFraction = 0.1;
+	public static final int bootstrapResamples = 1000;
+	public static final double confidence = 0.95;
+	private static final long bootstrapSeed = 20140801l;
+
+	public final int n;
+	public final double median;
+	public final double mad;
+	public final double trimmedMean;
+	public final double p99;
+	public final boolean[] outlierFlags;
+	public final int outliers;
+	public final Interval medianInterval;
+	public final Interval p99Interval;
+
+	/**
+	 * @param results in ms, in order of measurement
+	 */
+	public RobustSummary(long[] results) {
+		this(results, 1.0, resolution);
+	}
+
+	/**
+	 * @param results in order of measurement
+	 * @param unitsPerMs scale of the results, e.g. 1e6 for ns
+	 * @param resolutionMs smallest meaningful difference, e.g. one frame
+	 */
+	public RobustSummary(long[] results, double unitsPerMs, double resolutionMs) {
+		double[] values = new double[results.length];
+		for(int i=0; i<results.length; i++) values[i] = results[i] / unitsPerMs;
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+
+		n = results.length;
+		median = RobustStatistics.medianSorted(sorted);
+		mad = RobustStatistics.mad(values, median);
+		trimmedMean = RobustStatistics.trimmedMeanSorted(sorted, trimFraction);
+		p99 = RobustStatistics.percentileSorted(sorted, 0.99);
+
+		outlierFlags = RobustStatistics.hampelOutliers(values, hampelHalfWindow, hampelSigma, resolutionMs);
+		int count = 0;
+		for(boolean b : outlierFlags) if(b) count++;
+		outliers = count;
+
+		medianInterval = RobustStatistics.bootstrap(values, Statistic.median, bootstrapResamples, confidence, bootstrapSeed);
+		p99Interval = RobustStatistics.bootstrap(values, Statistic.p99, bootstrapResamples, confidence, bootstrapSeed);
+	}
+
+	public double getOutlierFraction() {
+		return n > 0 ? (double) outliers / n : 0.0;
+	}
+
+	public String getFormatedOutput() {
+		String format = "";
+		format += String.format("Median: %s ms (%.0f%% CI)\n", medianInterval, confidence*100);
+		format += String.format("P99: %s ms (%.0f%% CI)\n", p99Interval, confidence*100);
+		format += String.format("MAD: %.2f ms, trimmed mean (%.0f%%): %.2f ms\n", mad, trimFraction*100, trimmedMean);
+		format += "Outliers (Hampel): " + outliers + " of " + n + "\n";
+		return format;
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.analysis;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import zee.audiobenchmark.interfaces.TestReport;
+
+/**
+ * Statistics of a run of unlimited duration in constant memory.
+ * Values (ms) are counted in fixed bins of binMs, the last bin collects the overflow.
+ * Kept are the totals, a histogram that decays with a half-life and two rolling
+ * windows (last minute in seconds, last hour in minutes).
+ * Events are counted alongside the values, e.g. missed impulses or late cycles.
+ *
+ * Times are wall clock ms, so a checkpoint can be continued after a restart.
+ * All methods are synchronized, values are added by the test thread and read by the UI.
+ */
+public class SoakStatistics implements TestReport {
+
+	static final int magic = 0x41425350; //"ABSP"
+	static final int version = 1;
+
+	public final double binMs;
+	public final int bins;
+	public final long halfLifeMs;
+
+	//totals
+	private long startMs;
+	private long count = 0;
+	private long events = 0;
+	private long recoveries = 0;
+	private double sum = 0;
+	private double max = 0;
+
+	//decaying histogram, decayed at most once per second
+	private final double[] decaying;
+	private long lastDecayMs;
+
+	public final Window lastMinute;
+	public final Window lastHour;
+
+	/**
+	 * Circular buckets of a fixed duration, each with its own histogram
+	 */
+	public class Window {
+		public final long bucketMs;
+		public final int buckets;
+		private final long[] epochs;
+		private final int[][] histograms;
+		private final long[] bucketEvents;
+
+		Window(long bucketMs, int buckets) {
+			this.bucketMs = bucketMs;
+			this.buckets = buckets;
+			epochs = new long[buckets];
+			Arrays.fill(epochs, -1);
+			histograms = new int[buckets][bins];
+			bucketEvents = new long[buckets];
+		}
+
+		private int bucket(long nowMs) {
+			long epoch = nowMs / bucketMs;
+			int b = (int) (epoch % buckets);
+			if(epochs[b] != epoch) {
+				epochs[b] = epoch;
+				Arrays.fill(histograms[b], 0);
+				bucketEvents[b] = 0;
+			}
+			return b;
+		}
+
+		void add(long nowMs, int bin) {
+			histograms[bucket(nowMs)][bin]++;
+		}
+
+		void addEvent(long nowMs) {
+			bucketEvents[bucket(nowMs)]++;
+		}
+
+		/**
+		 * Sums the buckets that are within the window at nowMs
+		 * @param dst histogram, bins elements
+		 * @return events within the window
+		 */
+		long collect(long nowMs, long[] dst) {
+			long oldest = nowMs / bucketMs - buckets + 1;
+			long windowEvents = 0;
+			Arrays.fill(dst, 0);
+			for(int b=0; b<buckets; b++) {
+				if(epochs[b] < oldest) continue;
+				for(int i=0; i<bins; i++) dst[i] += histograms[b][i];
+				windowEvents += bucketEvents[b];
+			}
+			return windowEvents;
+		}
+
+		public String getFormatedOutput(long nowMs) {
+			synchronized (SoakStatistics.this) {
+				long[] h = new long[bins];
+				long e = collect(nowMs, h);
+				long n = 0;
+				for(long c : h) n += c;
+				if(n == 0) return "no values, " + e + " events\n";
+				return String.format("%d values, median %.1fms, p99 %.1fms, max %.1fms, %d events\n",
+						n, quantile(h, 0.5), quantile(h, 0.99), quantile(h, 1.0), e);
+			}
+		}
+	}
+
+	/**
+	 * @param binMs resolution of the histograms
+	 * @param maxMs values above are counted in the overflow bin
+	 * @param halfLifeMs of the decaying histogram
+	 */
+	public SoakStatistics(double binMs, double maxMs, long halfLifeMs, long startMs) {
+		this.binMs = binMs;
+		this.bins = (int) Math.ceil(maxMs / binMs) + 1;
+		this.halfLifeMs = halfLifeMs;
+		this.startMs = startMs;
+		this.lastDecayMs = startMs;
+		decaying = new double[bins];
+		lastMinute = new Window(1000, 60);
+		lastHour = new Window(60000, 60);
+	}
+
+	private int bin(double valueMs) {
+		return (int) Math.min(bins - 1, Math.max(0, valueMs / binMs));
+	}
+
+	public synchronized void add(long nowMs, double valueMs) {
+		decay(nowMs);
+		int bin = bin(valueMs);
+		count++;
+		sum += valueMs;
+		if(valueMs > max) max = valueMs;
+		decaying[bin] += 1;
+		lastMinute.add(nowMs, bin);
+		lastHour.add(nowMs, bin);
+	}
+
+	public synchronized void addEvent(long nowMs) {
+		events++;
+		lastMinute.addEvent(nowMs);
+		lastHour.addEvent(nowMs);
+	}
+
+	/**
+	 * The audio objects had to be reopened
+	 */
+	public synchronized void addRecovery() {
+		recoveries++;
+	}
+
+	private void decay(long nowMs) {
+		long elapsed = nowMs - lastDecayMs;
+		if(elapsed < 1000) return;
+		double factor = Math.pow(0.5, (double) elapsed / halfLifeMs);
+		for(int i=0; i<bins; i++) decaying[i] *= factor;
+		lastDecayMs = nowMs;
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	public synchronized long getEvents() {
+		return events;
+	}
+
+	public synchronized long getRecoveries() {
+		return recoveries;
+	}
+
+	/**
+	 * Quantile of the decaying histogram, recent values weigh most
+	 */
+	public synchronized double getDecayingQuantile(double p) {
+		return quantile(decaying, p);
+	}
+
+	/*
+	 * Upper edge of the bin containing the quantile
+	 */
+	private double quantile(long[] h, double p) {
+		double[] d = new double[h.length];
+		for(int i=0; i<h.length; i++) d[i] = h[i];
+		return quantile(d, p);
+	}
+
+	private double quantile(double[] h, double p) {
+		double total = 0;
+		for(double c : h) total += c;
+		if(total <= 0) return 0;
+		double rank = p * total;
+		double below = 0;
+		for(int i=0; i<h.length; i++) {
+			below += h[i];
+			if(below >= rank && h[i] > 0) return (i + 1) * binMs;
+		}
+		return bins * binMs;
+	}
+
+	@Override
+	public synchronized boolean isValid() {
+		return count > 0;
+	}
+
+	@Override
+	public String getFormatedOutput() {
+		if(!isValid()) return "No values recorded, check connections and levels.\n";
+		return getFormatedOutput(System.currentTimeMillis());
+	}
+
+	public synchronized String getFormatedOutput(long nowMs) {
+		String format = "";
+		format += String.format("Duration: %.1fmin, %d values (mean %.2fms, max %.1fms), %d events, %d recoveries\n",
+				(nowMs - startMs) / 60000.0, count, count > 0 ? sum / count : 0, max, events, recoveries);
+		format += String.format("Recent (half-life %ds): median %.1fms, p99 %.1fms\n",
+				halfLifeMs / 1000, getDecayingQuantile(0.5), getDecayingQuantile(0.99));
+		format += "Last minute: " + lastMinute.getFormatedOutput(nowMs);
+		format += "Last hour: " + lastHour.getFormatedOutput(nowMs);
+		return format;
+	}
+
+	/**
+	 * Stores the complete state, the configuration is checked when reading
+	 */
+	public synchronized void write(DataOutputStream out) throws IOException {
+		out.writeInt(magic);
+		out.writeInt(version);
+		out.writeDouble(binMs);
+		out.writeInt(bins);
+		out.writeLong(halfLifeMs);
+		out.writeLong(startMs);
+		out.writeLong(count);
+		out.writeLong(events);
+		out.writeLong(recoveries);
+		out.writeDouble(sum);
+		out.writeDouble(max);
+		out.writeLong(lastDecayMs);
+		for(double d : decaying) out.writeDouble(d);
+		for(Window w : new Window[] {lastMinute, lastHour}) {
+			for(int b=0; b<w.buckets; b++) {
+				out.writeLong(w.epochs[b]);
+				out.writeLong(w.bucketEvents[b]);
+				for(int c : w.histograms[b]) out.writeInt(c);
+			}
+		}
+	}
+
+	/**
+	 * Continues a checkpoint written with the same configuration
+	 * @throws IOException if the checkpoint is malformed or differs in configuration
+	 */
+	public synchronized void read(DataInputStream in) throws IOException {
+		if(in.readInt() != magic || in.readInt() != version) throw new IOException("not a soak checkpoint");
+		if(in.readDouble() != binMs || in.readInt() != bins || in.readLong() != halfLifeMs) throw new IOException("configuration differs");
+		startMs = in.readLong();
+		count = in.readLong();
+		events = in.readLong();
+		recoveries = in.readLong();
+		sum = in.readDouble();
+		max = in.readDouble();
+		lastDecayMs = in.readLong();
+		for(int i=0; i<bins; i++) decaying[i] = in.readDouble();
+		for(Window w : new Window[] {lastMinute, lastHour}) {
+			for(int b=0; b<w.buckets; b++) {
+				w.epochs[b] = in.readLong();
+				w.bucketEvents[b] = in.readLong();
+				for(int i=0; i<bins; i++) w.histograms[b][i] = in.readInt();
+			}
+		}
+	}
+}
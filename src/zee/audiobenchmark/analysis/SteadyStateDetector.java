@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.analysis;
+
+/**
+ * Detects the end of the warm-up of a latency test.
+ * The last two windows of results are compared after every value: the run is steady
+ * once their means agree within two standard errors and their variances within
+ * maxVarianceRatio. Start-up values (pipeline filling, JIT) shift the mean or inflate
+ * the variance of the older window, so the check passes only after they have left it.
+ * The values before the two steady windows are the warm-up.
+ *
+ * The resolution of the values adds its quantization variance, results that are
+ * constant apart from one step of resolution count as steady.
+ * Same criterion as jni/steady.c.
+ */
+public class SteadyStateDetector {
+
+	public static final double meanTolerance = 2.0; //standard errors of the difference
+	public static final double maxVarianceRatio = 4.0;
+
+	public final int window;
+	public final int maxWarmup;
+	private final double resolution;
+
+	//the last 2*window values
+	private final double[] ring;
+	private int count = 0;
+
+	private boolean steady = false;
+	private boolean reached = false;
+	private int warmup = 0;
+
+	/**
+	 * @param window values per compared window, at least 2
+	 * @param maxWarmup values after which the search is given up, nothing is discarded then
+	 * @param resolution of the values, e.g. 1 for results in ms
+	 */
+	public SteadyStateDetector(int window, int maxWarmup, double resolution) {
+		if(window < 2) throw new IllegalArgumentException("window < 2");
+		this.window = window;
+		this.maxWarmup = maxWarmup;
+		this.resolution = resolution;
+		ring = new double[2 * window];
+	}
+
+	/**
+	 * Adds the next result
+	 * @return true once the decision is made, the following values are all steady
+	 */
+	public boolean add(double value) {
+		if(steady) return true;
+		ring[count % ring.length] = value;
+		count++;
+		if(count < ring.length) return false;
+
+		if(isSteadyWindow()) {
+			reached = true;
+			warmup = count - ring.length;
+			steady = true;
+		} else if(count - ring.length >= maxWarmup) {
+			//no steady state, keep everything
+			warmup = 0;
+			steady = true;
+		}
+		return steady;
+	}
+
+	private boolean isSteadyWindow() {
+		//the oldest value in the ring starts the older window
+		int start = count % ring.length;
+		double sumA = 0, sumB = 0;
+		for(int i=0; i<window; i++) {
+			sumA += ring[(start + i) % ring.length];
+			sumB += ring[(start + window + i) % ring.length];
+		}
+		double meanA = sumA / window;
+		double meanB = sumB / window;
+		double varA = 0, varB = 0;
+		for(int i=0; i<window; i++) {
+			double a = ring[(start + i) % ring.length] - meanA;
+			double b = ring[(start + window + i) % ring.length] - meanB;
+			varA += a * a;
+			varB += b * b;
+		}
+		double quantization = resolution * resolution / 12;
+		varA = varA / (window - 1) + quantization;
+		varB = varB / (window - 1) + quantization;
+
+		double meanLimit = Math.max(resolution, meanTolerance * Math.sqrt((varA + varB) / window));
+		if(Math.abs(meanA - meanB) > meanLimit) return false;
+		return Math.max(varA, varB) / Math.min(varA, varB) <= maxVarianceRatio;
+	}
+
+	/**
+	 * @return true if the decision is made, either steady state or given up
+	 */
+	public boolean isSteady() {
+		return steady;
+	}
+
+	/**
+	 * @return true if a steady state was found, false if the search was given up
+	 */
+	public boolean isReached() {
+		return reached;
+	}
+
+	/**
+	 * @return number of values at the start that are warm-up, valid once isSteady()
+	 */
+	public int getWarmupCount() {
+		return warmup;
+	}
+
+	/**
+	 * @return values that have to be kept until the decision
+	 */
+	public int getCapacity() {
+		return maxWarmup + ring.length;
+	}
+
+	public int getCount() {
+		return count;
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.analysis;
+
+import java.util.Arrays;
+
+import zee.audiobenchmark.interfaces.TestReport;
+
+/**
+ * Derives the impulse detection threshold from a measured noise floor and loopback gain.
+ * Silence is fed first, then the responses to reference impulses of known amplitude.
+ *
+ * The noise threshold is the level that Gaussian noise of the measured RMS exceeds with
+ * the target probability within one test run, but at least a margin above the observed peak.
+ * The detection threshold is placed between the noise threshold and half of the
+ * expected impulse peak (geometric mean), so both error types are equally unlikely.
+ * If the two overlap, the signal to noise ratio is too low and the calibration is invalid.
+ */
+public class ThresholdCalibration implements TestReport {
+
+	public static final double defaultFalseTriggerProbability = 1e-3; //per test run
+	public static final double peakMargin = 1.25; //above the highest noise sample
+	public static final int minThreshold = 64; //quantization and DC of silent inputs
+	public static final int maxBurstPeaks = 64;
+
+	private final double falseTriggerProbability;
+
+	//noise floor
+	private long noiseSamples = 0;
+	private double noiseSum = 0;
+	private double noiseSumSq = 0;
+	private int noisePeak = 0;
+
+	//peak of each reference response, relative to the emitted amplitude
+	private final double[] gains = new double[maxBurstPeaks];
+	private int bursts = 0;
+
+	//results, set by calculate()
+	private boolean valid = false;
+	private int threshold = 0;
+	private double noiseRms, noiseThreshold, expectedPeak, gain;
+
+	public ThresholdCalibration() {
+		this(defaultFalseTriggerProbability);
+	}
+
+	public ThresholdCalibration(double falseTriggerProbability) {
+		this.falseTriggerProbability = falseTriggerProbability;
+	}
+
+	/**
+	 * Adds input recorded while silence was played
+	 */
+	public void addSilence(short[] samples, int offset, int len) {
+		for(int i=offset; i<offset+len; i++) {
+			int s = samples[i];
+			noiseSum += s;
+			noiseSumSq += (double) s * s;
+			if(s > noisePeak) noisePeak = s;
+		}
+		noiseSamples += len;
+	}
+
+	/**
+	 * Adds the recorded response to one reference impulse
+	 * @param peak highest sample received after the emission
+	 * @param amplitude emitted peak, relative to full scale
+	 */
+	public void addBurst(int peak, float amplitude) {
+		if(bursts == maxBurstPeaks || amplitude <= 0) return;
+		gains[bursts++] = peak / (amplitude * Short.MAX_VALUE);
+	}
+
+	/**
+	 * @return highest sample of a segment, used to track the response peak
+	 */
+	public static int peak(short[] samples, int offset, int len, int peak) {
+		for(int i=offset; i<offset+len; i++) {
+			if(samples[i] > peak) peak = samples[i];
+		}
+		return peak;
+	}
+
+	public int getBursts() {
+		return bursts;
+	}
+
+	/**
+	 * @param samplesPerRun samples scanned for impulses during one test run
+	 * @param testAmplitude peak of the test impulse, relative to full scale
+	 * @return true if a threshold separates noise and impulse
+	 */
+	public boolean calculate(long samplesPerRun, float testAmplitude) {
+		valid = false;
+		if(noiseSamples < 2 || bursts == 0) return false;
+
+		double mean = noiseSum / noiseSamples;
+		noiseRms = Math.sqrt(Math.max(0, noiseSumSq / noiseSamples - mean * mean));
+
+		//per sample probability, so that a run of samplesPerRun stays below the target
+		double p = 1 - Math.pow(1 - falseTriggerProbability, 1.0 / Math.max(1, samplesPerRun));
+		noiseThreshold = Math.max(mean + noiseRms * upperQuantile(p), noisePeak * peakMargin);
+		noiseThreshold = Math.max(noiseThreshold, minThreshold);
+
+		//the weakest responses decide, the median of the lower half
+		double[] sorted = Arrays.copyOf(gains, bursts);
+		Arrays.sort(sorted);
+		gain = sorted[(bursts - 1) / 4];
+		expectedPeak = gain * testAmplitude * Short.MAX_VALUE;
+
+		double upper = Math.min(expectedPeak / 2, Short.MAX_VALUE - 1);
+		if(noiseThreshold >= upper) return false;
+		threshold = (int) Math.round(Math.sqrt(noiseThreshold * upper));
+		valid = true;
+		return true;
+	}
+
+	@Override
+	public boolean isValid() {
+		return valid;
+	}
+
+	public short getThreshold() {
+		return (short) threshold;
+	}
+
+	public double getNoiseRms() {
+		return noiseRms;
+	}
+
+	public double getGain() {
+		return gain;
+	}
+
+	/**
+	 * @return margin between the threshold and the noise in dB, the same margin is left to the expected peak
+	 */
+	public double getMarginDb() {
+		return valid ? 20 * Math.log10(threshold / noiseThreshold) : 0;
+	}
+
+	@Override
+	public String getFormatedOutput() {
+		String format = "";
+		format += String.format("Noise floor: %.1f dBFS RMS, peak %d\n",
+				20 * Math.log10(Math.max(noiseRms, 1e-3) / Short.MAX_VALUE), noisePeak);
+		format += String.format("Loopback gain: %.1f dB (%d reference impulses)\n", 20 * Math.log10(Math.max(gain, 1e-6)), bursts);
+		if(valid) {
+			format += String.format("Calibrated threshold: %d (noise %.0f, expected peak %.0f, margin %.1f dB)\n",
+					threshold, noiseThreshold, expectedPeak, getMarginDb());
+		} else {
+			format += "Calibration failed: impulse and noise floor overlap, check levels and connections\n";
+		}
+		return format;
+	}
+
+	/*
+	 * Upper quantile of the standard normal distribution for a tail probability p,
+	 * rational approximation by P. J. Acklam (relative error < 1.2e-9)
+	 */
+	static double upperQuantile(double p) {
+		if(p <= 0) return 40;
+		if(p >= 1) return -40;
+		double q = Math.min(p, 1 - p);
+		double r = Math.sqrt(-2 * Math.log(q));
+		double z = (((((-7.784894002430293e-03 * r - 3.223964580411365e-01) * r - 2.400758277161838e+00) * r
+				- 2.549732539343734e+00) * r + 4.374664141464968e+00) * r + 2.938163982698783e+00)
+				/ ((((7.784695709041462e-03 * r + 3.224671290700398e-01) * r + 2.445134137142996e+00) * r
+				+ 3.754408661907416e+00) * r + 1);
+		if(q > 0.02425) {
+			//central region
+			double u = q - 0.5;
+			double t = u * u;
+			z = (((((-3.969683028665376e+01 * t + 2.209460984245205e+02) * t - 2.759285104469687e+02) * t
+					+ 1.383577518672690e+02) * t - 3.066479806614716e+01) * t + 2.506628277459239e+00) * u
+					/ (((((-5.447609879822406e+01 * t + 1.615858368580409e+02) * t - 1.556989798598866e+02) * t
+					+ 6.680131188771972e+01) * t - 1.328068155288572e+01) * t + 1);
+		}
+		//z is the lower quantile of q
+		return p < 0.5 ? -z : z;
+	}
+}
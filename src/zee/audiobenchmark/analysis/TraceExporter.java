@@ -0,0 +1,192 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.analysis;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import zee.audiobenchmark.datatypes.TraceRing;
+
+/**
+ * Writes trace events of the Java and native rings as Chrome trace-event JSON,
+ * which can be opened with chrome://tracing or ui.perfetto.dev.
+ * Both sides use the monotonic clock (System.nanoTime()), so the events line up.
+ */
+public class TraceExporter {
+
+	static final int javaPid = 1;
+	static final int nativePid = 2;
+
+	//events of a native ring, 4 values per event: start, duration, thread id, name
+	private static class NativeEvents {
+		final String label;
+		final long[] events;
+		final int count;
+
+		NativeEvents(String label, long[] events, int count) {
+			this.label = label;
+			this.events = events;
+			this.count = count;
+		}
+	}
+
+	//copy of the events of a Java ring
+	private static class JavaEvents {
+		final long threadId;
+		final String threadName;
+		final long[] starts;
+		final long[] durations;
+		final int[] names;
+		final int count;
+
+		JavaEvents(TraceRing ring) {
+			threadId = ring.threadId;
+			threadName = ring.threadName;
+			int n = ring.size();
+			starts = new long[n];
+			durations = new long[n];
+			names = new int[n];
+			count = ring.read(starts, durations, names);
+		}
+	}
+
+	private final List<JavaEvents> javaRings = new ArrayList<JavaEvents>();
+	private final List<NativeEvents> nativeRings = new ArrayList<NativeEvents>();
+	private final String[] javaNames;
+	private final String[] nativeNames;
+	private int events = 0;
+
+	public TraceExporter(String[] javaNames, String[] nativeNames) {
+		this.javaNames = javaNames;
+		this.nativeNames = nativeNames;
+	}
+
+	/**
+	 * The events are copied, the rings can be reused after this call.
+	 * Rings without events are skipped.
+	 */
+	public void addJava(List<TraceRing> rings) {
+		for(TraceRing ring : rings) {
+			if(ring.size() == 0) continue;
+			JavaEvents copy = new JavaEvents(ring);
+			javaRings.add(copy);
+			events += copy.count;
+		}
+	}
+
+	/**
+	 * @param label name of the threads writing the ring, e.g. the callback
+	 * @param events 4 values per event: start ns, duration ns (negative for instant events), thread id, name
+	 * @param count number of events
+	 */
+	public void addNative(String label, long[] events, int count) {
+		if(count == 0) return;
+		nativeRings.add(new NativeEvents(label, events, count));
+		this.events += count;
+	}
+
+	public int getNumEvents() {
+		return events;
+	}
+
+	public void write(File file) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 1 << 16);
+		try {
+			write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	public void write(Writer out) throws IOException {
+		StringBuilder sb = new StringBuilder(256);
+		boolean first = true;
+		out.write("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[\n");
+
+		out.write(metadata("process_name", javaPid, -1, "Java"));
+		out.write(",\n");
+		out.write(metadata("process_name", nativePid, -1, "Native (OpenSL)"));
+
+		for(JavaEvents ring : javaRings) {
+			out.write(",\n");
+			out.write(metadata("thread_name", javaPid, ring.threadId, ring.threadName));
+			for(int i=0; i<ring.count; i++) {
+				sb.setLength(0);
+				appendEvent(sb, javaNames[ring.names[i]], "java", ring.starts[i], ring.durations[i], javaPid, ring.threadId);
+				out.write(",\n");
+				out.append(sb);
+			}
+		}
+
+		for(NativeEvents ring : nativeRings) {
+			Set<Long> threads = new HashSet<Long>();
+			for(int i=0; i<ring.count; i++) {
+				long tid = ring.events[4*i+2];
+				if(threads.add(tid)) {
+					out.write(",\n");
+					out.write(metadata("thread_name", nativePid, tid, ring.label));
+				}
+				sb.setLength(0);
+				appendEvent(sb, nativeNames[(int) ring.events[4*i+3]], "native", ring.events[4*i], ring.events[4*i+1], nativePid, tid);
+				out.write(",\n");
+				out.append(sb);
+			}
+		}
+		out.write("\n]}\n");
+	}
+
+	private static void appendEvent(StringBuilder sb, String name, String category, long start, long duration, int pid, long tid) {
+		sb.append("{\"name\":\"").append(escape(name)).append("\",\"cat\":\"").append(category);
+		if(duration < 0) {
+			sb.append("\",\"ph\":\"i\",\"s\":\"t\",\"ts\":");
+			appendMicros(sb, start);
+		} else {
+			sb.append("\",\"ph\":\"X\",\"ts\":");
+			appendMicros(sb, start);
+			sb.append(",\"dur\":");
+			appendMicros(sb, duration);
+		}
+		sb.append(",\"pid\":").append(pid).append(",\"tid\":").append(tid).append('}');
+	}
+
+	private static String metadata(String type, int pid, long tid, String name) {
+		String format = "{\"name\":\"" + type + "\",\"ph\":\"M\",\"pid\":" + pid;
+		if(tid >= 0) format += ",\"tid\":" + tid;
+		return format + ",\"args\":{\"name\":\"" + escape(name) + "\"}}";
+	}
+
+	//the trace format uses us, ns are kept as 3 decimals
+	private static void appendMicros(StringBuilder sb, long nanos) {
+		sb.append(nanos / 1000).append('.');
+		long frac = nanos % 1000;
+		if(frac < 100) sb.append('0');
+		if(frac < 10) sb.append('0');
+		sb.append(frac);
+	}
+
+	private static String escape(String s) {
+		return s.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import zee.audiobenchmark.interfaces.TestReport;
+
+/**
+ * Timer wake-up latency (oversleep) of threads sleeping one buffer period,
+ * for several thread priorities and sleep methods.
+ * A wake-up later than the buffer period would have been a missed audio callback.
+ */
+public class WakeupReport implements TestReport {
+
+	public enum Method {
+		parkNanos ("Java LockSupport.parkNanos"),
+		clockNanosleep ("native clock_nanosleep");
+
+		private final String name;
+		private Method(String s) {
+			name = s;
+		}
+		public String toString() {
+			return name;
+		}
+	}
+
+	public class Entry {
+		public final Method method;
+		public final int priority; //nice value
+		public final long[] bins; //oversleep histogram, the last bin collects the overflow
+		public final long count;
+		public final long sumNanos;
+		public final long maxNanos;
+		public final int prioritySet; //threads running with the requested priority
+
+		Entry(Method method, int priority, long[] bins, long count, long sumNanos, long maxNanos, int prioritySet) {
+			this.method = method;
+			this.priority = priority;
+			this.bins = bins;
+			this.count = count;
+			this.sumNanos = sumNanos;
+			this.maxNanos = maxNanos;
+			this.prioritySet = prioritySet;
+		}
+
+		/**
+		 * Upper bound of the bin containing the quantile in us
+		 * @param q 0..1
+		 */
+		public long getQuantileMicros(double q) {
+			if(count == 0) return 0;
+			long target = (long) Math.ceil(q * count);
+			long cumulative = 0;
+			for(int b=0; b<bins.length-1; b++) {
+				cumulative += bins[b];
+				if(cumulative >= target) return (b + 1) * (long) binMicros;
+			}
+			return maxNanos / 1000;
+		}
+
+		/**
+		 * Wake-ups at least one period late
+		 */
+		public long getLateWakeups() {
+			long late = 0;
+			for(int b=periodMicros / binMicros; b<bins.length; b++) {
+				late += bins[b];
+			}
+			return late;
+		}
+	}
+
+	public final int bufferSizeInSamples;
+	public final int sampleRateInHz;
+	public final int periodMicros;
+	public final int binMicros;
+	public final int numBins;
+	public final int threads;
+	public final int seconds;
+	private final List<Entry> entries = new ArrayList<Entry>();
+
+	/**
+	 * @param bufferSizeInSamples
+	 * @param sampleRateInHz
+	 * @param threads sleeping threads per run
+	 * @param seconds duration of a run
+	 */
+	public WakeupReport(int bufferSizeInSamples, int sampleRateInHz, int threads, int seconds) {
+		this.bufferSizeInSamples = bufferSizeInSamples;
+		this.sampleRateInHz = sampleRateInHz;
+		this.threads = threads;
+		this.seconds = seconds;
+		periodMicros = (int) (bufferSizeInSamples * 1000000l / sampleRateInHz);
+		//bins of 10us up to 4 periods
+		binMicros = 10;
+		numBins = 4 * periodMicros / binMicros + 1;
+	}
+
+	public void add(Method method, int priority, long[] bins, long count, long sumNanos, long maxNanos, int prioritySet) {
+		entries.add(new Entry(method, priority, bins, count, sumNanos, maxNanos, prioritySet));
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	@Override
+	public boolean isValid() {
+		return !entries.isEmpty();
+	}
+
+	@Override
+	public String getFormatedOutput() {
+		if(!isValid()) return "Wake-up test canceled.\n";
+		String format = "Sleep period: " + periodMicros + "us (" + bufferSizeInSamples + "smp), " + threads + " thread(s), " + seconds + "s per run\n";
+		for(Entry e : entries) {
+			if(e.count == 0) continue;
+			format += "-- " + e.method + ", nice " + e.priority;
+			if(e.prioritySet < threads) format += " (could not be set)";
+			format += " --\n";
+			format += String.format("mean %dus, p50<=%dus, p99<=%dus, p99.9<=%dus, max %dus\n", e.sumNanos / e.count / 1000, 
+					e.getQuantileMicros(0.5), e.getQuantileMicros(0.99), e.getQuantileMicros(0.999), e.maxNanos / 1000);
+			format += String.format("late by a period or more: %d of %d (%.3f%%)\n", e.getLateWakeups(), e.count, 100.0 * e.getLateWakeups() / e.count);
+		}
+		return format;
+	}
+}
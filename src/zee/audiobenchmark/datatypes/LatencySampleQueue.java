@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.datatypes;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue to stream single latency results from the test thread
+ * (one producer) to the UI thread (one consumer).
+ * offer() never blocks, if the consumer falls behind, results are dropped and counted.
+ */
+public class LatencySampleQueue {
+
+	private final int capacity;
+	private final int mask;
+	private final long[] latency;
+	private final long[] normalized;
+
+	//positions, written by one side only
+	private final AtomicLong head = new AtomicLong(0); //next to read
+	private final AtomicLong tail = new AtomicLong(0); //next to write
+	private volatile long dropped = 0;
+
+	/**
+	 * @param capacity will be rounded up to the next power of two
+	 */
+	public LatencySampleQueue(int capacity) {
+		int c = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		this.capacity = c;
+		this.mask = c - 1;
+		latency = new long[c];
+		normalized = new long[c];
+	}
+
+	/**
+	 * Producer side
+	 * @return false if the queue was full and the sample has been dropped
+	 */
+	public boolean offer(long latencyValue, long normalizedValue) {
+		long t = tail.get();
+		if(t - head.get() >= capacity) {
+			dropped++; //single writer
+			return false;
+		}
+		int i = (int) (t & mask);
+		latency[i] = latencyValue;
+		normalized[i] = normalizedValue;
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Consumer side, copies up to max samples
+	 * @return number of samples copied
+	 */
+	public int drainTo(long[] latencyDst, long[] normalizedDst, int max) {
+		long h = head.get();
+		long available = tail.get() - h;
+		int n = (int) Math.min(available, Math.min(max, Math.min(latencyDst.length, normalizedDst.length)));
+		for(int k=0; k<n; k++) {
+			int i = (int) ((h + k) & mask);
+			latencyDst[k] = latency[i];
+			normalizedDst[k] = normalized[i];
+		}
+		head.lazySet(h + n);
+		return n;
+	}
+
+	public long getDropped() {
+		return dropped;
+	}
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.datatypes;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compact series of latency results for long runs.
+ * Values are stored in blocks of blockSize, each block starts with an absolute value,
+ * the following values are deltas to their predecessor, all zig-zag varint encoded.
+ * Consecutive latencies differ little, most values take a single byte.
+ * The offset of each block is kept, so any value is decoded from its block start.
+ *
+ * Values are appended by a single writer. Count, sum, min and max are kept while
+ * appending, quantiles are found by iterating the encoded data.
+ * The encoded data is also the file format (see write/read).
+ */
+public class LatencySeries {
+
+	static final int magic = 0x41424c53; //"ABLS"
+	static final int version = 1;
+
+	public static final int blockSize = 128;
+
+	private byte[] data = new byte[256];
+	private int bytes = 0;
+	private int[] blockOffsets = new int[16];
+	private int size = 0;
+	private long last = 0;
+
+	//running moments
+	private long min = Long.MAX_VALUE;
+	private long max = Long.MIN_VALUE;
+	private double sum = 0;
+	private double sumSq = 0;
+
+	/**
+	 * Appends a value
+	 */
+	public void add(long value) {
+		int block = size / blockSize;
+		if(size % blockSize == 0) {
+			if(block == blockOffsets.length) blockOffsets = Arrays.copyOf(blockOffsets, block * 2);
+			blockOffsets[block] = bytes;
+			writeVarint(zigZag(value));
+		} else {
+			writeVarint(zigZag(value - last));
+		}
+		last = value;
+		size++;
+		if(value < min) min = value;
+		if(value > max) max = value;
+		sum += value;
+		sumSq += (double) value * value;
+	}
+
+	private void writeVarint(long v) {
+		if(bytes + 10 > data.length) data = Arrays.copyOf(data, data.length * 2);
+		while((v & ~0x7fL) != 0) {
+			data[bytes++] = (byte) ((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		data[bytes++] = (byte) v;
+	}
+
+	/*
+	 * Decodes the varint at pos[0] and advances pos[0] behind it
+	 */
+	private static long readVarint(byte[] src, int[] pos) {
+		long v = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = src[pos[0]++];
+			v |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		} while(b < 0);
+		return v;
+	}
+
+	private static long zigZag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	private static long unZigZag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return encoded size in bytes, without the block index
+	 */
+	public int getEncodedBytes() {
+		return bytes;
+	}
+
+	public int getBlocks() {
+		return (size + blockSize - 1) / blockSize;
+	}
+
+	/**
+	 * Decodes one block
+	 * @param dst at least blockSize elements
+	 * @return number of decoded values
+	 */
+	public int decodeBlock(int block, long[] dst) {
+		int n = Math.min(blockSize, size - block * blockSize);
+		int[] pos = new int[] {blockOffsets[block]};
+		long value = 0;
+		for(int i=0; i<n; i++) {
+			long v = readVarint(data, pos);
+			value = i == 0 ? unZigZag(v) : value + unZigZag(v);
+			dst[i] = value;
+		}
+		return n;
+	}
+
+	/**
+	 * Random access, decodes from the start of the block
+	 */
+	public long get(int index) {
+		if(index < 0 || index >= size) throw new IndexOutOfBoundsException(index + " of " + size);
+		Cursor c = new Cursor(index - index % blockSize);
+		long value = 0;
+		for(int i=index % blockSize; i>=0; i--) value = c.next();
+		return value;
+	}
+
+	/**
+	 * Decodes all values, only for series that fit into memory as an array
+	 */
+	public long[] toArray() {
+		long[] result = new long[size];
+		long[] block = new long[blockSize];
+		for(int b=0; b<getBlocks(); b++) {
+			int n = decodeBlock(b, block);
+			System.arraycopy(block, 0, result, b * blockSize, n);
+		}
+		return result;
+	}
+
+	public Cursor cursor() {
+		return new Cursor(0);
+	}
+
+	/**
+	 * Sequential reader without boxing, not thread safe.
+	 * Values appended after creation are visible.
+	 */
+	public class Cursor {
+		private int index;
+		private final int[] pos = new int[1];
+		private long value;
+
+		private Cursor(int start) {
+			index = start;
+			pos[0] = start < size ? blockOffsets[start / blockSize] : bytes;
+		}
+
+		public boolean hasNext() {
+			return index < size;
+		}
+
+		public long next() {
+			if(index >= size) throw new IndexOutOfBoundsException();
+			long v = readVarint(data, pos);
+			value = index % blockSize == 0 ? unZigZag(v) : value + unZigZag(v);
+			index++;
+			return value;
+		}
+	}
+
+	public long getMin() {
+		return min;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return size > 0 ? sum / size : 0;
+	}
+
+	/**
+	 * Sample standard deviation
+	 */
+	public double getStdDeviation() {
+		if(size < 2) return 0;
+		double mean = sum / size;
+		return Math.sqrt(Math.max(0, (sumSq - size * mean * mean) / (size - 1)));
+	}
+
+	/**
+	 * Exact quantile (nearest rank) in two passes over the encoded data:
+	 * a histogram over [min, max] locates the bin of the rank,
+	 * only the values of that bin are kept and sorted.
+	 * @param p 0..1
+	 */
+	public long quantile(double p) {
+		if(size == 0) return 0;
+		int rank = (int) Math.min(size - 1, Math.max(0, Math.ceil(p * size) - 1));
+		if(min == max) return min;
+
+		int bins = 4096;
+		double width = ((double) max - min + 1) / bins;
+		int[] counts = new int[bins];
+		Cursor c = cursor();
+		while(c.hasNext()) counts[bin(c.next(), width, bins)]++;
+
+		int bin = 0;
+		int below = 0;
+		while(below + counts[bin] <= rank) below += counts[bin++];
+
+		long[] candidates = new long[counts[bin]];
+		int n = 0;
+		c = cursor();
+		while(c.hasNext()) {
+			long v = c.next();
+			if(bin(v, width, bins) == bin) candidates[n++] = v;
+		}
+		Arrays.sort(candidates);
+		return candidates[rank - below];
+	}
+
+	private int bin(long v, double width, int bins) {
+		return Math.min(bins - 1, (int) ((v - min) / width));
+	}
+
+	/**
+	 * Stores the encoded values
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(magic);
+		out.writeInt(version);
+		out.writeInt(size);
+		out.writeInt(bytes);
+		out.write(data, 0, bytes);
+	}
+
+	/**
+	 * Reads a series written by write(), the statistics are rebuilt while decoding
+	 * @throws IOException if the data is malformed
+	 */
+	public static LatencySeries read(DataInputStream in) throws IOException {
+		if(in.readInt() != magic || in.readInt() != version) throw new IOException("not a latency series");
+		int n = in.readInt();
+		int len = in.readInt();
+		if(n < 0 || len < 0 || len > 10 * (long) n) throw new IOException("malformed latency series");
+		byte[] encoded = new byte[len];
+		in.readFully(encoded);
+		LatencySeries series = new LatencySeries();
+		int[] pos = new int[1];
+		long value = 0;
+		try {
+			for(int i=0; i<n; i++) {
+				long v = readVarint(encoded, pos);
+				value = i % blockSize == 0 ? unZigZag(v) : value + unZigZag(v);
+				series.add(value);
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("truncated latency series");
+		}
+		return series;
+	}
+}
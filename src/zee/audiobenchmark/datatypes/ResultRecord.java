@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.datatypes;
+
+import java.util.Properties;
+
+import zee.audiobenchmark.analysis.RobustSummary;
+
+/**
+ * Summary of one latency run together with the device and configuration,
+ * stored as <name>.result (properties format) and collected by tools.ResultsIndex.
+ * Latencies are in ms.
+ */
+public class ResultRecord {
+
+	public static final String suffix = ".result";
+	//latencies of the run in us (LatencySeries), same name as the result file
+	public static final String samplesSuffix = ".samples";
+
+	//device, same fields as in SystemParameters
+	public String manufacturer;
+	public String model;
+	public int sdkVersion;
+
+	//configuration
+	public String api;
+	public int sampleRateInHz;
+	public int bufferSizeInSamples;
+
+	//the run
+	public long created;
+	public int numberOfTests;
+	public double medianMs;
+	public double p99Ms;
+	public double trimmedMeanMs;
+	public int outliers;
+
+	public ResultRecord() {
+	}
+
+	/**
+	 * @param result a valid impulse latency result
+	 */
+	public ResultRecord(TestResult result, String manufacturer, String model, int sdkVersion, long created) {
+		this.manufacturer = manufacturer;
+		this.model = model;
+		this.sdkVersion = sdkVersion;
+		this.api = result.usedApi.name();
+		this.sampleRateInHz = result.sampleRateInHz;
+		this.bufferSizeInSamples = result.bufferSizeInSamples;
+		this.created = created;
+		RobustSummary robust = result.getRobustSummary();
+		if(robust != null) {
+			this.numberOfTests = robust.n;
+			this.medianMs = robust.median;
+			this.p99Ms = robust.p99;
+			this.trimmedMeanMs = robust.trimmedMean;
+			this.outliers = robust.outliers;
+		} else {
+			//long runs, no outlier detection
+			LatencySeries series = result.latencySeries;
+			this.numberOfTests = series.size();
+			this.medianMs = series.quantile(0.5);
+			this.p99Ms = series.quantile(0.99);
+			this.trimmedMeanMs = series.getMean();
+		}
+	}
+
+	public Properties toProperties() {
+		Properties p = new Properties();
+		p.setProperty("manufacturer", String.valueOf(manufacturer));
+		p.setProperty("model", String.valueOf(model));
+		p.setProperty("sdk", Integer.toString(sdkVersion));
+		p.setProperty("api", api);
+		p.setProperty("sampleRate", Integer.toString(sampleRateInHz));
+		p.setProperty("bufferSize", Integer.toString(bufferSizeInSamples));
+		p.setProperty("created", Long.toString(created));
+		p.setProperty("tests", Integer.toString(numberOfTests));
+		p.setProperty("median", Double.toString(medianMs));
+		p.setProperty("p99", Double.toString(p99Ms));
+		p.setProperty("trimmedMean", Double.toString(trimmedMeanMs));
+		p.setProperty("outliers", Integer.toString(outliers));
+		return p;
+	}
+
+	/**
+	 * @throws NumberFormatException if a value is missing or malformed
+	 */
+	public static ResultRecord fromProperties(Properties p) {
+		ResultRecord r = new ResultRecord();
+		r.manufacturer = p.getProperty("manufacturer", "unknown");
+		r.model = p.getProperty("model", "unknown");
+		r.sdkVersion = Integer.parseInt(p.getProperty("sdk"));
+		r.api = p.getProperty("api", "unknown");
+		r.sampleRateInHz = Integer.parseInt(p.getProperty("sampleRate"));
+		r.bufferSizeInSamples = Integer.parseInt(p.getProperty("bufferSize"));
+		r.created = Long.parseLong(p.getProperty("created", "0"));
+		r.numberOfTests = Integer.parseInt(p.getProperty("tests"));
+		r.medianMs = Double.parseDouble(p.getProperty("median"));
+		r.p99Ms = Double.parseDouble(p.getProperty("p99"));
+		r.trimmedMeanMs = Double.parseDouble(p.getProperty("trimmedMean", p.getProperty("median")));
+		r.outliers = Integer.parseInt(p.getProperty("outliers", "0"));
+		return r;
+	}
+}
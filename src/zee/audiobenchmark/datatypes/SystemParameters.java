@@ -16,10 +16,16 @@
 
 package zee.audiobenchmark.datatypes;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import zee.audiobenchmark.analysis.HeadroomSearch;
+import zee.audiobenchmark.tasks.CpuStressHarness;
 import android.content.pm.PackageManager;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
+import android.os.Process;
 
 /**
  * In this class, all global parameters are defined
@@ -54,10 +60,70 @@ public class SystemParameters {
 	// Latency test config
 	public ArrayList<String> thresholds = new ArrayList<String>();
 	public String thresholdSelected;
-	private final String tHigh="high", tMed="medium", tLow="low";
+	private final String tHigh="high", tMed="medium", tLow="low", tAuto="auto";
 	private final String thresholdDefault = tHigh;
-	public Integer[] allowedTestNumbers = new Integer[]{5, 10, 25, 50, 100, 250, 500, 1000};
+	public short calibratedThreshold = 0; //result of the last calibration, 0 if none succeeded
+	public static final int calibrationSilenceMs = 500; //noise floor measurement
+	public static final int calibrationImpulses = 5; //reference impulses for the loopback gain
+	public Integer[] allowedTestNumbers = new Integer[]{5, 10, 25, 50, 100, 250, 500, 1000, 10000, 100000, 1000000};
 	public int numberOfTests = 10; //number of impulses to measure
+	public int warmupWindow = 5; //results per window of the steady state detection, 0: disabled
+	public int maxWarmup = 50; //results after which no warm-up is discarded
+
+	// Size of the spectrum analysed in the loopbacks
+	public static final int analyserFftSize = 1024;
+
+	// Capture of the raw streams to WAV files
+	public boolean captureEnabled = false;
+	public File captureDirectory; //null if no storage is available
+
+	// Summary of every latency run, collected by tools.ResultsIndex
+	public File resultsDirectory; //null if no storage is available
+
+	// Trace events of the audio paths, written as JSON next to the captures
+	public boolean traceEnabled = false;
+
+	// Java processing chain in the AudioRecord loopback
+	public boolean loopProcessing = false;
+	public int loopFirTaps = 64;
+	public int loopBiquads = 4;
+
+	// Native loop hand-off
+	public boolean loopZeroCopy = false; //recorded buffers are enqueued to the player without copy
+	public int loopModeSeconds = 10; //per mode of the copy vs zero-copy comparison
+
+	// Clock drift test config
+	public int driftTestSeconds = 600; //duration of the long running drift measurement
+
+	// Buffer size tuning config
+	public static final double probeFrequency = 1000; //sine played by the glitch probes
+	public static final float probeAmplitude = 0.5f;
+	public int tunerProbeSeconds = 10; //duration of a single probe
+	public double tunerMaxXrunsPerMinute = 0.5; //target xrun rate
+	public int tunerMaxMultiple = 16; //largest candidate, multiple of the system buffer size
+
+	// CPU stress test config
+	public CpuStressHarness.LoadType stressLoad = CpuStressHarness.LoadType.compute;
+	public CpuStressHarness.LoadType[] stressLoads = CpuStressHarness.LoadType.values();
+	public int stressProbeSeconds = 10; //glitch probe per load level
+
+	// DSP headroom config
+	public HeadroomSearch.Load headroomLoad = HeadroomSearch.Load.fir;
+	public int headroomMaxTaps = 16384; //limits of jni/dspload.h
+	public int headroomMaxBiquads = 2048;
+	public int headroomStepSeconds = 2; //duration of each load step
+
+	// Soak test config
+	public int soakCheckpointSeconds = 60; //interval of the checkpoints
+	public int soakHalfLifeSeconds = 600; //of the recent statistics
+
+	// Wake-up latency test config
+	public int wakeupThreads = Runtime.getRuntime().availableProcessors(); //one sleeper per core
+	public int wakeupSeconds = 10; //per priority and sleep method
+	public static final int[] wakeupPriorities = new int[] {
+		Process.THREAD_PRIORITY_DEFAULT, Process.THREAD_PRIORITY_DISPLAY, 
+		Process.THREAD_PRIORITY_AUDIO, Process.THREAD_PRIORITY_URGENT_AUDIO
+	};
 
 
 	/**
@@ -68,6 +134,7 @@ public class SystemParameters {
 		thresholds.add(tHigh);
 		thresholds.add(tMed);
 		thresholds.add(tLow);
+		thresholds.add(tAuto);
 		thresholdSelected = thresholdDefault;
 
 
@@ -93,7 +160,23 @@ public class SystemParameters {
 		if(thresholdSelected.equals(tHigh)) return high;
 		if(thresholdSelected.equals(tMed)) return medium;
 		if(thresholdSelected.equals(tLow)) return low;
-		return high; //default
+		return high; //default, also until a calibration succeeded
+	}
+
+	/**
+	 * If selected, each latency test measures noise floor and loopback gain first
+	 */
+	public boolean isThresholdCalibrated() {
+		return thresholdSelected.equals(tAuto);
+	}
+
+	/**
+	 * Threshold for the impulse recognition,
+	 * the last calibrated value or the fixed selection
+	 */
+	public short getThreshold() {
+		if(isThresholdCalibrated() && calibratedThreshold > 0) return calibratedThreshold;
+		return (short) (Short.MAX_VALUE / getThresholdDivider());
 	}
 
 	/**
@@ -124,6 +207,44 @@ public class SystemParameters {
 		}
 	}
 
+	/**
+	 * Number of tests for the tests that keep their results in arrays (native engine,
+	 * trigger tests). Only the AudioRecord test records larger runs as encoded series.
+	 */
+	public int getArrayTestNumber() {
+		return Math.min(numberOfTests, TestResult.maxArrayResults);
+	}
+
+	/**
+	 * Selectable buffer sizes in samples, ascending
+	 */
+	public int[] getBufferSizes() {
+		int[] sizes = new int[bufferSizes.size()];
+		for(int i=0; i<sizes.length; i++) {
+			sizes[i] = Integer.parseInt(bufferSizes.get(i));
+		}
+		Arrays.sort(sizes);
+		return sizes;
+	}
+
+	/**
+	 * Candidates for the buffer size search, ascending:
+	 * multiples of the system buffer size and the minimum buffer size
+	 */
+	public int[] getTunerCandidates() {
+		ArrayList<Integer> sizes = new ArrayList<Integer>();
+		for(int i=1; i<=tunerMaxMultiple; i++) {
+			sizes.add(i*systemBufferSize);
+		}
+		if(!sizes.contains(minBufferFrames)) sizes.add(minBufferFrames);
+		Collections.sort(sizes);
+		int[] candidates = new int[sizes.size()];
+		for(int i=0; i<candidates.length; i++) {
+			candidates[i] = sizes.get(i);
+		}
+		return candidates;
+	}
+
 	/**
 	 * Adds buffersizes which are a multiple of the system buffer size to spinner
 	 * Min buffer size is selected by default
@@ -16,6 +16,11 @@
 
 package zee.audiobenchmark.datatypes;
 
+import zee.audiobenchmark.analysis.CpuCost;
+import zee.audiobenchmark.analysis.RobustSummary;
+import zee.audiobenchmark.analysis.ThresholdCalibration;
+import zee.audiobenchmark.analysis.WakeupReport;
+import zee.audiobenchmark.interfaces.TestReport;
 
 /**
  * Data type to contain test results.
@@ -27,6 +32,7 @@ public class TestResult {
 	public enum apiType {
 		audioRecord ("AudioRecord/AudioTrack"),
 		soundPool ("SoundPool"), 
+		mediaPlayer ("MediaPlayer"),
 		openSL ("NDK: OpenSL");
 
 		private final String name;
@@ -39,7 +45,16 @@ public class TestResult {
 	}
 
 	public enum testType {
-		impulseLatency ("Impulse measurement");
+		impulseLatency ("Impulse measurement"),
+		clockDrift ("Clock drift estimation"),
+		bufferTuning ("Buffer size tuning"),
+		cpuStress ("Latency under CPU load"),
+		dspHeadroom ("DSP headroom of the callback"),
+		jniTransfer ("JNI transfer cost"),
+		loopModes ("Loop hand-off: copy vs zero-copy"),
+		wakeupLatency ("Thread wake-up latency"),
+		thresholdCalibration ("Threshold calibration"),
+		soak ("Soak test");
 
 		private final String name;
 		private testType(String s) {
@@ -65,11 +80,45 @@ public class TestResult {
 	public long[] latencyResults;
 	public long[] normalizedResults;
 
+	//encoded results of long runs, the arrays above are only decoded up to maxArrayResults
+	public static final int maxArrayResults = 10000;
+	public LatencySeries latencySeries;
+	public LatencySeries normalizedSeries;
+
+	//results of the native engine in ns and the frame of each detection within its buffer,
+	//latencyResults and normalizedResults hold the rounded ms values
+	public long[] latencyResultsNs;
+	public long[] normalizedResultsNs;
+	public int[] detectionFrames;
+
 	public int average;
 	public float stdDeviation;
 
+	//result of the tests other than the impulse measurement (drift, tuning, headroom, ...)
+	public TestReport report;
+	//shown after the test name, e.g. the mode of a soak test
+	public String testDetail;
+
+	//scheduling latency at the buffer period, attached to later results of the same configuration
+	public WakeupReport wakeup;
+
+	//noise floor and loopback gain, set if the threshold was calibrated for this test
+	public ThresholdCalibration calibration;
+
+	//CPU time of the audio threads, null if not measured
+	public CpuCost cpuCost;
+
+	//results in ms discarded before the steady state, null if the detection was disabled
+	public long[] warmupResults;
+	public boolean steadyStateReached;
+
 	private String comments = "";
 	private long min, max;
+	private boolean checked = false;
+
+	//robust statistics, calculated on first access
+	private RobustSummary robust;
+	private RobustSummary robustNormalized;
 
 	/**
 	 * Constructor with a message output only
@@ -102,38 +151,209 @@ public class TestResult {
 		valid = true;
 	}
 
+	/**
+	 * Constructor for a successfully performed test with encoded results
+	 * @param results
+	 * @param normalizedResults
+	 * @param bufferSizeInSamples
+	 * @param bitdepth
+	 * @param sampleRateInHz
+	 */
+	public TestResult(LatencySeries results, LatencySeries normalizedResults, int bufferSizeInSamples, int bitdepth, int sampleRateInHz) {
+		this(results.size() <= maxArrayResults ? results.toArray() : null, 
+				normalizedResults.size() <= maxArrayResults ? normalizedResults.toArray() : null, 
+				bufferSizeInSamples, bitdepth, sampleRateInHz);
+		this.latencySeries = results;
+		this.normalizedSeries = normalizedResults;
+		valid = results.size() > 0;
+		if(!valid) comments = "No impulse detected, check connections and levels.\n";
+	}
+
+	/**
+	 * Constructor for an impulse test of the native engine
+	 * @param resultsNs
+	 * @param normalizedResultsNs
+	 * @param detectionFrames
+	 * @param bufferSizeInSamples
+	 * @param sampleRateInHz
+	 */
+	public TestResult(long[] resultsNs, long[] normalizedResultsNs, int[] detectionFrames, int bufferSizeInSamples, int sampleRateInHz) {
+		this(nsToMs(resultsNs), nsToMs(normalizedResultsNs), bufferSizeInSamples, 16, sampleRateInHz);
+		this.usedApi = apiType.openSL;
+		this.latencyResultsNs = resultsNs;
+		this.normalizedResultsNs = normalizedResultsNs;
+		this.detectionFrames = detectionFrames;
+		valid = resultsNs.length > 0;
+		if(!valid) comments = "No impulse detected, check connections and levels.\n";
+	}
+
+	/**
+	 * Constructor for the tests with a report
+	 * @param report
+	 * @param test
+	 * @param api null if the test does not use an audio API
+	 * @param bufferSizeInSamples 0 if the test covers several buffer sizes
+	 * @param sampleRateInHz
+	 */
+	public TestResult(TestReport report, testType test, apiType api, int bufferSizeInSamples, int sampleRateInHz) {
+		this.usedApi = api;
+		this.usedTest = test;
+
+		this.report = report;
+		this.bufferSizeInSamples = bufferSizeInSamples;
+		this.bitdepth = 16;
+		this.sampleRateInHz = sampleRateInHz;
+		valid = report.isValid();
+		if(!valid) comments = report.getFormatedOutput();
+	}
+
 	public String getFormatedTestOutput() {
 
 		String format = "";
 
-		if(valid) {
+		if(valid && report != null) {
+			format += getFormatedHeader(false);
+			format += report.getFormatedOutput();
+		} else if(valid && latencyResults == null && latencySeries != null) {
+			format += getFormatedHeader(true);
+			format += "-- Latency --\n";
+			format += getFormatedSeries(latencySeries);
+			format += "-- Normalized latency --\n";
+			format += getFormatedSeries(normalizedSeries);
+			format += "Number of test: " + latencySeries.size() + "\n";
+		} else if(valid) {
 			checkResults();
-			format += "Result for ";
-			format += usedApi + " with " + usedTest + "\n";
-			format += "Bitrate: " + bitdepth + "\n";
-			format += "Samplerate: " + sampleRateInHz + "Hz \n";
-			format += "Buffer size: " + bufferSizeInSamples + "smp / " + getBuffersizeInTime() + "ms\n";
+			format += getFormatedHeader(true);
 			format += "Average latency: " + calcAverage(latencyResults) + "ms \n";
 			format += "Max jitter: " + calcMaxJitter(latencyResults) + "ms (" + "min="+ min+",max=" + max + ")\n";
 			format += "Standard deviation: " + this.stdDeviation + "\n";
 			format += "Average normalized latency: " + calcAverage(normalizedResults) + "ms \n";
 			format += "Max jitter for normalized values: " + calcMaxJitter(normalizedResults) + "ms (" + "min="+ min+",max=" + max + ")\n";
 			format += "Number of test: " + latencyResults.length + "\n";
+			if(latencyResultsNs != null) {
+				format += String.format("Mean latency: %.3fms, normalized: %.3fms\n", 
+						calcMeanMs(latencyResultsNs), calcMeanMs(normalizedResultsNs));
+				format += String.format("Mean detection frame: %.1f of %d\n", calcMeanFrame(), bufferSizeInSamples);
+			}
+			format += "-- Robust statistics --\n";
+			format += getRobustSummary().getFormatedOutput();
+			format += "-- Robust statistics, normalized --\n";
+			format += getRobustNormalizedSummary().getFormatedOutput();
+		}
+		if(valid && calibration != null && usedTest != testType.thresholdCalibration) {
+			format += "-- Threshold calibration --\n";
+			format += calibration.getFormatedOutput();
+		}
+		if(valid && cpuCost != null) {
+			format += "-- CPU --\n";
+			format += cpuCost.getFormatedOutput();
+		}
+		if(valid && warmupResults != null) {
+			format += "-- Warm-up --\n";
+			format += getFormatedWarmup();
+		}
+		if(valid && wakeup != null) {
+			format += "-- Thread wake-up latency, same configuration --\n";
+			format += wakeup.getFormatedOutput();
 		}
 		format += comments;
 		return format;
 	}
 
+	/*
+	 * Test, API and configuration, the same for all tests
+	 */
+	private String getFormatedHeader(boolean withBitdepth) {
+		String format = "Result for ";
+		if(usedApi != null) format += usedApi + " with ";
+		format += usedTest + (testDetail != null ? " (" + testDetail + ")" : "") + "\n";
+		if(withBitdepth) format += "Bitrate: " + bitdepth + "\n";
+		format += "Samplerate: " + sampleRateInHz + "Hz \n";
+		if(bufferSizeInSamples > 0) format += "Buffer size: " + bufferSizeInSamples + "smp / " + getBuffersizeInTime() + "ms\n";
+		return format;
+	}
+
+	private String getFormatedWarmup() {
+		if(!steadyStateReached) return "No steady state detected, no results discarded\n";
+		if(warmupResults.length == 0) return "Steady from the first result\n";
+		long sum = 0;
+		for(long v : warmupResults) sum += v;
+		return String.format("%d results discarded (mean %.1fms, first %dms, last %dms)\n", warmupResults.length, 
+				(double) sum / warmupResults.length, warmupResults[0], warmupResults[warmupResults.length - 1]);
+	}
+
+	/**
+	 * Latencies in us, from the most precise results available,
+	 * e.g. to be stored for a later comparison (see analysis.RegressionGate)
+	 * @return null if the result has no latencies
+	 */
+	public LatencySeries getLatenciesUs() {
+		LatencySeries us = new LatencySeries();
+		if(latencyResultsNs != null) {
+			for(long ns : latencyResultsNs) us.add((ns + 500) / 1000);
+		} else if(latencySeries != null) {
+			LatencySeries.Cursor c = latencySeries.cursor();
+			while(c.hasNext()) us.add(c.next() * 1000);
+		} else if(latencyResults != null) {
+			for(long ms : latencyResults) us.add(ms * 1000);
+		} else {
+			return null;
+		}
+		return us;
+	}
+
+	/**
+	 * Additional note of the test, appended to the output
+	 */
+	public void addComment(String comment) {
+		comments += comment;
+	}
+
+	/**
+	 * Robust statistics of the latency results.
+	 * The bootstrap is expensive, call this once in the test thread before
+	 * the result is passed to the UI.
+	 * @return null for results that are only kept encoded (more than maxArrayResults)
+	 */
+	public synchronized RobustSummary getRobustSummary() {
+		if(robust == null && latencyResultsNs != null) robust = new RobustSummary(latencyResultsNs, 1e6, getFrameInMs());
+		else if(robust == null && latencyResults != null) robust = new RobustSummary(latencyResults);
+		return robust;
+	}
+
+	public synchronized RobustSummary getRobustNormalizedSummary() {
+		if(robustNormalized == null && normalizedResultsNs != null) robustNormalized = new RobustSummary(normalizedResultsNs, 1e6, getFrameInMs());
+		else if(robustNormalized == null && normalizedResults != null) robustNormalized = new RobustSummary(normalizedResults);
+		return robustNormalized;
+	}
+
+	private double getFrameInMs() {
+		return sampleRateInHz > 0 ? 1000.0 / sampleRateInHz : RobustSummary.resolution;
+	}
+
+	public static long[] nsToMs(long[] ns) {
+		long[] ms = new long[ns.length];
+		for(int i=0; i<ns.length; i++) ms[i] = (ns[i] + 500000) / 1000000;
+		return ms;
+	}
+
+	/*
+	 * Plausibility checks based on the robust statistics,
+	 * single outliers do not invalidate the whole run
+	 */
 	private void checkResults() {
-		long av = calcAverage(latencyResults);
-		if(av == 0) comments += "ERROR: No valid signal received, check connections\n";
-		if(av < 10 || av > 400) comments += "WARNING: Value out of expected range, check connections\n";
-		if(calcMaxJitter(latencyResults) > av/2) comments += "WARNING: Jitter out of expected range, (at least one) result may be invalid\n";
+		if(checked) return;
+		checked = true;
+		RobustSummary r = getRobustSummary();
+		if(r.median == 0) comments += "ERROR: No valid signal received, check connections\n";
+		if(r.median < 10 || r.median > 400) comments += "WARNING: Value out of expected range, check connections\n";
+		if(r.outliers > 0) comments += "NOTE: " + r.outliers + " outlier(s) flagged, the median and trimmed mean are not affected\n";
+		if(r.getOutlierFraction() > 0.1) comments += "WARNING: More than 10% outliers, check connections and threshold\n";
 	}
 
 	private int getBuffersizeInTime() {
 		if(sampleRateInHz == 0 || bufferSizeInSamples == 0) return 0;
-		return bufferSizeInSamples / (sampleRateInHz / 1000);
+		return (int) ((long) bufferSizeInSamples * 1000 / sampleRateInHz);
 	}
 
 	private int calcMaxJitter(long[] results) {
@@ -149,6 +369,30 @@ public class TestResult {
 		return (int) (max-min);
 	}
 
+	private static String getFormatedSeries(LatencySeries series) {
+		String format = "";
+		format += String.format("Mean: %.2fms, standard deviation: %.2fms (min=%d, max=%d)\n", 
+				series.getMean(), series.getStdDeviation(), series.getMin(), series.getMax());
+		format += "Median: " + series.quantile(0.5) + "ms, P99: " + series.quantile(0.99) + "ms, P99.9: " + series.quantile(0.999) + "ms\n";
+		format += String.format("Encoded: %d bytes (%.2f bytes/result)\n", 
+				series.getEncodedBytes(), (double) series.getEncodedBytes() / series.size());
+		return format;
+	}
+
+	private static double calcMeanMs(long[] ns) {
+		if(ns.length == 0) return 0;
+		double sum = 0;
+		for(long l:ns) sum += l;
+		return sum / ns.length / 1e6;
+	}
+
+	private double calcMeanFrame() {
+		if(detectionFrames.length == 0) return 0;
+		double sum = 0;
+		for(int f:detectionFrames) sum += f;
+		return sum / detectionFrames.length;
+	}
+
 	private long calcAverage(long[] results) {
 		if(results == null) {
 			return 0;
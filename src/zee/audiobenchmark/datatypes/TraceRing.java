@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.datatypes;
+
+/**
+ * Preallocated event ring of one thread, written only by this thread.
+ * Keeps the newest events, the oldest ones are overwritten.
+ * Read only after tracing has been stopped.
+ */
+public class TraceRing {
+
+	//duration of an instant event
+	public static final long instant = -1;
+
+	public final long threadId;
+	public final String threadName;
+
+	private final long[] starts;
+	private final long[] durations;
+	private final int[] names;
+	private final int mask;
+
+	private volatile int count = 0; //free running, single writer
+
+	/**
+	 * @param capacity events, power of two
+	 * @param threadId
+	 * @param threadName
+	 */
+	public TraceRing(int capacity, long threadId, String threadName) {
+		if(capacity < 2 || Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity has to be a power of two");
+		this.threadId = threadId;
+		this.threadName = threadName;
+		starts = new long[capacity];
+		durations = new long[capacity];
+		names = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Owner thread only
+	 * @param name
+	 * @param start ns, System.nanoTime()
+	 * @param duration ns, instant for instant events
+	 */
+	public void write(int name, long start, long duration) {
+		int c = count;
+		int i = c & mask;
+		starts[i] = start;
+		durations[i] = duration;
+		names[i] = name;
+		count = c + 1;
+	}
+
+	/**
+	 * @return number of events available
+	 */
+	public int size() {
+		return Math.min(count, mask + 1);
+	}
+
+	/**
+	 * Copies the events, oldest first
+	 * @return number of events copied
+	 */
+	public int read(long[] startDst, long[] durationDst, int[] nameDst) {
+		int c = count;
+		int n = Math.min(Math.min(c, mask + 1), startDst.length);
+		int first = c - n;
+		for(int k=0; k<n; k++) {
+			int i = (first + k) & mask;
+			startDst[k] = starts[i];
+			durationDst[k] = durations[i];
+			nameDst[k] = names[i];
+		}
+		return n;
+	}
+
+	/**
+	 * Only while the owner is not writing
+	 */
+	public void reset() {
+		count = 0;
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.dsp;
+
+import zee.audiobenchmark.interfaces.AudioProcessor;
+
+/**
+ * Cascade of identical biquad sections (transposed direct form II).
+ * The coefficients follow the RBJ audio EQ cookbook.
+ */
+public class BiquadProcessor implements AudioProcessor {
+
+	private final String name;
+	private final int sections;
+	private final float b0, b1, b2, a1, a2;
+	private final float[] state; //2 per section
+
+	private BiquadProcessor(String name, int sections, double b0, double b1, double b2, double a0, double a1, double a2) {
+		this.name = name;
+		this.sections = sections;
+		this.b0 = (float) (b0 / a0);
+		this.b1 = (float) (b1 / a0);
+		this.b2 = (float) (b2 / a0);
+		this.a1 = (float) (a1 / a0);
+		this.a2 = (float) (a2 / a0);
+		state = new float[2 * sections];
+	}
+
+	/**
+	 * Peaking EQ, same as the synthetic load of the native engine (jni/dspload.c) with +1dB at fs/8, Q=1
+	 */
+	public static BiquadProcessor peaking(int sampleRateInHz, double frequency, double gainDb, double q, int sections) {
+		double A = Math.pow(10, gainDb / 40);
+		double w0 = 2 * Math.PI * frequency / sampleRateInHz;
+		double alpha = Math.sin(w0) / (2 * q);
+		double cos = Math.cos(w0);
+		return new BiquadProcessor(String.format("Peaking EQ %.0fHz %.1fdB x%d", frequency, gainDb, sections), sections,
+				1 + alpha*A, -2*cos, 1 - alpha*A, 1 + alpha/A, -2*cos, 1 - alpha/A);
+	}
+
+	/**
+	 * Second order lowpass
+	 */
+	public static BiquadProcessor lowpass(int sampleRateInHz, double frequency, double q, int sections) {
+		double w0 = 2 * Math.PI * frequency / sampleRateInHz;
+		double alpha = Math.sin(w0) / (2 * q);
+		double cos = Math.cos(w0);
+		return new BiquadProcessor(String.format("Lowpass %.0fHz x%d", frequency, sections), sections,
+				(1 - cos)/2, 1 - cos, (1 - cos)/2, 1 + alpha, -2*cos, 1 - alpha);
+	}
+
+	@Override
+	public void process(short[] buffer, int offset, int len) {
+		for(int i=offset; i<offset+len; i++) {
+			float x = buffer[i];
+			for(int s=0; s<2*sections; s+=2) {
+				float y = b0 * x + state[s];
+				state[s] = b1 * x - a1 * y + state[s+1];
+				state[s+1] = b2 * x - a2 * y;
+				x = y;
+			}
+			buffer[i] = GainProcessor.saturate(x);
+		}
+	}
+
+	@Override
+	public void reset() {
+		for(int i=0; i<state.length; i++) state[i] = 0;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+}
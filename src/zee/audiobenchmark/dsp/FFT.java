@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.dsp;
+
+/**
+ * Iterative radix-2 FFT with a precomputed plan.
+ * Twiddle factors and the bit reversal table are calculated once on creation,
+ * transform() works in place and does not allocate.
+ */
+public class FFT {
+
+	public final int n;
+	private final int[] bitReverse;
+	private final float[] cos;
+	private final float[] sin;
+
+	/**
+	 * @param n transform size, must be a power of two
+	 */
+	public FFT(int n) {
+		if(n < 2 || (n & (n-1)) != 0) {
+			throw new IllegalArgumentException("FFT size must be a power of two: " + n);
+		}
+		this.n = n;
+		bitReverse = new int[n];
+		int bits = Integer.numberOfTrailingZeros(n);
+		for(int i=0; i<n; i++) {
+			bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+		}
+		cos = new float[n/2];
+		sin = new float[n/2];
+		for(int i=0; i<n/2; i++) {
+			cos[i] = (float) Math.cos(2*Math.PI*i/n);
+			sin[i] = (float) -Math.sin(2*Math.PI*i/n);
+		}
+	}
+
+	/**
+	 * Forward transform in place
+	 * @param re real part, length n
+	 * @param im imaginary part, length n
+	 */
+	public void transform(float[] re, float[] im) {
+		for(int i=0; i<n; i++) {
+			int j = bitReverse[i];
+			if(j > i) {
+				float t = re[i]; re[i] = re[j]; re[j] = t;
+				t = im[i]; im[i] = im[j]; im[j] = t;
+			}
+		}
+		for(int size=2; size<=n; size<<=1) {
+			int half = size >> 1;
+			int step = n / size;
+			for(int start=0; start<n; start+=size) {
+				for(int k=0; k<half; k++) {
+					float wr = cos[k*step];
+					float wi = sin[k*step];
+					int a = start + k;
+					int b = a + half;
+					float tr = re[b]*wr - im[b]*wi;
+					float ti = re[b]*wi + im[b]*wr;
+					re[b] = re[a] - tr;
+					im[b] = im[a] - ti;
+					re[a] += tr;
+					im[a] += ti;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.dsp;
+
+import zee.audiobenchmark.interfaces.AudioProcessor;
+
+/**
+ * FIR filter with a Hann windowed sinc lowpass.
+ * The history is stored twice, so the taps are read without wrapping (as in jni/dspload.c).
+ */
+public class FirProcessor implements AudioProcessor {
+
+	private final float[] coefficients; //reversed, coefficients[0] is applied to the oldest sample
+	private final float[] history;
+	private final int taps;
+	private final double cutoff;
+	private int pos = 0;
+
+	/**
+	 * @param taps
+	 * @param cutoff relative to the sample rate, 0..0.5
+	 */
+	public FirProcessor(int taps, double cutoff) {
+		this.taps = taps;
+		this.cutoff = cutoff;
+		coefficients = new float[taps];
+		history = new float[2 * taps];
+		double center = (taps - 1) / 2.0;
+		double sum = 0;
+		double[] h = new double[taps];
+		for(int i=0; i<taps; i++) {
+			double x = i - center;
+			double sinc = x == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+			double window = taps > 1 ? 0.5 - 0.5 * Math.cos(2 * Math.PI * i / (taps - 1)) : 1;
+			h[i] = sinc * window;
+			sum += h[i];
+		}
+		//unity gain at DC
+		for(int i=0; i<taps; i++) {
+			coefficients[taps - 1 - i] = (float) (h[i] / sum);
+		}
+	}
+
+	@Override
+	public void process(short[] buffer, int offset, int len) {
+		for(int i=offset; i<offset+len; i++) {
+			history[pos] = buffer[i];
+			history[pos + taps] = buffer[i];
+			pos = pos + 1 == taps ? 0 : pos + 1;
+			//the last taps samples are history[pos..pos+taps-1], oldest first
+			float acc = 0;
+			for(int k=0; k<taps; k++) {
+				acc += history[pos + k] * coefficients[k];
+			}
+			buffer[i] = GainProcessor.saturate(acc);
+		}
+	}
+
+	@Override
+	public void reset() {
+		for(int i=0; i<history.length; i++) history[i] = 0;
+		pos = 0;
+	}
+
+	@Override
+	public String getName() {
+		return String.format("FIR %d taps, lowpass %.3ffs", taps, cutoff);
+	}
+}
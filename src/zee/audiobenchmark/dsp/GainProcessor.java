@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.dsp;
+
+import zee.audiobenchmark.interfaces.AudioProcessor;
+
+/**
+ * Constant gain with saturation
+ */
+public class GainProcessor implements AudioProcessor {
+
+	private final float gain;
+
+	/**
+	 * @param gainDb
+	 */
+	public GainProcessor(float gainDb) {
+		gain = (float) Math.pow(10, gainDb / 20);
+	}
+
+	@Override
+	public void process(short[] buffer, int offset, int len) {
+		for(int i=offset; i<offset+len; i++) {
+			buffer[i] = saturate(buffer[i] * gain);
+		}
+	}
+
+	static short saturate(float x) {
+		return (short) (x > Short.MAX_VALUE ? Short.MAX_VALUE : (x < Short.MIN_VALUE ? Short.MIN_VALUE : x));
+	}
+
+	@Override
+	public void reset() {
+	}
+
+	@Override
+	public String getName() {
+		return String.format("Gain %.1fdB", 20 * Math.log10(gain));
+	}
+}
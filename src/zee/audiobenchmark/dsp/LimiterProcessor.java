@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.dsp;
+
+import zee.audiobenchmark.interfaces.AudioProcessor;
+
+/**
+ * Peak limiter without lookahead: the gain follows the peak envelope with
+ * an instant attack and an exponential release.
+ */
+public class LimiterProcessor implements AudioProcessor {
+
+	private final float threshold;
+	private final float releaseCoefficient;
+	private final float thresholdDb;
+	private final float releaseMs;
+	private float envelope = 0;
+
+	/**
+	 * @param sampleRateInHz
+	 * @param thresholdDb relative to full scale
+	 * @param releaseMs time constant of the release
+	 */
+	public LimiterProcessor(int sampleRateInHz, float thresholdDb, float releaseMs) {
+		this.thresholdDb = thresholdDb;
+		this.releaseMs = releaseMs;
+		threshold = (float) (Short.MAX_VALUE * Math.pow(10, thresholdDb / 20));
+		releaseCoefficient = (float) Math.exp(-1000.0 / (releaseMs * sampleRateInHz));
+	}
+
+	@Override
+	public void process(short[] buffer, int offset, int len) {
+		for(int i=offset; i<offset+len; i++) {
+			float x = buffer[i];
+			float abs = x < 0 ? -x : x;
+			envelope = abs > envelope ? abs : envelope * releaseCoefficient;
+			if(envelope > threshold) {
+				x *= threshold / envelope;
+			}
+			buffer[i] = (short) x;
+		}
+	}
+
+	@Override
+	public void reset() {
+		envelope = 0;
+	}
+
+	@Override
+	public String getName() {
+		return String.format("Limiter %.1fdBFS, release %.0fms", thresholdDb, releaseMs);
+	}
+}
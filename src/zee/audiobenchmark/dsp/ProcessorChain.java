@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.dsp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import zee.audiobenchmark.interfaces.AudioProcessor;
+
+/**
+ * Runs a fixed chain of AudioProcessors in place and times each stage.
+ * The first blocks are recorded separately to show the JIT warm-up.
+ * The statistics are published with lazySet, they may be read from any thread
+ * while the audio thread keeps processing.
+ */
+public class ProcessorChain {
+
+	//blocks recorded for the warm-up profile
+	public static final int warmupBlocks = 64;
+
+	private final AudioProcessor[] stages;
+
+	//per stage: total ns, max ns (after warm-up)
+	private final AtomicLongArray totalNanos;
+	private final AtomicLongArray maxNanos;
+	//whole chain, ns of each of the first blocks
+	private final AtomicLongArray warmupNanos = new AtomicLongArray(warmupBlocks);
+	private volatile long blocks = 0;
+	private volatile long samples = 0;
+
+	public ProcessorChain(AudioProcessor... stages) {
+		this.stages = stages;
+		totalNanos = new AtomicLongArray(stages.length);
+		maxNanos = new AtomicLongArray(stages.length);
+	}
+
+	/**
+	 * Called from the audio thread, does not allocate
+	 */
+	public void process(short[] buffer, int offset, int len) {
+		long block = blocks;
+		long chainStart = System.nanoTime();
+		long start = chainStart;
+		for(int s=0; s<stages.length; s++) {
+			stages[s].process(buffer, offset, len);
+			long end = System.nanoTime();
+			long elapsed = end - start;
+			start = end;
+			//the warm-up blocks are not part of the steady state statistics
+			if(block >= warmupBlocks) {
+				totalNanos.lazySet(s, totalNanos.get(s) + elapsed);
+				if(elapsed > maxNanos.get(s)) maxNanos.lazySet(s, elapsed);
+			}
+		}
+		if(block < warmupBlocks) {
+			warmupNanos.lazySet((int) block, start - chainStart);
+		} else {
+			samples += len;
+		}
+		blocks = block + 1;
+	}
+
+	public void reset() {
+		for(AudioProcessor p : stages) p.reset();
+	}
+
+	public int getStages() {
+		return stages.length;
+	}
+
+	public long getBlocks() {
+		return blocks;
+	}
+
+	/**
+	 * Average ns per block of a stage in the steady state
+	 */
+	public double getAverageNanos(int stage) {
+		long steady = blocks - warmupBlocks;
+		return steady > 0 ? (double) totalNanos.get(stage) / steady : 0;
+	}
+
+	public String getFormatedOutput() {
+		long steady = blocks - warmupBlocks;
+		String format = "Java processing chain, " + blocks + " blocks\n";
+		if(steady <= 0) {
+			return format + "warming up...\n";
+		}
+		double perSample = 1.0 / ((double) samples / steady);
+		double total = 0;
+		for(int s=0; s<stages.length; s++) {
+			double avg = getAverageNanos(s);
+			total += avg;
+			format += String.format("%s: %.1fus/block (%.1fns/sample), max %.1fus\n", stages[s].getName(), 
+					avg / 1000, avg * perSample, maxNanos.get(s) / 1000.0);
+		}
+		format += String.format("Total: %.1fus/block\n", total / 1000);
+
+		//JIT warm-up: first block, mean of the first 8 and of the whole profile against the steady state
+		long first8 = 0;
+		long all = 0;
+		for(int i=0; i<warmupBlocks; i++) {
+			if(i < 8) first8 += warmupNanos.get(i);
+			all += warmupNanos.get(i);
+		}
+		format += String.format("Warm-up: first block %.1fus, first 8 %.1fus, first %d %.1fus (%.1fx steady state)\n", 
+				warmupNanos.get(0) / 1000.0, first8 / 8000.0, warmupBlocks, all / (warmupBlocks * 1000.0), 
+				total > 0 ? all / (warmupBlocks * total) : 0);
+		return format;
+	}
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.dsp;
+
+/**
+ * Generator for probe signals and test tones.
+ * Renders into caller supplied buffers, block by block without discontinuities.
+ * Tables are calculated once (sine) or when a signal is configured (click kernel),
+ * render() does not allocate.
+ * The native engine contains the same generator (jni/siggen.c), the order of
+ * the signal types has to match.
+ */
+public class SignalGenerator {
+
+	public enum Signal {
+		silence,
+		impulse, //single sample impulse
+		click, //band limited click (windowed sinc)
+		sine, //phase continuous sine
+		logSweep, //exponential sine sweep, repeated
+		mls, //maximum length sequence
+		whiteNoise,
+		pinkNoise
+	}
+
+	//sine wavetable, one additional entry for the interpolation
+	private static final int tableBits = 12;
+	private static final int tableSize = 1 << tableBits;
+	private static final float[] sineTable = new float[tableSize+1];
+	static {
+		for(int i=0; i<=tableSize; i++) {
+			sineTable[i] = (float) Math.sin(2*Math.PI*i/tableSize);
+		}
+	}
+
+	//band limited click: windowed sinc, cut off below nyquist
+	private static final int clickLength = 31;
+	private static final double clickCutoff = 0.45; //relative to the sample rate
+	private static final float[] clickKernel = new float[clickLength];
+	static {
+		int center = clickLength/2;
+		for(int i=0; i<clickLength; i++) {
+			double x = i - center;
+			double sinc = x == 0 ? 1.0 : Math.sin(2*Math.PI*clickCutoff*x) / (2*Math.PI*clickCutoff*x);
+			double blackman = 0.42 - 0.5*Math.cos(2*Math.PI*i/(clickLength-1)) + 0.08*Math.cos(4*Math.PI*i/(clickLength-1));
+			clickKernel[i] = (float) (sinc*blackman);
+		}
+	}
+
+	//feedback taps for maximal length LFSRs, index = order
+	private static final int[] mlsTaps = new int[] {
+		0, 0, 0x3, 0x6, 0xC, 0x14, 0x30, 0x60, 0xB8, 0x110, 0x240, 0x500, 0xE08, 0x1C80,
+		0x3802, 0x6000, 0xD008, 0x12000, 0x20400, 0x72000, 0x90000
+	};
+
+	public final int sampleRate;
+	private Signal signal = Signal.silence;
+	private float amplitude = 1f;
+
+	//impulse and click
+	private int period; //samples between two impulses, 0: only once
+	private long position; //samples since reset
+
+	//sine and sweep, phase in table entries
+	private double phase;
+	private double increment;
+	private double startIncrement;
+	private double sweepFactor;
+	private long sweepLength;
+
+	//mls
+	private int lfsr;
+	private int lfsrTaps;
+
+	//noise
+	private int noiseState = 0x12345678;
+	private float b0, b1, b2, b3, b4, b5, b6; //pink noise filter
+
+	public SignalGenerator(int sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+	public Signal getSignal() {
+		return signal;
+	}
+
+	public void setSilence() {
+		signal = Signal.silence;
+		reset();
+	}
+
+	/**
+	 * @param period samples between impulses, 0 for a single impulse
+	 * @param amplitude 0..1 of full scale
+	 */
+	public void setImpulse(int period, float amplitude) {
+		this.signal = Signal.impulse;
+		this.period = period;
+		this.amplitude = amplitude;
+		reset();
+	}
+
+	/**
+	 * @param period samples between clicks, 0 for a single click
+	 * @param amplitude 0..1 of full scale
+	 */
+	public void setClick(int period, float amplitude) {
+		this.signal = Signal.click;
+		this.period = period;
+		this.amplitude = amplitude;
+		reset();
+	}
+
+	public void setSine(double frequency, float amplitude) {
+		this.signal = Signal.sine;
+		this.amplitude = amplitude;
+		this.startIncrement = frequency / sampleRate * tableSize;
+		reset();
+	}
+
+	/**
+	 * Exponential sweep from f0 to f1, restarted after the given duration
+	 */
+	public void setLogSweep(double f0, double f1, double seconds, float amplitude) {
+		this.signal = Signal.logSweep;
+		this.amplitude = amplitude;
+		this.startIncrement = f0 / sampleRate * tableSize;
+		this.sweepLength = Math.max(1, (long) (seconds * sampleRate));
+		this.sweepFactor = Math.pow(f1/f0, 1.0/sweepLength);
+		reset();
+	}
+
+	/**
+	 * @param order 2..20, sequence length 2^order-1
+	 */
+	public void setMls(int order, float amplitude) {
+		if(order < 2 || order >= mlsTaps.length) {
+			throw new IllegalArgumentException("Unsupported MLS order: " + order);
+		}
+		this.signal = Signal.mls;
+		this.amplitude = amplitude;
+		this.lfsrTaps = mlsTaps[order];
+		reset();
+	}
+
+	public void setWhiteNoise(float amplitude) {
+		this.signal = Signal.whiteNoise;
+		this.amplitude = amplitude;
+		reset();
+	}
+
+	public void setPinkNoise(float amplitude) {
+		this.signal = Signal.pinkNoise;
+		this.amplitude = amplitude;
+		reset();
+	}
+
+	/**
+	 * Restart the signal (impulse position, phase, sequences)
+	 */
+	public void reset() {
+		position = 0;
+		phase = 0.0;
+		increment = startIncrement;
+		lfsr = 1;
+		b0 = b1 = b2 = b3 = b4 = b5 = b6 = 0f;
+	}
+
+	/**
+	 * Render the next len samples as 16 bit PCM
+	 */
+	public void render(short[] dst, int offset, int len) {
+		for(int i=offset; i<offset+len; i++) {
+			float v = nextSample() * Short.MAX_VALUE;
+			if(v > Short.MAX_VALUE) v = Short.MAX_VALUE;
+			if(v < Short.MIN_VALUE) v = Short.MIN_VALUE;
+			dst[i] = (short) v;
+		}
+	}
+
+	/**
+	 * Render the next len samples as float, full scale = 1.0
+	 */
+	public void render(float[] dst, int offset, int len) {
+		for(int i=offset; i<offset+len; i++) {
+			dst[i] = nextSample();
+		}
+	}
+
+	private float nextSample() {
+		float v;
+		switch(signal) {
+		case impulse:
+			v = periodPosition() == 0 ? amplitude : 0f;
+			break;
+		case click: {
+			long p = periodPosition();
+			v = p < clickLength ? amplitude * clickKernel[(int) p] : 0f;
+			break;
+		}
+		case sine:
+			v = amplitude * tableLookup();
+			phase += increment;
+			if(phase >= tableSize) phase -= tableSize;
+			break;
+		case logSweep:
+			v = amplitude * tableLookup();
+			phase += increment;
+			if(phase >= tableSize) phase -= tableSize;
+			increment *= sweepFactor;
+			if((position+1) % sweepLength == 0) increment = startIncrement;
+			break;
+		case mls:
+			v = (lfsr & 1) != 0 ? amplitude : -amplitude;
+			lfsr = (lfsr >>> 1) ^ ((lfsr & 1) != 0 ? lfsrTaps : 0);
+			break;
+		case whiteNoise:
+			v = amplitude * nextNoise();
+			break;
+		case pinkNoise: {
+			//Paul Kellet's refined filter, gain normalized to roughly full scale
+			float white = nextNoise();
+			b0 = 0.99886f*b0 + white*0.0555179f;
+			b1 = 0.99332f*b1 + white*0.0750759f;
+			b2 = 0.96900f*b2 + white*0.1538520f;
+			b3 = 0.86650f*b3 + white*0.3104856f;
+			b4 = 0.55000f*b4 + white*0.5329522f;
+			b5 = -0.7616f*b5 - white*0.0168980f;
+			v = amplitude * 0.11f * (b0 + b1 + b2 + b3 + b4 + b5 + b6 + white*0.5362f);
+			b6 = white*0.115926f;
+			break;
+		}
+		case silence:
+		default:
+			v = 0f;
+			break;
+		}
+		position++;
+		return v;
+	}
+
+	private long periodPosition() {
+		if(period <= 0) return position;
+		return position % period;
+	}
+
+	private float tableLookup() {
+		int i = (int) phase;
+		float frac = (float) (phase - i);
+		return sineTable[i] + frac * (sineTable[i+1] - sineTable[i]);
+	}
+
+	//xorshift32, uniform in -1..1
+	private float nextNoise() {
+		int x = noiseState;
+		x ^= x << 13;
+		x ^= x >>> 17;
+		x ^= x << 5;
+		noiseState = x;
+		return x / 2147483648f;
+	}
+}
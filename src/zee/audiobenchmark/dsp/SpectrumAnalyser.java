@@ -0,0 +1,197 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.dsp;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Level and spectrum analyser for 16 bit PCM blocks.
+ * All buffers are allocated on creation, process() may be called from the audio thread.
+ * The results are published as snapshots in a lock-free double buffer:
+ * the audio thread never waits for the reader, if the reader still copies the buffer
+ * that would be written next, the snapshot of this block is skipped.
+ */
+public class SpectrumAnalyser {
+
+	/**
+	 * Result of one analysed block
+	 */
+	public static class Snapshot {
+		public long blockIndex;
+		public float rms; //relative to full scale, 0..1
+		public float peak; //relative to full scale, 0..1
+		public float crestFactor; //peak/rms
+		public final float[] magnitudesDb; //fftSize/2 bins, dBFS
+
+		//processing cost of the analyser
+		public long processNanos;
+		public long maxProcessNanos;
+		public float avgProcessNanos;
+
+		public Snapshot(int bins) {
+			magnitudesDb = new float[bins];
+		}
+
+		void copyTo(Snapshot dst) {
+			dst.blockIndex = blockIndex;
+			dst.rms = rms;
+			dst.peak = peak;
+			dst.crestFactor = crestFactor;
+			dst.processNanos = processNanos;
+			dst.maxProcessNanos = maxProcessNanos;
+			dst.avgProcessNanos = avgProcessNanos;
+			System.arraycopy(magnitudesDb, 0, dst.magnitudesDb, 0, magnitudesDb.length);
+		}
+	}
+
+	//state bits: front buffer index, reader busy, index the reader is busy with
+	private static final int FRONT = 1;
+	private static final int BUSY = 2;
+	private static final int BUSY_INDEX = 4;
+
+	public final int fftSize;
+	private final FFT fft;
+	private final float[] window;
+	private final float[] history; //ring buffer of the last fftSize samples
+	private final float[] re;
+	private final float[] im;
+	private final float dbOffset; //full scale sine normalization
+	private int historyPos = 0;
+
+	private final Snapshot[] snapshots = new Snapshot[2];
+	private final AtomicInteger state = new AtomicInteger(0);
+
+	private long blocks = 0;
+	private long skipped = 0;
+	private long totalNanos = 0;
+	private long maxNanos = 0;
+
+	/**
+	 * @param fftSize power of two
+	 */
+	public SpectrumAnalyser(int fftSize) {
+		this.fftSize = fftSize;
+		fft = new FFT(fftSize);
+		window = new float[fftSize];
+		history = new float[fftSize];
+		re = new float[fftSize];
+		im = new float[fftSize];
+
+		//Hann window
+		double windowSum = 0.0;
+		for(int i=0; i<fftSize; i++) {
+			window[i] = (float) (0.5 - 0.5*Math.cos(2*Math.PI*i/(fftSize-1)));
+			windowSum += window[i];
+		}
+		dbOffset = (float) (20*Math.log10(windowSum/2));
+
+		snapshots[0] = new Snapshot(fftSize/2);
+		snapshots[1] = new Snapshot(fftSize/2);
+	}
+
+	/**
+	 * Analyses one block and publishes the result
+	 * @param buffer PCM data, not modified
+	 * @param offset
+	 * @param len number of samples
+	 */
+	public void process(short[] buffer, int offset, int len) {
+		long start = System.nanoTime();
+
+		int st = state.get();
+		int back = (st & FRONT) ^ 1;
+		boolean write = !((st & BUSY) != 0 && ((st & BUSY_INDEX) >> 2) == back);
+
+		//levels, the history has to be updated in any case
+		long sumSq = 0;
+		int peak = 0;
+		for(int i=offset; i<offset+len; i++) {
+			int s = buffer[i];
+			sumSq += s*s;
+			int abs = s < 0 ? -s : s;
+			if(abs > peak) peak = abs;
+			history[historyPos] = s / 32768f;
+			historyPos = (historyPos+1) & (fftSize-1);
+		}
+
+		blocks++;
+		if(!write) {
+			skipped++;
+			return;
+		}
+		Snapshot snap = snapshots[back];
+		snap.blockIndex = blocks;
+		snap.rms = len > 0 ? (float) (Math.sqrt((double)sumSq/len) / 32768.0) : 0f;
+		snap.peak = peak / 32768f;
+		snap.crestFactor = snap.rms > 0f ? snap.peak/snap.rms : 0f;
+
+		//spectrum of the last fftSize samples, oldest sample first
+		for(int i=0; i<fftSize; i++) {
+			re[i] = history[(historyPos+i) & (fftSize-1)] * window[i];
+			im[i] = 0f;
+		}
+		fft.transform(re, im);
+		float[] mag = snap.magnitudesDb;
+		for(int i=0; i<mag.length; i++) {
+			float power = re[i]*re[i] + im[i]*im[i];
+			mag[i] = power > 1e-20f ? (float) (10*Math.log10(power)) - dbOffset : -200f;
+		}
+
+		long nanos = System.nanoTime() - start;
+		totalNanos += nanos;
+		if(nanos > maxNanos) maxNanos = nanos;
+		snap.processNanos = nanos;
+		snap.maxProcessNanos = maxNanos;
+		snap.avgProcessNanos = (float) totalNanos / (blocks-skipped);
+
+		//publish, the busy bits of the reader are kept
+		do {
+			st = state.get();
+		} while(!state.compareAndSet(st, (st & ~FRONT) | back));
+	}
+
+	/**
+	 * Copies the latest snapshot, may be called from any (single) reader thread
+	 * @param dst snapshot created with fftSize/2 bins
+	 * @return false if nothing has been analysed yet
+	 */
+	public boolean poll(Snapshot dst) {
+		int st;
+		int front;
+		do {
+			st = state.get();
+			front = st & FRONT;
+		} while(!state.compareAndSet(st, front | BUSY | (front << 2)));
+
+		snapshots[front].copyTo(dst);
+
+		do {
+			st = state.get();
+		} while(!state.compareAndSet(st, st & FRONT));
+		return dst.blockIndex > 0;
+	}
+
+	public long getSkippedSnapshots() {
+		return skipped;
+	}
+
+	public String getFormatedOutput(Snapshot snap) {
+		return String.format("RMS: %.1fdBFS, peak: %.1fdBFS, crest factor: %.2f\nAnalyser cost: %.1fus/block (max %.1fus)\n",
+				20*Math.log10(Math.max(snap.rms, 1e-10f)), 20*Math.log10(Math.max(snap.peak, 1e-10f)),
+				snap.crestFactor, snap.avgProcessNanos/1000f, snap.maxProcessNanos/1000f);
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.interfaces;
+
+/**
+ * A processing stage of the Java audio loop.
+ * Implementations work in place, allocate all state on creation and
+ * must not allocate in process(), which is called from the audio thread.
+ */
+public interface AudioProcessor {
+	/**
+	 * Processes len 16 bit PCM samples in place
+	 */
+	void process(short[] buffer, int offset, int len);
+
+	/**
+	 * Clears the internal state (filter history, envelopes)
+	 */
+	void reset();
+
+	/**
+	 * Short description for the report, e.g. "FIR 64 taps"
+	 */
+	String getName();
+}
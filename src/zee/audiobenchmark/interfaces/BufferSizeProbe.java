@@ -0,0 +1,36 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.interfaces;
+
+/**
+ * Runs a timed loopback with a given buffer size and counts the glitches,
+ * used by the BufferSizeTuner. Implemented for the Java and the OpenSL path.
+ */
+public interface BufferSizeProbe {
+	/**
+	 * Blocks for the duration of the probe, should return early if the thread is interrupted
+	 * @param bufferSizeInSamples
+	 * @param seconds duration of the loopback
+	 * @return number of discontinuities, negative if the buffer size can not be used
+	 */
+	long probe(int bufferSizeInSamples, int seconds);
+
+	/**
+	 * Name of the audio path for the report
+	 */
+	String getName();
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.interfaces;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source of captured PCM data, drained by a background writer thread.
+ * Implementations are filled from an audio thread without blocking.
+ */
+public interface CaptureSource {
+	/**
+	 * Copies available 16 bit little endian PCM data to dst (up to dst.remaining())
+	 * @return number of bytes copied, 0 if nothing is available
+	 */
+	int drainTo(ByteBuffer dst);
+
+	/**
+	 * Highest fill level of the queue in bytes
+	 */
+	long getHighWaterMark();
+
+	/**
+	 * Blocks that have been dropped because the queue was full
+	 */
+	long getDroppedBlocks();
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.interfaces;
+
+/**
+ * An audio path with a configurable synthetic processing load in its callback,
+ * used by the HeadroomSearch. Implemented by the OpenSL engine.
+ */
+public interface DspLoadTarget {
+	/**
+	 * Starts the loop with the given buffer size
+	 * @return false if the buffer size can not be used
+	 */
+	boolean prepare(int bufferSizeInSamples);
+
+	/**
+	 * Runs the loop with a load for the given time, blocks
+	 * @param type ordinal of HeadroomSearch.Load
+	 * @param amount taps or sections
+	 * @param stats {callbacks, missed deadlines, sum of the processing time in ns, 
+	 * max processing time in ns, period in ns}
+	 * @return false if interrupted or no statistics are available
+	 */
+	boolean measure(int type, int amount, int seconds, long[] stats);
+
+	/**
+	 * Stops the loop
+	 */
+	void release();
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.interfaces;
+
+import zee.audiobenchmark.analysis.CpuCost;
+
+/**
+ * A loopback whose buffers are either copied from the recorder to the player
+ * or handed over without copy, used by the LoopModeBenchmark.
+ * Implemented by the OpenSL engine.
+ */
+public interface LoopModeTarget {
+	/**
+	 * Starts the loop at the selected buffer size
+	 * @param zeroCopy recorded buffers are enqueued to the player instead of copied
+	 * @return false if the loop could not be started
+	 */
+	boolean startLoop(boolean zeroCopy);
+
+	/**
+	 * Measures the running loop for the given time, blocks
+	 * @param handoff {hand-offs, sum of the hand-off time in ns, max hand-off time in ns, dropped buffers}
+	 * @return CPU time of the callbacks, null if interrupted or no statistics are available
+	 */
+	CpuCost measureLoop(int seconds, long[] handoff);
+
+	/**
+	 * Stops the loop
+	 */
+	void stopLoop();
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.interfaces;
+
+import zee.audiobenchmark.tools.Metrics;
+
+/**
+ * Metrics kept outside of the registry, e.g. in native memory.
+ * Added to every snapshot of the registry.
+ */
+public interface MetricsSource {
+	/**
+	 * Called by Metrics.snapshot(), should only read values
+	 * @param snapshot
+	 */
+	void addTo(Metrics.Snapshot snapshot);
+}
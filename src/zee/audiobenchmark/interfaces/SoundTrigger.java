@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.interfaces;
+
+import java.io.File;
+
+import zee.audiobenchmark.datatypes.TestResult;
+
+/**
+ * Player that starts a prepared sound with a single call, used by the trigger latency test.
+ * Implemented for SoundPool and MediaPlayer.
+ */
+public interface SoundTrigger {
+	/**
+	 * Loads the clip, blocks until the player is ready to play
+	 * @param clip mono 16 bit WAV file
+	 * @return false if the clip could not be loaded
+	 */
+	boolean prepare(File clip);
+
+	/**
+	 * Starts the sound, the call is the start of the measurement
+	 */
+	void trigger();
+
+	/**
+	 * Stops the sound and prepares the next trigger, called after the sound was received
+	 */
+	void rewind();
+
+	void release();
+
+	/**
+	 * Player for the report
+	 */
+	TestResult.apiType getApi();
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.interfaces;
+
+/**
+ * Result of a test other than the plain latency measurement (drift, tuning, headroom, ...).
+ * TestResult holds the report and adds the common header (API, test, configuration).
+ */
+public interface TestReport {
+	/**
+	 * @return false if the test produced no usable result (canceled, not enough data)
+	 */
+	boolean isValid();
+
+	/**
+	 * Report without the header, the reason if the report is not valid
+	 */
+	String getFormatedOutput();
+}
@@ -16,9 +16,18 @@
 
 package zee.audiobenchmark.tasks;
 
+import java.util.Arrays;
+
+import zee.audiobenchmark.analysis.CpuCost;
+import zee.audiobenchmark.analysis.SteadyStateDetector;
+import zee.audiobenchmark.analysis.ThresholdCalibration;
+import zee.audiobenchmark.datatypes.LatencySampleQueue;
+import zee.audiobenchmark.datatypes.LatencySeries;
 import zee.audiobenchmark.datatypes.SystemParameters;
 import zee.audiobenchmark.datatypes.TestResult;
+import zee.audiobenchmark.dsp.SignalGenerator;
 import zee.audiobenchmark.interfaces.AsyncResponse;
+import zee.audiobenchmark.tools.Tracer;
 import android.media.AudioFormat;
 import android.media.AudioManager;
 import android.media.AudioRecord;
@@ -46,11 +55,18 @@ public class AudioRecordLatencyTest extends AsyncTask<SystemParameters, Void, Te
 	//parameters for the test 
 	short threshold; //The threshold for the impulse recognition
 	int padding; 				//runs between impulses
+	int preroll;				//silent runs before the first impulse
 	int numTests; 				//total runs
 	long timeout; 		//seconds until run considered to be timed out
 
+	//frames read by the test, the duration for the CPU cost
+	long framesRead;
+
 	static String LOG_TAG = "AudioRecordLatencyTest";
 
+	//single results are streamed to the UI, never blocks the test thread
+	public final LatencySampleQueue progress = new LatencySampleQueue(256);
+
 	//response to the class that started this thread
 	public AsyncResponse delegate=null;
 	@Override
@@ -73,15 +89,49 @@ public class AudioRecordLatencyTest extends AsyncTask<SystemParameters, Void, Te
 	 */
 	@Override
 	protected TestResult doInBackground(SystemParameters... params) {
+		return measure(params[0]);
+	}
+
+	//traced and counted blocking calls of the audio objects
+	private void read(short[] dst) {
+		long start = Tracer.begin();
+		int result = mpRecord.read(dst, 0, dst.length);
+		Tracer.end(Tracer.audioRecordRead, start);
+		StreamMetrics.countRead(result, dst.length);
+		if(result > 0) framesRead += result;
+	}
+
+	private void write(short[] src) {
+		long start = Tracer.begin();
+		int result = mpTrack.write(src, 0, src.length);
+		Tracer.end(Tracer.audioTrackWrite, start);
+		StreamMetrics.countWrite(result, src.length);
+	}
+
+	//the test may also be run without executing the task, e.g. by the stress test
+	private boolean isStopped() {
+		return isCancelled() || Thread.currentThread().isInterrupted();
+	}
+
+	/**
+	 * Runs the latency test in the calling thread
+	 * @param params
+	 * @return the result, also in case of a timeout
+	 */
+	public TestResult measure(SystemParameters params) {
 		//retrieve the set sampleRate
-		sampleRateInHz = params[0].sampleRate;
-		numTests = params[0].numberOfTests;
+		sampleRateInHz = params.sampleRate;
+		numTests = params.numberOfTests;
 		timeout = numTests;
-		threshold = (short) (Short.MAX_VALUE / params[0].getThresholdDivider());
-		bufferSizeInSamples = Integer.parseInt(params[0].selectedBufferSize);
+		threshold = params.getThreshold();
+		bufferSizeInSamples = Integer.parseInt(params.selectedBufferSize);
 		bufferSizeInBytes = bufferSizeInSamples * 2;
 		padding = sampleRateInHz/bufferSizeInSamples; //~1s, which should be enough
 
+		//with the steady state detection, the start-up is discarded instead of waited for
+		SteadyStateDetector steady = params.warmupWindow > 1 ? new SteadyStateDetector(params.warmupWindow, params.maxWarmup, 1) : null;
+		preroll = steady != null ? 2 : padding;
+
 		try {
 			// Prepare the AudioRecord & AudioTrack
 			mpRecord = new AudioRecord(MediaRecorder.AudioSource.DEFAULT,
@@ -108,15 +158,43 @@ public class AudioRecordLatencyTest extends AsyncTask<SystemParameters, Void, Te
 		short[] bufferZeros = new short[bufferSizeInSamples];
 		short[] bufferMask = new short[bufferSizeInSamples];
 
-		bufferMask[0] = Short.MAX_VALUE; //The Impulse
+		//The Impulse, single full scale sample at position 0
+		SignalGenerator impulse = new SignalGenerator(sampleRateInHz);
+		impulse.setImpulse(0, 1f);
+		impulse.render(bufferMask, 0, bufferMask.length);
+
+		//optional capture of both streams, written in a background thread
+		CaptureSession capture = null;
+		if(params.captureEnabled) {
+			capture = new CaptureSession(params, CaptureSession.createName("latency"), "AudioRecord", bufferSizeInSamples);
+			capture.setProperty("test", "latency");
+			capture.start();
+		}
 
 		mpTrack.play();
 		mpRecord.startRecording();
 
+		//noise floor and loopback gain on the streams of this test
+		ThresholdCalibration calibration = null;
+		if(params.isThresholdCalibrated()) {
+			calibration = ThresholdCalibrationTask.calibrate(mpRecord, mpTrack, bufferSizeInSamples, sampleRateInHz, params);
+			threshold = params.getThreshold();
+			if(capture != null) capture.setProperty("threshold", Integer.toString(threshold));
+		}
+
+		//CPU time of the test thread and the framework's audio threads
+		framesRead = 0;
+		CpuMeter cpu = new CpuMeter();
+
 		long timeStamp = 0l;
-		long[] lValues = new long[numTests]; 		//measurements
-		long[] lValuesNorm = new long[numTests]; 	//normalized results
+		LatencySeries lValues = new LatencySeries(); 		//measurements
+		LatencySeries lValuesNorm = new LatencySeries(); 	//normalized results
 		int impRec = 0; 						//received impulses
+		//results are held back until the steady state detection has decided
+		long[] pending = new long[steady != null ? steady.getCapacity() : 0];
+		long[] pendingNorm = new long[pending.length];
+		int numPending = 0;
+		long[] warmup = null;
 		boolean done = false;
 
 		Log.i(LOG_TAG, "Starting latency test, threshold: " + threshold);
@@ -124,52 +202,108 @@ public class AudioRecordLatencyTest extends AsyncTask<SystemParameters, Void, Te
 		/**
 		 * Wait for some periods 
 		 */
-		for(int i=0; i<padding; i++) {
-			mpTrack.write(bufferZeros, 0, buffer.length);
-			mpRecord.read(buffer, 0, buffer.length);
+		for(int i=0; i<preroll; i++) {
+			write(bufferZeros);
+			read(buffer);
+			if(StreamMetrics.containsTrigger(buffer, buffer.length, threshold)) StreamMetrics.falseTriggers.inc();
+			if(capture != null) {
+				capture.offerOut(bufferZeros, 0, buffer.length);
+				capture.offerIn(buffer, 0, buffer.length);
+			}
 		}
 
 		/**
 		 * Latency measurement 
 		 */
-		while (!done && !this.isCancelled()) {
+		while (!done && !isStopped()) {
 			//the function call is defined as "starting time"
 			timeStamp = System.nanoTime();
-			mpTrack.write(bufferMask, 0, buffer.length);
+			Tracer.instant(Tracer.impulseEmit);
+			write(bufferMask);
+			if(capture != null) capture.offerOut(bufferMask, 0, buffer.length);
+			boolean detected = false; //warm-up detections count too, they do not advance impRec
 
 			//write zeros to output (padding) until impulse mask is received 
 			for(int i=0; i<padding; i++) {
-				mpRecord.read(buffer, 0, buffer.length);
+				read(buffer);
+				if(capture != null) capture.offerIn(buffer, 0, buffer.length);
 				//search input buffer for impulse
 				for(int k=0; k<buffer.length; k++) {
 					short s = buffer[k];
 					if(s > threshold) {
 						if(impRec < numTests) {
-							lValues[impRec] = (System.nanoTime() - timeStamp)/1000000;
-							lValuesNorm[impRec] = normalizeResult(lValues[impRec], k); //normalize to array position
-							Log.i(LOG_TAG,"rec impulse, time: " + lValues[impRec]+ "ms" + "; normalized: " + lValuesNorm[impRec]);
-							impRec++;
+							Tracer.instant(Tracer.impulseDetect);
+							long lValue = (System.nanoTime() - timeStamp)/1000000;
+							long lValueNorm = normalizeResult(lValue, k); //normalize to array position
+							if(steady != null && !steady.isSteady()) {
+								pending[numPending] = lValue;
+								pendingNorm[numPending++] = lValueNorm;
+								if(steady.add(lValue)) {
+									//the warm-up is reported separately, the rest are results
+									int w = steady.getWarmupCount();
+									warmup = Arrays.copyOf(pending, w);
+									for(int j=w; j<numPending && impRec<numTests; j++) {
+										lValues.add(pending[j]);
+										lValuesNorm.add(pendingNorm[j]);
+										impRec++;
+									}
+									Log.i(LOG_TAG, steady.isReached() ? "steady after " + w + " results" : "no steady state detected");
+								}
+							} else {
+								lValues.add(lValue);
+								lValuesNorm.add(lValueNorm);
+								impRec++;
+							}
+							Log.i(LOG_TAG,"rec impulse, time: " + lValue + "ms" + "; normalized: " + lValueNorm);
+							progress.offer(lValue, lValueNorm);
+							StreamMetrics.detections.inc();
+							StreamMetrics.latencyMs.record(lValue);
+							detected = true;
 							break; //since the impulse may be distorted, following samples are ignored
 						} else {
 							done = true;
 						}
 					}
 				}
-				mpTrack.write(bufferZeros, 0, buffer.length);      		
+				write(bufferZeros);      		
+				if(capture != null) capture.offerOut(bufferZeros, 0, buffer.length);
 			}  
-			mpRecord.read(buffer, 0, buffer.length);
+			read(buffer);
+			if(capture != null) capture.offerIn(buffer, 0, buffer.length);
+			if(!detected && !done) StreamMetrics.misses.inc();
 
 			//check if timed out
 			if((System.nanoTime() - timeStamp) > (timeout*1000000000)) {
 				Log.i(LOG_TAG,"timed out.");
+				Log.i(LOG_TAG, cpu.measure(framesRead, sampleRateInHz).getFormatedOutput());
 				mpRecord.release();
 				mpTrack.release();
+				if(capture != null) capture.close();
 				return new TestResult("Timed out after " + timeout + "seconds. \n Please check connections and levels.");
 			}
 		}
+		CpuCost cpuCost = cpu.measure(framesRead, sampleRateInHz);
 		mpRecord.release();
 		mpTrack.release();
+		if(capture != null) capture.close();
+		//stopped before the detection decided, nothing is discarded
+		if(steady != null && !steady.isSteady()) {
+			for(int j=0; j<numPending; j++) {
+				lValues.add(pending[j]);
+				lValuesNorm.add(pendingNorm[j]);
+			}
+		}
 
-		return new TestResult(lValues, lValuesNorm, bufferSizeInSamples, 16, sampleRateInHz);
+		TestResult result = new TestResult(lValues, lValuesNorm, bufferSizeInSamples, 16, sampleRateInHz);
+		result.calibration = calibration;
+		result.cpuCost = cpuCost;
+		if(steady != null) {
+			result.warmupResults = warmup != null ? warmup : new long[0];
+			result.steadyStateReached = steady.isReached();
+		}
+		//the bootstrap intervals are calculated here, not on the UI thread
+		result.getRobustSummary();
+		result.getRobustNormalizedSummary();
+		return result;
 	}
 }
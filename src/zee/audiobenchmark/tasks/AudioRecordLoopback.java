@@ -16,7 +16,15 @@
 
 package zee.audiobenchmark.tasks;
 
+import zee.audiobenchmark.analysis.CpuCost;
 import zee.audiobenchmark.datatypes.SystemParameters;
+import zee.audiobenchmark.dsp.BiquadProcessor;
+import zee.audiobenchmark.dsp.FirProcessor;
+import zee.audiobenchmark.dsp.GainProcessor;
+import zee.audiobenchmark.dsp.LimiterProcessor;
+import zee.audiobenchmark.dsp.ProcessorChain;
+import zee.audiobenchmark.dsp.SpectrumAnalyser;
+import zee.audiobenchmark.tools.Tracer;
 import android.media.AudioFormat;
 import android.media.AudioManager;
 import android.media.AudioRecord;
@@ -45,6 +53,26 @@ public class AudioRecordLoopback extends AsyncTask<SystemParameters, Void, Void>
 
 	static String LOG_TAG = "AudioRecordLoopback";
 
+	//analyses the looped stream, results may be polled from the UI thread
+	public final SpectrumAnalyser analyser = new SpectrumAnalyser(SystemParameters.analyserFftSize);
+
+	//optional processing between read and write, null if disabled
+	public volatile ProcessorChain chain = null;
+
+	//CPU time since the start, updated about once per second, null until then
+	public volatile CpuCost cpuCost = null;
+
+	/*
+	 * Gain, EQ, lowpass and limiter, the biquads match the synthetic load of the native engine
+	 */
+	private static ProcessorChain createChain(SystemParameters params) {
+		return new ProcessorChain(
+				new GainProcessor(-6f),
+				BiquadProcessor.peaking(params.sampleRate, params.sampleRate / 8.0, 1.0, 1.0, params.loopBiquads),
+				new FirProcessor(params.loopFirTaps, 0.25),
+				new LimiterProcessor(params.sampleRate, -1f, 50f));
+	}
+
 	@Override
 	protected Void doInBackground(SystemParameters... params) {
 
@@ -74,18 +102,53 @@ public class AudioRecordLoopback extends AsyncTask<SystemParameters, Void, Void>
 		}
 
 		buffer = new short[minBufferSmp];
+		ProcessorChain processing = params[0].loopProcessing ? createChain(params[0]) : null;
+		chain = processing;
+
+		//optional capture of both streams, written in a background thread
+		CaptureSession capture = null;
+		if(params[0].captureEnabled) {
+			capture = new CaptureSession(params[0], CaptureSession.createName("loopback"), "AudioRecord", minBufferSmp);
+			capture.setProperty("test", "loopback");
+			capture.start();
+		}
 
 		mpRecord.startRecording();
 		Log.i(LOG_TAG,"Audio Recording started");
 		mpTrack.play();
 		Log.i(LOG_TAG,"Audio Playing started");
+		int read;
 		int result;
+		CpuMeter cpu = new CpuMeter();
+		long frames = 0;
+		long nextCpu = sampleRateInHz;
 		while (!this.isCancelled()) {
-			result = mpRecord.read(buffer, 0, buffer.length);
-			if(result < 0)  Log.w(LOG_TAG, "mpRecord.read() returned " + result);
+			long trace = Tracer.begin();
+			read = mpRecord.read(buffer, 0, buffer.length);
+			Tracer.end(Tracer.audioRecordRead, trace);
+			StreamMetrics.countRead(read, buffer.length);
+			if(read < 0)  Log.w(LOG_TAG, "mpRecord.read() returned " + read);
+			if(capture != null && read > 0) capture.offerIn(buffer, 0, read);
+			if(processing != null) processing.process(buffer, 0, buffer.length);
+			trace = Tracer.begin();
 			result = mpTrack.write(buffer, 0, buffer.length);
+			Tracer.end(Tracer.audioTrackWrite, trace);
+			StreamMetrics.countWrite(result, buffer.length);
 			if(result < 0)  Log.w(LOG_TAG, "mpTrack.write() returned " + result);
+			if(capture != null && result > 0) capture.offerOut(buffer, 0, result);
+			//the block has already been passed to the output, analysis does not add latency
+			if(read > 0) {
+				analyser.process(buffer, 0, read);
+				frames += read;
+			}
+			if(frames >= nextCpu) {
+				cpuCost = cpu.measure(frames, sampleRateInHz);
+				nextCpu = frames + sampleRateInHz;
+			}
 		}
+		if(capture != null) capture.close();
+		if(processing != null) Log.i(LOG_TAG, processing.getFormatedOutput());
+		Log.i(LOG_TAG, cpu.measure(frames, sampleRateInHz).getFormatedOutput());
 		return null;
 	}
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import zee.audiobenchmark.analysis.DiscontinuityDetector;
+import zee.audiobenchmark.datatypes.SystemParameters;
+import zee.audiobenchmark.dsp.SignalGenerator;
+import zee.audiobenchmark.interfaces.BufferSizeProbe;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioRecord;
+import android.media.AudioTrack;
+import android.media.MediaRecorder;
+import android.util.Log;
+
+/**
+ * Glitch probe for the AudioRecord/AudioTrack path.
+ * A sine is played and the received stream (loopback connection) is checked
+ * for discontinuities, both output underruns and input overruns break the sine.
+ */
+public class AudioTrackBufferProbe implements BufferSizeProbe {
+
+	private final int sampleRateInHz;
+
+	static String LOG_TAG = "AudioTrackBufferProbe";
+
+	public AudioTrackBufferProbe(int sampleRateInHz) {
+		this.sampleRateInHz = sampleRateInHz;
+	}
+
+	@Override
+	public String getName() {
+		return "AudioRecord/AudioTrack";
+	}
+
+	@Override
+	public long probe(int bufferSizeInSamples, int seconds) {
+		AudioRecord mpRecord = null;
+		AudioTrack mpTrack = null;
+		int bufferSizeInBytes = bufferSizeInSamples * 2;
+		try {
+			mpRecord = new AudioRecord(MediaRecorder.AudioSource.DEFAULT,
+					sampleRateInHz, 
+					AudioFormat.CHANNEL_IN_MONO,
+					SystemParameters.audioEncoding, 
+					bufferSizeInBytes);
+
+			mpTrack = new AudioTrack(AudioManager.STREAM_MUSIC,
+					sampleRateInHz, 
+					AudioFormat.CHANNEL_OUT_MONO,
+					SystemParameters.audioEncoding, 
+					bufferSizeInBytes,
+					AudioTrack.MODE_STREAM);   
+		} catch (Throwable t) {
+			Log.i(LOG_TAG, bufferSizeInSamples + "smp not supported: " + t.getLocalizedMessage());
+			if(mpRecord != null) mpRecord.release();
+			return -1;
+		}
+		if(mpRecord.getState() != AudioRecord.STATE_INITIALIZED || mpTrack.getState() != AudioTrack.STATE_INITIALIZED) {
+			mpRecord.release();
+			mpTrack.release();
+			return -1;
+		}
+
+		short[] in = new short[bufferSizeInSamples];
+		short[] out = new short[bufferSizeInSamples];
+		SignalGenerator sine = new SignalGenerator(sampleRateInHz);
+		sine.setSine(SystemParameters.probeFrequency, SystemParameters.probeAmplitude);
+		DiscontinuityDetector detector = new DiscontinuityDetector(sampleRateInHz, SystemParameters.probeFrequency, sampleRateInHz / 2);
+
+		mpTrack.play();
+		mpRecord.startRecording();
+		long totalFrames = (long) seconds * sampleRateInHz + sampleRateInHz / 2;
+		while(detector.getFrames() < totalFrames && !Thread.currentThread().isInterrupted()) {
+			sine.render(out, 0, out.length);
+			StreamMetrics.countWrite(mpTrack.write(out, 0, out.length), out.length);
+			int n = mpRecord.read(in, 0, in.length);
+			StreamMetrics.countRead(n, in.length);
+			if(n > 0) detector.process(in, 0, n);
+		}
+		mpRecord.release();
+		mpTrack.release();
+
+		if(detector.getSilentFrames() > detector.getFrames() / 2) {
+			Log.w(LOG_TAG, "No signal received, check the loopback connection");
+		}
+		Log.i(LOG_TAG, bufferSizeInSamples + "smp: " + detector.getDiscontinuities() + " discontinuities");
+		return detector.getDiscontinuities();
+	}
+}
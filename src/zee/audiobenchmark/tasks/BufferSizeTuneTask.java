@@ -0,0 +1,59 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import zee.audiobenchmark.analysis.BufferSizeTuner;
+import zee.audiobenchmark.datatypes.SystemParameters;
+import zee.audiobenchmark.datatypes.TestResult;
+import zee.audiobenchmark.interfaces.AsyncResponse;
+import zee.audiobenchmark.interfaces.BufferSizeProbe;
+import android.os.AsyncTask;
+import android.util.Log;
+
+/**
+ * Runs the BufferSizeTuner with a probe of the Java or the OpenSL path.
+ * Requires a loopback connection, takes several minutes.
+ */
+public class BufferSizeTuneTask extends AsyncTask<SystemParameters, Void, TestResult>{
+
+	private final BufferSizeProbe probe;
+	private final TestResult.apiType api;
+
+	static String LOG_TAG = "BufferSizeTuneTask";
+
+	//response to the class that started this thread
+	public AsyncResponse delegate=null;
+	@Override
+	protected void onPostExecute(TestResult result) {
+		delegate.processFinish(result);
+	}
+
+	public BufferSizeTuneTask(BufferSizeProbe probe, TestResult.apiType api) {
+		this.probe = probe;
+		this.api = api;
+	}
+
+	@Override
+	protected TestResult doInBackground(SystemParameters... params) {
+		BufferSizeTuner tuner = new BufferSizeTuner(probe, params[0].getTunerCandidates(), 
+				params[0].tunerMaxXrunsPerMinute, params[0].tunerProbeSeconds, params[0].sampleRate);
+		Log.i(LOG_TAG, "Searching the smallest stable buffer size for " + probe.getName());
+		tuner.run();
+		Log.i(LOG_TAG, tuner.getFormatedOutput());
+		return new TestResult(tuner, TestResult.testType.bufferTuning, api, tuner.getResult(), params[0].sampleRate);
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import zee.audiobenchmark.interfaces.CaptureSource;
+
+/**
+ * Lock-free queue of preallocated PCM blocks between one audio thread (offer)
+ * and one writer thread (drainTo).
+ * The audio thread only copies the block into a free slot, if there is none
+ * the block is dropped and counted.
+ */
+public class CaptureQueue implements CaptureSource {
+
+	private final int slots;
+	private final int mask;
+	private final short[][] blocks;
+	private final int[] lengths;
+
+	private final AtomicLong head = new AtomicLong(0); //next slot to drain
+	private final AtomicLong tail = new AtomicLong(0); //next slot to fill
+	private int headOffset = 0; //samples of the head slot already drained (writer only)
+
+	private volatile long dropped = 0;
+	private volatile long highWaterMark = 0;
+
+	/**
+	 * @param blockSize max samples per block
+	 * @param slots number of blocks, rounded up to a power of two
+	 */
+	public CaptureQueue(int blockSize, int slots) {
+		int s = Integer.highestOneBit(Math.max(slots, 2) - 1) << 1;
+		this.slots = s;
+		this.mask = s - 1;
+		blocks = new short[s][blockSize];
+		lengths = new int[s];
+	}
+
+	/**
+	 * Audio thread side, never blocks
+	 * @return false if the block was dropped
+	 */
+	public boolean offer(short[] src, int offset, int len) {
+		long t = tail.get();
+		long used = t - head.get();
+		if(used >= slots) {
+			dropped++; //single writer
+			return false;
+		}
+		int i = (int) (t & mask);
+		int n = Math.min(len, blocks[i].length);
+		System.arraycopy(src, offset, blocks[i], 0, n);
+		lengths[i] = n;
+		tail.lazySet(t + 1);
+		long level = (used + 1) * blocks[i].length * 2;
+		if(level > highWaterMark) highWaterMark = level;
+		return true;
+	}
+
+	@Override
+	public int drainTo(ByteBuffer dst) {
+		int copied = 0;
+		long h = head.get();
+		long t = tail.get();
+		while(h < t && dst.remaining() >= 2) {
+			int i = (int) (h & mask);
+			short[] block = blocks[i];
+			int len = lengths[i];
+			int n = Math.min(len - headOffset, dst.remaining() / 2);
+			for(int k=headOffset; k<headOffset+n; k++) {
+				dst.putShort(block[k]);
+			}
+			headOffset += n;
+			copied += 2*n;
+			if(headOffset == len) {
+				headOffset = 0;
+				h++;
+				head.lazySet(h);
+			}
+		}
+		return copied;
+	}
+
+	@Override
+	public long getHighWaterMark() {
+		return highWaterMark;
+	}
+
+	@Override
+	public long getDroppedBlocks() {
+		return dropped;
+	}
+}
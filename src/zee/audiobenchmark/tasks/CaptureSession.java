@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import zee.audiobenchmark.datatypes.SystemParameters;
+import zee.audiobenchmark.interfaces.CaptureSource;
+import android.util.Log;
+
+/**
+ * Captures the emitted and the recorded stream of one run into
+ * <name>-out.wav and <name>-in.wav, the configuration is stored in <name>.properties.
+ * The sidecar keys are read by the offline analyser (tools.BatchAnalyser).
+ * Dropped blocks are missing from their file and shift the rest of the stream,
+ * their numbers are stored in the sidecar.
+ */
+public class CaptureSession {
+
+	public static final String suffixIn = "-in.wav";
+	public static final String suffixOut = "-out.wav";
+	public static final String suffixConfig = ".properties";
+	public static final String keyDroppedIn = "droppedBlocksIn";
+	public static final String keyDroppedOut = "droppedBlocksOut";
+
+	//queue length in blocks, ~ several seconds for common buffer sizes
+	static final int queueBlocks = 512;
+
+	private final CaptureQueue inQueue;
+	private final CaptureQueue outQueue;
+	private final CaptureWriter inWriter;
+	private final CaptureWriter outWriter;
+	private final File config;
+	private final Properties properties = new Properties();
+
+	static String LOG_TAG = "CaptureSession";
+
+	/**
+	 * Capture of the Java tasks, blocks are passed with offerIn()/offerOut()
+	 */
+	public CaptureSession(SystemParameters params, String name, String api, int bufferSizeInSamples) {
+		this(params, name, api, bufferSizeInSamples, 
+				new CaptureQueue(bufferSizeInSamples, queueBlocks), new CaptureQueue(bufferSizeInSamples, queueBlocks));
+	}
+
+	/**
+	 * Capture from other sources (e.g. the native engine)
+	 */
+	public CaptureSession(SystemParameters params, String name, String api, int bufferSizeInSamples, 
+			CaptureSource in, CaptureSource out) {
+		File dir = params.captureDirectory;
+		dir.mkdirs();
+		inQueue = in instanceof CaptureQueue ? (CaptureQueue) in : null;
+		outQueue = out instanceof CaptureQueue ? (CaptureQueue) out : null;
+		inWriter = new CaptureWriter(in, new File(dir, name + suffixIn), params.sampleRate);
+		outWriter = new CaptureWriter(out, new File(dir, name + suffixOut), params.sampleRate);
+		config = new File(dir, name + suffixConfig);
+
+		properties.setProperty("api", api);
+		properties.setProperty("sampleRate", Integer.toString(params.sampleRate));
+		properties.setProperty("bufferSize", Integer.toString(bufferSizeInSamples));
+		properties.setProperty("threshold", Integer.toString(params.getThreshold()));
+		properties.setProperty("manufacturer", String.valueOf(params.manufacturer));
+		properties.setProperty("model", String.valueOf(params.deviceName));
+		properties.setProperty("sdk", Integer.toString(params.sdkVersion));
+		properties.setProperty("created", Long.toString(System.currentTimeMillis()));
+	}
+
+	/**
+	 * Creates a file name from the current time and the test
+	 */
+	public static String createName(String test) {
+		return test + "-" + System.currentTimeMillis();
+	}
+
+	/**
+	 * Additional configuration for the sidecar file, e.g. the impulse period
+	 */
+	public void setProperty(String key, String value) {
+		properties.setProperty(key, value);
+	}
+
+	public void start() {
+		inWriter.start();
+		outWriter.start();
+	}
+
+	//audio thread
+	public void offerIn(short[] buffer, int offset, int len) {
+		inQueue.offer(buffer, offset, len);
+	}
+
+	//audio thread
+	public void offerOut(short[] buffer, int offset, int len) {
+		outQueue.offer(buffer, offset, len);
+	}
+
+	/**
+	 * Waits until all queued data is written and stores the sidecar
+	 */
+	public void close() {
+		inWriter.close();
+		outWriter.close();
+		Log.i(LOG_TAG, inWriter.getFormatedOutput());
+		Log.i(LOG_TAG, outWriter.getFormatedOutput());
+		properties.setProperty(keyDroppedIn, Long.toString(inWriter.getDroppedBlocks()));
+		properties.setProperty(keyDroppedOut, Long.toString(outWriter.getDroppedBlocks()));
+		OutputStream os = null;
+		try {
+			os = new FileOutputStream(config);
+			properties.store(os, "audioBenchmark capture");
+		} catch (IOException e) {
+			Log.e(LOG_TAG, "Writing " + config + " failed: " + e.getLocalizedMessage());
+		} finally {
+			if(os != null) {
+				try {
+					os.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+
+	public String getFormatedOutput() {
+		return "Capture: " + inWriter.getFormatedOutput() + "\n" + outWriter.getFormatedOutput() + "\n";
+	}
+}
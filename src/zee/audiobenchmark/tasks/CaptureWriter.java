@@ -0,0 +1,182 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+import zee.audiobenchmark.interfaces.CaptureSource;
+import android.util.Log;
+
+/**
+ * Background thread streaming a CaptureSource to a mono 16 bit WAV file.
+ * Data is collected in a direct buffer and written with large writes 
+ * (multiples of the block size of the file system) through a FileChannel.
+ * The header is padded to 4096 bytes with a JUNK chunk, so every write starts
+ * at a multiple of 4096 in the file. The header sizes are updated on close().
+ */
+public class CaptureWriter extends Thread {
+
+	static final int writeSize = 256 * 1024; //bytes per write, multiple of 4096
+	static final int compactHeaderSize = 44; //RIFF, fmt and data chunk headers
+	static final int headerSize = 4096; //padded, the data starts aligned
+	static final long idleNanos = 2000000l; //wait if the source is empty
+
+	private final CaptureSource source;
+	private final File file;
+	private final int sampleRateInHz;
+	private final ByteBuffer buffer;
+
+	private volatile boolean running = true;
+	private long dataBytes = 0;
+	private IOException error = null;
+
+	static String LOG_TAG = "CaptureWriter";
+
+	public CaptureWriter(CaptureSource source, File file, int sampleRateInHz) {
+		super("CaptureWriter " + file.getName());
+		this.source = source;
+		this.file = file;
+		this.sampleRateInHz = sampleRateInHz;
+		buffer = ByteBuffer.allocateDirect(writeSize).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	@Override
+	public void run() {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			channel.position(headerSize); //header is written on close
+
+			boolean draining = true;
+			while(draining) {
+				boolean stop = !running; //read before draining, so nothing is lost
+				int n = source.drainTo(buffer);
+				if(!buffer.hasRemaining()) {
+					writeBuffer(channel);
+				}
+				if(n == 0) {
+					if(stop) {
+						draining = false;
+					} else {
+						LockSupport.parkNanos(idleNanos);
+					}
+				}
+			}
+			writeBuffer(channel);
+			channel.write(createHeader(sampleRateInHz, dataBytes, headerSize), 0);
+			channel.force(false);
+		} catch (IOException e) {
+			error = e;
+			Log.e(LOG_TAG, "Writing " + file + " failed: " + e.getLocalizedMessage());
+		} finally {
+			if(raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {}
+			}
+		}
+		Log.i(LOG_TAG, getFormatedOutput());
+	}
+
+	private void writeBuffer(FileChannel channel) throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			dataBytes += channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/*
+	 * @param size of the header, a JUNK chunk fills the space beyond the compact header
+	 */
+	static ByteBuffer createHeader(int sampleRateInHz, long dataBytes, int size) {
+		ByteBuffer h = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		h.put(new byte[]{'R', 'I', 'F', 'F'});
+		h.putInt((int) (size - 8 + dataBytes));
+		h.put(new byte[]{'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+		h.putInt(16); //PCM chunk size
+		h.putShort((short) 1); //PCM
+		h.putShort((short) 1); //mono
+		h.putInt(sampleRateInHz);
+		h.putInt(sampleRateInHz * 2); //byte rate
+		h.putShort((short) 2); //block align
+		h.putShort((short) 16); //bits per sample
+		if(size > compactHeaderSize) {
+			h.put(new byte[]{'J', 'U', 'N', 'K'});
+			h.putInt(size - compactHeaderSize - 8); //the rest of the chunk stays zero
+			h.position(size - 8);
+		}
+		h.put(new byte[]{'d', 'a', 't', 'a'});
+		h.putInt((int) dataBytes);
+		h.flip();
+		return h;
+	}
+
+	/**
+	 * Writes a short clip in one go, e.g. the sound of the trigger latency test
+	 * @param file
+	 * @param samples
+	 * @param sampleRateInHz
+	 * @throws IOException
+	 */
+	public static void writeClip(File file, short[] samples, int sampleRateInHz) throws IOException {
+		ByteBuffer data = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+		data.asShortBuffer().put(samples);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			channel.write(createHeader(sampleRateInHz, data.capacity(), compactHeaderSize));
+			while(data.hasRemaining()) {
+				channel.write(data);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Stops after all queued data has been written and waits for the thread
+	 * @return false if an error occurred
+	 */
+	public boolean close() {
+		running = false;
+		try {
+			join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return error == null;
+	}
+
+	public long getDroppedBlocks() {
+		return source.getDroppedBlocks();
+	}
+
+	public String getFormatedOutput() {
+		return file.getName() + ": " + dataBytes/2 + " frames written, queue high-water mark " 
+				+ source.getHighWaterMark() + " bytes, dropped blocks: " + source.getDroppedBlocks();
+	}
+}
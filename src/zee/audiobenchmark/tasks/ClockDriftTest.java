@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import zee.audiobenchmark.analysis.DriftEstimator;
+import zee.audiobenchmark.datatypes.SystemParameters;
+import zee.audiobenchmark.datatypes.TestResult;
+import zee.audiobenchmark.interfaces.AsyncResponse;
+import zee.audiobenchmark.tools.Tracer;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioRecord;
+import android.media.AudioTrack;
+import android.media.MediaRecorder;
+import android.os.AsyncTask;
+import android.util.Log;
+
+/**
+ * Long running measurement of the drift between the input and output clock
+ * using the AudioRecord/AudioTrack classes.
+ * The frames captured (AudioRecord.read) and rendered (AudioTrack playback head)
+ * are sampled against the system's nanoTimer.
+ * The track is fed by its own thread, so the reads are paced by the input clock
+ * alone and the writes by the output clock alone.
+ * The test runs until the configured duration is reached or finish() is called.
+ */
+public class ClockDriftTest extends AsyncTask<SystemParameters, Void, TestResult>{
+
+	static int sampleRateInHz;
+	static int bufferSizeInSamples;
+	static int bufferSizeInBytes;
+
+	short[] buffer;
+
+	AudioRecord mpRecord;
+	AudioTrack mpTrack;
+
+	//start-up of the streams is not taken into account
+	static final long settleNanos = 1000000000l;
+
+	//set to end the measurement early, the result will still be delivered
+	private volatile boolean finishRequested = false;
+
+	static String LOG_TAG = "ClockDriftTest";
+
+	/*
+	 * Keeps the track filled with silence, a blocking write does not delay the reads
+	 */
+	private class Writer extends Thread {
+		volatile boolean running = true;
+
+		Writer() {
+			super("ClockDriftWriter");
+		}
+
+		@Override
+		public void run() {
+			short[] bufferZeros = new short[bufferSizeInSamples];
+			while(running) {
+				long trace = Tracer.begin();
+				int result = mpTrack.write(bufferZeros, 0, bufferZeros.length);
+				Tracer.end(Tracer.audioTrackWrite, trace);
+				StreamMetrics.countWrite(result, bufferZeros.length);
+				if(result < 0) {
+					Log.w(LOG_TAG, "mpTrack.write() returned " + result);
+					return;
+				}
+			}
+		}
+	}
+
+	//response to the class that started this thread
+	public AsyncResponse delegate=null;
+	@Override
+	protected void onPostExecute(TestResult result) {
+		delegate.processFinish(result);
+	}
+
+	/**
+	 * Stop measuring and return the result for the data gathered so far
+	 */
+	public void finish() {
+		finishRequested = true;
+	}
+
+	@Override
+	protected TestResult doInBackground(SystemParameters... params) {
+		sampleRateInHz = params[0].sampleRate;
+		bufferSizeInSamples = Integer.parseInt(params[0].selectedBufferSize);
+		bufferSizeInBytes = bufferSizeInSamples * 2;
+		long duration = params[0].driftTestSeconds * 1000000000l;
+
+		try {
+			mpRecord = new AudioRecord(MediaRecorder.AudioSource.DEFAULT,
+					sampleRateInHz, 
+					AudioFormat.CHANNEL_IN_MONO,
+					SystemParameters.audioEncoding, 
+					bufferSizeInBytes);
+
+			mpTrack = new AudioTrack(AudioManager.STREAM_MUSIC,
+					sampleRateInHz, 
+					AudioFormat.CHANNEL_OUT_MONO,
+					SystemParameters.audioEncoding, 
+					bufferSizeInBytes,
+					AudioTrack.MODE_STREAM);   
+			mpTrack.setPlaybackRate(sampleRateInHz);
+
+		} catch (Throwable t) {
+			Log.e("Error", "Init Audio Objects; trace: "+t.getLocalizedMessage());
+			return new TestResult("Selected buffer size too small, please select a buffer size higher than the minimum to run the AudioTrack class test.");
+		}
+
+		//silence is played, the test does not depend on a loopback connection
+		buffer = new short[bufferSizeInSamples];
+
+		DriftEstimator drift = new DriftEstimator(sampleRateInHz, bufferSizeInSamples);
+
+		mpTrack.play();
+		Writer writer = new Writer();
+		writer.start();
+		mpRecord.startRecording();
+		Log.i(LOG_TAG, "Starting clock drift measurement for " + params[0].driftTestSeconds + "s");
+
+		long start = System.nanoTime();
+		long framesIn = 0;
+		long framesOut = 0;
+		int lastHead = 0;
+		int result;
+
+		while (!finishRequested && !this.isCancelled()) {
+			long trace = Tracer.begin();
+			result = mpRecord.read(buffer, 0, buffer.length);
+			Tracer.end(Tracer.audioRecordRead, trace);
+			StreamMetrics.countRead(result, buffer.length);
+			long now = System.nanoTime();
+			if(result < 0) {
+				Log.w(LOG_TAG, "mpRecord.read() returned " + result);
+			} else {
+				framesIn += result;
+			}
+
+			//the playback head position is a 32 bit counter which may wrap
+			int head = mpTrack.getPlaybackHeadPosition();
+			framesOut += (head - lastHead) & 0xffffffffl;
+			lastHead = head;
+
+			if(now - start > settleNanos) {
+				drift.addInputPosition(now, framesIn);
+				drift.addOutputPosition(now, framesOut);
+			}
+
+			if(now - start > duration) break;
+		}
+		writer.running = false;
+		//a write blocked on the stopped track returns
+		mpTrack.stop();
+		//the track is only released after the writer left it, also when cancelled
+		boolean interrupted = false;
+		while(writer.isAlive()) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+		mpRecord.release();
+		mpTrack.release();
+
+		Log.i(LOG_TAG, drift.getFormatedOutput());
+		return new TestResult(drift, TestResult.testType.clockDrift, TestResult.apiType.audioRecord, bufferSizeInSamples, sampleRateInHz);
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import zee.audiobenchmark.analysis.CpuCost;
+import android.os.Debug;
+import android.os.Process;
+
+/**
+ * Measures the CPU time of a Java test: the test thread itself (Debug.threadCpuTimeNanos)
+ * and the audio threads the framework runs in this process (AudioTrack/AudioRecord
+ * callback threads), read from /proc/self/task.
+ * Created and read in the test thread.
+ */
+public class CpuMeter {
+
+	static final String taskDir = "/proc/self/task";
+	//clock ticks of /proc/<pid>/stat, if the kernel has no schedstat
+	static final long nsPerTick = 10000000;
+
+	private final long threadStart;
+	private final int testTid;
+	private final Map<Integer, Long> audioStart;
+
+	/**
+	 * Starts the measurement, call in the test thread
+	 */
+	public CpuMeter() {
+		testTid = Process.myTid();
+		audioStart = readAudioThreads();
+		threadStart = Debug.threadCpuTimeNanos();
+	}
+
+	/**
+	 * CPU time since the start, may be called repeatedly from the test thread
+	 * @param frames audio frames handled since the start
+	 */
+	public CpuCost measure(long frames, int sampleRateInHz) {
+		long thread = Debug.threadCpuTimeNanos() - threadStart;
+		CpuCost cost = new CpuCost(frames, sampleRateInHz);
+		cost.add("test thread", thread);
+		Map<Integer, Long> now = readAudioThreads();
+		for(Map.Entry<Integer, Long> e : now.entrySet()) {
+			Long before = audioStart.get(e.getKey());
+			cost.add(readName(e.getKey()), e.getValue() - (before != null ? before : 0));
+		}
+		return cost;
+	}
+
+	/*
+	 * CPU ns of the audio threads of this process by thread id
+	 */
+	private Map<Integer, Long> readAudioThreads() {
+		Map<Integer, Long> times = new HashMap<Integer, Long>();
+		String[] tasks = new File(taskDir).list();
+		if(tasks == null) return times;
+		for(String task : tasks) {
+			int tid;
+			try {
+				tid = Integer.parseInt(task);
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			if(tid == testTid || !isAudioThread(readName(tid))) continue;
+			long ns = readCpuNs(tid);
+			if(ns >= 0) times.put(tid, ns);
+		}
+		return times;
+	}
+
+	private static boolean isAudioThread(String name) {
+		return name != null && name.startsWith("Audio");
+	}
+
+	private static String readName(int tid) {
+		String name = readLine(taskDir + "/" + tid + "/comm");
+		return name != null ? name.trim() : "thread " + tid;
+	}
+
+	/*
+	 * schedstat has ns resolution, stat only clock ticks
+	 */
+	private static long readCpuNs(int tid) {
+		String schedstat = readLine(taskDir + "/" + tid + "/schedstat");
+		if(schedstat != null) {
+			try {
+				return Long.parseLong(schedstat.trim().split(" ")[0]);
+			} catch (NumberFormatException e) {}
+		}
+		String stat = readLine(taskDir + "/" + tid + "/stat");
+		if(stat == null) return -1;
+		//the name may contain spaces, the fields follow its closing bracket
+		String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+		try {
+			//utime and stime, fields 14 and 15 of the line
+			return (Long.parseLong(fields[11]) + Long.parseLong(fields[12])) * nsPerTick;
+		} catch (RuntimeException e) {
+			return -1;
+		}
+	}
+
+	private static String readLine(String path) {
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(path));
+			return reader.readLine();
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if(reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+}
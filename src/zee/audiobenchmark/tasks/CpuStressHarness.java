@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import android.util.Log;
+
+/**
+ * Keeps a number of worker threads busy with a configurable type of load,
+ * used to measure the audio performance under CPU contention.
+ * The workers count the work done, so the throughput per load level can be reported.
+ */
+public class CpuStressHarness {
+
+	public enum LoadType {
+		compute ("iterations"),		//floating point arithmetic, no memory traffic
+		memory ("bytes touched"),	//streams over arrays larger than the caches
+		allocation ("bytes allocated");	//short and medium lived objects, keeps the GC busy
+
+		private final String workUnit;
+		private LoadType(String unit) {
+			workUnit = unit;
+		}
+		public String getWorkUnit() {
+			return workUnit;
+		}
+	}
+
+	//ints per worker for the memory load, 4MB exceeds the L2 caches of mobile CPUs
+	static final int memoryInts = 1 << 20;
+	//references kept by the allocation load, a part of the objects survives a young collection
+	static final int allocationRing = 1024;
+	static final int allocationSize = 1024;
+
+	static String LOG_TAG = "CpuStressHarness";
+
+	private Worker[] workers = new Worker[0];
+	private long startNanos;
+
+	/**
+	 * A single load thread, work is counted in units of the load type
+	 * (iterations, bytes touched, bytes allocated)
+	 */
+	private static class Worker extends Thread {
+		private final LoadType type;
+		volatile boolean running = true;
+		volatile long work;
+		volatile double sink; //keeps the compute loop from being optimized away
+
+		Worker(LoadType type, int index) {
+			super("stress-" + type + "-" + index);
+			this.type = type;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			switch(type) {
+			case compute:
+				runCompute();
+				break;
+			case memory:
+				runMemory();
+				break;
+			case allocation:
+				runAllocation();
+				break;
+			}
+		}
+
+		private void runCompute() {
+			double x = 1.0;
+			while(running) {
+				for(int i=0; i<65536; i++) {
+					x = x * 1.0000001 + 1e-9;
+					x = x > 2.0 ? x - 1.0 : x;
+				}
+				sink = x;
+				work += 65536;
+			}
+		}
+
+		private void runMemory() {
+			int[] data = new int[memoryInts];
+			while(running) {
+				//one int per cache line (64B), every access is a miss once the array exceeds the cache
+				for(int offset=0; offset<16; offset++) {
+					for(int i=offset; i<memoryInts; i+=16) {
+						data[i]++;
+					}
+				}
+				work += memoryInts * 4l;
+			}
+		}
+
+		private void runAllocation() {
+			Object[] ring = new Object[allocationRing];
+			int pos = 0;
+			while(running) {
+				for(int i=0; i<256; i++) {
+					byte[] b = new byte[allocationSize];
+					b[0] = (byte) i;
+					//every 8th object survives until it is replaced in the ring
+					if((i & 7) == 0) {
+						ring[pos] = b;
+						pos = (pos + 1) % allocationRing;
+					}
+				}
+				work += 256l * allocationSize;
+			}
+		}
+	}
+
+	/**
+	 * Stops running workers and starts the given number of new ones
+	 */
+	public void start(int threads, LoadType type) {
+		stop();
+		workers = new Worker[threads];
+		for(int i=0; i<threads; i++) {
+			workers[i] = new Worker(type, i);
+			workers[i].start();
+		}
+		startNanos = System.nanoTime();
+		Log.i(LOG_TAG, "Started " + threads + " " + type + " workers");
+	}
+
+	public void stop() {
+		for(Worker w : workers) {
+			w.running = false;
+		}
+		for(Worker w : workers) {
+			try {
+				w.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		workers = new Worker[0];
+	}
+
+	public int getThreads() {
+		return workers.length;
+	}
+
+	/**
+	 * Work of all workers per second since start
+	 */
+	public double getWorkPerSecond() {
+		long total = 0;
+		for(Worker w : workers) {
+			total += w.work;
+		}
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		return seconds > 0 ? total / seconds : 0;
+	}
+}
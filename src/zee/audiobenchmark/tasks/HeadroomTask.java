@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import zee.audiobenchmark.analysis.HeadroomSearch;
+import zee.audiobenchmark.datatypes.SystemParameters;
+import zee.audiobenchmark.datatypes.TestResult;
+import zee.audiobenchmark.interfaces.AsyncResponse;
+import zee.audiobenchmark.interfaces.DspLoadTarget;
+import android.os.AsyncTask;
+import android.util.Log;
+
+/**
+ * Measures the usable processing budget of the audio callback for each selectable buffer size.
+ */
+public class HeadroomTask extends AsyncTask<SystemParameters, Void, TestResult>{
+
+	private final DspLoadTarget target;
+	private final TestResult.apiType api;
+
+	static String LOG_TAG = "HeadroomTask";
+
+	//response to the class that started this thread
+	public AsyncResponse delegate=null;
+	@Override
+	protected void onPostExecute(TestResult result) {
+		delegate.processFinish(result);
+	}
+
+	public HeadroomTask(DspLoadTarget target, TestResult.apiType api) {
+		this.target = target;
+		this.api = api;
+	}
+
+	@Override
+	protected TestResult doInBackground(SystemParameters... params) {
+		SystemParameters p = params[0];
+		int maxAmount = p.headroomLoad == HeadroomSearch.Load.fir ? p.headroomMaxTaps : p.headroomMaxBiquads;
+		HeadroomSearch search = new HeadroomSearch(target, p.headroomLoad, maxAmount, p.headroomStepSeconds);
+		search.run(p.getBufferSizes());
+		Log.i(LOG_TAG, search.getFormatedOutput());
+		return new TestResult(search, TestResult.testType.dspHeadroom, api, 0, p.sampleRate);
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import zee.audiobenchmark.FragmentOpenSL;
+import zee.audiobenchmark.analysis.JniTransferReport;
+import zee.audiobenchmark.analysis.JniTransferReport.Method;
+import zee.audiobenchmark.datatypes.SystemParameters;
+import zee.audiobenchmark.datatypes.TestResult;
+import zee.audiobenchmark.interfaces.AsyncResponse;
+import android.os.AsyncTask;
+import android.util.Log;
+
+/**
+ * Measures the JNI transfer methods of the native library for each selectable buffer size.
+ * Every call moves one block to native code, inverts it and moves it back.
+ */
+public class JniTransferBenchmark extends AsyncTask<SystemParameters, Void, TestResult>{
+
+	static final int warmupCalls = 1000;
+	static final int runs = 7;
+	//samples transferred per run, the number of calls depends on the buffer size
+	static final int samplesPerRun = 1 << 20;
+
+	static String LOG_TAG = "JniTransferBenchmark";
+
+	//response to the class that started this thread
+	public AsyncResponse delegate=null;
+	@Override
+	protected void onPostExecute(TestResult result) {
+		delegate.processFinish(result);
+	}
+
+	@Override
+	protected TestResult doInBackground(SystemParameters... params) {
+		int[] sizes = params[0].getBufferSizes();
+		JniTransferReport report = new JniTransferReport(params[0].sampleRate);
+		FragmentOpenSL.prepareTransfer(sizes[sizes.length - 1]);
+		try {
+			measure(sizes, report);
+		} finally {
+			FragmentOpenSL.prepareTransfer(0);
+		}
+		Log.i(LOG_TAG, report.getFormatedOutput());
+		return new TestResult(report, TestResult.testType.jniTransfer, TestResult.apiType.openSL, 0, params[0].sampleRate);
+	}
+
+	private void measure(int[] sizes, JniTransferReport report) {
+		double[] runNanos = new double[runs];
+
+		for(int size : sizes) {
+			short[] array = new short[size];
+			ByteBuffer direct = ByteBuffer.allocateDirect(size * 2).order(ByteOrder.nativeOrder());
+			int calls = Math.max(100, samplesPerRun / size);
+
+			for(Method method : Method.values()) {
+				if(isCancelled()) return;
+				//a VM without direct buffer access fails on every call, nothing to time
+				if(method == Method.directBuffer && !FragmentOpenSL.transferDirect(direct, size)) {
+					report.addFailed(size, method);
+					continue;
+				}
+				boolean copied = false;
+				for(int i=0; i<warmupCalls; i++) {
+					copied |= transfer(method, array, direct, size);
+				}
+				for(int r=0; r<runs; r++) {
+					long start = System.nanoTime();
+					for(int i=0; i<calls; i++) {
+						transfer(method, array, direct, size);
+					}
+					runNanos[r] = (double) (System.nanoTime() - start) / calls;
+				}
+				Arrays.sort(runNanos);
+				report.add(size, method, runNanos[runs / 2], copied && method != Method.region);
+			}
+		}
+	}
+
+	/*
+	 * @return true if the VM copied the array, a direct buffer is never copied
+	 */
+	private static boolean transfer(Method method, short[] array, ByteBuffer direct, int size) {
+		switch(method) {
+		case elements:
+			return FragmentOpenSL.transferElements(array);
+		case critical:
+			return FragmentOpenSL.transferCritical(array);
+		case region:
+			return FragmentOpenSL.transferRegion(array);
+		case directBuffer:
+			FragmentOpenSL.transferDirect(direct, size);
+			return false;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import zee.audiobenchmark.analysis.CpuCost;
+import zee.audiobenchmark.analysis.LoopModeReport;
+import zee.audiobenchmark.datatypes.SystemParameters;
+import zee.audiobenchmark.datatypes.TestResult;
+import zee.audiobenchmark.interfaces.AsyncResponse;
+import zee.audiobenchmark.interfaces.LoopModeTarget;
+import android.os.AsyncTask;
+import android.util.Log;
+
+/**
+ * Runs the loopback with each buffer hand-off in turn, copy first,
+ * and compares the hand-off time and the CPU time of the callbacks.
+ */
+public class LoopModeBenchmark extends AsyncTask<SystemParameters, Void, TestResult>{
+
+	private final LoopModeTarget target;
+
+	static String LOG_TAG = "LoopModeBenchmark";
+
+	//response to the class that started this thread
+	public AsyncResponse delegate=null;
+	@Override
+	protected void onPostExecute(TestResult result) {
+		delegate.processFinish(result);
+	}
+
+	public LoopModeBenchmark(LoopModeTarget target) {
+		this.target = target;
+	}
+
+	@Override
+	protected TestResult doInBackground(SystemParameters... params) {
+		SystemParameters p = params[0];
+		LoopModeReport report = new LoopModeReport();
+		long[] handoff = new long[4];
+		for(LoopModeReport.Mode mode : LoopModeReport.Mode.values()) {
+			if(isCancelled()) break;
+			if(!target.startLoop(mode == LoopModeReport.Mode.zeroCopy)) {
+				Log.w(LOG_TAG, mode + " loop could not be started");
+				continue;
+			}
+			CpuCost cpu = target.measureLoop(p.loopModeSeconds, handoff);
+			target.stopLoop();
+			if(cpu != null) report.add(mode, handoff, cpu);
+		}
+		Log.i(LOG_TAG, report.getFormatedOutput());
+		return new TestResult(report, TestResult.testType.loopModes, TestResult.apiType.openSL, Integer.parseInt(p.selectedBufferSize), p.sampleRate);
+	}
+}
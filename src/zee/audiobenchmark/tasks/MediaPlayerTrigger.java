@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import java.io.File;
+
+import zee.audiobenchmark.datatypes.TestResult;
+import zee.audiobenchmark.interfaces.SoundTrigger;
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.util.Log;
+
+/**
+ * Trigger for MediaPlayer.start on a prepared player.
+ * Preparing is not part of the measurement, the player is paused and rewound between the triggers.
+ */
+public class MediaPlayerTrigger implements SoundTrigger {
+
+	private MediaPlayer player;
+
+	static String LOG_TAG = "MediaPlayerTrigger";
+
+	@Override
+	public boolean prepare(File clip) {
+		player = new MediaPlayer();
+		try {
+			player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+			player.setDataSource(clip.getAbsolutePath());
+			player.prepare();
+		} catch (Exception e) {
+			Log.e(LOG_TAG, "Preparing " + clip + " failed: " + e.getLocalizedMessage());
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void trigger() {
+		player.start();
+	}
+
+	@Override
+	public void rewind() {
+		if(player.isPlaying()) player.pause();
+		player.seekTo(0);
+	}
+
+	@Override
+	public void release() {
+		if(player != null) player.release();
+		player = null;
+	}
+
+	@Override
+	public TestResult.apiType getApi() {
+		return TestResult.apiType.mediaPlayer;
+	}
+}
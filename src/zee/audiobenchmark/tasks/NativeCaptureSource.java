@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import java.nio.ByteBuffer;
+
+import zee.audiobenchmark.FragmentOpenSL;
+import zee.audiobenchmark.interfaces.CaptureSource;
+
+/**
+ * Reads the capture rings of the native engine (see jni/capture.c)
+ */
+public class NativeCaptureSource implements CaptureSource {
+
+	public static final int streamIn = 0;
+	public static final int streamOut = 1;
+
+	private final int stream;
+	private final long[] stats = new long[2];
+
+	public NativeCaptureSource(int stream) {
+		this.stream = stream;
+	}
+
+	/**
+	 * @param dst has to be a direct buffer
+	 */
+	@Override
+	public int drainTo(ByteBuffer dst) {
+		int n = FragmentOpenSL.drainCapture(stream, dst, dst.position(), dst.remaining());
+		dst.position(dst.position() + n);
+		return n;
+	}
+
+	@Override
+	public long getHighWaterMark() {
+		FragmentOpenSL.getCaptureStats(stream, stats);
+		return stats[0];
+	}
+
+	@Override
+	public long getDroppedBlocks() {
+		FragmentOpenSL.getCaptureStats(stream, stats);
+		return stats[1];
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import zee.audiobenchmark.FragmentOpenSL;
+import zee.audiobenchmark.interfaces.MetricsSource;
+import zee.audiobenchmark.tools.Metrics;
+
+/**
+ * Counters of the native engine, read from the memory shared by the library.
+ * The native side updates the values without locks, reading never blocks the callbacks.
+ * The values are unsigned 32 bit, so that the atomics are lock-free on every ABI.
+ */
+public class NativeMetrics implements MetricsSource {
+
+	//same order as metricId in metrics.h
+	static final String[] counterNames = new String[] {
+		"opensl.playerCallbacks", "opensl.recorderCallbacks", "opensl.playerEnqueueFailures", "opensl.recorderEnqueueFailures",
+		"opensl.impulsesEmitted", "opensl.impulsesDetected", "opensl.impulsesMissed"
+	};
+	static final int intervalBuckets = 32;
+	static final String intervalName = "opensl.recorderIntervalUs";
+
+	private final IntBuffer values;
+
+	public NativeMetrics() {
+		ByteBuffer shared = FragmentOpenSL.getMetricsBuffer();
+		values = shared.order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	@Override
+	public void addTo(Metrics.Snapshot snapshot) {
+		for(int i=0; i<counterNames.length; i++) {
+			snapshot.counters.put(counterNames[i], unsigned(i));
+		}
+		long[] buckets = new long[intervalBuckets];
+		for(int i=0; i<intervalBuckets; i++) {
+			buckets[i] = unsigned(counterNames.length + i);
+		}
+		long max = unsigned(counterNames.length + intervalBuckets);
+		//the native histogram does not keep the sum, the mean is estimated from the bucket centers
+		long sum = 0;
+		for(int i=1; i<intervalBuckets; i++) {
+			sum += buckets[i] * ((3l << i) / 4);
+		}
+		snapshot.histograms.put(intervalName, new Metrics.HistogramSnapshot(buckets, sum, max));
+	}
+
+	private long unsigned(int index) {
+		return values.get(index) & 0xffffffffL;
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import zee.audiobenchmark.datatypes.LatencySeries;
+import zee.audiobenchmark.datatypes.ResultRecord;
+import zee.audiobenchmark.datatypes.SystemParameters;
+import zee.audiobenchmark.datatypes.TestResult;
+import android.util.Log;
+
+/**
+ * Stores the summary of every valid latency run as a result file,
+ * the files of many devices are collected by tools.ResultsIndex.
+ * The latencies are stored next to it for tools.RegressionCheck.
+ * The files are written in a background thread, to a temporary file that is
+ * renamed when complete, so that a concurrent ResultsIndex never reads a partial file.
+ */
+public class ResultStore {
+
+	static String LOG_TAG = "ResultStore";
+
+	private ResultStore() {
+	}
+
+	/**
+	 * @param params device and result directory, nothing is written without storage
+	 * @param result only valid impulse latency results are stored
+	 */
+	public static void write(SystemParameters params, final TestResult result) {
+		if(params.resultsDirectory == null || !result.valid || result.usedTest != TestResult.testType.impulseLatency) return;
+		final long created = System.currentTimeMillis();
+		final String name = CaptureSession.createName("latency-" + result.usedApi.name());
+		final File file = new File(params.resultsDirectory, name + ResultRecord.suffix);
+		final File samples = new File(params.resultsDirectory, name + ResultRecord.samplesSuffix);
+		final String manufacturer = params.manufacturer;
+		final String model = params.deviceName;
+		final int sdkVersion = params.sdkVersion;
+		new Thread("ResultStore " + file.getName()) {
+			@Override
+			public void run() {
+				ResultRecord record = new ResultRecord(result, manufacturer, model, sdkVersion, created);
+				File tmp = new File(file.getPath() + ".tmp");
+				OutputStream os = null;
+				try {
+					file.getParentFile().mkdirs();
+					os = new FileOutputStream(tmp);
+					record.toProperties().store(os, "audioBenchmark result");
+					os.close();
+					os = null;
+					if(!tmp.renameTo(file)) Log.w(LOG_TAG, "Could not rename " + tmp);
+				} catch (IOException e) {
+					Log.e(LOG_TAG, "Writing " + file + " failed: " + e.getLocalizedMessage());
+				} finally {
+					if(os != null) {
+						try {
+							os.close();
+						} catch (IOException e) {}
+					}
+				}
+				writeSamples(samples, result.getLatenciesUs());
+			}
+		}.start();
+	}
+
+	private static void writeSamples(File file, LatencySeries us) {
+		if(us == null) return;
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			us.write(out);
+			out.close();
+			out = null;
+			if(!tmp.renameTo(file)) Log.w(LOG_TAG, "Could not rename " + tmp);
+		} catch (IOException e) {
+			Log.e(LOG_TAG, "Writing " + file + " failed: " + e.getLocalizedMessage());
+		} finally {
+			if(out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+}
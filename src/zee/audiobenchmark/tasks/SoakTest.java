@@ -0,0 +1,347 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import zee.audiobenchmark.analysis.CpuCost;
+import zee.audiobenchmark.analysis.SoakStatistics;
+import zee.audiobenchmark.datatypes.SystemParameters;
+import zee.audiobenchmark.datatypes.TestResult;
+import zee.audiobenchmark.dsp.SignalGenerator;
+import zee.audiobenchmark.interfaces.AsyncResponse;
+import zee.audiobenchmark.tools.Metrics;
+import zee.audiobenchmark.tools.Tracer;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioRecord;
+import android.media.AudioTrack;
+import android.media.MediaRecorder;
+import android.os.AsyncTask;
+import android.util.Log;
+
+/**
+ * Runs the impulse latency test or the loopback for hours in constant memory.
+ * The latency mode records the impulse latency, missed impulses are events.
+ * The loopback mode records the interval between two reads, cycles longer than
+ * one and a half buffer periods are events.
+ *
+ * Failing reads or writes (e.g. after a route change) close the audio objects,
+ * they are reopened and the run continues with its statistics.
+ * The statistics are written to a checkpoint periodically and when the run is cancelled.
+ * A checkpoint left by a run that did not end through finish() is continued by the next
+ * run of the same mode.
+ * The test runs until finish() is called.
+ */
+public class SoakTest extends AsyncTask<SystemParameters, Void, TestResult> {
+
+	public enum Mode {
+		latency ("Soak: impulse latency"),
+		loopback ("Soak: loopback cycle time");
+
+		private final String name;
+		private Mode(String s) {
+			name = s;
+		}
+		public String toString() {
+			return name;
+		}
+	}
+
+	//histogram range of the statistics
+	static final double binMs = 0.5;
+	static final double maxMs = 1000;
+	//wait before reopening failed audio objects
+	static final long reopenDelayMs = 1000;
+	//consecutive missed impulses that are treated as a failure of the streams
+	static final int maxMisses = 10;
+
+	private final Mode mode;
+	private volatile SoakStatistics stats;
+	//CPU time of this run (not of a continued checkpoint), updated about once per second
+	private volatile CpuCost cpuCost;
+	private long framesRead;
+	private File checkpoint;
+
+	private int sampleRateInHz;
+	private int bufferSizeInSamples;
+	private AudioRecord mpRecord;
+	private AudioTrack mpTrack;
+
+	//set to end the run, the result will still be delivered
+	private volatile boolean finishRequested = false;
+
+	static String LOG_TAG = "SoakTest";
+
+	//response to the class that started this thread
+	public AsyncResponse delegate=null;
+	@Override
+	protected void onPostExecute(TestResult result) {
+		delegate.processFinish(result);
+	}
+
+	public SoakTest(Mode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Stop the run and return the result for the data gathered so far
+	 */
+	public void finish() {
+		finishRequested = true;
+	}
+
+	/**
+	 * Current statistics for the UI, null until the run has started
+	 */
+	public String getFormatedStatus() {
+		SoakStatistics s = stats;
+		if(s == null) return null;
+		CpuCost cpu = cpuCost;
+		return mode + "\n" + s.getFormatedOutput(System.currentTimeMillis()) 
+				+ (cpu != null ? "CPU: " + cpu.getFormatedOutput() : "");
+	}
+
+	private boolean isStopped() {
+		return finishRequested || isCancelled();
+	}
+
+	@Override
+	protected TestResult doInBackground(SystemParameters... params) {
+		SystemParameters p = params[0];
+		sampleRateInHz = p.sampleRate;
+		bufferSizeInSamples = Integer.parseInt(p.selectedBufferSize);
+		stats = restore(p);
+
+		short[] buffer = new short[bufferSizeInSamples];
+		short[] zeros = new short[bufferSizeInSamples];
+		short[] mask = new short[bufferSizeInSamples];
+		SignalGenerator impulse = new SignalGenerator(sampleRateInHz);
+		impulse.setImpulse(0, 1f);
+		impulse.render(mask, 0, mask.length);
+		short threshold = p.getThreshold();
+		int padding = Math.max(2, sampleRateInHz / bufferSizeInSamples); //~1s
+		long periodNs = bufferSizeInSamples * 1000000000l / sampleRateInHz;
+
+		long nextCheckpoint = System.currentTimeMillis() + p.soakCheckpointSeconds * 1000l;
+		long nextLog = System.currentTimeMillis() + 60000;
+		long lastRead = 0;
+		int misses = 0;
+		CpuMeter cpu = new CpuMeter();
+		long nextCpu = sampleRateInHz;
+		Log.i(LOG_TAG, "Starting " + mode + ", threshold: " + threshold);
+
+		while(!isStopped()) {
+			if(mpRecord == null && !open()) {
+				sleep(reopenDelayMs);
+				continue;
+			}
+			boolean ok = true;
+			if(mode == Mode.latency) {
+				//same scheme as the latency test: impulse, then search the following second
+				long timeStamp = System.nanoTime();
+				Tracer.instant(Tracer.impulseEmit);
+				ok = write(mask);
+				boolean detected = false;
+				for(int i=0; i<padding && ok && !isStopped(); i++) {
+					ok = read(buffer);
+					if(ok && !detected) {
+						for(int k=0; k<buffer.length; k++) {
+							if(buffer[k] > threshold) {
+								Tracer.instant(Tracer.impulseDetect);
+								long ms = (System.nanoTime() - timeStamp) / 1000000;
+								stats.add(System.currentTimeMillis(), ms);
+								StreamMetrics.detections.inc();
+								StreamMetrics.latencyMs.record(ms);
+								detected = true;
+								break;
+							}
+						}
+					}
+					ok = ok && write(zeros);
+				}
+				if(ok && !detected && !isStopped()) {
+					stats.addEvent(System.currentTimeMillis());
+					StreamMetrics.misses.inc();
+					//no impulse for several seconds, the route may have changed
+					if(++misses >= maxMisses) ok = false;
+				} else if(detected) {
+					misses = 0;
+				}
+			} else {
+				ok = read(buffer);
+				long now = System.nanoTime();
+				if(ok && lastRead != 0) {
+					long cycle = now - lastRead;
+					stats.add(System.currentTimeMillis(), cycle / 1e6);
+					if(cycle > periodNs * 3 / 2) stats.addEvent(System.currentTimeMillis());
+				}
+				lastRead = now;
+				ok = ok && write(buffer);
+			}
+
+			if(!ok && !isStopped()) {
+				Log.w(LOG_TAG, "Audio objects failed, reopening");
+				close();
+				stats.addRecovery();
+				misses = 0;
+				lastRead = 0;
+			}
+
+			if(framesRead >= nextCpu) {
+				cpuCost = cpu.measure(framesRead, sampleRateInHz);
+				nextCpu = framesRead + sampleRateInHz;
+			}
+
+			long nowMs = System.currentTimeMillis();
+			if(nowMs >= nextCheckpoint) {
+				store();
+				nextCheckpoint = nowMs + p.soakCheckpointSeconds * 1000l;
+			}
+			if(nowMs >= nextLog) {
+				Log.i(LOG_TAG, getFormatedStatus());
+				Log.i(LOG_TAG, Metrics.snapshot().getFormatedOutput());
+				nextLog = nowMs + 60000;
+			}
+		}
+		cpuCost = cpu.measure(framesRead, sampleRateInHz);
+		close();
+		if(finishRequested) {
+			//the run ended normally, nothing to continue
+			if(checkpoint != null) checkpoint.delete();
+		} else {
+			//cancelled (tab or fragment change), the next run continues
+			store();
+		}
+		Log.i(LOG_TAG, getFormatedStatus());
+		TestResult result = new TestResult(stats, TestResult.testType.soak, TestResult.apiType.audioRecord, bufferSizeInSamples, sampleRateInHz);
+		result.testDetail = mode.name();
+		result.cpuCost = cpuCost;
+		return result;
+	}
+
+	private boolean open() {
+		try {
+			mpRecord = new AudioRecord(MediaRecorder.AudioSource.DEFAULT, sampleRateInHz,
+					AudioFormat.CHANNEL_IN_MONO, SystemParameters.audioEncoding, bufferSizeInSamples * 2);
+			mpTrack = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRateInHz,
+					AudioFormat.CHANNEL_OUT_MONO, SystemParameters.audioEncoding, bufferSizeInSamples * 2, AudioTrack.MODE_STREAM);
+			if(mpRecord.getState() != AudioRecord.STATE_INITIALIZED || mpTrack.getState() != AudioTrack.STATE_INITIALIZED) {
+				throw new IllegalStateException("not initialized");
+			}
+			mpTrack.play();
+			mpRecord.startRecording();
+			return true;
+		} catch (Throwable t) {
+			Log.e(LOG_TAG, "Init Audio Objects; trace: " + t.getLocalizedMessage());
+			close();
+			return false;
+		}
+	}
+
+	private void close() {
+		if(mpRecord != null) mpRecord.release();
+		if(mpTrack != null) mpTrack.release();
+		mpRecord = null;
+		mpTrack = null;
+	}
+
+	//traced and counted blocking calls, false if the stream failed
+	private boolean read(short[] dst) {
+		long start = Tracer.begin();
+		int result = mpRecord.read(dst, 0, dst.length);
+		Tracer.end(Tracer.audioRecordRead, start);
+		StreamMetrics.countRead(result, dst.length);
+		if(result > 0) framesRead += result;
+		return result >= 0;
+	}
+
+	private boolean write(short[] src) {
+		long start = Tracer.begin();
+		int result = mpTrack.write(src, 0, src.length);
+		Tracer.end(Tracer.audioTrackWrite, start);
+		StreamMetrics.countWrite(result, src.length);
+		return result >= 0;
+	}
+
+	private void sleep(long ms) {
+		try {
+			Thread.sleep(ms);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * Continues the checkpoint of an interrupted run of the same mode and configuration
+	 */
+	private SoakStatistics restore(SystemParameters p) {
+		long now = System.currentTimeMillis();
+		SoakStatistics s = new SoakStatistics(binMs, maxMs, p.soakHalfLifeSeconds * 1000l, now);
+		if(p.captureDirectory == null) return s;
+		checkpoint = new File(p.captureDirectory, "soak-" + mode.name() + "-" + sampleRateInHz + "-" + bufferSizeInSamples + ".checkpoint");
+		if(!checkpoint.isFile()) return s;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpoint)));
+			s.read(in);
+			Log.i(LOG_TAG, "Continuing " + checkpoint + ", " + s.getCount() + " values");
+			return s;
+		} catch (IOException e) {
+			Log.w(LOG_TAG, "Ignoring " + checkpoint + ": " + e.getLocalizedMessage());
+			return new SoakStatistics(binMs, maxMs, p.soakHalfLifeSeconds * 1000l, now);
+		} finally {
+			if(in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+
+	/*
+	 * Writes a temporary file first, a crash while writing keeps the previous checkpoint
+	 */
+	private void store() {
+		if(checkpoint == null) return;
+		File tmp = new File(checkpoint.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			checkpoint.getParentFile().mkdirs();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			stats.write(out);
+			out.close();
+			out = null;
+			if(!tmp.renameTo(checkpoint)) Log.w(LOG_TAG, "Could not rename " + tmp);
+		} catch (IOException e) {
+			Log.e(LOG_TAG, "Writing " + checkpoint + " failed: " + e.getLocalizedMessage());
+		} finally {
+			if(out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import zee.audiobenchmark.datatypes.TestResult;
+import zee.audiobenchmark.interfaces.SoundTrigger;
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.util.Log;
+
+/**
+ * Trigger for SoundPool.play, the way short UI feedback sounds are played
+ */
+public class SoundPoolTrigger implements SoundTrigger {
+
+	static final long loadTimeoutSeconds = 10;
+
+	private SoundPool pool;
+	private int soundId;
+	private int streamId = 0;
+
+	static String LOG_TAG = "SoundPoolTrigger";
+
+	@Override
+	public boolean prepare(File clip) {
+		final CountDownLatch loaded = new CountDownLatch(1);
+		final int[] status = new int[]{-1};
+		pool = new SoundPool(1, AudioManager.STREAM_MUSIC, 0);
+		//called on the main thread, the loading thread only waits for it
+		pool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+			@Override
+			public void onLoadComplete(SoundPool soundPool, int sampleId, int loadStatus) {
+				status[0] = loadStatus;
+				loaded.countDown();
+			}
+		});
+		soundId = pool.load(clip.getAbsolutePath(), 1);
+		try {
+			if(!loaded.await(loadTimeoutSeconds, TimeUnit.SECONDS)) {
+				Log.e(LOG_TAG, "Loading " + clip + " timed out");
+				return false;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return soundId != 0 && status[0] == 0;
+	}
+
+	@Override
+	public void trigger() {
+		streamId = pool.play(soundId, 1f, 1f, 1, 0, 1f);
+	}
+
+	@Override
+	public void rewind() {
+		if(streamId != 0) pool.stop(streamId);
+		streamId = 0;
+	}
+
+	@Override
+	public void release() {
+		if(pool != null) pool.release();
+		pool = null;
+	}
+
+	@Override
+	public TestResult.apiType getApi() {
+		return TestResult.apiType.soundPool;
+	}
+}
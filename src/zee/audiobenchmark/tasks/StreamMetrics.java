@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import zee.audiobenchmark.tools.Metrics;
+
+/**
+ * Metrics of the AudioRecord/AudioTrack tasks, shared by all tests
+ */
+public final class StreamMetrics {
+
+	static final Metrics.Counter reads = Metrics.counter("audiorecord.reads");
+	static final Metrics.Counter shortReads = Metrics.counter("audiorecord.shortReads");
+	static final Metrics.Counter readErrors = Metrics.counter("audiorecord.readErrors");
+	static final Metrics.Counter writes = Metrics.counter("audiotrack.writes");
+	static final Metrics.Counter shortWrites = Metrics.counter("audiotrack.shortWrites");
+	static final Metrics.Counter writeErrors = Metrics.counter("audiotrack.writeErrors");
+	static final Metrics.Gauge lastError = Metrics.gauge("audio.lastErrorCode");
+
+	//impulse and click detection of the latency tests
+	static final Metrics.Counter detections = Metrics.counter("latency.detections");
+	static final Metrics.Counter misses = Metrics.counter("latency.misses");
+	static final Metrics.Counter falseTriggers = Metrics.counter("latency.falseTriggers");
+	static final Metrics.Histogram latencyMs = Metrics.histogram("latency.ms");
+
+	private StreamMetrics() {
+	}
+
+	/**
+	 * @param result return value of AudioRecord.read
+	 * @param requested samples
+	 */
+	static void countRead(int result, int requested) {
+		reads.inc();
+		if(result < 0) {
+			readErrors.inc();
+			lastError.set(result);
+		} else if(result < requested) {
+			shortReads.inc();
+		}
+	}
+
+	/**
+	 * @param result return value of AudioTrack.write
+	 * @param requested samples
+	 */
+	static void countWrite(int result, int requested) {
+		writes.inc();
+		if(result < 0) {
+			writeErrors.inc();
+			lastError.set(result);
+		} else if(result < requested) {
+			shortWrites.inc();
+		}
+	}
+
+	/**
+	 * Samples above the threshold while nothing was emitted
+	 */
+	static boolean containsTrigger(short[] buffer, int len, short threshold) {
+		for(int k=0; k<len; k++) {
+			if(buffer[k] > threshold) return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import zee.audiobenchmark.analysis.LoadScalingReport;
+import zee.audiobenchmark.analysis.RobustSummary;
+import zee.audiobenchmark.datatypes.SystemParameters;
+import zee.audiobenchmark.datatypes.TestResult;
+import zee.audiobenchmark.interfaces.AsyncResponse;
+import android.os.AsyncTask;
+import android.util.Log;
+
+/**
+ * Runs the latency test and a glitch probe while 0..all cores are busy with load threads.
+ * Requires a loopback connection.
+ */
+public class StressLatencyTest extends AsyncTask<SystemParameters, Void, TestResult>{
+
+	//the load threads run for a while before measuring (JIT, CPU frequency)
+	static final long warmupMs = 500;
+
+	static String LOG_TAG = "StressLatencyTest";
+
+	//response to the class that started this thread
+	public AsyncResponse delegate=null;
+	@Override
+	protected void onPostExecute(TestResult result) {
+		delegate.processFinish(result);
+	}
+
+	@Override
+	protected TestResult doInBackground(SystemParameters... params) {
+		SystemParameters p = params[0];
+		int bufferSizeInSamples = Integer.parseInt(p.selectedBufferSize);
+		int cores = Runtime.getRuntime().availableProcessors();
+		CpuStressHarness harness = new CpuStressHarness();
+		AudioTrackBufferProbe probe = new AudioTrackBufferProbe(p.sampleRate);
+		LoadScalingReport report = new LoadScalingReport(p.stressLoad.toString(), p.stressLoad.getWorkUnit());
+
+		try {
+			for(int threads=0; threads<=cores && !isCancelled(); threads++) {
+				harness.start(threads, p.stressLoad);
+				Thread.sleep(warmupMs);
+
+				TestResult latency = new AudioRecordLatencyTest().measure(p);
+				long xruns = probe.probe(bufferSizeInSamples, p.stressProbeSeconds);
+				double work = harness.getWorkPerSecond();
+				harness.stop();
+
+				RobustSummary robust = latency.valid ? latency.getRobustSummary() : null;
+				report.addLevel(threads, robust, xruns, p.stressProbeSeconds, work);
+				Log.i(LOG_TAG, threads + " " + p.stressLoad + " threads: " + (robust != null ? robust.median + "ms median" : "no result") 
+						+ ", " + xruns + " xruns");
+			}
+		} catch (InterruptedException e) {
+			Log.i(LOG_TAG, "Stress test interrupted");
+		} finally {
+			harness.stop();
+		}
+		Log.i(LOG_TAG, report.getFormatedOutput());
+		return new TestResult(report, TestResult.testType.cpuStress, TestResult.apiType.audioRecord, bufferSizeInSamples, p.sampleRate);
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import zee.audiobenchmark.analysis.ThresholdCalibration;
+import zee.audiobenchmark.datatypes.SystemParameters;
+import zee.audiobenchmark.datatypes.TestResult;
+import zee.audiobenchmark.dsp.SignalGenerator;
+import zee.audiobenchmark.interfaces.AsyncResponse;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioRecord;
+import android.media.AudioTrack;
+import android.media.MediaRecorder;
+import android.os.AsyncTask;
+import android.util.Log;
+
+/**
+ * Measures noise floor and loopback gain with AudioRecord/AudioTrack and stores
+ * the derived threshold in the parameters.
+ * Used before the native latency test, which cannot calibrate inside its callbacks;
+ * the AudioRecord test calibrates on its own streams.
+ */
+public class ThresholdCalibrationTask extends AsyncTask<SystemParameters, Void, TestResult> {
+
+	static String LOG_TAG = "ThresholdCalibrationTask";
+
+	//response to the class that started this thread
+	public AsyncResponse delegate=null;
+	@Override
+	protected void onPostExecute(TestResult result) {
+		delegate.processFinish(result);
+	}
+
+	@Override
+	protected TestResult doInBackground(SystemParameters... params) {
+		int sampleRateInHz = params[0].sampleRate;
+		int bufferSizeInSamples = Integer.parseInt(params[0].selectedBufferSize);
+		AudioRecord record;
+		AudioTrack track;
+		try {
+			record = new AudioRecord(MediaRecorder.AudioSource.DEFAULT, sampleRateInHz,
+					AudioFormat.CHANNEL_IN_MONO, SystemParameters.audioEncoding, bufferSizeInSamples * 2);
+			track = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRateInHz,
+					AudioFormat.CHANNEL_OUT_MONO, SystemParameters.audioEncoding, bufferSizeInSamples * 2, AudioTrack.MODE_STREAM);
+		} catch (Throwable t) {
+			Log.e(LOG_TAG, "Init Audio Objects; trace: " + t.getLocalizedMessage());
+			return new TestResult("Could not open the audio streams for the calibration.");
+		}
+		track.play();
+		record.startRecording();
+		ThresholdCalibration calibration = calibrate(record, track, bufferSizeInSamples, sampleRateInHz, params[0]);
+		record.release();
+		track.release();
+		return new TestResult(calibration, TestResult.testType.thresholdCalibration, TestResult.apiType.audioRecord, bufferSizeInSamples, sampleRateInHz);
+	}
+
+	/**
+	 * Plays silence and reference impulses on running streams.
+	 * The threshold is stored in the parameters for all following tests.
+	 * @return the calibration, also if it failed
+	 */
+	static ThresholdCalibration calibrate(AudioRecord record, AudioTrack track, int bufferSizeInSamples, int sampleRateInHz, SystemParameters params) {
+		ThresholdCalibration calibration = new ThresholdCalibration();
+		short[] buffer = new short[bufferSizeInSamples];
+		short[] zeros = new short[bufferSizeInSamples];
+		short[] mask = new short[bufferSizeInSamples];
+
+		//same impulse as the test
+		SignalGenerator impulse = new SignalGenerator(sampleRateInHz);
+		impulse.setImpulse(0, 1f);
+		impulse.render(mask, 0, mask.length);
+
+		//the first period settles the streams, the second one is measured
+		int silence = Math.max(2, SystemParameters.calibrationSilenceMs * sampleRateInHz / 1000 / bufferSizeInSamples);
+		//responses are searched up to the longest plausible latency
+		int window = Math.max(2, sampleRateInHz / 2 / bufferSizeInSamples);
+
+		for(int i=0; i<2*silence && !Thread.currentThread().isInterrupted(); i++) {
+			track.write(zeros, 0, zeros.length);
+			int read = record.read(buffer, 0, buffer.length);
+			if(i >= silence && read > 0) calibration.addSilence(buffer, 0, read);
+		}
+		for(int k=0; k<SystemParameters.calibrationImpulses && !Thread.currentThread().isInterrupted(); k++) {
+			track.write(mask, 0, mask.length);
+			int peak = 0;
+			for(int i=0; i<window; i++) {
+				int read = record.read(buffer, 0, buffer.length);
+				if(read > 0) peak = ThresholdCalibration.peak(buffer, 0, read, peak);
+				track.write(zeros, 0, zeros.length);
+			}
+			calibration.addBurst(peak, 1f);
+		}
+
+		//samples scanned while waiting for the impulses of one run
+		long samplesPerRun = (long) params.numberOfTests * sampleRateInHz;
+		//a failed calibration falls back to the fixed selection
+		params.calibratedThreshold = calibration.calculate(samplesPerRun, 1f) ? calibration.getThreshold() : 0;
+		Log.i(LOG_TAG, calibration.getFormatedOutput());
+		return calibration;
+	}
+}
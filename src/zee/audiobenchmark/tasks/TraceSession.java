@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import java.io.File;
+import java.io.IOException;
+
+import zee.audiobenchmark.analysis.TraceExporter;
+import zee.audiobenchmark.datatypes.SystemParameters;
+import zee.audiobenchmark.tools.Tracer;
+import android.util.Log;
+
+/**
+ * Tracing of one test run. Started with the test, the events of the Java threads
+ * and optionally of the native callbacks are written to a JSON file when finished.
+ * The file is written in a background thread.
+ */
+public class TraceSession {
+
+	private final File file;
+	private final TraceExporter exporter = new TraceExporter(Tracer.javaNames, Tracer.nativeNames);
+
+	static String LOG_TAG = "TraceSession";
+
+	private TraceSession(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Starts tracing of the Java threads if enabled in the parameters
+	 * @param params
+	 * @param test name of the test, part of the file name
+	 * @return null if tracing is disabled
+	 */
+	public static TraceSession start(SystemParameters params, String test) {
+		if(!params.traceEnabled || params.captureDirectory == null) return null;
+		Tracer.start();
+		return new TraceSession(new File(params.captureDirectory, CaptureSession.createName(test) + "-trace.json"));
+	}
+
+	/**
+	 * Events of a native ring, to be added before finish()
+	 * @param label name of the callback
+	 * @param events 4 values per event
+	 * @param count
+	 */
+	public void addNative(String label, long[] events, int count) {
+		exporter.addNative(label, events, count);
+	}
+
+	/**
+	 * Stops tracing, copies the Java events and writes the file
+	 */
+	public void finish() {
+		Tracer.stop();
+		exporter.addJava(Tracer.getRings());
+		new Thread("TraceSession " + file.getName()) {
+			@Override
+			public void run() {
+				try {
+					exporter.write(file);
+					Log.i(LOG_TAG, exporter.getNumEvents() + " trace events written to " + file);
+				} catch (IOException e) {
+					Log.e(LOG_TAG, "Writing " + file + " failed: " + e.getLocalizedMessage());
+				}
+			}
+		}.start();
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import java.io.File;
+import java.io.IOException;
+
+import zee.audiobenchmark.datatypes.LatencySampleQueue;
+import zee.audiobenchmark.datatypes.SystemParameters;
+import zee.audiobenchmark.datatypes.TestResult;
+import zee.audiobenchmark.dsp.SignalGenerator;
+import zee.audiobenchmark.interfaces.AsyncResponse;
+import zee.audiobenchmark.interfaces.SoundTrigger;
+import zee.audiobenchmark.tools.Tracer;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.os.AsyncTask;
+import android.util.Log;
+
+/**
+ * Trigger-to-sound latency of a player that is not fed by the app, e.g. SoundPool or MediaPlayer.
+ * A clip with a click is triggered and received with AudioRecord, detected with the same
+ * threshold and normalization as the AudioRecord latency test, so the results are comparable.
+ * Executed in an asynchronous thread
+ */
+public class TriggerLatencyTest extends AsyncTask<SystemParameters, Void, TestResult>{
+
+	static final String clipName = "trigger_click.wav";
+	static final double clipSeconds = 0.25;
+	static final long receiveTimeoutNanos = 2000000000l; //per trigger
+	static final int maxMisses = 3; //consecutive triggers without a received sound
+
+	private final SoundTrigger trigger;
+	private final File clipDirectory;
+
+	int sampleRateInHz;
+	int bufferSizeInSamples;
+
+	static String LOG_TAG = "TriggerLatencyTest";
+
+	//single results are streamed to the UI, never blocks the test thread
+	public final LatencySampleQueue progress = new LatencySampleQueue(256);
+
+	//response to the class that started this thread
+	public AsyncResponse delegate=null;
+	@Override
+	protected void onPostExecute(TestResult result) {
+		delegate.processFinish(result);
+	}
+
+	/**
+	 * @param trigger player to measure
+	 * @param clipDirectory directory for the generated clip, e.g. the cache directory
+	 */
+	public TriggerLatencyTest(SoundTrigger trigger, File clipDirectory) {
+		this.trigger = trigger;
+		this.clipDirectory = clipDirectory;
+	}
+
+	//same convention as the AudioRecord latency test
+	private long normalizeResult(long val, int pos) {
+		long elapsed = (pos) / (sampleRateInHz/1000); //in ms
+		return (val + elapsed);
+	}
+
+	/*
+	 * Click at the start of the clip, followed by silence.
+	 * Band limited, so it survives the resampling of the players.
+	 */
+	private File createClip() throws IOException {
+		short[] samples = new short[(int) (sampleRateInHz * clipSeconds)];
+		SignalGenerator click = new SignalGenerator(sampleRateInHz);
+		click.setClick(0, 1f);
+		click.render(samples, 0, samples.length);
+		File clip = new File(clipDirectory, clipName);
+		CaptureWriter.writeClip(clip, samples, sampleRateInHz);
+		return clip;
+	}
+
+	private static void read(AudioRecord mpRecord, short[] dst) {
+		long start = Tracer.begin();
+		int result = mpRecord.read(dst, 0, dst.length);
+		Tracer.end(Tracer.audioRecordRead, start);
+		StreamMetrics.countRead(result, dst.length);
+	}
+
+	@Override
+	protected TestResult doInBackground(SystemParameters... params) {
+		sampleRateInHz = params[0].sampleRate;
+		bufferSizeInSamples = Integer.parseInt(params[0].selectedBufferSize);
+		int numTests = params[0].getArrayTestNumber();
+		short threshold = params[0].getThreshold();
+		int padding = sampleRateInHz/bufferSizeInSamples; //~1s between the triggers
+
+		AudioRecord mpRecord;
+		try {
+			if(!trigger.prepare(createClip())) {
+				trigger.release();
+				return new TestResult("Could not load the clip into " + trigger.getApi() + ".");
+			}
+			mpRecord = new AudioRecord(MediaRecorder.AudioSource.DEFAULT,
+					sampleRateInHz, 
+					AudioFormat.CHANNEL_IN_MONO,
+					SystemParameters.audioEncoding, 
+					bufferSizeInSamples * 2);
+		} catch (Throwable t) {
+			Log.e(LOG_TAG, "Init Audio Objects; trace: "+t.getLocalizedMessage());
+			trigger.release();
+			return new TestResult("Selected buffer size too small, please select a buffer size higher than the minimum to run the " + trigger.getApi() + " test.");
+		}
+
+		short[] buffer = new short[bufferSizeInSamples];
+		long[] lValues = new long[numTests];
+		long[] lValuesNorm = new long[numTests];
+		int impRec = 0;
+		int misses = 0;
+		long triggerNanos = 0; //time spent in the trigger calls
+
+		Log.i(LOG_TAG, "Starting " + trigger.getApi() + " trigger test, threshold: " + threshold);
+		mpRecord.startRecording();
+		try {
+			while(impRec < numTests && !isCancelled()) {
+				//quiet period, the previous sound has to be over
+				trigger.rewind();
+				for(int i=0; i<padding; i++) {
+					read(mpRecord, buffer);
+					//the clip is over after the first half, anything above the threshold is not ours
+					if(i > padding/2 && StreamMetrics.containsTrigger(buffer, buffer.length, threshold)) StreamMetrics.falseTriggers.inc();
+				}
+
+				//the trigger call is defined as "starting time"
+				long timeStamp = System.nanoTime();
+				trigger.trigger();
+				long called = System.nanoTime();
+				Tracer.end(Tracer.trigger, timeStamp);
+
+				boolean received = false;
+				while(!received && System.nanoTime() - timeStamp < receiveTimeoutNanos && !isCancelled()) {
+					read(mpRecord, buffer);
+					for(int k=0; k<buffer.length; k++) {
+						if(buffer[k] > threshold) {
+							Tracer.instant(Tracer.impulseDetect);
+							lValues[impRec] = (System.nanoTime() - timeStamp)/1000000;
+							lValuesNorm[impRec] = normalizeResult(lValues[impRec], k);
+							Log.i(LOG_TAG,"rec click, time: " + lValues[impRec]+ "ms" + "; normalized: " + lValuesNorm[impRec]);
+							progress.offer(lValues[impRec], lValuesNorm[impRec]);
+							StreamMetrics.detections.inc();
+							StreamMetrics.latencyMs.record(lValues[impRec]);
+							triggerNanos += called - timeStamp;
+							impRec++;
+							received = true;
+							break;
+						}
+					}
+				}
+
+				if(received) {
+					misses = 0;
+				} else {
+					StreamMetrics.misses.inc();
+					if(++misses >= maxMisses) {
+						return new TestResult("No sound received after " + maxMisses + " triggers of " + trigger.getApi() 
+								+ ". \n Please check connections, levels and the media volume.");
+					}
+				}
+			}
+		} finally {
+			mpRecord.release();
+			trigger.release();
+		}
+		if(impRec < numTests) return new TestResult("canceled.");
+
+		TestResult result = new TestResult(lValues, lValuesNorm, bufferSizeInSamples, 16, sampleRateInHz);
+		result.usedApi = trigger.getApi();
+		result.addComment(String.format("Average duration of the trigger call: %.3fms\n", triggerNanos / 1e6 / numTests));
+		//the bootstrap intervals are calculated here, not on the UI thread
+		result.getRobustSummary();
+		result.getRobustNormalizedSummary();
+		return result;
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tasks;
+
+import java.util.concurrent.locks.LockSupport;
+
+import zee.audiobenchmark.FragmentOpenSL;
+import zee.audiobenchmark.analysis.WakeupReport;
+import zee.audiobenchmark.datatypes.SystemParameters;
+import zee.audiobenchmark.datatypes.TestResult;
+import zee.audiobenchmark.interfaces.AsyncResponse;
+import android.os.AsyncTask;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Scheduling wake-up latency (cyclictest style) at the buffer period of the selected configuration.
+ * For every priority, threads sleep with LockSupport.parkNanos and then natively with clock_nanosleep,
+ * the oversleep is recorded in a histogram.
+ * Executed in an asynchronous thread
+ */
+public class WakeupLatencyTest extends AsyncTask<SystemParameters, Void, TestResult>{
+
+	static String LOG_TAG = "WakeupLatencyTest";
+
+	//response to the class that started this thread
+	public AsyncResponse delegate=null;
+	@Override
+	protected void onPostExecute(TestResult result) {
+		delegate.processFinish(result);
+	}
+
+	/*
+	 * Sleeps with absolute deadlines one period apart, the histogram is only
+	 * written by this thread and read after join()
+	 */
+	private class Sleeper extends Thread {
+		final long periodNanos;
+		final long endNanos;
+		final int priority;
+		final long binNanos;
+		final long[] bins;
+		long count = 0, sumNanos = 0, maxNanos = 0;
+		boolean prioritySet = false;
+
+		Sleeper(long periodNanos, long endNanos, int priority, WakeupReport report) {
+			super("Sleeper nice " + priority);
+			this.periodNanos = periodNanos;
+			this.endNanos = endNanos;
+			this.priority = priority;
+			binNanos = report.binMicros * 1000l;
+			bins = new long[report.numBins];
+		}
+
+		@Override
+		public void run() {
+			try {
+				Process.setThreadPriority(priority);
+				prioritySet = true;
+			} catch (Exception e) {
+				Log.w(LOG_TAG, "Priority " + priority + " not allowed: " + e.getLocalizedMessage());
+			}
+			long next = System.nanoTime() + periodNanos;
+			while(next < endNanos && !isCancelled()) {
+				//parkNanos may return early, only the deadline counts
+				long now = System.nanoTime();
+				while(now < next) {
+					LockSupport.parkNanos(next - now);
+					now = System.nanoTime();
+				}
+				long late = now - next;
+				bins[(int) Math.min(late / binNanos, bins.length - 1)]++;
+				count++;
+				sumNanos += late;
+				if(late > maxNanos) maxNanos = late;
+
+				//missed periods are skipped, as an audio callback would be late only once
+				next += periodNanos;
+				if(late > periodNanos) next += (late / periodNanos) * periodNanos;
+			}
+		}
+	}
+
+	private void runJava(WakeupReport report, int priority) {
+		long periodNanos = report.periodMicros * 1000l;
+		long end = System.nanoTime() + report.seconds * 1000000000l;
+		Sleeper[] sleepers = new Sleeper[report.threads];
+		for(int i=0; i<sleepers.length; i++) {
+			sleepers[i] = new Sleeper(periodNanos, end, priority, report);
+			sleepers[i].start();
+		}
+
+		long[] bins = new long[report.numBins];
+		long count = 0, sum = 0, max = 0;
+		int prioritySet = 0;
+		//the sleepers end with the task, their histograms are only read after they ended
+		boolean interrupted = false;
+		for(Sleeper s : sleepers) {
+			while(s.isAlive()) {
+				try {
+					s.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+		for(Sleeper s : sleepers) {
+			for(int b=0; b<bins.length; b++) {
+				bins[b] += s.bins[b];
+			}
+			count += s.count;
+			sum += s.sumNanos;
+			max = Math.max(max, s.maxNanos);
+			if(s.prioritySet) prioritySet++;
+		}
+		report.add(WakeupReport.Method.parkNanos, priority, bins, count, sum, max, prioritySet);
+	}
+
+	private void runNative(WakeupReport report, int priority) {
+		long[] bins = new long[report.numBins];
+		long[] stats = new long[4];
+		if(!FragmentOpenSL.runWakeupTest(report.threads, report.periodMicros, report.seconds, priority, report.binMicros, bins, stats)) {
+			Log.w(LOG_TAG, "Native wake-up test could not start all threads");
+		}
+		report.add(WakeupReport.Method.clockNanosleep, priority, bins, stats[0], stats[1], stats[2], (int) stats[3]);
+	}
+
+	@Override
+	protected TestResult doInBackground(SystemParameters... params) {
+		int bufferSizeInSamples = Integer.parseInt(params[0].selectedBufferSize);
+		WakeupReport report = new WakeupReport(bufferSizeInSamples, params[0].sampleRate, params[0].wakeupThreads, params[0].wakeupSeconds);
+
+		for(int priority : SystemParameters.wakeupPriorities) {
+			if(isCancelled()) break;
+			runJava(report, priority);
+			if(isCancelled()) break;
+			runNative(report, priority);
+			Log.i(LOG_TAG, report.getFormatedOutput());
+		}
+		//not bound to an audio API
+		return new TestResult(report, TestResult.testType.wakeupLatency, null, report.bufferSizeInSamples, report.sampleRateInHz);
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import zee.audiobenchmark.analysis.ImpulseDetector;
+import zee.audiobenchmark.analysis.RobustStatistics;
+import zee.audiobenchmark.datatypes.TestResult;
+
+/**
+ * Offline analysis of captured sessions (see tasks/CaptureSession), runs on a plain JVM.
+ * Every <name>.properties sidecar in a directory is paired with <name>-in.wav and
+ * <name>-out.wav, the impulses are detected in both streams and the latencies
+ * are evaluated with the same statistics as the online test.
+ * Sessions whose capture dropped blocks are rejected, the streams are not aligned.
+ * Sessions stored without the drop counts are analysed and flagged.
+ * Sessions are analysed in parallel, one task per session.
+ *
+ * Usage: BatchAnalyser <directory> [-threads n] [-threshold value]
+ */
+public class BatchAnalyser {
+
+	static final String suffixIn = "-in.wav";
+	static final String suffixOut = "-out.wav";
+	static final String suffixConfig = ".properties";
+	//see tasks/CaptureSession
+	static final String keyDroppedIn = "droppedBlocksIn";
+	static final String keyDroppedOut = "droppedBlocksOut";
+
+	//ignored frames after a detection, relative to the sample rate
+	static final int holdoffDivider = 10;
+
+	private final int threshold; //<= 0: use the threshold of the sidecar
+
+	public BatchAnalyser(int threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Result of a single session
+	 */
+	public static class Session {
+		public final String name;
+		public final Properties properties = new Properties();
+		public TestResult result;
+		public long emitted, received;
+		public double exactMedianMs;
+
+		Session(String name) {
+			this.name = name;
+		}
+
+		public String getFormatedOutput() {
+			String format = "=== " + name + " ===\n";
+			format += "Device: " + properties.getProperty("manufacturer") + " " + properties.getProperty("model") 
+					+ " (SDK " + properties.getProperty("sdk") + ")\n";
+			format += "Impulses emitted: " + emitted + ", received: " + received + "\n";
+			if(result.valid) format += String.format("Sample accurate median latency: %.2fms\n", exactMedianMs);
+			format += result.getFormatedTestOutput();
+			return format;
+		}
+	}
+
+	/**
+	 * Analyses a single session, called from the worker threads
+	 */
+	public Session analyse(File dir, String name) throws IOException {
+		Session session = new Session(name);
+		InputStream is = new FileInputStream(new File(dir, name + suffixConfig));
+		try {
+			session.properties.load(is);
+		} finally {
+			is.close();
+		}
+		int bufferSize = Integer.parseInt(session.properties.getProperty("bufferSize"));
+		int sessionThreshold = threshold > 0 ? threshold : Integer.parseInt(session.properties.getProperty("threshold"));
+		String droppedIn = session.properties.getProperty(keyDroppedIn);
+		String droppedOut = session.properties.getProperty(keyDroppedOut);
+		boolean dropsKnown = droppedIn != null && droppedOut != null;
+		if(dropsKnown && (Long.parseLong(droppedIn) > 0 || Long.parseLong(droppedOut) > 0)) {
+			session.result = new TestResult("Capture dropped blocks (in: " + droppedIn + ", out: " + droppedOut 
+					+ "), the streams are not aligned.\n");
+			return session;
+		}
+
+		WavReader in = new WavReader(new File(dir, name + suffixIn));
+		WavReader out = null;
+		try {
+			out = new WavReader(new File(dir, name + suffixOut));
+			int sampleRateInHz = in.getSampleRate();
+			if(out.getSampleRate() != sampleRateInHz) throw new IOException(name + ": sample rates of the streams differ");
+
+			long[] emitted = detect(out, sessionThreshold, sampleRateInHz / holdoffDivider);
+			long[] received = detect(in, sessionThreshold, sampleRateInHz / holdoffDivider);
+			long[] emittedAt = new long[emitted.length];
+			long[] receivedAt = new long[emitted.length];
+			int n = ImpulseDetector.match(emitted, received, emittedAt, receivedAt);
+			session.emitted = emitted.length;
+			session.received = n;
+
+			if(n == 0) {
+				session.result = new TestResult("No impulses received, check the threshold (" + sessionThreshold + ").\n");
+				return session;
+			}
+
+			//same scale as the online test: elapsed time until the block containing 
+			//the impulse has been read, normalized to the position in that block
+			long[] results = new long[n];
+			long[] normalized = new long[n];
+			double[] exactMs = new double[n];
+			for(int i=0; i<n; i++) {
+				long blockEnd = (receivedAt[i] / bufferSize + 1) * bufferSize;
+				int pos = (int) (receivedAt[i] % bufferSize);
+				results[i] = (blockEnd - emittedAt[i]) * 1000 / sampleRateInHz;
+				normalized[i] = results[i] + pos / (sampleRateInHz/1000);
+				exactMs[i] = (receivedAt[i] - emittedAt[i]) * 1000.0 / sampleRateInHz;
+			}
+			Arrays.sort(exactMs);
+			session.exactMedianMs = RobustStatistics.medianSorted(exactMs);
+
+			TestResult result = new TestResult(results, normalized, bufferSize, 16, sampleRateInHz);
+			if("OpenSL".equals(session.properties.getProperty("api"))) result.usedApi = TestResult.apiType.openSL;
+			if(!dropsKnown) result.addComment("Dropped blocks not recorded, the alignment of the streams is not verified.\n");
+			result.getRobustSummary();
+			result.getRobustNormalizedSummary();
+			session.result = result;
+		} finally {
+			in.close();
+			if(out != null) out.close();
+		}
+		return session;
+	}
+
+	private static long[] detect(WavReader wav, int threshold, long holdoffFrames) throws IOException {
+		ImpulseDetector detector = new ImpulseDetector(threshold, holdoffFrames);
+		for(long first=0; first<wav.getFrames(); first+=WavReader.segmentFrames) {
+			ShortBuffer segment = wav.map(first);
+			detector.process(segment, first);
+		}
+		return detector.getPositions();
+	}
+
+	/**
+	 * Names of all complete sessions in a directory, sorted
+	 */
+	public static String[] findSessions(final File dir) {
+		String[] configs = dir.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File d, String filename) {
+				if(!filename.endsWith(suffixConfig)) return false;
+				String name = filename.substring(0, filename.length() - suffixConfig.length());
+				return new File(d, name + suffixIn).isFile() && new File(d, name + suffixOut).isFile();
+			}
+		});
+		if(configs == null) return new String[0];
+		for(int i=0; i<configs.length; i++) {
+			configs[i] = configs[i].substring(0, configs[i].length() - suffixConfig.length());
+		}
+		Arrays.sort(configs);
+		return configs;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		if(args.length < 1) {
+			System.err.println("Usage: BatchAnalyser <directory> [-threads n] [-threshold value]");
+			System.exit(1);
+		}
+		final File dir = new File(args[0]);
+		int threads = Runtime.getRuntime().availableProcessors();
+		int threshold = 0;
+		for(int i=1; i+1<args.length; i+=2) {
+			if(args[i].equals("-threads")) threads = Integer.parseInt(args[i+1]);
+			else if(args[i].equals("-threshold")) threshold = Integer.parseInt(args[i+1]);
+		}
+
+		final BatchAnalyser analyser = new BatchAnalyser(threshold);
+		String[] sessions = findSessions(dir);
+		System.out.println("Analysing " + sessions.length + " sessions in " + dir + " with " + threads + " threads");
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Session>> results = new ArrayList<Future<Session>>(sessions.length);
+		for(final String name : sessions) {
+			results.add(pool.submit(new Callable<Session>() {
+				@Override
+				public Session call() throws Exception {
+					return analyser.analyse(dir, name);
+				}
+			}));
+		}
+		pool.shutdown();
+
+		//printed in order of the session names
+		int failed = 0;
+		for(int i=0; i<sessions.length; i++) {
+			try {
+				System.out.println(results.get(i).get().getFormatedOutput());
+			} catch (ExecutionException e) {
+				failed++;
+				System.out.println("=== " + sessions[i] + " ===\nFailed: " + e.getCause());
+			}
+		}
+		System.out.println("Done, " + (sessions.length - failed) + " analysed, " + failed + " failed.");
+	}
+}
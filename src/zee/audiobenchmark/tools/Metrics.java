@@ -0,0 +1,259 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tools;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import zee.audiobenchmark.interfaces.MetricsSource;
+
+/**
+ * Process wide registry of counters, gauges and histograms.
+ * All updates are lock-free, metrics are looked up once and kept in static fields:
+ * 	static final Metrics.Counter reads = Metrics.counter("audiorecord.reads");
+ * Snapshots only read the values and can be polled once per second.
+ */
+public final class Metrics {
+
+	public static class Counter {
+		private final AtomicLong value = new AtomicLong();
+
+		public void inc() {
+			value.incrementAndGet();
+		}
+
+		public void add(long n) {
+			value.addAndGet(n);
+		}
+
+		public long get() {
+			return value.get();
+		}
+
+		void reset() {
+			value.set(0);
+		}
+	}
+
+	public static class Gauge {
+		private volatile long value;
+
+		public void set(long value) {
+			this.value = value;
+		}
+
+		public long get() {
+			return value;
+		}
+	}
+
+	/**
+	 * Power of two buckets, bucket b counts values in [2^(b-1), 2^b), bucket 0 values <= 0
+	 */
+	public static class Histogram {
+		public static final int buckets = 64;
+
+		private final AtomicLongArray counts = new AtomicLongArray(buckets);
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+		public void record(long value) {
+			counts.incrementAndGet(value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value));
+			sum.addAndGet(value);
+			long m = max.get();
+			while(value > m && !max.compareAndSet(m, value)) {
+				m = max.get();
+			}
+		}
+
+		public HistogramSnapshot snapshot() {
+			long[] c = new long[buckets];
+			for(int i=0; i<buckets; i++) {
+				c[i] = counts.get(i);
+			}
+			return new HistogramSnapshot(c, sum.get(), max.get());
+		}
+
+		void reset() {
+			for(int i=0; i<buckets; i++) {
+				counts.set(i, 0);
+			}
+			sum.set(0);
+			max.set(Long.MIN_VALUE);
+		}
+	}
+
+	public static class HistogramSnapshot {
+		public final long[] buckets;
+		public final long count;
+		public final long sum;
+		public final long max;
+
+		public HistogramSnapshot(long[] buckets, long sum, long max) {
+			this.buckets = buckets;
+			long n = 0;
+			for(long b : buckets) {
+				n += b;
+			}
+			this.count = n;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		/**
+		 * Upper bound of the bucket containing the quantile
+		 * @param q 0..1
+		 */
+		public long getQuantileBound(double q) {
+			if(count == 0) return 0;
+			long target = (long) Math.ceil(q * count);
+			long cumulative = 0;
+			for(int b=0; b<buckets.length; b++) {
+				cumulative += buckets[b];
+				if(cumulative >= target && cumulative > 0) {
+					return b == 0 ? 0 : Math.min(max, b >= 63 ? Long.MAX_VALUE : (1l << b) - 1);
+				}
+			}
+			return max;
+		}
+
+		public double getMean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+	}
+
+	/**
+	 * Values of all metrics at one point in time, sorted by name
+	 */
+	public static class Snapshot {
+		public final long timeNanos = System.nanoTime();
+		public final SortedMap<String, Long> counters = new TreeMap<String, Long>();
+		public final SortedMap<String, Long> gauges = new TreeMap<String, Long>();
+		public final SortedMap<String, HistogramSnapshot> histograms = new TreeMap<String, HistogramSnapshot>();
+
+		/**
+		 * Counter increase since an earlier snapshot
+		 */
+		public long getDelta(Snapshot earlier, String counter) {
+			Long now = counters.get(counter);
+			Long then = earlier == null ? null : earlier.counters.get(counter);
+			return (now == null ? 0 : now) - (then == null ? 0 : then);
+		}
+
+		public String getFormatedOutput() {
+			String format = "";
+			for(Map.Entry<String, Long> e : counters.entrySet()) {
+				format += e.getKey() + ": " + e.getValue() + "\n";
+			}
+			for(Map.Entry<String, Long> e : gauges.entrySet()) {
+				format += e.getKey() + ": " + e.getValue() + "\n";
+			}
+			for(Map.Entry<String, HistogramSnapshot> e : histograms.entrySet()) {
+				HistogramSnapshot h = e.getValue();
+				if(h.count == 0) continue;
+				format += String.format("%s: n=%d, mean=%.1f, p50<=%d, p99<=%d, max=%d\n", e.getKey(), h.count, h.getMean(),
+						h.getQuantileBound(0.5), h.getQuantileBound(0.99), h.max);
+			}
+			return format;
+		}
+	}
+
+	private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+	private static final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+	private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+	private static final CopyOnWriteArrayList<MetricsSource> sources = new CopyOnWriteArrayList<MetricsSource>();
+
+	private Metrics() {
+	}
+
+	public static Counter counter(String name) {
+		Counter c = counters.get(name);
+		if(c == null) {
+			Counter created = new Counter();
+			c = counters.putIfAbsent(name, created);
+			if(c == null) c = created;
+		}
+		return c;
+	}
+
+	public static Gauge gauge(String name) {
+		Gauge g = gauges.get(name);
+		if(g == null) {
+			Gauge created = new Gauge();
+			g = gauges.putIfAbsent(name, created);
+			if(g == null) g = created;
+		}
+		return g;
+	}
+
+	public static Histogram histogram(String name) {
+		Histogram h = histograms.get(name);
+		if(h == null) {
+			Histogram created = new Histogram();
+			h = histograms.putIfAbsent(name, created);
+			if(h == null) h = created;
+		}
+		return h;
+	}
+
+	/**
+	 * Additional metrics outside of the registry, e.g. the counters of the native engine
+	 */
+	public static void addSource(MetricsSource source) {
+		sources.addIfAbsent(source);
+	}
+
+	public static void removeSource(MetricsSource source) {
+		sources.remove(source);
+	}
+
+	public static Snapshot snapshot() {
+		Snapshot s = new Snapshot();
+		for(Map.Entry<String, Counter> e : counters.entrySet()) {
+			s.counters.put(e.getKey(), e.getValue().get());
+		}
+		for(Map.Entry<String, Gauge> e : gauges.entrySet()) {
+			s.gauges.put(e.getKey(), e.getValue().get());
+		}
+		for(Map.Entry<String, Histogram> e : histograms.entrySet()) {
+			s.histograms.put(e.getKey(), e.getValue().snapshot());
+		}
+		for(MetricsSource source : sources) {
+			source.addTo(s);
+		}
+		return s;
+	}
+
+	/**
+	 * Clears counters and histograms, gauges keep their last value.
+	 * Updates running at the same time may be lost.
+	 */
+	public static void reset() {
+		for(Counter c : counters.values()) {
+			c.reset();
+		}
+		for(Histogram h : histograms.values()) {
+			h.reset();
+		}
+	}
+}
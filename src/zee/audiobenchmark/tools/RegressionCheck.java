@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tools;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import zee.audiobenchmark.analysis.RegressionGate;
+import zee.audiobenchmark.datatypes.LatencySeries;
+import zee.audiobenchmark.datatypes.ResultRecord;
+
+/**
+ * Regression gate for stored latency runs (see analysis/RegressionGate), runs on a plain JVM.
+ * Either two runs are compared, or the stored history of any number of devices:
+ * runs are grouped by device (manufacturer, model) and configuration (API, sample rate,
+ * buffer size), the latest run of each group is compared to the run before.
+ * The SDK level is not part of the group, so a run after a firmware update is compared
+ * to the last run before it.
+ * A run is given by its .result or .samples file, both are stored by tasks/ResultStore.
+ * Exits with 2 if a regression was found.
+ *
+ * Usage: RegressionCheck <baseline> <candidate> [-alpha a] [-minEffect ms]
+ *        RegressionCheck -history <directory>... [-alpha a] [-minEffect ms]
+ */
+public class RegressionCheck {
+
+	private static class Run {
+		final File result;
+		final ResultRecord record;
+
+		Run(File result, ResultRecord record) {
+			this.result = result;
+			this.record = record;
+		}
+
+		String getGroup() {
+			return record.manufacturer + " " + record.model + ", " + record.api + " "
+					+ record.sampleRateInHz + "Hz " + record.bufferSizeInSamples + "smp";
+		}
+	}
+
+	private static final Comparator<Run> byCreated = new Comparator<Run>() {
+		@Override
+		public int compare(Run a, Run b) {
+			return a.record.created < b.record.created ? -1 : a.record.created > b.record.created ? 1 : 0;
+		}
+	};
+
+	private RegressionCheck() {
+	}
+
+	/**
+	 * Latencies in ms of a run, given by its result or samples file
+	 */
+	public static double[] readLatencies(File file) throws IOException {
+		String path = file.getPath();
+		if(path.endsWith(ResultRecord.suffix)) {
+			file = new File(path.substring(0, path.length() - ResultRecord.suffix.length()) + ResultRecord.samplesSuffix);
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			return RegressionGate.toMs(LatencySeries.read(in));
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void collect(File dir, List<Run> runs) {
+		File[] entries = dir.listFiles();
+		if(entries == null) return;
+		for(File f : entries) {
+			if(f.isDirectory()) {
+				collect(f, runs);
+			} else if(f.getName().endsWith(ResultRecord.suffix)) {
+				try {
+					runs.add(new Run(f, ResultsIndex.read(f)));
+				} catch (IOException e) {
+					System.err.println("Skipping " + f + ": " + e.getLocalizedMessage());
+				} catch (NumberFormatException e) {
+					System.err.println("Skipping " + f + ": " + e.getLocalizedMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compares the latest run of each group to the run before
+	 * @return number of groups with a regression
+	 */
+	static int checkHistory(List<File> dirs, double alpha, double minEffectMs) {
+		List<Run> runs = new ArrayList<Run>();
+		for(File d : dirs) collect(d, runs);
+		Collections.sort(runs, byCreated);
+		Map<String, List<Run>> groups = new LinkedHashMap<String, List<Run>>();
+		for(Run r : runs) {
+			List<Run> g = groups.get(r.getGroup());
+			if(g == null) {
+				g = new ArrayList<Run>();
+				groups.put(r.getGroup(), g);
+			}
+			g.add(r);
+		}
+
+		int regressions = 0;
+		for(Map.Entry<String, List<Run>> e : groups.entrySet()) {
+			List<Run> g = e.getValue();
+			if(g.size() < 2) continue;
+			Run baseline = g.get(g.size() - 2);
+			Run candidate = g.get(g.size() - 1);
+			System.out.println("-- " + e.getKey() + ": SDK " + baseline.record.sdkVersion + " -> " + candidate.record.sdkVersion);
+			System.out.println(baseline.result.getName() + " -> " + candidate.result.getName());
+			try {
+				RegressionGate gate = new RegressionGate(readLatencies(baseline.result), readLatencies(candidate.result), alpha, minEffectMs);
+				System.out.print(gate.getFormatedOutput());
+				if(!gate.passed) regressions++;
+			} catch (IOException ex) {
+				System.out.println("No latencies stored: " + ex.getLocalizedMessage());
+			} catch (IllegalArgumentException ex) {
+				System.out.println("Not comparable: " + ex.getLocalizedMessage());
+			}
+		}
+		return regressions;
+	}
+
+	public static void main(String[] args) throws IOException {
+		double alpha = RegressionGate.defaultAlpha;
+		double minEffectMs = RegressionGate.defaultMinEffectMs;
+		boolean history = false;
+		List<String> operands = new ArrayList<String>();
+		for(int i=0; i<args.length; i++) {
+			if(args[i].equals("-alpha") && i+1 < args.length) alpha = Double.parseDouble(args[++i]);
+			else if(args[i].equals("-minEffect") && i+1 < args.length) minEffectMs = Double.parseDouble(args[++i]);
+			else if(args[i].equals("-history")) history = true;
+			else operands.add(args[i]);
+		}
+
+		if(history && operands.size() > 0) {
+			List<File> dirs = new ArrayList<File>();
+			for(String d : operands) dirs.add(new File(d));
+			System.exit(checkHistory(dirs, alpha, minEffectMs) > 0 ? 2 : 0);
+		} else if(!history && operands.size() == 2) {
+			RegressionGate gate = new RegressionGate(readLatencies(new File(operands.get(0))),
+					readLatencies(new File(operands.get(1))), alpha, minEffectMs);
+			System.out.print(gate.getFormatedOutput());
+			System.exit(gate.passed ? 0 : 2);
+		} else {
+			System.err.println("Usage: RegressionCheck <baseline> <candidate> [-alpha a] [-minEffect ms]");
+			System.err.println("       RegressionCheck -history <directory>... [-alpha a] [-minEffect ms]");
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import zee.audiobenchmark.datatypes.ResultRecord;
+
+/**
+ * Index of the latency runs of many devices, runs on a plain JVM.
+ * The result files (see datatypes/ResultRecord) are read once and stored column-wise
+ * in a single binary index file, queries are answered from the index.
+ * Runs are grouped by device (manufacturer, model, SDK level) and configuration
+ * (API, sample rate, buffer size), a group is summarized by the median of its runs.
+ *
+ * Usage: ResultsIndex <index> add <directory>... [-threads n]
+ *        ResultsIndex <index> list|best [-api name] [-minRuns n]
+ *        ResultsIndex <index> below <p99 ms> [-api name] [-minRuns n]
+ */
+public class ResultsIndex {
+
+	static final int magic = 0x41424958; //"ABIX"
+	static final int version = 1;
+
+	//strings of the runs, stored once
+	private final List<String> strings = new ArrayList<String>();
+	private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+
+	//one row per run
+	private int size = 0;
+	private int[] manufacturer = new int[0];
+	private int[] model = new int[0];
+	private int[] sdk = new int[0];
+	private int[] api = new int[0];
+	private int[] sampleRate = new int[0];
+	private int[] bufferSize = new int[0];
+	private int[] tests = new int[0];
+	private int[] outliers = new int[0];
+	private long[] created = new long[0];
+	private float[] median = new float[0];
+	private float[] p99 = new float[0];
+	private float[] trimmedMean = new float[0];
+
+	//ingested files and their modification time, a changed file replaces its row
+	private final Map<String, Integer> fileRows = new HashMap<String, Integer>();
+	private long[] modified = new long[0];
+	private String[] paths = new String[0];
+
+	//groups of runs, rebuilt after changes
+	private List<Group> groups = null;
+
+	/**
+	 * Runs of one device and configuration
+	 */
+	public static class Group {
+		public final String manufacturer, model, api;
+		public final int sdkVersion, sampleRateInHz, bufferSizeInSamples;
+		public int runs;
+		public long tests;
+		public double medianMs; //median of the run medians
+		public double p99Ms; //median of the run p99s
+		public double worstP99Ms;
+		private int[] rows = new int[4];
+
+		Group(String manufacturer, String model, int sdkVersion, String api, int sampleRateInHz, int bufferSizeInSamples) {
+			this.manufacturer = manufacturer;
+			this.model = model;
+			this.sdkVersion = sdkVersion;
+			this.api = api;
+			this.sampleRateInHz = sampleRateInHz;
+			this.bufferSizeInSamples = bufferSizeInSamples;
+		}
+
+		public String getDevice() {
+			return manufacturer + " " + model + " (SDK " + sdkVersion + ")";
+		}
+
+		public String getFormatedOutput() {
+			return String.format("%s %s %dHz/%dsmp: %d runs (%d tests), median %.2fms, p99 %.2fms (worst %.2fms)",
+					getDevice(), api, sampleRateInHz, bufferSizeInSamples, runs, tests, medianMs, p99Ms, worstP99Ms);
+		}
+	}
+
+	private static final Comparator<Group> byMedian = new Comparator<Group>() {
+		@Override
+		public int compare(Group a, Group b) {
+			int c = Double.compare(a.medianMs, b.medianMs);
+			return c != 0 ? c : Double.compare(a.p99Ms, b.p99Ms);
+		}
+	};
+
+	private static final Comparator<Group> byP99 = new Comparator<Group>() {
+		@Override
+		public int compare(Group a, Group b) {
+			int c = Double.compare(a.p99Ms, b.p99Ms);
+			return c != 0 ? c : Double.compare(a.medianMs, b.medianMs);
+		}
+	};
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds a run, replaces the row of a file that has been ingested before
+	 * @param path source file, null if the run is not backed by a file
+	 */
+	public synchronized void add(ResultRecord r, String path, long lastModified) {
+		Integer existing = path != null ? fileRows.get(path) : null;
+		int row;
+		if(existing != null) {
+			row = existing;
+		} else {
+			ensureCapacity(size + 1);
+			row = size++;
+			if(path != null) fileRows.put(path, row);
+		}
+		manufacturer[row] = intern(r.manufacturer);
+		model[row] = intern(r.model);
+		sdk[row] = r.sdkVersion;
+		api[row] = intern(r.api);
+		sampleRate[row] = r.sampleRateInHz;
+		bufferSize[row] = r.bufferSizeInSamples;
+		tests[row] = r.numberOfTests;
+		outliers[row] = r.outliers;
+		created[row] = r.created;
+		median[row] = (float) r.medianMs;
+		p99[row] = (float) r.p99Ms;
+		trimmedMean[row] = (float) r.trimmedMeanMs;
+		modified[row] = lastModified;
+		paths[row] = path;
+		groups = null;
+	}
+
+	/**
+	 * @return true if the file is new or has changed since it was ingested
+	 */
+	public synchronized boolean needsUpdate(File file) {
+		Integer row = fileRows.get(file.getPath());
+		return row == null || modified[row] != file.lastModified();
+	}
+
+	private int intern(String s) {
+		Integer id = stringIds.get(s);
+		if(id == null) {
+			id = strings.size();
+			strings.add(s);
+			stringIds.put(s, id);
+		}
+		return id;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if(capacity <= manufacturer.length) return;
+		int n = Math.max(capacity, Math.max(1024, manufacturer.length * 2));
+		manufacturer = Arrays.copyOf(manufacturer, n);
+		model = Arrays.copyOf(model, n);
+		sdk = Arrays.copyOf(sdk, n);
+		api = Arrays.copyOf(api, n);
+		sampleRate = Arrays.copyOf(sampleRate, n);
+		bufferSize = Arrays.copyOf(bufferSize, n);
+		tests = Arrays.copyOf(tests, n);
+		outliers = Arrays.copyOf(outliers, n);
+		created = Arrays.copyOf(created, n);
+		median = Arrays.copyOf(median, n);
+		p99 = Arrays.copyOf(p99, n);
+		trimmedMean = Arrays.copyOf(trimmedMean, n);
+		modified = Arrays.copyOf(modified, n);
+		paths = Arrays.copyOf(paths, n);
+	}
+
+	/**
+	 * All groups, in order of the first run
+	 */
+	public synchronized List<Group> getGroups() {
+		if(groups != null) return groups;
+		Map<List<Integer>, Group> byKey = new LinkedHashMap<List<Integer>, Group>();
+		for(int row=0; row<size; row++) {
+			List<Integer> key = Arrays.asList(manufacturer[row], model[row], sdk[row], api[row], sampleRate[row], bufferSize[row]);
+			Group g = byKey.get(key);
+			if(g == null) {
+				g = new Group(strings.get(manufacturer[row]), strings.get(model[row]), sdk[row],
+						strings.get(api[row]), sampleRate[row], bufferSize[row]);
+				byKey.put(key, g);
+			}
+			if(g.runs == g.rows.length) g.rows = Arrays.copyOf(g.rows, g.runs * 2);
+			g.rows[g.runs++] = row;
+		}
+		for(Group g : byKey.values()) {
+			double[] medians = new double[g.runs];
+			double[] p99s = new double[g.runs];
+			for(int i=0; i<g.runs; i++) {
+				int row = g.rows[i];
+				medians[i] = median[row];
+				p99s[i] = p99[row];
+				g.tests += tests[row];
+				g.worstP99Ms = Math.max(g.worstP99Ms, p99[row]);
+			}
+			g.medianMs = medianOf(medians);
+			g.p99Ms = medianOf(p99s);
+		}
+		groups = Collections.unmodifiableList(new ArrayList<Group>(byKey.values()));
+		return groups;
+	}
+
+	private static double medianOf(double[] values) {
+		Arrays.sort(values);
+		int n = values.length;
+		return (n & 1) == 1 ? values[n/2] : (values[n/2 - 1] + values[n/2]) / 2;
+	}
+
+	/**
+	 * @param apiName null for all APIs
+	 */
+	public List<Group> select(String apiName, int minRuns) {
+		List<Group> selected = new ArrayList<Group>();
+		for(Group g : getGroups()) {
+			if(g.runs >= minRuns && (apiName == null || g.api.equalsIgnoreCase(apiName))) selected.add(g);
+		}
+		return selected;
+	}
+
+	/**
+	 * The configuration with the lowest median latency of each device, ascending
+	 */
+	public List<Group> bestPerDevice(String apiName, int minRuns) {
+		return bestPerDevice(select(apiName, minRuns), byMedian);
+	}
+
+	/**
+	 * Devices with a configuration whose p99 is below the limit,
+	 * the configuration with the lowest p99 of each device, ascending
+	 */
+	public List<Group> p99Below(double limitMs, String apiName, int minRuns) {
+		List<Group> below = new ArrayList<Group>();
+		for(Group g : select(apiName, minRuns)) {
+			if(g.p99Ms < limitMs) below.add(g);
+		}
+		return bestPerDevice(below, byP99);
+	}
+
+	private static List<Group> bestPerDevice(List<Group> candidates, Comparator<Group> order) {
+		Map<String, Group> best = new HashMap<String, Group>();
+		for(Group g : candidates) {
+			Group current = best.get(g.getDevice());
+			if(current == null || order.compare(g, current) < 0) best.put(g.getDevice(), g);
+		}
+		List<Group> result = new ArrayList<Group>(best.values());
+		Collections.sort(result, order);
+		return result;
+	}
+
+	/**
+	 * Reads all new or changed result files below the directories in parallel
+	 * @return number of added runs
+	 */
+	public int ingest(List<File> dirs, int threads) throws InterruptedException {
+		List<File> files = new ArrayList<File>();
+		for(File dir : dirs) collect(dir, files);
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<ResultRecord>> records = new ArrayList<Future<ResultRecord>>(files.size());
+		for(final File file : files) {
+			records.add(pool.submit(new Callable<ResultRecord>() {
+				@Override
+				public ResultRecord call() throws Exception {
+					return read(file);
+				}
+			}));
+		}
+		pool.shutdown();
+
+		int added = 0;
+		for(int i=0; i<files.size(); i++) {
+			try {
+				add(records.get(i).get(), files.get(i).getPath(), files.get(i).lastModified());
+				added++;
+			} catch (ExecutionException e) {
+				System.err.println(files.get(i) + ": " + e.getCause());
+			}
+		}
+		return added;
+	}
+
+	private void collect(File dir, List<File> files) {
+		File[] entries = dir.listFiles();
+		if(entries == null) return;
+		Arrays.sort(entries);
+		for(File f : entries) {
+			if(f.isDirectory()) collect(f, files);
+			else if(f.getName().endsWith(ResultRecord.suffix) && needsUpdate(f)) files.add(f);
+		}
+	}
+
+	static ResultRecord read(File file) throws IOException {
+		Properties p = new Properties();
+		InputStream is = new FileInputStream(file);
+		try {
+			p.load(is);
+		} finally {
+			is.close();
+		}
+		return ResultRecord.fromProperties(p);
+	}
+
+	/**
+	 * Writes the index, replaces the file when complete
+	 */
+	public synchronized void save(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(magic);
+			out.writeInt(version);
+			out.writeInt(strings.size());
+			for(String s : strings) out.writeUTF(s);
+			out.writeInt(size);
+			for(int i=0; i<size; i++) {
+				out.writeInt(manufacturer[i]);
+				out.writeInt(model[i]);
+				out.writeInt(sdk[i]);
+				out.writeInt(api[i]);
+				out.writeInt(sampleRate[i]);
+				out.writeInt(bufferSize[i]);
+				out.writeInt(tests[i]);
+				out.writeInt(outliers[i]);
+				out.writeLong(created[i]);
+				out.writeFloat(median[i]);
+				out.writeFloat(p99[i]);
+				out.writeFloat(trimmedMean[i]);
+				out.writeLong(modified[i]);
+				out.writeBoolean(paths[i] != null);
+				if(paths[i] != null) out.writeUTF(paths[i]);
+			}
+		} finally {
+			out.close();
+		}
+		if(file.exists() && !file.delete()) throw new IOException("Could not replace " + file);
+		if(!tmp.renameTo(file)) throw new IOException("Could not rename " + tmp);
+	}
+
+	public static ResultsIndex load(File file) throws IOException {
+		ResultsIndex index = new ResultsIndex();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if(in.readInt() != magic || in.readInt() != version) throw new IOException(file + " is not a results index");
+			int numStrings = in.readInt();
+			for(int i=0; i<numStrings; i++) index.intern(in.readUTF());
+			int n = in.readInt();
+			index.ensureCapacity(n);
+			for(int i=0; i<n; i++) {
+				index.manufacturer[i] = in.readInt();
+				index.model[i] = in.readInt();
+				index.sdk[i] = in.readInt();
+				index.api[i] = in.readInt();
+				index.sampleRate[i] = in.readInt();
+				index.bufferSize[i] = in.readInt();
+				index.tests[i] = in.readInt();
+				index.outliers[i] = in.readInt();
+				index.created[i] = in.readLong();
+				index.median[i] = in.readFloat();
+				index.p99[i] = in.readFloat();
+				index.trimmedMean[i] = in.readFloat();
+				index.modified[i] = in.readLong();
+				if(in.readBoolean()) {
+					index.paths[i] = in.readUTF();
+					index.fileRows.put(index.paths[i], i);
+				}
+			}
+			index.size = n;
+		} finally {
+			in.close();
+		}
+		return index;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if(args.length < 2) {
+			System.err.println("Usage: ResultsIndex <index> add <directory>... [-threads n]");
+			System.err.println("       ResultsIndex <index> list|best [-api name] [-minRuns n]");
+			System.err.println("       ResultsIndex <index> below <p99 ms> [-api name] [-minRuns n]");
+			System.exit(1);
+		}
+		File file = new File(args[0]);
+		String command = args[1];
+		ResultsIndex index = file.exists() ? load(file) : new ResultsIndex();
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		String apiName = null;
+		int minRuns = 1;
+		List<String> operands = new ArrayList<String>();
+		for(int i=2; i<args.length; i++) {
+			if(args[i].equals("-threads") && i+1 < args.length) threads = Integer.parseInt(args[++i]);
+			else if(args[i].equals("-api") && i+1 < args.length) apiName = args[++i];
+			else if(args[i].equals("-minRuns") && i+1 < args.length) minRuns = Integer.parseInt(args[++i]);
+			else operands.add(args[i]);
+		}
+
+		if(command.equals("add")) {
+			List<File> dirs = new ArrayList<File>();
+			for(String d : operands) dirs.add(new File(d));
+			long start = System.nanoTime();
+			int added = index.ingest(dirs, threads);
+			index.save(file);
+			System.out.println(String.format("%d runs added in %.1fs, %d runs in %d groups",
+					added, (System.nanoTime() - start) / 1e9, index.size(), index.getGroups().size()));
+		} else if(command.equals("list")) {
+			for(Group g : index.select(apiName, minRuns)) System.out.println(g.getFormatedOutput());
+		} else if(command.equals("best")) {
+			for(Group g : index.bestPerDevice(apiName, minRuns)) System.out.println(g.getFormatedOutput());
+		} else if(command.equals("below") && operands.size() == 1) {
+			for(Group g : index.p99Below(Double.parseDouble(operands.get(0)), apiName, minRuns)) System.out.println(g.getFormatedOutput());
+		} else {
+			System.err.println("Unknown command: " + command);
+			System.exit(1);
+		}
+	}
+}
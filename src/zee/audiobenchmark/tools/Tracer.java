@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tools;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import zee.audiobenchmark.datatypes.TraceRing;
+
+/**
+ * Low overhead spans and instant events of the Java audio paths.
+ * Every thread writes into its own preallocated TraceRing, there is no allocation
+ * and no locking per event. While disabled, an event costs a volatile read.
+ * Usage:
+ * 	long start = Tracer.begin();
+ * 	mpRecord.read(buffer, 0, buffer.length);
+ * 	Tracer.end(Tracer.audioRecordRead, start);
+ */
+public final class Tracer {
+
+	//event names of the Java side, index into javaNames
+	public static final int audioRecordRead = 0;
+	public static final int audioTrackWrite = 1;
+	public static final int impulseEmit = 2;
+	public static final int impulseDetect = 3;
+	public static final int trigger = 4;
+	public static final String[] javaNames = new String[] {
+		"AudioRecord.read", "AudioTrack.write", "impulse emit", "impulse detect", "trigger"
+	};
+
+	//event names of the native callbacks, same order as traceName in trace.h
+	public static final String[] nativeNames = new String[] {
+		"bqPlayerCallback", "bqRecorderCallback", "Enqueue player", "Enqueue recorder", "impulse emit", "impulse detect"
+	};
+
+	//events per thread, 16384 * 20 bytes
+	public static final int ringEvents = 1 << 14;
+
+	private static volatile boolean enabled = false;
+	private static final List<Owned> rings = new CopyOnWriteArrayList<Owned>();
+	private static final ThreadLocal<TraceRing> threadRing = new ThreadLocal<TraceRing>() {
+		@Override
+		protected TraceRing initialValue() {
+			Thread t = Thread.currentThread();
+			TraceRing ring = new TraceRing(ringEvents, t.getId(), t.getName());
+			rings.add(new Owned(ring, t));
+			return ring;
+		}
+	};
+
+	/*
+	 * A ring and its thread, the thread is not kept alive by the tracer
+	 */
+	private static final class Owned {
+		final TraceRing ring;
+		final WeakReference<Thread> thread;
+
+		Owned(TraceRing ring, Thread thread) {
+			this.ring = ring;
+			this.thread = new WeakReference<Thread>(thread);
+		}
+
+		boolean isAlive() {
+			Thread t = thread.get();
+			return t != null && t.isAlive();
+		}
+	}
+
+	private Tracer() {
+	}
+
+	/**
+	 * Clears the rings of all threads, call before the traced threads are started.
+	 * Rings of finished threads are dropped, a new thread per run would leak them otherwise.
+	 */
+	public static void start() {
+		for(Owned owned : rings) {
+			if(owned.isAlive()) {
+				owned.ring.reset();
+			} else {
+				rings.remove(owned);
+			}
+		}
+		enabled = true;
+	}
+
+	public static void stop() {
+		enabled = false;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return start of a span, 0 if tracing is disabled
+	 */
+	public static long begin() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	public static void end(int name, long start) {
+		if(start != 0 && enabled) threadRing.get().write(name, start, System.nanoTime() - start);
+	}
+
+	public static void instant(int name) {
+		if(enabled) threadRing.get().write(name, System.nanoTime(), TraceRing.instant);
+	}
+
+	/**
+	 * Rings of the threads alive at the last start() and of all threads that traced since,
+	 * including those that have finished in the meantime
+	 */
+	public static List<TraceRing> getRings() {
+		List<TraceRing> list = new ArrayList<TraceRing>(rings.size());
+		for(Owned owned : rings) {
+			list.add(owned.ring);
+		}
+		return list;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only access to a mono 16 bit PCM WAV file (as written by CaptureWriter).
+ * The sample data is memory mapped in segments, a single mapping is limited
+ * to 2GB and large archives are never loaded onto the heap.
+ */
+public class WavReader {
+
+	//frames per mapped segment (256MB)
+	public static final int segmentFrames = 1 << 27;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+
+	private int sampleRateInHz;
+	private long dataOffset;
+	private long frames;
+
+	public WavReader(File file) throws IOException {
+		this.file = file;
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		try {
+			parseHeader();
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/*
+	 * Walks the RIFF chunks until the data chunk is found
+	 */
+	private void parseHeader() throws IOException {
+		ByteBuffer chunk = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(chunk, 0);
+		if(chunk.getInt(0) != 0x46464952 || chunk.getInt(8) != 0x45564157) { //"RIFF", "WAVE"
+			throw new IOException(file + " is not a WAV file");
+		}
+		long pos = 12;
+		boolean fmt = false;
+		ByteBuffer format = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+		while(pos + 8 <= channel.size()) {
+			chunk.clear().limit(8);
+			readFully(chunk, pos);
+			int id = chunk.getInt(0);
+			long size = chunk.getInt(4) & 0xffffffffl;
+			pos += 8;
+			if(id == 0x20746d66) { //"fmt "
+				readFully(format, pos);
+				if(format.getShort(0) != 1 || format.getShort(2) != 1 || format.getShort(14) != 16) {
+					throw new IOException(file + ": only mono 16 bit PCM is supported");
+				}
+				sampleRateInHz = format.getInt(4);
+				fmt = true;
+			} else if(id == 0x61746164) { //"data"
+				if(!fmt) throw new IOException(file + ": data chunk before fmt chunk");
+				dataOffset = pos;
+				//a writer that did not finish leaves a size of 0, use the file length then
+				long available = channel.size() - pos;
+				frames = (size == 0 || size > available ? available : size) / 2;
+				return;
+			}
+			pos += size + (size & 1); //chunks are word aligned
+		}
+		throw new IOException(file + ": no data chunk found");
+	}
+
+	private void readFully(ByteBuffer dst, long pos) throws IOException {
+		while(dst.hasRemaining()) {
+			int n = channel.read(dst, pos);
+			if(n < 0) throw new IOException(file + ": unexpected end of file");
+			pos += n;
+		}
+	}
+
+	public int getSampleRate() {
+		return sampleRateInHz;
+	}
+
+	public long getFrames() {
+		return frames;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Maps up to segmentFrames frames starting at firstFrame
+	 * @return samples of the segment, position 0 is firstFrame
+	 */
+	public ShortBuffer map(long firstFrame) throws IOException {
+		long len = Math.min(segmentFrames, frames - firstFrame);
+		if(firstFrame < 0 || len < 0) throw new IndexOutOfBoundsException("frame " + firstFrame);
+		return channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + firstFrame*2, len*2)
+				.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+	}
+
+	public void close() throws IOException {
+		raf.close();
+	}
+}
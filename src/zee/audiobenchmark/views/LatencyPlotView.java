@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014 B.Schmersow
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zee.audiobenchmark.views;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Live plot of latency results: a scatter plot of the latest results (upper half)
+ * and a histogram of all results (lower half).
+ * All drawing objects and point arrays are allocated on creation, 
+ * onDraw() does not allocate.
+ */
+public class LatencyPlotView extends View {
+
+	private static final int maxPoints = 1000; //latest results in the scatter plot
+	private static final int bins = 50; //even, two bins are merged when the range doubles
+	private static final float minRangeMs = 50f;
+
+	private final long[] values = new long[maxPoints]; //ring buffer
+	private final float[] points = new float[2*maxPoints];
+	private final int[] histogram = new int[bins];
+	private final char[] label = new char[16];
+
+	private int count = 0; //values in the ring buffer
+	private int pos = 0;
+	private long total = 0;
+	private float rangeMs = minRangeMs; //upper bound of both axes
+	private int histogramMax = 0;
+
+	private final Paint pointPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint barPaint = new Paint();
+	private final Paint axisPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+	public LatencyPlotView(Context context) {
+		super(context);
+		initPaints();
+	}
+
+	public LatencyPlotView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+		initPaints();
+	}
+
+	private void initPaints() {
+		pointPaint.setColor(Color.CYAN);
+		pointPaint.setStrokeWidth(4f);
+		barPaint.setColor(Color.GRAY);
+		barPaint.setStyle(Paint.Style.FILL);
+		axisPaint.setColor(Color.LTGRAY);
+		axisPaint.setStrokeWidth(1f);
+		axisPaint.setTextSize(20f);
+	}
+
+	/**
+	 * Adds a result in ms, to be called on the UI thread.
+	 * invalidate() has to be called after adding a batch of results.
+	 */
+	public void addValue(long ms) {
+		values[pos] = ms;
+		pos = (pos+1) % maxPoints;
+		if(count < maxPoints) count++;
+		total++;
+
+		//grow the range in steps, the full-run counts are merged pairwise
+		while(ms >= rangeMs) {
+			rangeMs *= 2;
+			mergeBins();
+		}
+		addToHistogram(ms);
+	}
+
+	public void clear() {
+		count = 0;
+		pos = 0;
+		total = 0;
+		rangeMs = minRangeMs;
+		for(int i=0; i<bins; i++) histogram[i] = 0;
+		histogramMax = 0;
+		invalidate();
+	}
+
+	private void addToHistogram(long ms) {
+		int b = (int) (ms / rangeMs * bins);
+		if(b < 0) b = 0;
+		if(b >= bins) b = bins-1;
+		histogram[b]++;
+		if(histogram[b] > histogramMax) histogramMax = histogram[b];
+	}
+
+	/*
+	 * Rebins for the doubled range: bin i covers the former bins 2i and 2i+1,
+	 * exact because all counted values are below the former range
+	 */
+	private void mergeBins() {
+		histogramMax = 0;
+		for(int i=0; i<bins; i++) {
+			histogram[i] = i < bins/2 ? histogram[2*i] + histogram[2*i+1] : 0;
+			if(histogram[i] > histogramMax) histogramMax = histogram[i];
+		}
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		float w = getWidth();
+		float h = getHeight();
+		float half = h/2;
+
+		canvas.drawLine(0, half, w, half, axisPaint);
+		canvas.drawLine(0, h-1, w, h-1, axisPaint);
+
+		//scatter: result index over time, latency upwards
+		int start = count < maxPoints ? 0 : pos;
+		for(int i=0; i<count; i++) {
+			long v = values[(start+i) % maxPoints];
+			points[2*i] = (i + 0.5f) * w / maxPoints;
+			points[2*i+1] = half - Math.min(v / rangeMs, 1f) * (half - 4);
+		}
+		canvas.drawPoints(points, 0, 2*count, pointPaint);
+
+		//histogram of all results of the run
+		if(histogramMax > 0) {
+			float bw = w / bins;
+			for(int i=0; i<bins; i++) {
+				if(histogram[i] == 0) continue;
+				float top = h - (float) histogram[i] / histogramMax * (half - 4);
+				canvas.drawRect(i*bw + 1, top, (i+1)*bw - 1, h, barPaint);
+			}
+		}
+
+		//upper bound of the range in ms
+		int len = formatLabel((int) rangeMs);
+		canvas.drawText(label, 0, len, 4, axisPaint.getTextSize(), axisPaint);
+		canvas.drawText(label, 0, len, w - 3*axisPaint.getTextSize(), h - 4, axisPaint);
+	}
+
+	/*
+	 * Writes "<ms>ms" to the label buffer without creating a String
+	 */
+	private int formatLabel(int ms) {
+		int len = 0;
+		int div = 1;
+		while(ms / div >= 10) div *= 10;
+		for(; div > 0; div /= 10) {
+			label[len++] = (char) ('0' + (ms / div) % 10);
+		}
+		label[len++] = 'm';
+		label[len++] = 's';
+		return len;
+	}
+
+	public long getTotal() {
+		return total;
+	}
+}